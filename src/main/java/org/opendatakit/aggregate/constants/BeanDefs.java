@@ -33,4 +33,6 @@ public class BeanDefs {
   public static final String WORKSHEET_BEAN = "worksheet_creator";
   public static final String IMAGE_UTIL = "image_util";
   public static final String WATCHDOG = "watchdog";
+  public static final String MULTIPART_UPLOAD_SETTINGS = "multipart_upload_settings";
+  public static final String SUBMISSION_LOCK_MANAGER = "submission_lock_manager";
 }
@@ -80,6 +80,8 @@ public final class ServletConsts {
 
   public static final String JSON_FILENAME_APPEND = "_results.json";
 
+  public static final String GZIP_FILENAME_APPEND = ".gz";
+
   public static final String RECORD_KEY = "record";
 
   public static final int EXPORT_CURSOR_CHUNK_SIZE = 100;
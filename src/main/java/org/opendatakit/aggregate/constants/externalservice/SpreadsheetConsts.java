@@ -54,8 +54,38 @@ public final class SpreadsheetConsts {
 
   public static final int WORKSHEET_CREATION_DELAY = 15000;
 
+  /**
+   * How long a publisher is paused after an error. Exhausted quotas are first
+   * handled by smaller batches and short retries; see
+   * MAX_THROTTLED_MILLISECONDS.
+   */
   public static final long BACKOFF_DELAY_MILLISECONDS = 90000L;
 
+  /**
+   * Maximum number of submissions appended by one batch update.
+   */
+  public static final int MAX_SUBMISSIONS_PER_BATCH = 100;
+
+  /**
+   * Approximate maximum size of the requests in one batch update. Google
+   * recommends payloads of at most 2 MB.
+   */
+  public static final long MAX_BATCH_BYTES = 2L * 1024L * 1024L;
+
+  public static final int SC_TOO_MANY_REQUESTS = 429;
+
+  /**
+   * First delay before a batch update is retried after a quota was
+   * exhausted; it doubles with each further retry.
+   */
+  public static final long INITIAL_THROTTLE_BACKOFF_MILLISECONDS = 1000L;
+
+  /**
+   * Total time an upload task waits for quotas to be replenished before the
+   * publisher is paused. Well within the upload task lock's expiration.
+   */
+  public static final long MAX_THROTTLED_MILLISECONDS = 20000L;
+
   /**
    * Characters which cause problems in Google Spreadsheet headers. Removed in
    * the GoogleSpreadsheetHeaderFormatter.
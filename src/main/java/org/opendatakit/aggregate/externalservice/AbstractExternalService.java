@@ -148,6 +148,20 @@ public abstract class AbstractExternalService implements ExternalService {
     insertData(submission, cc);
   }
 
+  /**
+   * Records that the external service acknowledged the submissions up to and
+   * including lastSent. Used by the services that send several submissions
+   * at a time.
+   */
+  protected void advanceCursor(Submission lastSent, boolean streaming, CallingContext cc) throws ODKExternalServiceException {
+    ExternalServiceUtils.updateFscToSuccessfulSubmissionDate(fsc, lastSent, streaming);
+    try {
+      cc.getDatastore().putEntity(fsc, cc.getCurrentUser());
+    } catch (ODKEntityPersistException | ODKOverQuotaException e) {
+      throw new ODKExternalServiceException("unable to persist the upload cursor", e);
+    }
+  }
+
   @Override
   public void setUploadCompleted(CallingContext cc) throws ODKEntityPersistException, ODKOverQuotaException {
     fsc.setUploadCompleted(true);
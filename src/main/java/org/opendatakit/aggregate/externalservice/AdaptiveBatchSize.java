@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.externalservice;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Number of submissions to send in one request to a rate-limited service.
+ * The size is halved whenever the service answers that a quota is exhausted,
+ * and grows back by a quarter after each accepted request, up to the maximum.
+ */
+final class AdaptiveBatchSize {
+  private final int maxSize;
+  private final AtomicInteger size;
+
+  AdaptiveBatchSize(int maxSize) {
+    this.maxSize = maxSize;
+    this.size = new AtomicInteger(maxSize);
+  }
+
+  int get() {
+    return size.get();
+  }
+
+  void onAccepted() {
+    size.updateAndGet(s -> Math.min(maxSize, s + Math.max(1, s / 4)));
+  }
+
+  /**
+   * @param attempted the number of submissions in the rejected request.
+   */
+  void onThrottled(int attempted) {
+    size.updateAndGet(s -> Math.max(1, Math.min(s, attempted) / 2));
+  }
+}
@@ -22,6 +22,8 @@ import static java.time.format.DateTimeFormatter.ISO_OFFSET_DATE_TIME;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
 import com.google.api.client.http.ByteArrayContent;
 import com.google.api.client.http.GenericUrl;
@@ -67,6 +69,7 @@ import org.opendatakit.aggregate.constants.ServletConsts;
 import org.opendatakit.aggregate.constants.common.ExternalServicePublicationOption;
 import org.opendatakit.aggregate.constants.common.ExternalServiceType;
 import org.opendatakit.aggregate.constants.common.OperationalStatus;
+import org.opendatakit.aggregate.constants.externalservice.SpreadsheetConsts;
 import org.opendatakit.aggregate.constants.externalservice.ExternalServiceConsts;
 import org.opendatakit.aggregate.datamodel.FormElementKey;
 import org.opendatakit.aggregate.datamodel.FormElementModel;
@@ -107,6 +110,12 @@ public class GoogleSpreadsheet extends GoogleOauth2ExternalService implements Ex
    */
   private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
   private static ObjectMapper mapper = new ObjectMapper();
+  /**
+   * Submissions per batch update. The Sheets API quotas are per project, so
+   * all the spreadsheet publishers share it.
+   */
+  private static final AdaptiveBatchSize batchSize =
+      new AdaptiveBatchSize(SpreadsheetConsts.MAX_SUBMISSIONS_PER_BATCH);
   /**
    * Datastore entity specific to this type of external service
    */
@@ -551,52 +560,189 @@ public class GoogleSpreadsheet extends GoogleOauth2ExternalService implements Ex
     if (getReady()) {
       try {
         buildSheetInfoMap(cc);
+        List<Request> requests = createRequests(submission, cc);
+        if (!requests.isEmpty()) {
+          batchUpdate(requests);
+        }
+      } catch (Exception e) {
+        logger.error("Unable to insert data into spreadsheet " + objectEntity.getSpreadsheetName()
+            + " exception: " + e.getMessage(), e);
+        throw new ODKExternalServiceException(e);
+      }
+    }
+  }
+
+  @Override
+  public boolean canBatchSubmissions() {
+    return true;
+  }
 
-        SheetInfo sheetInfo;
+  /**
+   * Appends the rows of several submissions with each batch update. A batch
+   * holds up to batchSize submissions and about MAX_BATCH_BYTES of requests.
+   * The cursor is advanced after each batch update; a batch update is applied
+   * entirely or not at all.
+   * <p>
+   * When a quota is exhausted, the batch size is reduced and the batch is
+   * retried after the delay suggested by the API, or an increasing one. Only
+   * when this takes longer than MAX_THROTTLED_MILLISECONDS is the publisher
+   * paused.
+   */
+  @Override
+  public void sendSubmissions(List<Submission> submissions, boolean streaming, CallingContext cc) throws ODKExternalServiceException {
+    if (!getReady()) {
+      // as when sending single submissions, nothing is sent before the
+      // spreadsheet is created
+      advanceCursor(submissions.get(submissions.size() - 1), streaming, cc);
+      return;
+    }
+    try {
+      buildSheetInfoMap(cc);
+
+      // requests and their estimated size, per submission, as formatted so far
+      List<List<Request>> formatted = new ArrayList<List<Request>>();
+      List<Long> formattedBytes = new ArrayList<Long>();
+      long throttledMillis = 0L;
+      long backoffMillis = SpreadsheetConsts.INITIAL_THROTTLE_BACKOFF_MILLISECONDS;
+      int next = 0;
+      while (next < submissions.size()) {
+        int limit = batchSize.get();
         List<Request> requests = new ArrayList<Request>();
+        long bytes = 0L;
+        int end = next;
+        while (end < submissions.size() && end - next < limit) {
+          if (end == formatted.size()) {
+            List<Request> submissionRequests = createRequests(submissions.get(end), cc);
+            formatted.add(submissionRequests);
+            formattedBytes.add(estimateSize(submissionRequests));
+          }
+          if (end > next && bytes + formattedBytes.get(end) > SpreadsheetConsts.MAX_BATCH_BYTES) {
+            break;
+          }
+          requests.addAll(formatted.get(end));
+          bytes += formattedBytes.get(end);
+          ++end;
+        }
 
-        // upload base submission values
-        sheetInfo = sheetInfoMap.get(objectEntity.getTopLevelWorksheetId());
-        AppendCellsRequest acr = createAppendCellsRequest(submission, sheetInfo, cc);
-        requests.add(new Request().setAppendCells(acr));
-
-        // upload repeat values
-        for (GoogleSpreadsheet2RepeatParameterTable tableId : repeatElementEntities) {
-          FormElementKey elementKey = tableId.getFormElementKey();
-          FormElementModel element = FormElementModel.retrieveFormElementModel(form, elementKey);
-          sheetInfo = sheetInfoMap.get(tableId.getWorksheetId());
-
-          List<SubmissionValue> values = submission.findElementValue(element);
-          for (SubmissionValue value : values) {
-            if (value instanceof RepeatSubmissionType) {
-              RepeatSubmissionType repeat = (RepeatSubmissionType) value;
-              if (repeat.getElement().equals(element)) {
-                for (SubmissionSet set : repeat.getSubmissionSets()) {
-                  acr = createAppendCellsRequest(set, sheetInfo, cc);
-                  requests.add(new Request().setAppendCells(acr));
-                }
-              }
-            } else {
-              System.out
-                  .println("ERROR: How did a non Repeat Submission Type get in the for loop?");
+        try {
+          if (!requests.isEmpty()) {
+            batchUpdate(requests);
+          }
+        } catch (GoogleJsonResponseException e) {
+          if (!isQuotaExceeded(e)) {
+            throw e;
+          }
+          batchSize.onThrottled(end - next);
+          long waitMillis = getRetryAfterMillis(e, backoffMillis);
+          if (throttledMillis + waitMillis > SpreadsheetConsts.MAX_THROTTLED_MILLISECONDS) {
+            throw e;
+          }
+          logger.warn("Google Sheets quota exceeded for spreadsheet " + objectEntity.getSpreadsheetName()
+              + " -- retrying in " + waitMillis + "ms with batches of " + batchSize.get());
+          Thread.sleep(waitMillis);
+          throttledMillis += waitMillis;
+          backoffMillis = Math.min(2 * backoffMillis, SpreadsheetConsts.MAX_THROTTLED_MILLISECONDS);
+          continue;
+        }
+        batchSize.onAccepted();
+        advanceCursor(submissions.get(end - 1), streaming, cc);
+        next = end;
+      }
+    } catch (ODKExternalServiceException e) {
+      throw e; // don't wrap
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ODKExternalServiceException(e);
+    } catch (Exception e) {
+      logger.error("Unable to insert data into spreadsheet " + objectEntity.getSpreadsheetName()
+          + " exception: " + e.getMessage(), e);
+      throw new ODKExternalServiceException(e);
+    }
+  }
+
+  /**
+   * Creates the requests that append the rows of the submission and of its
+   * repeat groups.
+   */
+  private List<Request> createRequests(Submission submission, CallingContext cc) throws ODKDatastoreException {
+    SheetInfo sheetInfo;
+    List<Request> requests = new ArrayList<Request>();
+
+    // upload base submission values
+    sheetInfo = sheetInfoMap.get(objectEntity.getTopLevelWorksheetId());
+    AppendCellsRequest acr = createAppendCellsRequest(submission, sheetInfo, cc);
+    requests.add(new Request().setAppendCells(acr));
+
+    // upload repeat values
+    for (GoogleSpreadsheet2RepeatParameterTable tableId : repeatElementEntities) {
+      FormElementKey elementKey = tableId.getFormElementKey();
+      FormElementModel element = FormElementModel.retrieveFormElementModel(form, elementKey);
+      sheetInfo = sheetInfoMap.get(tableId.getWorksheetId());
+
+      List<SubmissionValue> values = submission.findElementValue(element);
+      for (SubmissionValue value : values) {
+        if (value instanceof RepeatSubmissionType) {
+          RepeatSubmissionType repeat = (RepeatSubmissionType) value;
+          if (repeat.getElement().equals(element)) {
+            for (SubmissionSet set : repeat.getSubmissionSets()) {
+              acr = createAppendCellsRequest(set, sheetInfo, cc);
+              requests.add(new Request().setAppendCells(acr));
             }
           }
+        } else {
+          System.out
+              .println("ERROR: How did a non Repeat Submission Type get in the for loop?");
         }
+      }
+    }
+    return requests;
+  }
 
-        if (!requests.isEmpty()) {
-          BatchUpdateSpreadsheetRequest req = new BatchUpdateSpreadsheetRequest();
-          req.setRequests(requests);
-          req.setIncludeSpreadsheetInResponse(false);
-          BatchUpdateSpreadsheetResponse rsp =
-              spreadsheetService.spreadsheets().batchUpdate(objectEntity.getSpreadsheetKey(), req).execute();
+  private void batchUpdate(List<Request> requests) throws IOException {
+    BatchUpdateSpreadsheetRequest req = new BatchUpdateSpreadsheetRequest();
+    req.setRequests(requests);
+    req.setIncludeSpreadsheetInResponse(false);
+    spreadsheetService.spreadsheets().batchUpdate(objectEntity.getSpreadsheetKey(), req).execute();
+  }
+
+  private static long estimateSize(List<Request> requests) throws IOException {
+    long bytes = 0L;
+    for (Request request : requests) {
+      bytes += JSON_FACTORY.toString(request).length();
+    }
+    return bytes;
+  }
+
+  /**
+   * The Sheets API answers 429 when a quota is exhausted; older responses use
+   * 403 with a rate limit reason.
+   */
+  private static boolean isQuotaExceeded(GoogleJsonResponseException e) {
+    if (e.getStatusCode() == SpreadsheetConsts.SC_TOO_MANY_REQUESTS) {
+      return true;
+    }
+    if (e.getStatusCode() == HttpServletResponse.SC_FORBIDDEN && e.getDetails() != null
+        && e.getDetails().getErrors() != null) {
+      for (GoogleJsonError.ErrorInfo info : e.getDetails().getErrors()) {
+        if ("rateLimitExceeded".equals(info.getReason())
+            || "userRateLimitExceeded".equals(info.getReason())) {
+          return true;
         }
+      }
+    }
+    return false;
+  }
 
-      } catch (Exception e) {
-        logger.error("Unable to insert data into spreadsheet " + objectEntity.getSpreadsheetName()
-            + " exception: " + e.getMessage(), e);
-        throw new ODKExternalServiceException(e);
+  private static long getRetryAfterMillis(GoogleJsonResponseException e, long defaultMillis) {
+    String retryAfter = e.getHeaders() == null ? null : e.getHeaders().getRetryAfter();
+    if (retryAfter != null) {
+      try {
+        return Math.max(0L, Long.parseLong(retryAfter.trim()) * 1000L);
+      } catch (NumberFormatException ex) {
+        // an HTTP date; use the default delay
       }
     }
+    return defaultMillis;
   }
 
   /**
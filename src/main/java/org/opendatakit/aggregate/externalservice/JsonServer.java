@@ -17,18 +17,24 @@
 
 package org.opendatakit.aggregate.externalservice;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Collections;
 import java.util.List;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.opendatakit.aggregate.constants.BeanDefs;
 import org.opendatakit.aggregate.constants.common.BinaryOption;
 import org.opendatakit.aggregate.constants.common.ExternalServicePublicationOption;
 import org.opendatakit.aggregate.constants.common.ExternalServiceType;
@@ -40,6 +46,7 @@ import org.opendatakit.aggregate.format.element.BasicElementFormatter;
 import org.opendatakit.aggregate.format.header.BasicHeaderFormatter;
 import org.opendatakit.aggregate.format.structure.JsonFormatterWithFilters;
 import org.opendatakit.aggregate.submission.Submission;
+import org.opendatakit.aggregate.task.UploadSubmissions;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
@@ -49,23 +56,42 @@ import org.opendatakit.common.utils.WebUtils;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.constants.BasicConsts;
 import org.opendatakit.common.web.constants.HtmlConsts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Publishes submissions to a JSON server. Each request is a JSON object
+ * holding the token, the form id and version and, in its "data" array, the
+ * formatted submissions. By default, each request holds one submission. When
+ * the batch size of the upload task is larger, up to that many submissions are
+ * sent in each request, and the cursor is advanced once per acknowledged
+ * request. Batched requests are streamed, chunked, as they are formatted.
+ *
  * @author wbrunette@gmail.com
  * @author mitchellsundt@gmail.com
  */
 public class JsonServer extends AbstractExternalService implements ExternalService {
 
+  private static final Logger logger = LoggerFactory.getLogger(JsonServer.class);
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
   /**
    * Datastore entity specific to this type of external service
    */
   private final JsonServer3ParameterTable objectEntity;
 
+  /**
+   * Maximum number of submissions sent in one request
+   */
+  private final int batchSize;
+
   private JsonServer(JsonServer3ParameterTable entity, FormServiceCursor formServiceCursor,
                      IForm form, CallingContext cc) {
     super(form, formServiceCursor, new BasicElementFormatter(true, true, true),
         new BasicHeaderFormatter(true, true, true), cc);
     objectEntity = entity;
+    UploadSubmissions uploadSubmissions = (UploadSubmissions) cc.getBean(BeanDefs.UPLOAD_TASK_BEAN);
+    batchSize = Math.max(1, uploadSubmissions.getJsonServerBatchSize());
   }
 
   private JsonServer(JsonServer3ParameterTable entity, IForm form,
@@ -159,35 +185,44 @@ public class JsonServer extends AbstractExternalService implements ExternalServi
   }
 
   @Override
-  protected void insertData(Submission submission, CallingContext cc)
-      throws ODKExternalServiceException {
-    try {
-      BinaryOption option = objectEntity.getBinaryOption();
-
-      ByteArrayOutputStream baStream = new ByteArrayOutputStream();
-      PrintWriter pWriter = new PrintWriter(new OutputStreamWriter(baStream, HtmlConsts.UTF8_ENCODE));
+  public boolean canBatchSubmissions() {
+    return batchSize > 1;
+  }
 
-      System.out.println("Sending one JSON Submission");
+  @Override
+  public void sendSubmissions(List<Submission> submissions, boolean streaming, CallingContext cc)
+      throws ODKExternalServiceException {
+    for (int i = 0; i < submissions.size(); i += batchSize) {
+      List<Submission> batch = submissions.subList(i, Math.min(i + batchSize, submissions.size()));
+      postSubmissions(batch, cc);
 
-      // format submission
-      JsonFormatterWithFilters formatter = new JsonFormatterWithFilters(pWriter, form, null, option,
-          true, cc.getServerURL());
-      formatter.processSubmissions(Collections.singletonList(submission), cc);
-      pWriter.flush();
+      // the server acknowledged the whole batch
+      advanceCursor(batch.get(batch.size() - 1), streaming, cc);
+    }
+  }
 
-      JsonParser parser = new JsonParser();
-      JsonElement submissionJsonObj = parser.parse(baStream.toString(HtmlConsts.UTF8_ENCODE));
+  @Override
+  protected void insertData(Submission submission, CallingContext cc)
+      throws ODKExternalServiceException {
+    postSubmissions(Collections.singletonList(submission), cc);
+  }
 
-      // create json object
-      JsonObject entity = new JsonObject();
-      entity.addProperty("token", getAuthKey());
-      entity.addProperty("content", "record");
-      entity.addProperty("formId", form.getFormId());
-      entity.addProperty("formVersion", form.getMajorMinorVersionString());
-      entity.add("data", submissionJsonObj);
+  private void postSubmissions(List<Submission> submissions, CallingContext cc)
+      throws ODKExternalServiceException {
+    try {
+      logger.debug("Sending " + submissions.size() + " JSON Submission(s)");
 
-      StringEntity postentity = new StringEntity(entity.toString(), HtmlConsts.UTF8_ENCODE);
-      postentity.setContentType("application/json");
+      AbstractHttpEntity postentity;
+      if (canBatchSubmissions()) {
+        postentity = new SubmissionsEntity(submissions, cc);
+      } else {
+        // a single submission is small; send it with a Content-Length, as
+        // some servers do not accept chunked request bodies.
+        ByteArrayOutputStream baStream = new ByteArrayOutputStream();
+        writeSubmissions(submissions, baStream, cc);
+        postentity = new ByteArrayEntity(baStream.toByteArray());
+      }
+      postentity.setContentType("application/json; charset=" + HtmlConsts.UTF8_ENCODE);
 
       this.sendRequest(getServerUrl(), postentity, cc);
     } catch (ODKExternalServiceCredentialsException e) {
@@ -206,6 +241,87 @@ public class JsonServer extends AbstractExternalService implements ExternalServi
     }
   }
 
+  /**
+   * Writes the request body: the token, the form id and version and, in the
+   * "data" array, the submissions. Each submission is formatted on its own
+   * and copied into the array, so only one is held in memory at a time.
+   */
+  private void writeSubmissions(List<Submission> submissions, OutputStream outStream,
+                                CallingContext cc) throws IOException {
+    JsonGenerator generator = jsonFactory.createGenerator(outStream, JsonEncoding.UTF8);
+    // the connection is closed by the http client
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    generator.writeStartObject();
+    generator.writeStringField("token", getAuthKey());
+    generator.writeStringField("content", "record");
+    generator.writeStringField("formId", form.getFormId());
+    generator.writeStringField("formVersion", form.getMajorMinorVersionString());
+    generator.writeArrayFieldStart("data");
+
+    StringWriter buffer = new StringWriter();
+    PrintWriter pWriter = new PrintWriter(buffer);
+    JsonFormatterWithFilters formatter = new JsonFormatterWithFilters(pWriter, form, null,
+        objectEntity.getBinaryOption(), true, cc.getServerURL());
+    for (Submission submission : submissions) {
+      buffer.getBuffer().setLength(0);
+      try {
+        formatter.processSubmission(submission, cc);
+      } catch (ODKDatastoreException e) {
+        throw new IOException("unable to format the submissions", e);
+      }
+      pWriter.flush();
+      generator.writeRawValue(buffer.toString());
+    }
+
+    generator.writeEndArray();
+    generator.writeEndObject();
+    generator.close();
+  }
+
+  /**
+   * Request body that formats the submissions as it is written to the
+   * connection, rather than building the whole document in memory first. It
+   * is sent chunked, so it is only used when submissions are batched. The
+   * submissions are formatted again if the request has to be repeated (e.g.,
+   * to answer an authentication challenge).
+   */
+  private final class SubmissionsEntity extends AbstractHttpEntity {
+    private final List<Submission> submissions;
+    private final CallingContext cc;
+
+    SubmissionsEntity(List<Submission> submissions, CallingContext cc) {
+      this.submissions = submissions;
+      this.cc = cc;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return true;
+    }
+
+    @Override
+    public long getContentLength() {
+      return -1;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      ByteArrayOutputStream baStream = new ByteArrayOutputStream();
+      writeTo(baStream);
+      return new ByteArrayInputStream(baStream.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+      writeSubmissions(submissions, outStream, cc);
+    }
+
+    @Override
+    public boolean isStreaming() {
+      return false;
+    }
+  }
+
   @Override
   public String getDescriptiveTargetString() {
     // the token, if supplied, is a secret.
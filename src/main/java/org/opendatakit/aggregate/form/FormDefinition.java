@@ -20,6 +20,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.opendatakit.aggregate.datamodel.FormDataModel;
 import org.opendatakit.aggregate.datamodel.FormDataModel.ElementType;
 import org.opendatakit.aggregate.datamodel.FormElementModel;
@@ -67,10 +68,15 @@ public class FormDefinition {
    * Map from the uriSubmissionDataModel key (uuid) to the FormDefinition.
    * If forms are deleted and reloaded, they get a different key each time.
    * The key is defined in the SubmissionAssociationTable.
-   * <p>
-   * NOTE: should only be accessed via synchronized methods to get or remove forms.
    */
-  private static final Map<String, FormDefinition> formDefinitions = new HashMap<String, FormDefinition>();
+  private static final Map<String, FormDefinition> formDefinitions = new ConcurrentHashMap<String, FormDefinition>();
+  /**
+   * Map from the formId to the lock that serializes the loading of that
+   * form's definition, so that each definition is loaded only once while
+   * the definitions of different forms load concurrently. An entry is only
+   * kept while threads are loading or waiting to load that form.
+   */
+  private static final Map<String, LoadLock> loadLocks = new HashMap<String, LoadLock>();
 
   /**
    * the entity that defines the mapping of the form id to this data model
@@ -477,9 +483,9 @@ public class FormDefinition {
 
   /**
    * Traverse the form data model and assertRelation() on all the backing objects.
-   * Called from within the synchronized getFormDefinition() static method.
+   * Called from getFormDefinition() while holding the lock of the form.
    */
-  private static synchronized final void assertBackingObjects(FormDataModel m,
+  private static final void assertBackingObjects(FormDataModel m,
                                                               Set<CommonFieldsBase> objs, CallingContext cc) throws ODKDatastoreException {
     CommonFieldsBase obj = m.getBackingObjectPrototype();
     if (obj != null && !objs.contains(obj)) {
@@ -493,14 +499,15 @@ public class FormDefinition {
   }
 
   /**
-   * Synchronized access to the formDefinitions map.  Synchronization is only required for the
-   * put operation on the map, but also aids in efficient quota usage during periods of intense start-up.
+   * Access to the formDefinitions map.  A definition that is not yet in the map is loaded
+   * while holding the lock of its formId, so that concurrent requests for the same form
+   * load it only once.
    *
    * @return The definition.  The uriSubmissionDataModel is used to ensure that the
    *     currently valid definition of a form is being used (should the form be
    *     deleted then reloaded).
    */
-  public static synchronized final FormDefinition getFormDefinition(String formId, CallingContext cc) {
+  public static final FormDefinition getFormDefinition(String formId, CallingContext cc) {
 
     if (formId.indexOf('/') != -1) {
       throw new IllegalArgumentException("formId is not well formed: " + formId);
@@ -527,43 +534,54 @@ public class FormDefinition {
         if (fd != null) {
           // found it...
           return fd;
-        } else {
-          // retrieve it...
-          FormDataModel fdm = FormDataModel.assertRelation(cc);
-          Query query = ds.createQuery(fdm, "FormDefinition.getFormDefinition", user);
-          query.addFilter(FormDataModel.URI_SUBMISSION_DATA_MODEL, FilterOperation.EQUAL, uriSubmissionDataModel);
-          fdmList = query.executeQuery();
-
-          if (fdmList == null || fdmList.size() == 0) {
-            logger.warn("No FDM records for formId " + formId);
-            return null;
-          }
+        }
+        LoadLock loadLock = acquireLoadLock(formId);
+        try {
+          synchronized (loadLock) {
+            // another thread may have loaded it while we waited...
+            fd = formDefinitions.get(uriSubmissionDataModel);
+            if (fd != null) {
+              return fd;
+            }
+            // retrieve it...
+            FormDataModel fdm = FormDataModel.assertRelation(cc);
+            Query query = ds.createQuery(fdm, "FormDefinition.getFormDefinition", user);
+            query.addFilter(FormDataModel.URI_SUBMISSION_DATA_MODEL, FilterOperation.EQUAL, uriSubmissionDataModel);
+            fdmList = query.executeQuery();
+
+            if (fdmList == null || fdmList.size() == 0) {
+              logger.warn("No FDM records for formId " + formId);
+              return null;
+            }
 
-          // try to construct the fd...
-          try {
-            fd = new FormDefinition(sa, formId, fdmList, cc);
-          } catch (IllegalStateException e) {
-            e.printStackTrace();
-            logger.error("Form definition is not interpretable for formId " + formId);
-            return null;
-          }
+            // try to construct the fd...
+            try {
+              fd = new FormDefinition(sa, formId, fdmList, cc);
+            } catch (IllegalStateException e) {
+              e.printStackTrace();
+              logger.error("Form definition is not interpretable for formId " + formId);
+              return null;
+            }
 
-          // and synchronize field sizes to those defined in the database...
-          try {
-            Set<CommonFieldsBase> objs = new HashSet<CommonFieldsBase>();
-            assertBackingObjects(fd.getTopLevelGroup(), objs, cc);
-          } catch (ODKDatastoreException e1) {
-            e1.printStackTrace();
-            logger.error("Asserting relations failed for formId " + formId);
-            fd = null;
-          }
+            // and synchronize field sizes to those defined in the database...
+            try {
+              Set<CommonFieldsBase> objs = new HashSet<CommonFieldsBase>();
+              assertBackingObjects(fd.getTopLevelGroup(), objs, cc);
+            } catch (ODKDatastoreException e1) {
+              e1.printStackTrace();
+              logger.error("Asserting relations failed for formId " + formId);
+              fd = null;
+            }
 
-          // errors might have not cleared the fd...
-          if (fd != null) {
-            // remember details about this form
-            formDefinitions.put(uriSubmissionDataModel, fd);
-            return fd;
+            // errors might have not cleared the fd...
+            if (fd != null) {
+              // remember details about this form
+              formDefinitions.put(uriSubmissionDataModel, fd);
+              return fd;
+            }
           }
+        } finally {
+          releaseLoadLock(formId, loadLock);
         }
       } catch (ODKDatastoreException e) {
         logger.warn("Persistence Layer failure " + e.getMessage() + " for formId " + formId);
@@ -575,7 +593,27 @@ public class FormDefinition {
     return null;
   }
 
-  static synchronized final void forget(String uriSubmissionDataModel) {
+  private static LoadLock acquireLoadLock(String formId) {
+    synchronized (loadLocks) {
+      LoadLock lock = loadLocks.get(formId);
+      if (lock == null) {
+        lock = new LoadLock();
+        loadLocks.put(formId, lock);
+      }
+      ++lock.users;
+      return lock;
+    }
+  }
+
+  private static void releaseLoadLock(String formId, LoadLock lock) {
+    synchronized (loadLocks) {
+      if (--lock.users == 0) {
+        loadLocks.remove(formId);
+      }
+    }
+  }
+
+  static final void forget(String uriSubmissionDataModel) {
     formDefinitions.remove(uriSubmissionDataModel);
   }
 
@@ -695,4 +733,9 @@ public class FormDefinition {
   public Collection<? extends CommonFieldsBase> getBackingTableSet() {
     return backingTableMap.values();
   }
+
+  private static final class LoadLock {
+    // loaders and waiters; guarded by loadLocks
+    int users = 0;
+  }
 }
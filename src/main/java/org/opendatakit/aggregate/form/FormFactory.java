@@ -21,12 +21,17 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import org.opendatakit.aggregate.ContextFactory;
 import org.opendatakit.aggregate.exception.ODKFormNotFoundException;
 import org.opendatakit.aggregate.parser.FormParserForJavaRosa;
 import org.opendatakit.aggregate.submission.SubmissionKeyPart;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor.TaskClass;
 import org.opendatakit.aggregate.util.BackendActionsTable;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.Datastore;
@@ -43,113 +48,265 @@ import org.slf4j.LoggerFactory;
 /**
  * Factory class for managing Form objects.
  * Does caching of the forms so as to minimize the number of database accesses.
+ * <p>
+ * Readers are served from the cache without locking. Once the cache is older
+ * than PersistConsts.MAX_SETTLE_MILLISECONDS, a background task compares
+ * the last-update dates of the FormInfo rows with those of the cached forms
+ * and reloads only the forms that changed. If the task cannot be queued, the
+ * reader refreshes the cache itself. A form that is not in the cache is read
+ * from the database on demand. On a strongly consistent datastore, a form that
+ * is requested by id is also checked against its FormInfo row, so that a
+ * change made through another server is seen at once.
  *
  * @author mitchellsundt@gmail.com
  */
 public class FormFactory {
 
   private static final Logger logger = LoggerFactory.getLogger(FormFactory.class);
-  private static final List<IForm> cache = new LinkedList<IForm>();
-  private static long cacheTimestamp = 0L;
+  // sort by form title then by form id
+  private static final Comparator<IForm> FORM_ORDER = new Comparator<IForm>() {
+
+    @Override
+    public int compare(IForm o1, IForm o2) {
+      int ref = o1.getViewableName().compareToIgnoreCase(o2.getViewableName());
+      if (ref != 0) return ref;
+      return o1.getFormId().compareToIgnoreCase(o2.getFormId());
+    }
+  };
+  // form URI (the MD5 hash of the form id) to form
+  private static final Map<String, IForm> cache = new ConcurrentHashMap<String, IForm>();
+  // immutable snapshot of the valid forms in the cache, in FORM_ORDER
+  private static volatile List<IForm> sortedForms = Collections.emptyList();
+  // 0 until the forms are first loaded
+  private static volatile long cacheTimestamp = 0L;
+  // serializes the changes to the cache that read from the database
+  private static final ReentrantLock refreshLock = new ReentrantLock();
+  private static final AtomicBoolean refreshScheduled = new AtomicBoolean(false);
 
   private FormFactory() {
   }
 
+  private static boolean isStale() {
+    return cacheTimestamp + PersistConsts.MAX_SETTLE_MILLISECONDS < System.currentTimeMillis();
+  }
+
   /**
-   * Return the list of forms in the database.
-   * If topLevelAuri is null, return all forms. Otherwise, return the form with the matching URI.
-   * This is the main interface to the cache of form objects.  The cache is refreshed as a whole
-   * every PersistConsts.MAX_SETTLE_MILLISECONDS.
+   * Return the list of valid forms in the database. This is the main
+   * interface to the cache of form objects. Only the first call waits for the
+   * forms to be loaded; afterwards, a stale cache is refreshed in the
+   * background while the cached forms are returned.
    */
-  private static synchronized final List<IForm> internalGetForms(String topLevelAuri, CallingContext cc) throws ODKDatastoreException {
-
-    List<IForm> forms = new ArrayList<IForm>();
-    if (cacheTimestamp + PersistConsts.MAX_SETTLE_MILLISECONDS > System.currentTimeMillis()) {
-      // TODO: This cache should reside in MemCache.  Right now, different running
-      // servers might see different Form definitions for up to the settle time.
-      //
-      // Since the datastore is treated as having a settle time of MAX_SETTLE_MILLISECONDS,
-      // we should rely on the cache for that time interval.  Without MemCache-style
-      // support, this is somewhat problematic since different server instances might
-      // see different versions of the same Form.
-      //
-      logger.info("FormCache: using cached list of Forms");
-    } else {
-      // we have a fairly stale list of forms -- interrogate the database
-      // for what is really there and update the cache.
-      Map<String, IForm> oldForms = new HashMap<String, IForm>();
-      for (IForm f : cache) {
-        oldForms.put(f.getUri(), f);
+  private static List<IForm> internalGetForms(CallingContext cc) throws ODKDatastoreException {
+    if (cacheTimestamp == 0L) {
+      refreshLock.lock();
+      try {
+        if (cacheTimestamp == 0L) {
+          refresh(cc);
+        }
+      } finally {
+        refreshLock.unlock();
       }
-      cache.clear();
-      logger.info("FormCache: fetching new list of Forms");
-
-      Datastore ds = cc.getDatastore();
-      User user = cc.getCurrentUser();
-
-      FormInfoTable relation = FormInfoTable.assertRelation(cc);
-      // ensure that Form table exists...
-      Query formQuery = ds.createQuery(relation, "Form.getForms", user);
-      List<? extends CommonFieldsBase> infoRows = formQuery.executeQuery();
-
-      for (CommonFieldsBase cb : infoRows) {
-        FormInfoTable infoRow = (FormInfoTable) cb;
-        IForm f = oldForms.get(infoRow.getUri());
-        // rely on the fact that a persist updates the last-update-date of the
-        // top-level FormInfoTable even if only subordinate values are updated.
-        Date infoDate = infoRow.getLastUpdateDate();
-        Date oldDate = (f == null) ? null : f.getLastUpdateDate();
-        if (f != null && f.hasValidFormDefinition() &&
-            (infoRow.getCreationDate().equals(f.getCreationDate())) &&
-            ((infoDate == null && oldDate == null) ||
-                (infoDate != null && oldDate != null && infoDate.equals(oldDate)))) {
-          cache.add(f);
-        } else {
-          logger.info("FormCache: refreshing form definition from database: " + infoRow.getStringField(FormInfoTable.FORM_ID));
-          // pull and update from the datastore
-          f = new Form(infoRow, cc);
-          cache.add(f);
+    } else if (isStale() && refreshScheduled.compareAndSet(false, true)) {
+      final CallingContext ccDaemon = ContextFactory.duplicateContext(cc);
+      ccDaemon.setAsDaemon(true);
+      Runnable task = new Runnable() {
+        @Override
+        public void run() {
+          refreshLock.lock();
+          try {
+            refresh(ccDaemon);
+          } catch (Exception e) {
+            logger.error("FormCache: unable to refresh the list of Forms: " + e.toString());
+          } finally {
+            refreshScheduled.set(false);
+            refreshLock.unlock();
+          }
+        }
+      };
+      boolean queued = false;
+      try {
+        queued = AggregrateThreadExecutor.getAggregateThreadExecutor().execute(TaskClass.FORM_CACHE, task);
+      } catch (IllegalStateException e) {
+        // the task pools are not running yet, or any more
+      } finally {
+        if (!queued) {
+          refreshScheduled.set(false);
         }
       }
-
-      for (IForm form : cache)
-        if (!form.isValid()) {
-          logger.error("Possible corruption: Form with URI " + form.getUri() + " is not valid");
-          cache.remove(form);
+      if (!queued) {
+        refreshLock.lock();
+        try {
+          if (isStale()) {
+            refresh(cc);
+          }
+        } finally {
+          refreshLock.unlock();
         }
+      }
+      // test to see if we need to trigger the watchdog
+      BackendActionsTable.triggerWatchdog(cc);
+    }
+    return sortedForms;
+  }
 
-      // sort by form title then by form id
-      Collections.sort(forms, new Comparator<IForm>() {
+  /**
+   * Interrogates the database for the forms that are really there and
+   * reloads those that changed since they were cached. Must be called with
+   * the refreshLock held.
+   */
+  private static void refresh(CallingContext cc) throws ODKDatastoreException {
+    logger.info("FormCache: fetching new list of Forms");
 
-        @Override
-        public int compare(IForm o1, IForm o2) {
-          int ref = o1.getViewableName().compareToIgnoreCase(o2.getViewableName());
-          if (ref != 0) return ref;
-          return o1.getFormId().compareToIgnoreCase(o2.getFormId());
-        }
-      });
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
 
-      // update cacheTimestamp -- note that if the datastore is very slow, this will
-      // space out the updates because the cacheTimestamp is established after all
-      // the datastore accesses.
-      cacheTimestamp = System.currentTimeMillis();
+    FormInfoTable relation = FormInfoTable.assertRelation(cc);
+    // ensure that Form table exists...
+    Query formQuery = ds.createQuery(relation, "Form.getForms", user);
+    List<? extends CommonFieldsBase> infoRows = formQuery.executeQuery();
 
-      // test to see if we need to trigger the watchdog
-      BackendActionsTable.triggerWatchdog(cc);
+    Map<String, IForm> forms = new HashMap<String, IForm>();
+    for (CommonFieldsBase cb : infoRows) {
+      FormInfoTable infoRow = (FormInfoTable) cb;
+      IForm f = cache.get(infoRow.getUri());
+      if (f != null && f.hasValidFormDefinition() && isCurrent(f, infoRow)) {
+        forms.put(infoRow.getUri(), f);
+      } else {
+        logger.info("FormCache: refreshing form definition from database: " + infoRow.getStringField(FormInfoTable.FORM_ID));
+        // pull and update from the datastore
+        forms.put(infoRow.getUri(), new Form(infoRow, cc));
+      }
     }
 
-    for (IForm v : cache) {
-      if (topLevelAuri == null || v.getUri().equals(topLevelAuri)) {
-        forms.add(v);
+    cache.keySet().retainAll(forms.keySet());
+    cache.putAll(forms);
+    publish();
+
+    // update cacheTimestamp -- note that if the datastore is very slow, this will
+    // space out the updates because the cacheTimestamp is established after all
+    // the datastore accesses.
+    cacheTimestamp = System.currentTimeMillis();
+  }
+
+  /**
+   * @return true if the cached form was loaded from the given FormInfo row as
+   *     it is now.
+   */
+  private static boolean isCurrent(IForm f, FormInfoTable infoRow) {
+    // rely on the fact that a persist updates the last-update-date of the
+    // top-level FormInfoTable even if only subordinate values are updated.
+    Date infoDate = infoRow.getLastUpdateDate();
+    Date oldDate = f.getLastUpdateDate();
+    return (infoRow.getCreationDate().equals(f.getCreationDate())) &&
+        ((infoDate == null && oldDate == null) ||
+            (infoDate != null && oldDate != null && infoDate.equals(oldDate)));
+  }
+
+  /**
+   * Rebuilds the sorted snapshot of the cache that getForms returns.
+   */
+  private static void publish() {
+    List<IForm> forms = new ArrayList<IForm>();
+    for (IForm form : cache.values()) {
+      if (form.isValid()) {
+        forms.add(form);
+      } else {
+        logger.error("Possible corruption: Form with URI " + form.getUri() + " is not valid");
       }
     }
-    return forms;
+    Collections.sort(forms, FORM_ORDER);
+    sortedForms = Collections.unmodifiableList(forms);
   }
 
-  public static synchronized void clearForm(IForm match) {
-    // NOTE: delays refresh of the forms list by the settle time.
-    cache.remove(match);
-    cacheTimestamp = System.currentTimeMillis();
+  /**
+   * Reads a form that is not in the cache from the database. Invalid forms
+   * are cached too, so that they are not read again on every request.
+   *
+   * @return the form, or null if there is no such form.
+   */
+  private static IForm loadForm(String topLevelAuri, CallingContext cc) throws ODKDatastoreException {
+    refreshLock.lock();
+    try {
+      IForm f = cache.get(topLevelAuri);
+      if (f != null) {
+        return f;
+      }
+      FormInfoTable infoRow = getInfoRow(topLevelAuri, cc);
+      if (infoRow == null) {
+        return null;
+      }
+      return reloadForm(infoRow, cc);
+    } finally {
+      refreshLock.unlock();
+    }
+  }
+
+  /**
+   * Checks a cached form against its FormInfo row and reloads it if another
+   * server changed it since it was cached. On a strongly consistent datastore
+   * this makes an upload visible to the uploader's next request, whichever
+   * server receives it, without the uploader waiting for the caches to
+   * refresh.
+   *
+   * @return the current form, or null if it has been deleted.
+   */
+  private static IForm revalidateForm(IForm f, CallingContext cc) throws ODKDatastoreException {
+    FormInfoTable infoRow = getInfoRow(f.getUri(), cc);
+    if (infoRow == null) {
+      clearForm(f);
+      return null;
+    }
+    if (isCurrent(f, infoRow)) {
+      return f;
+    }
+    refreshLock.lock();
+    try {
+      // another reader may have reloaded it while we waited for the lock
+      IForm current = cache.get(f.getUri());
+      if (current != null && isCurrent(current, infoRow)) {
+        return current;
+      }
+      return reloadForm(infoRow, cc);
+    } finally {
+      refreshLock.unlock();
+    }
+  }
+
+  private static FormInfoTable getInfoRow(String topLevelAuri, CallingContext cc) throws ODKDatastoreException {
+    try {
+      return cc.getDatastore().getEntity(FormInfoTable.assertRelation(cc), topLevelAuri,
+          cc.getCurrentUser());
+    } catch (ODKEntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Reads the form described by the FormInfo row into the cache. Must be
+   * called with the refreshLock held.
+   */
+  private static IForm reloadForm(FormInfoTable infoRow, CallingContext cc) throws ODKDatastoreException {
+    logger.info("FormCache: loading form definition from database: " + infoRow.getStringField(FormInfoTable.FORM_ID));
+    IForm f = new Form(infoRow, cc);
+    cache.put(infoRow.getUri(), f);
+    publish();
+    return f;
+  }
+
+  /**
+   * Removes the form from the cache, so that it is read again from the
+   * database the next time it is requested. Called when a form is uploaded
+   * or deleted.
+   */
+  public static void clearForm(IForm match) {
+    refreshLock.lock();
+    try {
+      if (cache.remove(match.getUri()) != null) {
+        publish();
+      }
+    } finally {
+      refreshLock.unlock();
+    }
   }
 
   /**
@@ -159,17 +316,26 @@ public class FormFactory {
    * GAE billing).
    */
   private static IForm getForm(String topLevelAuri, CallingContext cc) throws ODKDatastoreException {
-    List<IForm> forms = internalGetForms(topLevelAuri, cc);
+    internalGetForms(cc);
+    IForm f = cache.get(topLevelAuri);
+    if (f == null) {
+      f = loadForm(topLevelAuri, cc);
+    } else if (cc.getDatastore().isStronglyConsistent()) {
+      f = revalidateForm(f, cc);
+    }
 
-    if (forms.isEmpty())
+    if (f == null)
       throw new ODKEntityNotFoundException("Could not retrieve form uri: " + topLevelAuri);
-    IForm f = forms.get(0);
+    if (!f.isValid()) {
+      logger.error("Possible corruption: Form with URI " + f.getUri() + " is not valid");
+      throw new ODKEntityNotFoundException("Could not retrieve form uri: " + topLevelAuri);
+    }
     // TODO: check authorization?
     return f;
   }
 
   public static final List<IForm> getForms(boolean checkAuthorization, CallingContext cc) throws ODKDatastoreException {
-    List<IForm> forms = internalGetForms(null, cc);
+    List<IForm> forms = new ArrayList<IForm>(internalGetForms(cc));
     // TODO: check authorization
     return forms;
   }
@@ -399,6 +399,21 @@ public class MiscTasks {
     ds.deleteEntity(row.getEntityKey(), user);
   }
 
+  /**
+   * Gives back an attempt whose task could not be queued because its task
+   * pool was saturated. The request stays in progress, and the watchdog
+   * retries it without counting that attempt against the task type's
+   * maximum attempt count.
+   */
+  public static void refundAttempt(SubmissionKey miscTask, long attemptCount, CallingContext cc) throws ODKDatastoreException {
+    MiscTasks t = new MiscTasks(miscTask, cc);
+    // unless a later attempt has been started since
+    if (t.getAttemptCount().equals(attemptCount)) {
+      t.setAttemptCount(attemptCount - 1L);
+      t.persist(cc);
+    }
+  }
+
   public SubmissionKey getSubmissionKey() {
     return new SubmissionKey(FORM_ID_MISC_TASKS + "[@version=null and @uiVersion=null]/" + MiscTasksTable.TABLE_NAME + "[@key=" + row.getUri() + "]");
   }
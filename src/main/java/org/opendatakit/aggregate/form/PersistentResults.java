@@ -15,6 +15,7 @@
  */
 package org.opendatakit.aggregate.form;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -30,6 +31,7 @@ import org.opendatakit.aggregate.submission.SubmissionKey;
 import org.opendatakit.aggregate.submission.SubmissionKeyPart;
 import org.opendatakit.common.datamodel.BinaryContent;
 import org.opendatakit.common.datamodel.BinaryContentManipulator;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobOutputStream;
 import org.opendatakit.common.datamodel.BinaryContentRefBlob;
 import org.opendatakit.common.datamodel.RefBlob;
 import org.opendatakit.common.persistence.CommonFieldsBase;
@@ -285,7 +287,8 @@ public class PersistentResults {
     properties.put(ServletConsts.AS_ATTACHMENT, "yes");
     String addr = cc.getServerURL() + BasicConsts.FORWARDSLASH + BinaryDataServlet.ADDR;
     String url = HtmlUtil.createLinkWithProperties(addr, properties);
-    return new ResultFileInfo(unrootedFilename, url, bcm.getContentType(1, cc), bcm.getContentLength(1, cc));
+    return new ResultFileInfo(unrootedFilename, url, bcm.getContentType(1, cc), bcm.getContentLength(1, cc),
+        bcm.getContentHash(1, cc));
   }
 
   public byte[] getResultFileContents(CallingContext cc) throws ODKDatastoreException {
@@ -297,6 +300,15 @@ public class PersistentResults {
     return bcm.getBlob(1, cc);
   }
 
+  public InputStream getResultFileStream(long offset, CallingContext cc) throws ODKDatastoreException {
+    if (bcm.getAttachmentCount(cc) == 0)
+      return null;
+    if (bcm.getAttachmentCount(cc) > 1) {
+      throw new IllegalStateException("Too many results attached!");
+    }
+    return bcm.getBlobStream(1, offset, cc);
+  }
+
   public void setResultFile(byte[] byteArray, String contentType, String unrootedFilePath, boolean overwriteOK, CallingContext cc) throws ODKDatastoreException {
     if (bcm.getAttachmentCount(cc) > 0) {
       throw new IllegalStateException("Results are already attached!");
@@ -304,6 +316,22 @@ public class PersistentResults {
     bcm.setValueFromByteArray(byteArray, contentType, unrootedFilePath, overwriteOK, cc);
   }
 
+  /**
+   * @return a stream into which the result file can be written as it is
+   *     generated. Attach it with {@link #setResultFile(BlobOutputStream, String, String, CallingContext)}
+   *     once it is closed.
+   */
+  public BlobOutputStream newResultFileStream(CallingContext cc) {
+    return bcm.newBlobOutputStream(cc);
+  }
+
+  public void setResultFile(BlobOutputStream content, String contentType, String unrootedFilePath, CallingContext cc) throws ODKDatastoreException {
+    if (bcm.getAttachmentCount(cc) > 0) {
+      throw new IllegalStateException("Results are already attached!");
+    }
+    bcm.setValueFromBlobOutputStream(content, contentType, unrootedFilePath, cc);
+  }
+
   public String getUri() {
     return row.getUri();
   }
@@ -361,6 +389,20 @@ public class PersistentResults {
     ds.deleteEntity(row.getEntityKey(), user);
   }
 
+  /**
+   * Gives back an attempt whose task could not be queued because the export
+   * pool was saturated. The request stays in progress, and the watchdog
+   * retries it without counting that attempt against MAX_RETRY_ATTEMPTS.
+   */
+  public static void refundAttempt(SubmissionKey persistentResult, long attemptCount, CallingContext cc) throws ODKDatastoreException {
+    PersistentResults r = new PersistentResults(persistentResult, cc);
+    // unless a later attempt has been started since
+    if (r.getAttemptCount().equals(attemptCount)) {
+      r.setAttemptCount(attemptCount - 1L);
+      r.persist(cc);
+    }
+  }
+
   public SubmissionKey getSubmissionKey() {
     return new SubmissionKey(FORM_ID_PERSISTENT_RESULT + "[@version=null and @uiVersion=null]/"
         + PersistentResultsTable.TABLE_NAME + "[@key=" + row.getUri() + "]");
@@ -470,13 +512,15 @@ public class PersistentResults {
     public final String downloadUrl;
     public final String contentType;
     public final Long contentLength;
+    public final String contentHash;
 
     ResultFileInfo(String unrootedFilename, String downloadUrl, String contentType,
-                   Long contentLength) {
+                   Long contentLength, String contentHash) {
       this.unrootedFilename = unrootedFilename;
       this.downloadUrl = downloadUrl;
       this.contentType = contentType;
       this.contentLength = contentLength;
+      this.contentHash = contentHash;
     }
   }
 }
@@ -80,11 +80,19 @@ public class JsonFormatterWithFilters implements SubmissionFormatter, RepeatCall
         output.append(FormatConsts.JSON_VALUE_DELIMITER);
       }
       first = false;
-      Row row = sub.getFormattedValuesAsRow(propertyNames, elemFormatter, false, cc);
-      appendJsonObject(row.getFormattedValues().iterator());
+      processSubmission(sub, cc);
     }
   }
 
+  /**
+   * Formats one submission as a JSON object, without the enclosing array or
+   * a delimiter.
+   */
+  public void processSubmission(Submission sub, CallingContext cc) throws ODKDatastoreException {
+    Row row = sub.getFormattedValuesAsRow(propertyNames, elemFormatter, false, cc);
+    appendJsonObject(row.getFormattedValues().iterator());
+  }
+
   @Override
   public void afterProcessSubmissions(CallingContext cc) {
     output.append(BasicConsts.RIGHT_BRACKET);
@@ -27,15 +27,22 @@ import static org.opendatakit.aggregate.submission.type.jr.JRTemporalUtils.parse
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import org.javarosa.core.model.CoreModelModule;
 import org.javarosa.core.model.FormDef;
 import org.javarosa.core.model.IDataReference;
@@ -115,6 +122,24 @@ public class BaseFormParserForJavaRosa {
       + "</h:body>" + "</h:html>";
   private static final String ODK_TIMESTAMP_COMMENT = "<!-- ODK Aggregate upload time: ";
   private static boolean isJavaRosaInitialized = false;
+  private static final int MAX_CACHED_FORM_DEFS = 16;
+  /**
+   * FormDefs parsed from recently seen form XML, keyed by the SHA-256 hash of
+   * the XML without its upload timestamp comment, least recently used first.
+   * The FormDefs are shared by the parsers and must not be modified.
+   * <p>
+   * NOTE: should only be accessed while synchronized on the map.
+   */
+  private static final Map<String, FormDef> parsedFormDefs = new LinkedHashMap<String, FormDef>(16, 0.75f, true) {
+    private static final long serialVersionUID = 4512749561324418547L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, FormDef> eldest) {
+      return size() > MAX_CACHED_FORM_DEFS;
+    }
+  };
+  // parses in progress, so that concurrent uploads of the same XML parse it once
+  private static final Map<String, FutureTask<FormDef>> formDefsInProgress = new ConcurrentHashMap<String, FutureTask<FormDef>>();
 
   static {
     ChangeableBindAttributes = Arrays.asList(new String[]{
@@ -176,7 +201,7 @@ public class BaseFormParserForJavaRosa {
     stringLengths.clear();
     allBindings.forEach(this::storeLengthOfBinding);
 
-    rootJavaRosaFormDef = parseDocumentIntoFormDef(doc);
+    rootJavaRosaFormDef = getFormDef(xml, doc);
 
     if (rootJavaRosaFormDef == null) {
       throw new ODKIncompleteSubmissionData(
@@ -310,7 +335,6 @@ public class BaseFormParserForJavaRosa {
       // To address this, we will use the form defined in ENCRYPTED_FORM_DEFINITION instead
       // which follows the structure described above.
       // This is discussed in https://github.com/getodk/aggregate/issues/294
-      XFormParser exfp = parseFormDefinition(ENCRYPTED_FORM_DEFINITION);
       // Reset bind element and string length maps since we won't be using the original
       // form parsed and processed at the beginning of this constructor.
       Document encryptedFormDoc = parseXmlToDocument(ENCRYPTED_FORM_DEFINITION);
@@ -321,11 +345,7 @@ public class BaseFormParserForJavaRosa {
 
       stringLengths.clear();
       encryptedFormBindings.forEach(this::storeLengthOfBinding);
-      try {
-        formDef = exfp.parse();
-      } catch (IOException e) {
-        throw new ODKIncompleteSubmissionData("Exception " + e.toString() + " during parsing!", Reason.BAD_JR_PARSE);
-      }
+      formDef = getFormDef(ENCRYPTED_FORM_DEFINITION, encryptedFormDoc);
 
       if (formDef == null) {
         throw new ODKIncompleteSubmissionData("Javarosa failed to construct Encrypted FormDef!",
@@ -432,15 +452,62 @@ public class BaseFormParserForJavaRosa {
         + xmlWithoutTimestampComment.substring(idx);
   }
 
-  private static synchronized XFormParser parseFormDefinition(String xml) throws ODKIncompleteSubmissionData {
-    try (StringReader isr = new StringReader(xml)) {
-      Document doc = XFormParser.getXMLDocument(isr);
-      return new XFormParser(doc);
-    } catch (Exception e) {
+  /**
+   * Returns the FormDef of the XML, parsing the document only if the same XML
+   * has not been parsed recently. Each parse uses its own XFormParser, so
+   * parses of different forms run concurrently, while concurrent parses of
+   * the same XML wait for the first one.
+   */
+  private static FormDef getFormDef(String xml, Document doc) throws ODKIncompleteSubmissionData {
+    String key = sha256(xmlWithoutTimestampComment(xml));
+    synchronized (parsedFormDefs) {
+      FormDef formDef = parsedFormDefs.get(key);
+      if (formDef != null) {
+        return formDef;
+      }
+    }
+
+    FutureTask<FormDef> task = new FutureTask<FormDef>(() -> parseDocumentIntoFormDef(doc));
+    FutureTask<FormDef> inProgress = formDefsInProgress.putIfAbsent(key, task);
+    if (inProgress == null) {
+      inProgress = task;
+      task.run();
+      formDefsInProgress.remove(key, task);
+    }
+
+    try {
+      FormDef formDef = inProgress.get();
+      if (inProgress == task && formDef != null) {
+        synchronized (parsedFormDefs) {
+          parsedFormDefs.put(key, formDef);
+        }
+      }
+      return formDef;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ODKIncompleteSubmissionData) {
+        throw (ODKIncompleteSubmissionData) e.getCause();
+      }
+      throw new ODKIncompleteSubmissionData(e.getCause(), Reason.BAD_JR_PARSE);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       throw new ODKIncompleteSubmissionData(e, Reason.BAD_JR_PARSE);
     }
   }
 
+  private static String sha256(String xml) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      byte[] digest = md.digest(xml.getBytes(StandardCharsets.UTF_8));
+      StringBuilder b = new StringBuilder();
+      for (byte d : digest) {
+        b.append(String.format("%02x", d & 0xff));
+      }
+      return b.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Unexpected problem computing SHA-256 hash", e);
+    }
+  }
+
   /**
    * Field-level encryption requires an extended Javarosa library that expose an
    * "encrypted" bind attribute that identifies the fields that are to be
@@ -423,6 +423,8 @@ public class FormParserForJavaRosa extends BaseFormParserForJavaRosa {
     // Determine the information about the submission...
     formInfo.setIsComplete(true);
     formInfo.persist(cc);
+    // don't serve the definition cached before this upload
+    FormFactory.clearForm(formInfo);
 
     Datastore ds = cc.getDatastore();
     User user = cc.getCurrentUser();
@@ -587,6 +589,9 @@ public class FormParserForJavaRosa extends BaseFormParserForJavaRosa {
               if (assertedRelations.containsKey(tableKey(tbl))) {
                 assertedRelations.put(tableKey(tbl), tbl);
               } else {
+                // another server may have dropped or re-created the table
+                // since this server last asserted it.
+                ds.forgetRelation(tbl);
                 ds.assertRelation(tbl, user);
                 assertedRelations.put(tableKey(tbl), tbl);
               }
@@ -723,6 +728,7 @@ public class FormParserForJavaRosa extends BaseFormParserForJavaRosa {
     // successful.
     sa.setIsPersistenceModelComplete(true);
     ds.putEntity(sa, user);
+    FormFactory.clearForm(formInfo);
     // And wait until the data is propagated across all server instances.
     //
     // Rather than relying on MemCache, we insert this delay here so that
@@ -738,10 +744,17 @@ public class FormParserForJavaRosa extends BaseFormParserForJavaRosa {
     // After this delay interval, the caller can be confident that the form
     // is visible by whatever server receives the caller's next request
     // (and this is also true during unit tests).
-    try {
-      Thread.sleep(PersistConsts.MAX_SETTLE_MILLISECONDS);
-    } catch (InterruptedException e) {
-      e.printStackTrace();
+    //
+    // A strongly consistent datastore has already made the form visible to
+    // every server. A server that has not cached the form reads it on
+    // demand, and one that cached an earlier version checks it against the
+    // FormInfo row before serving it, so there is nothing to wait for.
+    if (!ds.isStronglyConsistent()) {
+      try {
+        Thread.sleep(PersistConsts.MAX_SETTLE_MILLISECONDS);
+      } catch (InterruptedException e) {
+        e.printStackTrace();
+      }
     }
   }
 
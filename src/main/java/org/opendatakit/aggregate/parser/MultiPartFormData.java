@@ -17,9 +17,16 @@
 
 package org.opendatakit.aggregate.parser;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -33,32 +40,78 @@ import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.opendatakit.aggregate.constants.ParserConsts;
+import org.opendatakit.common.persistence.CommonFieldsBase;
 
 /**
  * Parses a multi part form request into a set of multiPartFormItems. The
  * information stored in items are indexed by either the field name or the file
  * name (or both) provided in the http submission
+ * <p>
+ * When constructed with {@link MultiPartUploadSettings}, only the memory
+ * reserved from the settings' shared budget is used to hold the parts; the
+ * remaining parts are spooled to temporary files. These are deleted, and the
+ * memory reservation is released, by {@link #close()}.
  *
  * @author wbrunette@gmail.com
  * @author mitchellsundt@gmail.com
  */
-public class MultiPartFormData {
+public class MultiPartFormData implements Closeable {
 
-  private final Map<String, String> simpleFieldNameMap;
+  private static final int BUFFER_SIZE = 8192;
+  private static final String TEMP_FILE_PREFIX = "odk-upload-";
+  private static final String TEMP_FILE_SUFFIX = ".part";
 
-  private final Map<String, MultiPartFormItem> fieldNameMap;
+  private final Map<String, String> simpleFieldNameMap = new HashMap<String, String>();
 
-  private final Map<String, MultiPartFormItem> fileNameMap;
+  private final Map<String, MultiPartFormItem> fieldNameMap = new HashMap<String, MultiPartFormItem>();
 
-  private final Map<String, MultiPartFormItem> fileNameWithoutExtensionNameMap;
+  private final Map<String, MultiPartFormItem> fileNameMap = new HashMap<String, MultiPartFormItem>();
 
+  private final Map<String, MultiPartFormItem> fileNameWithoutExtensionNameMap = new HashMap<String, MultiPartFormItem>();
+
+  private final List<File> tempFiles = new ArrayList<File>();
+
+  private final MultiPartUploadSettings settings;
+
+  private final long reservedMemory;
+
+  private long inMemoryRemaining;
+
+  /**
+   * Parse the request holding all of its parts in memory.
+   */
   public MultiPartFormData(HttpServletRequest req) throws FileUploadException, IOException {
+    this(req, null);
+  }
 
-    simpleFieldNameMap = new HashMap<String, String>();
-    fieldNameMap = new HashMap<String, MultiPartFormItem>();
-    fileNameMap = new HashMap<String, MultiPartFormItem>();
-    fileNameWithoutExtensionNameMap = new HashMap<String, MultiPartFormItem>();
+  /**
+   * Parse the request holding at most the memory reserved from the settings;
+   * the remaining parts are spooled to temporary files until {@link #close()}.
+   */
+  public MultiPartFormData(HttpServletRequest req, MultiPartUploadSettings settings) throws FileUploadException, IOException {
+    this.settings = settings;
+    if (settings == null) {
+      reservedMemory = 0L;
+      inMemoryRemaining = Long.MAX_VALUE;
+    } else {
+      int contentLength = req.getContentLength();
+      long wanted = settings.getInMemoryThreshold();
+      if (contentLength > 0) {
+        wanted = Math.min(wanted, contentLength);
+      }
+      reservedMemory = settings.reserveMemory(wanted);
+      inMemoryRemaining = reservedMemory;
+    }
 
+    try {
+      parse(req);
+    } catch (FileUploadException | IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  private void parse(HttpServletRequest req) throws FileUploadException, IOException {
     ServletFileUpload upload = new ServletFileUpload(
         new DiskFileItemFactory());
     int size = req.getContentLength();
@@ -70,26 +123,25 @@ public class MultiPartFormData {
 
     List<MultiPartFormItem> fileNameList = new ArrayList<MultiPartFormItem>();
 
-    FileItemIterator items = upload.getItemIterator(req);
-    while (items.hasNext()) {
-      FileItemStream item = items.next();
-      ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-      BufferedInputStream formStream = new BufferedInputStream(item
-          .openStream());
-
-      // TODO: determine ways to possibly improve efficiency
-      int nextByte = formStream.read();
-      while (nextByte != -1) {
-        byteStream.write(nextByte);
-        nextByte = formStream.read();
-      }
-      formStream.close();
+    FileItemIterator itemIterator = upload.getItemIterator(req);
+    while (itemIterator.hasNext()) {
+      FileItemStream item = itemIterator.next();
 
       if (item.isFormField()) {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        InputStream formStream = item.openStream();
+        try {
+          byte[] buffer = new byte[BUFFER_SIZE];
+          int len;
+          while ((len = formStream.read(buffer)) != -1) {
+            byteStream.write(buffer, 0, len);
+          }
+        } finally {
+          formStream.close();
+        }
         simpleFieldNameMap.put(item.getFieldName(), byteStream.toString());
       } else {
-        MultiPartFormItem data = new MultiPartFormItem(item.getFieldName(),
-            item.getName(), item.getContentType(), byteStream);
+        MultiPartFormItem data = spoolItem(item);
 
         String fieldName = item.getFieldName();
         if (fieldName != null) {
@@ -161,6 +213,78 @@ public class MultiPartFormData {
     }
   }
 
+  /**
+   * Copy the part into memory while it fits within the remaining in-memory
+   * allowance and into a temporary file otherwise, computing its md5 hash as it
+   * is read.
+   */
+  private MultiPartFormItem spoolItem(FileItemStream item) throws IOException {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Unexpected problem computing md5 hash", e);
+    }
+
+    ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    File file = null;
+    OutputStream fileStream = null;
+    long size = 0L;
+    InputStream formStream = item.openStream();
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int len;
+      while ((len = formStream.read(buffer)) != -1) {
+        md.update(buffer, 0, len);
+        size += len;
+        if (fileStream == null && size > inMemoryRemaining) {
+          // switch to spooling this part to disk
+          file = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX,
+              settings.getRepositoryDirectory());
+          tempFiles.add(file);
+          fileStream = new BufferedOutputStream(new FileOutputStream(file));
+          byteStream.writeTo(fileStream);
+          byteStream = null;
+        }
+        if (fileStream != null) {
+          fileStream.write(buffer, 0, len);
+        } else {
+          byteStream.write(buffer, 0, len);
+        }
+      }
+    } finally {
+      formStream.close();
+      if (fileStream != null) {
+        fileStream.close();
+      }
+    }
+
+    if (file == null) {
+      inMemoryRemaining -= size;
+      return new MultiPartFormItem(item.getFieldName(), item.getName(), item.getContentType(),
+          byteStream.toByteArray(), null, size, CommonFieldsBase.newMD5HashUri(md));
+    }
+    return new MultiPartFormItem(item.getFieldName(), item.getName(), item.getContentType(),
+        null, file, size, CommonFieldsBase.newMD5HashUri(md));
+  }
+
+  /**
+   * Delete any temporary files holding the parts and release the memory
+   * reserved for them.
+   */
+  @Override
+  public void close() {
+    for (File file : tempFiles) {
+      if (file.exists() && !file.delete()) {
+        file.deleteOnExit();
+      }
+    }
+    tempFiles.clear();
+    if (settings != null) {
+      settings.releaseMemory(reservedMemory);
+    }
+  }
+
   public String getSimpleFormField(String fieldName) {
     return simpleFieldNameMap.get(fieldName);
   }
@@ -17,10 +17,18 @@
 
 package org.opendatakit.aggregate.parser;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 
 /**
- * Object representation of multi part form data
+ * Object representation of multi part form data. The content is either held
+ * in memory or, for larger parts, spooled to a temporary file that is removed
+ * when the enclosing {@link MultiPartFormData} is closed.
  *
  * @author wbrunette@gmail.com
  * @author mitchellsundt@gmail.com
@@ -29,14 +37,21 @@ public final class MultiPartFormItem {
 
   private final String name;
   private final String contentType;
-  private final ByteArrayOutputStream stream;
+  private final byte[] bytes;
+  private final File file;
+  private final long size;
+  private final String contentHash;
   private String filename;
 
-  public MultiPartFormItem(String fieldName, String fileName, String contentType, ByteArrayOutputStream byteStream) {
+  public MultiPartFormItem(String fieldName, String fileName, String contentType, byte[] bytes,
+                           File file, long size, String contentHash) {
     this.name = fieldName;
     this.filename = fileName;
     this.contentType = contentType;
-    this.stream = byteStream;
+    this.bytes = bytes;
+    this.file = file;
+    this.size = size;
+    this.contentHash = contentHash;
   }
 
   public String getFilename() {
@@ -51,7 +66,44 @@ public final class MultiPartFormItem {
     return contentType;
   }
 
-  public ByteArrayOutputStream getStream() {
-    return stream;
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return the md5 hash of the content, in the form produced by
+   *     CommonFieldsBase.newMD5HashUri()
+   */
+  public String getContentHash() {
+    return contentHash;
+  }
+
+  public boolean isInMemory() {
+    return file == null;
+  }
+
+  /**
+   * @return a new stream over the content. The caller must close it.
+   */
+  public InputStream openStream() throws IOException {
+    if (file == null) {
+      return new ByteArrayInputStream(bytes);
+    }
+    return new BufferedInputStream(new FileInputStream(file));
+  }
+
+  /**
+   * @return the content as a byte array. This reads a spooled part back into
+   *     memory, so prefer {@link #openStream()} for attachments.
+   */
+  public byte[] getBytes() throws IOException {
+    if (file == null) {
+      return bytes;
+    }
+    return Files.readAllBytes(file.toPath());
+  }
+
+  public String getString(String encoding) throws IOException {
+    return new String(getBytes(), encoding);
   }
 }
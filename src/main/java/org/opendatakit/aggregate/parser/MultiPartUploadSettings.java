@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.parser;
+
+import java.io.File;
+import java.util.concurrent.Semaphore;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Limits on how much of a multipart upload is held in memory by
+ * {@link MultiPartFormData}.
+ * <p>
+ * Each upload may keep up to inMemoryThreshold bytes of its parts in memory,
+ * drawn from a budget of maxInMemoryBytes shared by all concurrent uploads.
+ * Whatever does not fit is spooled to temporary files in the repository
+ * directory (java.io.tmpdir if not set).
+ */
+public class MultiPartUploadSettings implements InitializingBean {
+
+  private static final int BYTES_PER_PERMIT = 1024;
+
+  private int inMemoryThreshold = 256 * 1024;
+  private long maxInMemoryBytes = 64L * 1024 * 1024;
+  private String repository = null;
+  private Semaphore memoryPermits;
+  private File repositoryDirectory;
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    if (inMemoryThreshold < 0) {
+      throw new IllegalStateException("inMemoryThreshold must not be negative");
+    }
+    if (maxInMemoryBytes < 0) {
+      throw new IllegalStateException("maxInMemoryBytes must not be negative");
+    }
+    memoryPermits = new Semaphore((int) Math.min(Integer.MAX_VALUE, maxInMemoryBytes / BYTES_PER_PERMIT));
+    if (repository == null || repository.trim().length() == 0) {
+      repositoryDirectory = new File(System.getProperty("java.io.tmpdir"));
+    } else {
+      repositoryDirectory = new File(repository.trim());
+    }
+  }
+
+  public int getInMemoryThreshold() {
+    return inMemoryThreshold;
+  }
+
+  public void setInMemoryThreshold(int inMemoryThreshold) {
+    this.inMemoryThreshold = inMemoryThreshold;
+  }
+
+  public long getMaxInMemoryBytes() {
+    return maxInMemoryBytes;
+  }
+
+  public void setMaxInMemoryBytes(long maxInMemoryBytes) {
+    this.maxInMemoryBytes = maxInMemoryBytes;
+  }
+
+  public String getRepository() {
+    return repository;
+  }
+
+  public void setRepository(String repository) {
+    this.repository = repository;
+  }
+
+  public File getRepositoryDirectory() {
+    return repositoryDirectory;
+  }
+
+  /**
+   * Reserve memory from the shared budget without waiting.
+   *
+   * @return the number of bytes reserved: either all of the wanted bytes
+   *     (rounded up to whole kilobytes) or 0 if the budget is exhausted, in which
+   *     case the upload should be spooled entirely to disk.
+   */
+  public long reserveMemory(long wanted) {
+    int permits = (int) Math.min(Integer.MAX_VALUE, (wanted + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT);
+    if (permits == 0 || !memoryPermits.tryAcquire(permits)) {
+      return 0L;
+    }
+    return ((long) permits) * BYTES_PER_PERMIT;
+  }
+
+  /**
+   * Return memory obtained from {@link #reserveMemory(long)} to the budget.
+   */
+  public void releaseMemory(long reserved) {
+    int permits = (int) (reserved / BYTES_PER_PERMIT);
+    if (permits > 0) {
+      memoryPermits.release(permits);
+    }
+  }
+}
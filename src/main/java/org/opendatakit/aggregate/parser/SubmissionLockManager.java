@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.parser;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.opendatakit.common.utils.LatencyHistogram;
+
+/**
+ * Decides how {@link SubmissionLockTemplate} serializes the processing of a
+ * submission, and keeps the in-process locks and lock timings.
+ * <ul>
+ * <li>database: a datastore task lock only, as in earlier releases.</li>
+ * <li>local: an in-process lock only. Only for installs with a single
+ * server.</li>
+ * <li>hybrid: an in-process lock, then the datastore task lock. Requests
+ * on the same server queue on the in-process lock, so the datastore lock only
+ * sees contention from other servers.</li>
+ * </ul>
+ */
+public class SubmissionLockManager {
+
+  public enum Mode {
+    DATABASE, LOCAL, HYBRID
+  }
+
+  /**
+   * The datastore lock expires after about a minute; don't queue for longer
+   * than half of that.
+   */
+  private static final long LOCAL_WAIT_MILLISECONDS = 30000L;
+
+  private final Map<String, LocalLock> localLocks = new HashMap<String, LocalLock>();
+  private final LatencyHistogram waitTimes = new LatencyHistogram();
+  private final LatencyHistogram holdTimes = new LatencyHistogram();
+  private Mode mode = Mode.HYBRID;
+
+  public String getMode() {
+    return mode.name().toLowerCase(Locale.ROOT);
+  }
+
+  public void setMode(String mode) {
+    try {
+      this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("mode must be one of database, local or hybrid", e);
+    }
+  }
+
+  public boolean usesLocalLocks() {
+    return mode != Mode.DATABASE;
+  }
+
+  public boolean usesDatabaseLocks() {
+    return mode != Mode.LOCAL;
+  }
+
+  /**
+   * @return the time submissions waited for their lock, in milliseconds.
+   */
+  public LatencyHistogram getWaitTimes() {
+    return waitTimes;
+  }
+
+  /**
+   * @return the time submissions held their lock, in milliseconds.
+   */
+  public LatencyHistogram getHoldTimes() {
+    return holdTimes;
+  }
+
+  /**
+   * @return true if the in-process lock for the key was obtained, false if it
+   *     stayed busy for too long.
+   */
+  boolean lockLocally(String key) throws InterruptedException {
+    LocalLock lock;
+    synchronized (localLocks) {
+      lock = localLocks.get(key);
+      if (lock == null) {
+        lock = new LocalLock();
+        localLocks.put(key, lock);
+      }
+      ++lock.users;
+    }
+    boolean locked = false;
+    try {
+      locked = lock.permit.tryAcquire(LOCAL_WAIT_MILLISECONDS, TimeUnit.MILLISECONDS);
+    } finally {
+      if (!locked) {
+        release(key, lock, false);
+      }
+    }
+    return locked;
+  }
+
+  void unlockLocally(String key) {
+    LocalLock lock;
+    synchronized (localLocks) {
+      lock = localLocks.get(key);
+    }
+    if (lock == null) {
+      throw new IllegalStateException("no in-process lock held for " + key);
+    }
+    release(key, lock, true);
+  }
+
+  private void release(String key, LocalLock lock, boolean held) {
+    synchronized (localLocks) {
+      if (held) {
+        lock.permit.release();
+      }
+      if (--lock.users == 0) {
+        localLocks.remove(key);
+      }
+    }
+  }
+
+  /**
+   * @return the number of keys with a holder or waiters.
+   */
+  int getLocalLockCount() {
+    synchronized (localLocks) {
+      return localLocks.size();
+    }
+  }
+
+  private static final class LocalLock {
+    // not thread-bound, like the datastore lock
+    final Semaphore permit = new Semaphore(1, true);
+    // holder and waiters; guarded by localLocks
+    int users = 0;
+  }
+}
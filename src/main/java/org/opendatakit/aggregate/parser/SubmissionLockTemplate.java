@@ -18,6 +18,7 @@ package org.opendatakit.aggregate.parser;
 
 import java.util.Random;
 import java.util.UUID;
+import org.opendatakit.aggregate.constants.BeanDefs;
 import org.opendatakit.common.persistence.Datastore;
 import org.opendatakit.common.persistence.ITaskLockType;
 import org.opendatakit.common.persistence.PersistConsts;
@@ -29,6 +30,10 @@ import org.opendatakit.common.web.CallingContext;
 /**
  * Make datastore locks a little easier. NOT threadsafe.
  * Copied and modified from LockTemplate for the ODK 2.0
+ * <p>
+ * Locks one submission (form id and instance id). Depending on the mode of the
+ * {@link SubmissionLockManager}, this takes an in-process lock, a datastore
+ * task lock, or both.
  *
  * @author mitchellsundt@gmail.com
  * @author the.dylan.price@gmail.com
@@ -40,19 +45,23 @@ public class SubmissionLockTemplate {
   private static final int TRIES = 4;
   private static final int INITIAL_MAX_BACKOFF = 250;
   private String formId;
+  private SubmissionLockManager lockManager;
   private Datastore ds;
   private User user;
   private String lockId;
   private long maxBackoffMs;
   private Random rand;
+  private boolean locallyLocked = false;
+  private long acquiredAt = 0L;
 
   public SubmissionLockTemplate(String formId, String instanceId, CallingContext cc) {
     if (instanceId == null || instanceId.length() == 0) {
       throw new IllegalArgumentException("instanceId cannot be null or blank");
     } else {
-      this.formId = "submission|" + formId + "|" + Integer.toHexString(instanceId.hashCode() & 0xff);
+      this.formId = "submission|" + formId + "|" + instanceId;
     }
 
+    this.lockManager = (SubmissionLockManager) cc.getBean(BeanDefs.SUBMISSION_LOCK_MANAGER);
     this.ds = cc.getDatastore();
     this.user = cc.getCurrentUser();
     this.lockId = UUID.randomUUID().toString();
@@ -61,6 +70,33 @@ public class SubmissionLockTemplate {
   }
 
   public void acquire() throws ODKTaskLockException {
+    long start = System.currentTimeMillis();
+    if (lockManager.usesLocalLocks()) {
+      boolean locked;
+      try {
+        locked = lockManager.lockLocally(formId);
+      } catch (InterruptedException e) {
+        throw new ODKTaskLockException(e);
+      }
+      if (!locked) {
+        throw new ODKTaskLockException(String.format("Timed out acquiring in-process lock. "
+            + "formId: %s", formId));
+      }
+      locallyLocked = true;
+    }
+    if (lockManager.usesDatabaseLocks()) {
+      try {
+        acquireDatabaseLock();
+      } catch (ODKTaskLockException e) {
+        releaseLocalLock();
+        throw e;
+      }
+    }
+    acquiredAt = System.currentTimeMillis();
+    lockManager.getWaitTimes().record(acquiredAt - start);
+  }
+
+  private void acquireDatabaseLock() throws ODKTaskLockException {
     TaskLock lock = ds.createTaskLock(user);
     boolean acquired = false;
     maxBackoffMs = INITIAL_MAX_BACKOFF;
@@ -85,6 +121,27 @@ public class SubmissionLockTemplate {
   }
 
   public void release() throws ODKTaskLockException {
+    try {
+      if (lockManager.usesDatabaseLocks()) {
+        releaseDatabaseLock();
+      }
+    } finally {
+      releaseLocalLock();
+      if (acquiredAt != 0L) {
+        lockManager.getHoldTimes().record(System.currentTimeMillis() - acquiredAt);
+        acquiredAt = 0L;
+      }
+    }
+  }
+
+  private void releaseLocalLock() {
+    if (locallyLocked) {
+      locallyLocked = false;
+      lockManager.unlockLocally(formId);
+    }
+  }
+
+  private void releaseDatabaseLock() throws ODKTaskLockException {
     TaskLock lock = ds.createTaskLock(user);
     maxBackoffMs = INITIAL_MAX_BACKOFF;
     for (int i = 0; i < TRIES; i++) {
@@ -18,7 +18,6 @@
 
 package org.opendatakit.aggregate.parser;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -53,6 +52,7 @@ import org.opendatakit.common.datamodel.ODKEnumeratedElementException;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.Datastore;
 import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.persistence.Transaction;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
@@ -101,7 +101,7 @@ public class SubmissionParser {
       throw new IOException("DID NOT GET A SUBMISSION");
     }
 
-    InputStream inputStreamXML = new ByteArrayInputStream(submission.getStream().toByteArray());
+    InputStream inputStreamXML = submission.openStream();
     try {
       constructorHelper(inputStreamXML, isIncomplete, cc);
     } finally {
@@ -296,28 +296,30 @@ public class SubmissionParser {
 
       topLevelTableKey = submission.getKey();
 
-      Map<String, Integer> repeatGroupIndices = new HashMap<String, Integer>();
-      FormElementModel formRoot = form.getTopLevelGroupElement();
-      // if the submission is pre-existing in the datastore, ONLY update binaries
-      boolean uploadAllBinaries = processSubmissionElement(formRoot, root, submission,
-          repeatGroupIndices, preExisting, cc);
-      submission.setIsComplete(uploadAllBinaries);
-      if (uploadAllBinaries) {
-        submission.setMarkedAsCompleteDate(markedAsCompleteDate);
-      }
-      // save the elements inserted into the top-level submission
+      // write the attachments and the rows of the submission in one unit of
+      // work, so that a failure leaves nothing behind and no one sees a
+      // partially written submission.
+      Transaction transaction = cc.getDatastore().beginTransaction(cc.getCurrentUser());
       try {
-        submission.persist(cc);
-      } catch (Exception e) {
-        List<EntityKey> keys = new ArrayList<EntityKey>();
-        submission.recursivelyAddEntityKeysForDeletion(keys, cc);
-        keys.add(submission.getKey());
+        Map<String, Integer> repeatGroupIndices = new HashMap<String, Integer>();
+        FormElementModel formRoot = form.getTopLevelGroupElement();
+        // if the submission is pre-existing in the datastore, ONLY update binaries
+        boolean uploadAllBinaries = processSubmissionElement(formRoot, root, submission,
+            repeatGroupIndices, preExisting, cc);
+        submission.setIsComplete(uploadAllBinaries);
+        if (uploadAllBinaries) {
+          submission.setMarkedAsCompleteDate(markedAsCompleteDate);
+        }
+        // save the elements inserted into the top-level submission
         try {
-          DeleteHelper.deleteEntities(keys, cc);
-        } catch (Exception ex) {
-          // ignore... we are rolling back...
+          submission.persist(cc);
+          transaction.commit();
+        } catch (Exception e) {
+          throw new ODKDatastoreException("Unable to persist data", e);
         }
-        throw new ODKDatastoreException("Unable to persist data", e);
+      } finally {
+        // does nothing once committed
+        transaction.rollback();
       }
     } finally {
       modificationLock.release();
@@ -489,9 +491,14 @@ public class SubmissionParser {
         if (fileName == null || fileName.length() == 0) {
           fileName = null;
         }
-        byte[] byteArray = binaryData.getStream().toByteArray();
-        submissionElement.setValueFromByteArray(byteArray, binaryData.getContentType(),
-            fileName, false, cc);
+        // stream the (possibly spooled) attachment into the blob parts
+        try (InputStream content = binaryData.openStream()) {
+          ((BlobSubmissionType) submissionElement).setValueFromStream(content,
+              binaryData.getSize(), binaryData.getContentHash(), binaryData.getContentType(),
+              fileName, false, cc);
+        } catch (IOException e) {
+          throw new ODKDatastoreException("unable to read attachment " + value, e);
+        }
       } else {
         // Assume the value is the filename...
         submissionElement.setValueFromByteArray(null, null, value, false, cc);
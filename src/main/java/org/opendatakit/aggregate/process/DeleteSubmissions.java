@@ -17,8 +17,14 @@
 package org.opendatakit.aggregate.process;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import org.opendatakit.aggregate.datamodel.FormDataModel;
+import org.opendatakit.aggregate.datamodel.FormDataModel.ElementType;
 import org.opendatakit.aggregate.datamodel.TopLevelDynamicBase;
 import org.opendatakit.aggregate.exception.ODKFormNotFoundException;
 import org.opendatakit.aggregate.form.FormFactory;
@@ -28,6 +34,7 @@ import org.opendatakit.aggregate.submission.SubmissionKey;
 import org.opendatakit.aggregate.submission.SubmissionKeyPart;
 import org.opendatakit.common.datamodel.DeleteHelper;
 import org.opendatakit.common.datamodel.DynamicCommonFieldsBase;
+import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.EntityKey;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
@@ -50,6 +57,7 @@ public class DeleteSubmissions {
 
   public void deleteSubmissions(CallingContext cc) throws ODKOverQuotaException, ODKFormNotFoundException, ODKDatastoreException {
     List<EntityKey> deleteKeys = new ArrayList<EntityKey>();
+    Map<String, Integer> relationRanks = new HashMap<String, Integer>();
 
     for (SubmissionKey submissionKey : submissionKeys) {
       List<SubmissionKeyPart> parts = submissionKey.splitSubmissionKey();
@@ -69,6 +77,7 @@ public class DeleteSubmissions {
       if (tle != null) {
         // we have the top-level entity. Construct the submission.
         IForm form = FormFactory.retrieveFormByFormId(parts.get(0).getElementName(), cc);
+        rankRelations(form.getTopLevelGroupElement().getFormDataModel(), false, relationRanks);
         try {
           Submission sub = new Submission(tle, form, cc);
           sub.recursivelyAddEntityKeysForDeletion(deleteKeys, cc);
@@ -81,6 +90,53 @@ public class DeleteSubmissions {
         }
       }
     }
+    // lay the keys out level by level across all the submissions so that
+    // each table is cleared with one set of statements.
+    Collections.sort(deleteKeys, new Comparator<EntityKey>() {
+      @Override
+      public int compare(EntityKey a, EntityKey b) {
+        return Integer.compare(getRank(a, relationRanks), getRank(b, relationRanks));
+      }
+    });
     DeleteHelper.deleteEntities(deleteKeys, cc);
   }
+
+  /**
+   * Number the tables of the form in the order recursivelyAddEntityKeysForDeletion
+   * adds their rows: a group's table before its phantom and repeat tables, and
+   * the blob and reference tables of a binary field before its content table.
+   */
+  private static void rankRelations(FormDataModel m, boolean childrenFirst,
+      Map<String, Integer> relationRanks) {
+    boolean binary = childrenFirst || m.getElementType() == ElementType.BINARY;
+    if (!binary) {
+      rankRelation(m.getBackingObjectPrototype(), relationRanks);
+    }
+    for (FormDataModel child : m.getChildren()) {
+      rankRelations(child, binary, relationRanks);
+    }
+    if (binary) {
+      rankRelation(m.getBackingObjectPrototype(), relationRanks);
+    }
+  }
+
+  private static void rankRelation(CommonFieldsBase relation, Map<String, Integer> relationRanks) {
+    if (relation == null) {
+      return;
+    }
+    String name = relation.getSchemaName() + "." + relation.getTableName();
+    if (!relationRanks.containsKey(name)) {
+      relationRanks.put(name, relationRanks.size());
+    }
+  }
+
+  /**
+   * Rows of tables outside the form (e.g., thumbnails) are added after the
+   * rows they are derived from, so they rank last.
+   */
+  private static int getRank(EntityKey key, Map<String, Integer> relationRanks) {
+    CommonFieldsBase relation = key.getRelation();
+    Integer rank = relationRanks.get(relation.getSchemaName() + "." + relation.getTableName());
+    return (rank == null) ? Integer.MAX_VALUE : rank;
+  }
 }
@@ -22,6 +22,7 @@ import org.opendatakit.aggregate.datamodel.TopLevelDynamicBase;
 import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.server.ServerPreferencesProperties;
 import org.opendatakit.aggregate.submission.Submission;
+import org.opendatakit.aggregate.submission.SubmissionPrefetch;
 import org.opendatakit.common.datamodel.ODKEnumeratedElementException;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.PersistConsts;
@@ -81,12 +82,13 @@ public class QueryByDateRange extends QueryBase {
 
     // retrieve submissions
     List<? extends CommonFieldsBase> submissionEntities = result.getResultList();
+    SubmissionPrefetch prefetch = new SubmissionPrefetch(getForm(), submissionEntities, cc);
 
     // create a row for each submission
     for (int count = 0; count < submissionEntities.size(); count++) {
       CommonFieldsBase subEntity = submissionEntities.get(count);
       try {
-        retrievedSubmissions.add(new Submission((TopLevelDynamicBase) subEntity, getForm(), cc));
+        retrievedSubmissions.add(new Submission((TopLevelDynamicBase) subEntity, getForm(), prefetch, cc));
       } catch (ODKDatastoreException e) {
         Logger logger = LoggerFactory.getLogger(QueryByUIFilterGroup.class);
         e.printStackTrace();
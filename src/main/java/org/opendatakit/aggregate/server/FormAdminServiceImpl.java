@@ -168,10 +168,12 @@ public class FormAdminServiceImpl extends XsrfProtectedServiceServlet implements
       throw new DatastoreFailureException(e);
     }
 
-    MiscTasks m;
     try {
-      m = new MiscTasks(PURGE_OLDER_SUBMISSIONS, form, parameters, cc);
+      MiscTasks m = new MiscTasks(PURGE_OLDER_SUBMISSIONS, form, parameters, cc);
       m.persist(cc);
+      CallingContext ccDaemon = getCallingContext(this, req);
+      ccDaemon.setAsDaemon(true);
+      pos.createPurgeOlderSubmissionsTask(form, m.getSubmissionKey(), 1L, ccDaemon);
     } catch (ODKOverQuotaException e) {
       e.printStackTrace();
       throw new RequestFailureException(QUOTA_EXCEEDED);
@@ -180,9 +182,6 @@ public class FormAdminServiceImpl extends XsrfProtectedServiceServlet implements
       throw new RequestFailureException(
           "Unable to establish task to purge submitted data for form " + fsc.getFormId());
     }
-    CallingContext ccDaemon = getCallingContext(this, req);
-    ccDaemon.setAsDaemon(true);
-    pos.createPurgeOlderSubmissionsTask(form, m.getSubmissionKey(), 1L, ccDaemon);
     return earliest;
   }
 
@@ -430,10 +429,12 @@ public class FormAdminServiceImpl extends XsrfProtectedServiceServlet implements
 
     parameters.put(PURGE_DATE, PurgeOlderSubmissions.formatPurgeDate(value));
 
-    MiscTasks m;
     try {
-      m = new MiscTasks(PURGE_OLDER_SUBMISSIONS, form, parameters, cc);
+      MiscTasks m = new MiscTasks(PURGE_OLDER_SUBMISSIONS, form, parameters, cc);
       m.persist(cc);
+      CallingContext ccDaemon = getCallingContext(this, req);
+      ccDaemon.setAsDaemon(true);
+      pos.createPurgeOlderSubmissionsTask(form, m.getSubmissionKey(), 1L, ccDaemon);
     } catch (ODKOverQuotaException e) {
       e.printStackTrace();
       throw new RequestFailureException(QUOTA_EXCEEDED);
@@ -442,9 +443,6 @@ public class FormAdminServiceImpl extends XsrfProtectedServiceServlet implements
       throw new RequestFailureException(
           "Unable to establish task to purge submitted data for form " + formId);
     }
-    CallingContext ccDaemon = getCallingContext(this, req);
-    ccDaemon.setAsDaemon(true);
-    pos.createPurgeOlderSubmissionsTask(form, m.getSubmissionKey(), 1L, ccDaemon);
     return value;
   }
 
@@ -202,9 +202,11 @@ public class ServicesAdminServiceImpl extends RemoteServiceServlet implements
       try {
         boolean deleted = FormServiceCursor.deleteExternalServiceTask(es, cc);
         // and insert a sleep to let this settle before returning
-        try {
-          Thread.sleep(PersistConsts.MIN_SETTLE_MILLISECONDS);
-        } catch (InterruptedException e) {
+        if (!cc.getDatastore().isStronglyConsistent()) {
+          try {
+            Thread.sleep(PersistConsts.MIN_SETTLE_MILLISECONDS);
+          } catch (InterruptedException e) {
+          }
         }
         // success!
         return deleted;
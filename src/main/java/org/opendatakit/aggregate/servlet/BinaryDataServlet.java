@@ -21,7 +21,9 @@ package org.opendatakit.aggregate.servlet;
 import static java.time.ZoneId.systemDefault;
 import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.time.Duration;
 import java.time.OffsetDateTime;
@@ -43,6 +45,7 @@ import org.opendatakit.aggregate.submission.SubmissionKey;
 import org.opendatakit.aggregate.submission.SubmissionKeyPart;
 import org.opendatakit.aggregate.submission.type.BlobSubmissionType;
 import org.opendatakit.aggregate.util.ImageUtil;
+import org.opendatakit.aggregate.util.ThumbnailTable;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
 import org.opendatakit.common.web.CallingContext;
@@ -58,6 +61,12 @@ public class BinaryDataServlet extends ServletUtilBase {
   public static final String ADDR = "view/binaryData";
   private static final String NOT_BINARY_OBJECT = "Requested element is not a binary object";
   private static final Logger logger = LoggerFactory.getLogger(BinaryDataServlet.class);
+  private static final int COPY_BUFFER_SIZE = 8192;
+  /**
+   * Attachments are served with their content hash as the ETag and can be
+   * cached by the client for a year.
+   */
+  private static final long ATTACHMENT_MAX_AGE_SECONDS = 365L * 24 * 60 * 60;
   /**
    * Serial number for serialization
    */
@@ -152,10 +161,11 @@ public class BinaryDataServlet extends ServletUtilBase {
     SubmissionKey key = new SubmissionKey(keyString);
 
     Date lastUpdateDate = null;
-    byte[] imageBlob = null;
+    ContentSource source = null;
     String unrootedFileName = null;
     String contentType = null;
     Long contentLength = null;
+    String contentHash = null;
 
     List<SubmissionKeyPart> parts = key.splitSubmissionKey();
     if (parts.get(0).getElementName().equals(PersistentResults.FORM_ID_PERSISTENT_RESULT)) {
@@ -171,8 +181,9 @@ public class BinaryDataServlet extends ServletUtilBase {
         unrootedFileName = info.unrootedFilename;
         contentType = info.contentType;
         contentLength = info.contentLength;
-        imageBlob = p.getResultFileContents(cc);
+        contentHash = info.contentHash;
         lastUpdateDate = p.getCompletionDate();
+        source = offset -> p.getResultFileStream(offset, cc);
       } catch (ODKOverQuotaException e) {
         e.printStackTrace();
         quotaExceededError(resp);
@@ -240,11 +251,14 @@ public class BinaryDataServlet extends ServletUtilBase {
             // OK. This is the attachment we want...
             ordinal = ord.intValue();
           }
-          imageBlob = b.getBlob(ordinal, cc);
           lastUpdateDate = b.getLastUpdateDate(ordinal, cc);
           unrootedFileName = b.getUnrootedFilename(ordinal, cc);
           contentType = b.getContentType(ordinal, cc);
           contentLength = b.getContentLength(ordinal, cc);
+          contentHash = b.getContentHash(ordinal, cc);
+          BlobSubmissionType blob = b;
+          int attachment = ordinal;
+          source = offset -> blob.getBlobStream(attachment, offset, cc);
         } catch (ODKOverQuotaException e) {
           e.printStackTrace();
           quotaExceededError(resp);
@@ -258,49 +272,245 @@ public class BinaryDataServlet extends ServletUtilBase {
       }
     }
 
-    if (imageBlob != null && imageBlob.length > 0) {
-      if (contentType == null) {
-        contentType = HtmlConsts.RESP_TYPE_IMAGE_JPEG;
+    if (source == null || contentHash == null) {
+      resp.setContentType(HtmlConsts.RESP_TYPE_PLAIN);
+      resp.getWriter().print(ErrorConsts.NO_IMAGE_EXISTS);
+      return;
+    }
+
+    if (contentType == null) {
+      contentType = HtmlConsts.RESP_TYPE_IMAGE_JPEG;
+    }
+
+    if (downloadAsAttachmentString != null && !"".equals(downloadAsAttachmentString)) {
+      // set filename if we are downloading to disk...
+      // need this for manifest fetch logic...
+      if (unrootedFileName != null) {
+        resp.addHeader(HtmlConsts.CONTENT_DISPOSITION, "attachment; filename=\""
+            + unrootedFileName + "\"");
       }
+    }
 
+    try {
       if (previewSize) {
         // cache for 1 hour...
         resp.setHeader("Expires", OffsetDateTime.now().plus(Duration.ofHours(1)).format(RFC_1123_DATE_TIME));
         resp.setHeader("Last-Modified", OffsetDateTime.ofInstant(lastUpdateDate.toInstant(), systemDefault()).format(RFC_1123_DATE_TIME));
         resp.setContentType(HtmlConsts.RESP_TYPE_IMAGE_JPEG);
+        byte[] imageBlob;
         if (contentType.equals(HtmlConsts.RESP_TYPE_IMAGE_JPEG)) {
-          // resize
-          ImageUtil imageUtil = (ImageUtil) cc.getBean(BeanDefs.IMAGE_UTIL);
-          imageBlob = imageUtil.resizeImage(imageBlob, 64, 48);
+          imageBlob = getThumbnail(source, contentHash, cc);
         } else {
           // display not-able-to-resize image...
           imageBlob = playJPG;
         }
         resp.setContentLength(imageBlob.length);
-      } else {
-        resp.setHeader("Last-Modified", OffsetDateTime.ofInstant(lastUpdateDate.toInstant(), systemDefault()).format(RFC_1123_DATE_TIME));
-        resp.setContentType(contentType);
-        if (contentLength != null) {
-          resp.setContentLength(contentLength.intValue());
+        OutputStream os = resp.getOutputStream();
+        os.write(imageBlob);
+        os.close();
+        return;
+      }
+
+      // the content stored under a content hash never changes
+      String etag = "\"" + contentHash + "\"";
+      resp.setHeader(HtmlConsts.ETAG, etag);
+      resp.setHeader("Last-Modified", OffsetDateTime.ofInstant(lastUpdateDate.toInstant(), systemDefault()).format(RFC_1123_DATE_TIME));
+      resp.setHeader(HtmlConsts.CACHE_CONTROL, "private, max-age=" + ATTACHMENT_MAX_AGE_SECONDS);
+      resp.setHeader(HtmlConsts.ACCEPT_RANGES, "bytes");
+
+      if (isNotModified(req, etag, lastUpdateDate)) {
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+
+      long first = 0L;
+      Long length = contentLength;
+      if (contentLength != null && isRangeCurrent(req, etag, lastUpdateDate)) {
+        long[] range = parseRange(req.getHeader(HtmlConsts.RANGE), contentLength);
+        if (range != null && range.length == 0) {
+          resp.setHeader(HtmlConsts.CONTENT_RANGE, "bytes */" + contentLength);
+          resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+          return;
+        }
+        if (range != null) {
+          first = range[0];
+          length = range[1] - range[0] + 1;
+          resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+          resp.setHeader(HtmlConsts.CONTENT_RANGE, "bytes " + range[0] + "-" + range[1] + "/" + contentLength);
         }
       }
 
-      if (downloadAsAttachmentString != null && !"".equals(downloadAsAttachmentString)) {
-        // set filename if we are downloading to disk...
-        // need this for manifest fetch logic...
-        if (unrootedFileName != null) {
-          resp.addHeader(HtmlConsts.CONTENT_DISPOSITION, "attachment; filename=\""
-              + unrootedFileName + "\"");
+      resp.setContentType(contentType);
+      if (length != null) {
+        resp.setContentLengthLong(length);
+      }
+      try (InputStream content = source.open(first)) {
+        OutputStream os = resp.getOutputStream();
+        // stream the parts straight through to the client
+        copy(content, os, (length == null) ? Long.MAX_VALUE : length);
+        os.close();
+      }
+    } catch (ODKOverQuotaException e) {
+      e.printStackTrace();
+      quotaExceededError(resp);
+    } catch (ODKDatastoreException e) {
+      e.printStackTrace();
+      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+          "Unable to retrieve attachment");
+    }
+  }
+
+  /**
+   * @return the preview thumbnail of the image, generating and storing it if
+   *     this is the first time it has been requested.
+   */
+  private byte[] getThumbnail(ContentSource source, String contentHash, CallingContext cc)
+      throws IOException, ODKDatastoreException {
+    byte[] thumbnail = ThumbnailTable.getThumbnail(contentHash, ThumbnailTable.PREVIEW_WIDTH, ThumbnailTable.PREVIEW_HEIGHT, cc);
+    if (thumbnail != null) {
+      return thumbnail;
+    }
+    byte[] imageBlob;
+    try (InputStream content = source.open(0L)) {
+      imageBlob = readFully(content);
+    }
+    ImageUtil imageUtil = (ImageUtil) cc.getBean(BeanDefs.IMAGE_UTIL);
+    thumbnail = imageUtil.resizeImage(imageBlob, ThumbnailTable.PREVIEW_WIDTH, ThumbnailTable.PREVIEW_HEIGHT);
+    if (thumbnail != imageBlob) {
+      try {
+        ThumbnailTable.putThumbnail(contentHash, ThumbnailTable.PREVIEW_WIDTH, ThumbnailTable.PREVIEW_HEIGHT, thumbnail, cc);
+      } catch (ODKDatastoreException e) {
+        // most likely a concurrent request stored it first
+        logger.warn("Unable to store thumbnail for " + contentHash + ": " + e.getMessage());
+      }
+    }
+    return thumbnail;
+  }
+
+  /**
+   * @return true if the client's copy, identified by If-None-Match or else by
+   *     If-Modified-Since, is still current.
+   */
+  static boolean isNotModified(HttpServletRequest req, String etag, Date lastUpdateDate) {
+    String ifNoneMatch = req.getHeader(HtmlConsts.IF_NONE_MATCH);
+    if (ifNoneMatch != null) {
+      for (String candidate : ifNoneMatch.split(",")) {
+        String tag = candidate.trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+        if (tag.equals("*") || tag.equals(etag)) {
+          return true;
         }
       }
+      return false;
+    }
+    return isUnmodifiedSince(req, HtmlConsts.IF_MODIFIED_SINCE, lastUpdateDate);
+  }
 
-      OutputStream os = resp.getOutputStream();
-      os.write(imageBlob);
-      os.close();
-    } else {
-      resp.setContentType(HtmlConsts.RESP_TYPE_PLAIN);
-      resp.getWriter().print(ErrorConsts.NO_IMAGE_EXISTS);
+  /**
+   * @return true if a Range request should be honoured, i.e., there is no
+   *     If-Range header or it still matches the content.
+   */
+  static boolean isRangeCurrent(HttpServletRequest req, String etag, Date lastUpdateDate) {
+    String ifRange = req.getHeader(HtmlConsts.IF_RANGE);
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      // weak validators never match for sub-ranges
+      return ifRange.equals(etag);
+    }
+    return isUnmodifiedSince(req, HtmlConsts.IF_RANGE, lastUpdateDate);
+  }
+
+  private static boolean isUnmodifiedSince(HttpServletRequest req, String header, Date lastUpdateDate) {
+    if (lastUpdateDate == null) {
+      return false;
+    }
+    long since;
+    try {
+      since = req.getDateHeader(header);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    // HTTP dates only have a resolution of seconds
+    return since != -1L && lastUpdateDate.getTime() / 1000L <= since / 1000L;
+  }
+
+  /**
+   * Parse a single byte range. Multiple ranges are not supported, so such
+   * requests, like malformed ones, are answered with the whole content.
+   *
+   * @return the first and last (inclusive) byte positions of the range; null if
+   *     the whole content should be sent; or an empty array if the range cannot
+   *     be satisfied.
+   */
+  static long[] parseRange(String rangeHeader, long contentLength) {
+    if (rangeHeader == null || !rangeHeader.startsWith("bytes=") || rangeHeader.indexOf(',') != -1) {
+      return null;
     }
+    String spec = rangeHeader.substring("bytes=".length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash == -1) {
+      return null;
+    }
+    try {
+      long first;
+      long last;
+      if (dash == 0) {
+        // the final N bytes
+        long suffixLength = Long.parseLong(spec.substring(1).trim());
+        if (suffixLength < 0L) {
+          return null;
+        }
+        first = Math.max(0L, contentLength - suffixLength);
+        last = contentLength - 1;
+        if (suffixLength == 0L || contentLength == 0L) {
+          return new long[0];
+        }
+      } else {
+        first = Long.parseLong(spec.substring(0, dash).trim());
+        String lastString = spec.substring(dash + 1).trim();
+        last = lastString.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastString);
+        if (first < 0L || last < first) {
+          return null;
+        }
+        if (first >= contentLength) {
+          return new long[0];
+        }
+        last = Math.min(last, contentLength - 1);
+      }
+      return new long[]{first, last};
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static void copy(InputStream content, OutputStream os, long length) throws IOException {
+    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    long remaining = length;
+    while (remaining > 0) {
+      int len = content.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (len == -1) {
+        break;
+      }
+      os.write(buffer, 0, len);
+      remaining -= len;
+    }
+  }
+
+  private static byte[] readFully(InputStream content) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    copy(content, bytes, Long.MAX_VALUE);
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Opens the content of the requested attachment at a given offset.
+   */
+  private interface ContentSource {
+    InputStream open(long offset) throws ODKDatastoreException;
   }
 
   private final String getKeyPath(List<SubmissionKeyPart> parts) {
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.servlet;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.http.pool.PoolStats;
+import org.opendatakit.aggregate.ContextFactory;
+import org.opendatakit.aggregate.constants.BeanDefs;
+import org.opendatakit.aggregate.parser.SubmissionLockManager;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor;
+import org.opendatakit.aggregate.task.TaskPool;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.Operation;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.TableMetrics;
+import org.opendatakit.common.persistence.engine.SqlStatementCache;
+import org.opendatakit.common.utils.HttpClientFactory;
+import org.opendatakit.common.utils.LatencyHistogram;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Read-only servlet that reports the datastore access metrics of this server,
+ * the use of its cache of generated SQL statements, the submission lock
+ * timings, the use of its pool of outgoing HTTP connections and the load on
+ * its background task pools, in the Prometheus text exposition format, so
+ * that they can be scraped by a monitoring system.
+ */
+public class DatastoreMetricsServlet extends ServletUtilBase {
+
+  /**
+   * URI from base
+   */
+  public static final String ADDR = "ssl/datastore-metrics";
+  /**
+   * Serial number for serialization
+   */
+  private static final long serialVersionUID = -4236127961025872310L;
+  private static final String RESP_TYPE_PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    CallingContext cc = ContextFactory.getCallingContext(this, req);
+
+    StringBuilder b = new StringBuilder();
+    writeMetrics(cc.getDatastore().getAccessMetrics(), b);
+    writeSqlStatementCacheMetrics(cc.getDatastore().getSqlStatementCache(), b);
+    writeSubmissionLockMetrics((SubmissionLockManager) cc.getBean(BeanDefs.SUBMISSION_LOCK_MANAGER), b);
+    writeHttpClientMetrics((HttpClientFactory) cc.getBean(BeanDefs.HTTP_CLIENT_FACTORY), b);
+    writeTaskPoolMetrics(AggregrateThreadExecutor.getAggregateThreadExecutor().getTaskPools().values(), b);
+
+    // do not cache...
+    resp.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+    resp.setHeader("Pragma", "no-cache");
+    resp.setHeader("Expires", "0");
+    resp.setContentType(RESP_TYPE_PROMETHEUS);
+    resp.setStatus(HttpServletResponse.SC_OK);
+    resp.getOutputStream().write(b.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  static void writeMetrics(DatastoreAccessMetrics metrics, StringBuilder b) {
+    Map<String, TableMetrics> tables = metrics.getTableMetrics();
+
+    b.append("# HELP odk_datastore_operations_total Queries run, and rows fetched, written or deleted, by table.\n");
+    b.append("# TYPE odk_datastore_operations_total counter\n");
+    for (Map.Entry<String, TableMetrics> e : tables.entrySet()) {
+      for (Operation op : Operation.values()) {
+        long count = e.getValue().getCount(op);
+        if (count != 0) {
+          b.append("odk_datastore_operations_total");
+          appendLabels(b, e.getKey(), op, null);
+          b.append(' ').append(count).append('\n');
+        }
+      }
+    }
+
+    b.append("# HELP odk_datastore_query_results_total Rows returned by queries, by table.\n");
+    b.append("# TYPE odk_datastore_query_results_total counter\n");
+    for (Map.Entry<String, TableMetrics> e : tables.entrySet()) {
+      if (e.getValue().getCount(Operation.QUERY) != 0) {
+        b.append("odk_datastore_query_results_total");
+        appendLabels(b, e.getKey(), null, null);
+        b.append(' ').append(e.getValue().getQueryResultCount()).append('\n');
+      }
+    }
+
+    b.append("# HELP odk_datastore_statement_duration_seconds Time taken by statements and batches, by table.\n");
+    b.append("# TYPE odk_datastore_statement_duration_seconds histogram\n");
+    for (Map.Entry<String, TableMetrics> e : tables.entrySet()) {
+      for (Operation op : Operation.values()) {
+        LatencyHistogram h = e.getValue().getLatencies(op);
+        long[] counts = h.getBucketCounts();
+        long count = 0;
+        for (long c : counts) {
+          count += c;
+        }
+        if (count == 0) {
+          continue;
+        }
+        long[] bounds = h.getBucketBounds();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; ++i) {
+          cumulative += counts[i];
+          b.append("odk_datastore_statement_duration_seconds_bucket");
+          appendLabels(b, e.getKey(), op, (i < bounds.length) ? toSeconds(bounds[i]) : "+Inf");
+          b.append(' ').append(cumulative).append('\n');
+        }
+        b.append("odk_datastore_statement_duration_seconds_sum");
+        appendLabels(b, e.getKey(), op, null);
+        b.append(' ').append(toSeconds(h.getSum())).append('\n');
+        b.append("odk_datastore_statement_duration_seconds_count");
+        appendLabels(b, e.getKey(), op, null);
+        b.append(' ').append(count).append('\n');
+      }
+    }
+  }
+
+  static void writeSqlStatementCacheMetrics(SqlStatementCache cache, StringBuilder b) {
+    b.append("# HELP odk_datastore_statement_cache_lookups_total Lookups of generated SQL statements, by whether the statement was cached.\n");
+    b.append("# TYPE odk_datastore_statement_cache_lookups_total counter\n");
+    b.append("odk_datastore_statement_cache_lookups_total{result=\"hit\"} ").append(cache.getHitCount()).append('\n');
+    b.append("odk_datastore_statement_cache_lookups_total{result=\"miss\"} ").append(cache.getMissCount()).append('\n');
+
+    b.append("# HELP odk_datastore_statement_cache_entries Generated SQL statements in the cache.\n");
+    b.append("# TYPE odk_datastore_statement_cache_entries gauge\n");
+    b.append("odk_datastore_statement_cache_entries ").append(cache.size()).append('\n');
+  }
+
+  static void writeSubmissionLockMetrics(SubmissionLockManager lockManager, StringBuilder b) {
+    b.append("# HELP odk_submission_lock_wait_seconds Time submissions waited for their lock, by locking mode.\n");
+    b.append("# TYPE odk_submission_lock_wait_seconds histogram\n");
+    appendHistogram(b, "odk_submission_lock_wait_seconds", "mode", lockManager.getMode(), lockManager.getWaitTimes());
+
+    b.append("# HELP odk_submission_lock_hold_seconds Time submissions held their lock, by locking mode.\n");
+    b.append("# TYPE odk_submission_lock_hold_seconds histogram\n");
+    appendHistogram(b, "odk_submission_lock_hold_seconds", "mode", lockManager.getMode(), lockManager.getHoldTimes());
+  }
+
+  static void writeHttpClientMetrics(HttpClientFactory factory, StringBuilder b) {
+    b.append("# HELP odk_http_client_requests_total Outgoing HTTP requests, by whether they opened a new connection.\n");
+    b.append("# TYPE odk_http_client_requests_total counter\n");
+    b.append("odk_http_client_requests_total{connection=\"new\"} ").append(factory.getConnectionsOpened()).append('\n');
+    b.append("odk_http_client_requests_total{connection=\"reused\"} ").append(factory.getConnectionsReused()).append('\n');
+
+    PoolStats stats = factory.getPoolStats();
+    b.append("# HELP odk_http_client_pool_connections Connections in the outgoing HTTP connection pool, by state.\n");
+    b.append("# TYPE odk_http_client_pool_connections gauge\n");
+    b.append("odk_http_client_pool_connections{state=\"leased\"} ").append(stats.getLeased()).append('\n');
+    b.append("odk_http_client_pool_connections{state=\"available\"} ").append(stats.getAvailable()).append('\n');
+    b.append("odk_http_client_pool_connections{state=\"pending\"} ").append(stats.getPending()).append('\n');
+  }
+
+  static void writeTaskPoolMetrics(Iterable<TaskPool> pools, StringBuilder b) {
+    b.append("# HELP odk_background_tasks_queued Background tasks waiting for a thread, by pool.\n");
+    b.append("# TYPE odk_background_tasks_queued gauge\n");
+    for (TaskPool pool : pools) {
+      b.append("odk_background_tasks_queued{pool=\"").append(pool.getName()).append("\"} ")
+          .append(pool.getQueueDepth()).append('\n');
+    }
+
+    b.append("# HELP odk_background_tasks_running Background tasks running, by pool.\n");
+    b.append("# TYPE odk_background_tasks_running gauge\n");
+    for (TaskPool pool : pools) {
+      b.append("odk_background_tasks_running{pool=\"").append(pool.getName()).append("\"} ")
+          .append(pool.getActiveCount()).append('\n');
+    }
+
+    b.append("# HELP odk_background_tasks_rejected_total Background tasks rejected because their pool was saturated, by pool.\n");
+    b.append("# TYPE odk_background_tasks_rejected_total counter\n");
+    for (TaskPool pool : pools) {
+      b.append("odk_background_tasks_rejected_total{pool=\"").append(pool.getName()).append("\"} ")
+          .append(pool.getRejectedCount()).append('\n');
+    }
+
+    b.append("# HELP odk_background_task_wait_seconds Time background tasks waited for a thread, by pool.\n");
+    b.append("# TYPE odk_background_task_wait_seconds histogram\n");
+    for (TaskPool pool : pools) {
+      appendHistogram(b, "odk_background_task_wait_seconds", "pool", pool.getName(), pool.getWaitTimes());
+    }
+
+    b.append("# HELP odk_background_task_duration_seconds Time background tasks took to run, by pool.\n");
+    b.append("# TYPE odk_background_task_duration_seconds histogram\n");
+    for (TaskPool pool : pools) {
+      appendHistogram(b, "odk_background_task_duration_seconds", "pool", pool.getName(), pool.getRunTimes());
+    }
+  }
+
+  private static void appendHistogram(StringBuilder b, String name, String label, String value,
+                                      LatencyHistogram h) {
+    long[] counts = h.getBucketCounts();
+    long[] bounds = h.getBucketBounds();
+    long cumulative = 0;
+    for (int i = 0; i < counts.length; ++i) {
+      cumulative += counts[i];
+      b.append(name).append("_bucket{").append(label).append("=\"").append(value).append("\",le=\"")
+          .append((i < bounds.length) ? toSeconds(bounds[i]) : "+Inf").append("\"} ")
+          .append(cumulative).append('\n');
+    }
+    b.append(name).append("_sum{").append(label).append("=\"").append(value).append("\"} ")
+        .append(toSeconds(h.getSum())).append('\n');
+    b.append(name).append("_count{").append(label).append("=\"").append(value).append("\"} ")
+        .append(cumulative).append('\n');
+  }
+
+  private static String toSeconds(long millis) {
+    return BigDecimal.valueOf(millis, 3).stripTrailingZeros().toPlainString();
+  }
+
+  private static void appendLabels(StringBuilder b, String table, Operation op, String le) {
+    b.append("{table=\"");
+    for (char c : table.toCharArray()) {
+      if (c == '\\' || c == '"') {
+        b.append('\\').append(c);
+      } else if (c == '\n') {
+        b.append("\\n");
+      } else {
+        b.append(c);
+      }
+    }
+    b.append('"');
+    if (op != null) {
+      b.append(",operation=\"").append(op.name().toLowerCase(Locale.ROOT)).append('"');
+    }
+    if (le != null) {
+      b.append(",le=\"").append(le).append('"');
+    }
+    b.append('}');
+  }
+}
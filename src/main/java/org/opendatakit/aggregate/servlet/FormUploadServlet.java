@@ -233,12 +233,12 @@ public class FormUploadServlet extends ServletUtilBase {
       String xmlFileName = "default.xml";
 
       if (formNameData != null) {
-        formName = formNameData.getStream().toString(HtmlConsts.UTF8_ENCODE);
+        formName = formNameData.getString(HtmlConsts.UTF8_ENCODE);
       }
       if (formXmlData != null) {
         // TODO: changed added output stream writer. probably something better
         // exists
-        inputXml = formXmlData.getStream().toString(HtmlConsts.UTF8_ENCODE);
+        inputXml = formXmlData.getString(HtmlConsts.UTF8_ENCODE);
         xmlFileName = formXmlData.getFilename();
       }
 
@@ -221,7 +221,7 @@ public class ResetUsersAndPermissionsServlet extends ServletUtilBase {
       if (usersAndPermissionsCsv != null) {
         // TODO: changed added output stream writer. probably something better
         // exists
-        inputCsv = usersAndPermissionsCsv.getStream().toString(HtmlConsts.UTF8_ENCODE);
+        inputCsv = usersAndPermissionsCsv.getString(HtmlConsts.UTF8_ENCODE);
       }
 
       StringReader csvContentReader = null;
@@ -221,7 +221,7 @@ public class ServiceAccountPrivateKeyUploadServlet extends ServletUtilBase {
       byte[] p12FileContent = null;
 
       if (privateKeyFileData != null) {
-        p12FileContent = privateKeyFileData.getStream().toByteArray();
+        p12FileContent = privateKeyFileData.getBytes();
       }
 
       if (clientId == null || serviceAccountEmail == null || p12FileContent == null ||
@@ -21,7 +21,6 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.fileupload.FileUploadException;
@@ -34,23 +33,20 @@ import org.opendatakit.aggregate.constants.HtmlUtil;
 import org.opendatakit.aggregate.constants.ParserConsts;
 import org.opendatakit.aggregate.constants.ServletConsts;
 import org.opendatakit.aggregate.constants.common.FormElementNamespace;
-import org.opendatakit.aggregate.constants.common.OperationalStatus;
 import org.opendatakit.aggregate.constants.common.UIConsts;
 import org.opendatakit.aggregate.exception.ODKConversionException;
 import org.opendatakit.aggregate.exception.ODKFormNotFoundException;
 import org.opendatakit.aggregate.exception.ODKFormSubmissionsDisabledException;
 import org.opendatakit.aggregate.exception.ODKIncompleteSubmissionData;
 import org.opendatakit.aggregate.exception.ODKParseException;
-import org.opendatakit.aggregate.externalservice.ExternalService;
-import org.opendatakit.aggregate.externalservice.FormServiceCursor;
 import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.format.Row;
 import org.opendatakit.aggregate.format.element.XmlAttributeFormatter;
 import org.opendatakit.aggregate.parser.MultiPartFormData;
+import org.opendatakit.aggregate.parser.MultiPartUploadSettings;
 import org.opendatakit.aggregate.parser.SubmissionParser;
 import org.opendatakit.aggregate.submission.Submission;
 import org.opendatakit.aggregate.task.UploadSubmissions;
-import org.opendatakit.aggregate.util.BackendActionsTable;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
@@ -208,10 +204,13 @@ public class SubmissionServlet extends ServletUtilBase {
 
     Double openRosaVersion = getOpenRosaVersion(req);
     boolean isIncomplete = false;
+    MultiPartFormData uploadedSubmissionItems = null;
     try {
       SubmissionParser submissionParser = null;
       if (ServletFileUpload.isMultipartContent(req)) {
-        MultiPartFormData uploadedSubmissionItems = new MultiPartFormData(req);
+        // attachments beyond the in-memory allowance are spooled to disk
+        uploadedSubmissionItems = new MultiPartFormData(req,
+            (MultiPartUploadSettings) cc.getBean(BeanDefs.MULTIPART_UPLOAD_SETTINGS));
         String isIncompleteFlag = uploadedSubmissionItems
             .getSimpleFormField(ServletConsts.TRANSFER_IS_INCOMPLETE);
         isIncomplete = (isIncompleteFlag != null && isIncompleteFlag.compareToIgnoreCase("YES") == 0);
@@ -226,27 +225,13 @@ public class SubmissionServlet extends ServletUtilBase {
 
       // Only trigger uploads if this submission was not already
       // marked as complete before this interaction and if it is
-      // now complete. AND...
-      // Issue a publish request only if we haven't issued one recently.
-      // use BackendActionsTable to mediate that decision.
-      // This test ONLY OCCURS during submissions, not during Watchdog
-      // firings, so we don't have to worry about bugs here affecting Watchdog.
+      // now complete. The upload task coalesces these announcements
+      // and kicks the form's publishers in the background, so
+      // publication failures do not fail the submission.
       if (!submissionParser.wasPreexistingComplete() &&
-          submissionParser.getSubmission().isComplete() &&
-          BackendActionsTable.triggerPublisher(form.getUri(), cc)) {
-        // send information to remote servers that need to be notified
-        List<ExternalService> tmp = FormServiceCursor.getExternalServicesForForm(form, cc);
+          submissionParser.getSubmission().isComplete()) {
         UploadSubmissions uploadTask = (UploadSubmissions) cc.getBean(BeanDefs.UPLOAD_TASK_BEAN);
-
-        // publication failures should not fail the submission...
-        CallingContext ccDaemon = ContextFactory.getCallingContext(this, req);
-        ccDaemon.setAsDaemon(true);
-        for (ExternalService rs : tmp) {
-          // only create upload tasks for active publishers
-          if (rs.getFormServiceCursor().getOperationalStatus() == OperationalStatus.ACTIVE) {
-            uploadTask.createFormUploadTask(rs.getFormServiceCursor(), ccDaemon);
-          }
-        }
+        uploadTask.submissionCompleted(form, cc);
       }
 
       // form full url including scheme...
@@ -353,6 +338,10 @@ public class SubmissionServlet extends ServletUtilBase {
       logger.error("Unexpected exception: " + e.getMessage());
       e.printStackTrace();
       resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Unexpected exception");
+    } finally {
+      if (uploadedSubmissionItems != null) {
+        uploadedSubmissionItems.close();
+      }
     }
   }
 }
@@ -64,6 +64,15 @@ public class Submission extends SubmissionSet {
     super(null, submission, form.getTopLevelGroupElement(), form, cc);
   }
 
+  /**
+   * Construct a submission from an entity from the data store, taking the rows
+   * of its repeat, phantom, choice and binary tables from the given prefetch.
+   */
+  public Submission(TopLevelDynamicBase submission, IForm form, SubmissionPrefetch prefetch,
+                    CallingContext cc) throws ODKDatastoreException {
+    super(null, submission, form.getTopLevelGroupElement(), form, prefetch, cc);
+  }
+
   public Submission(String uri, IForm form, CallingContext cc) throws
       ODKDatastoreException {
     super(null, (TopLevelDynamicBase) cc.getDatastore().getEntity(
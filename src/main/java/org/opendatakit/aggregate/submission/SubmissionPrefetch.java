@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.submission;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.opendatakit.aggregate.datamodel.FormDataModel;
+import org.opendatakit.aggregate.datamodel.FormDataModel.DDRelationName;
+import org.opendatakit.aggregate.datamodel.FormDataModel.ElementType;
+import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.common.datamodel.DynamicBase;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.Query;
+import org.opendatakit.common.persistence.Query.Direction;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Holds the phantom, repeat, select-choice and binary-content rows of a page
+ * of submissions so that their {@link SubmissionSet} trees can be assembled in
+ * memory instead of issuing several queries per submission.
+ * <p>
+ * The tables are fetched level by level, parents before children, with a
+ * single _PARENT_AURI IN (...) query per table and chunk of parent rows. The
+ * rows are indexed by their _PARENT_AURI, ordered by _ORDINAL_NUMBER.
+ */
+public class SubmissionPrefetch {
+
+  /**
+   * Keeps the IN (...) lists well within the bind parameter limits of all the
+   * supported databases.
+   */
+  private static final int MAX_PARENT_AURIS_PER_QUERY = 500;
+
+  private final Map<DDRelationName, Map<String, List<CommonFieldsBase>>> rowsByRelation = new HashMap<DDRelationName, Map<String, List<CommonFieldsBase>>>();
+
+  public SubmissionPrefetch(IForm form, List<? extends CommonFieldsBase> topLevelRows, CallingContext cc)
+      throws ODKDatastoreException {
+    FormDataModel topLevelModel = form.getTopLevelGroupElement().getFormDataModel();
+    Map<DDRelationName, DynamicBase> relations = new LinkedHashMap<DDRelationName, DynamicBase>();
+    Map<DDRelationName, DDRelationName> parentRelations = new HashMap<DDRelationName, DDRelationName>();
+    collectChildRelations(topLevelModel, topLevelModel.getDDRelationName(), relations, parentRelations);
+
+    Map<DDRelationName, List<String>> urisByRelation = new HashMap<DDRelationName, List<String>>();
+    List<String> topLevelAuris = new ArrayList<String>();
+    for (CommonFieldsBase row : topLevelRows) {
+      topLevelAuris.add(row.getUri());
+    }
+    urisByRelation.put(topLevelModel.getDDRelationName(), topLevelAuris);
+
+    // the relations are collected parents first, so the uris of the parent
+    // rows are known by the time a table is fetched.
+    for (Map.Entry<DDRelationName, DynamicBase> e : relations.entrySet()) {
+      List<String> uris = new ArrayList<String>();
+      rowsByRelation.put(e.getKey(),
+          fetchRows(e.getValue(), urisByRelation.get(parentRelations.get(e.getKey())), uris, cc));
+      urisByRelation.put(e.getKey(), uris);
+    }
+  }
+
+  /**
+   * @return the rows of the given backing table whose parent is uriParent, in
+   *     ordinal order; an empty list if there are none; or null if the table was
+   *     not prefetched (in which case the caller should query it directly).
+   */
+  public List<CommonFieldsBase> getChildRows(DDRelationName relationName, String uriParent) {
+    Map<String, List<CommonFieldsBase>> rowsByParent = rowsByRelation.get(relationName);
+    if (rowsByParent == null) {
+      return null;
+    }
+    List<CommonFieldsBase> rows = rowsByParent.get(uriParent);
+    return (rows == null) ? new ArrayList<CommonFieldsBase>() : rows;
+  }
+
+  /**
+   * Repeat, choice and binary-content rows hang off the row of their
+   * submission set (the top-level or repeat row); phantom rows hang off the
+   * row of the group they are split from.
+   */
+  private static void collectChildRelations(FormDataModel groupDataModel, DDRelationName setName,
+                                            Map<DDRelationName, DynamicBase> relations,
+                                            Map<DDRelationName, DDRelationName> parentRelations) {
+    DDRelationName groupName = groupDataModel.getDDRelationName();
+    for (FormDataModel m : groupDataModel.getChildren()) {
+      ElementType type = m.getElementType();
+      if (m.getPersistAsColumn() != null ||
+          type == ElementType.BINARY_CONTENT_REF_BLOB ||
+          type == ElementType.REF_BLOB) {
+        continue;
+      }
+      DDRelationName name = m.getDDRelationName();
+      if (!name.equals(groupName) && !relations.containsKey(name)
+          && (m.getBackingObjectPrototype() instanceof DynamicBase)) {
+        relations.put(name, (DynamicBase) m.getBackingObjectPrototype());
+        boolean setChild = (type == ElementType.REPEAT || type == ElementType.SELECT1
+            || type == ElementType.SELECTN || type == ElementType.BINARY);
+        parentRelations.put(name, setChild ? setName : groupName);
+      }
+      // the blob tables under a BINARY element are fetched lazily
+      if (type != ElementType.BINARY) {
+        collectChildRelations(m, (type == ElementType.REPEAT) ? name : setName, relations, parentRelations);
+      }
+    }
+  }
+
+  private static Map<String, List<CommonFieldsBase>> fetchRows(DynamicBase relation, List<String> parentAuris,
+                                                              List<String> uris, CallingContext cc)
+      throws ODKDatastoreException {
+    Map<String, List<CommonFieldsBase>> rowsByParent = new HashMap<String, List<CommonFieldsBase>>();
+    for (int i = 0; i < parentAuris.size(); i += MAX_PARENT_AURIS_PER_QUERY) {
+      List<String> chunk = parentAuris.subList(i, Math.min(i + MAX_PARENT_AURIS_PER_QUERY, parentAuris.size()));
+      Query q = cc.getDatastore().createQuery(relation, "SubmissionPrefetch.fetchRows", cc.getCurrentUser());
+      q.addValueSetFilter(relation.parentAuri, chunk);
+      q.addSort(relation.parentAuri, Direction.ASCENDING);
+      q.addSort(relation.ordinalNumber, Direction.ASCENDING);
+      for (CommonFieldsBase cb : q.executeQuery()) {
+        String uriParent = ((DynamicBase) cb).getParentAuri();
+        List<CommonFieldsBase> rows = rowsByParent.get(uriParent);
+        if (rows == null) {
+          rows = new ArrayList<CommonFieldsBase>();
+          rowsByParent.put(uriParent, rows);
+        }
+        rows.add(cb);
+        uris.add(cb.getUri());
+      }
+    }
+    return rowsByParent;
+  }
+}
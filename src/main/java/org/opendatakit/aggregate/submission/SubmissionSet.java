@@ -87,6 +87,11 @@ public class SubmissionSet implements Comparable<SubmissionSet>, SubmissionEleme
   private final EntityKey key;
   private final IForm form;
   private final EntityKey topLevelTableKey;
+  /**
+   * Rows of the child tables fetched in bulk for a page of submissions, or null
+   * if the child tables should be queried for this submission set alone.
+   */
+  private final SubmissionPrefetch prefetch;
 
   /**
    * Map of propteryName to submission values that make up the data contained in
@@ -110,6 +115,7 @@ public class SubmissionSet implements Comparable<SubmissionSet>, SubmissionEleme
     }
     this.key = tlg.getEntityKey();
     this.topLevelTableKey = topLevelTableKey;
+    this.prefetch = null;
     dbEntities.put(group.getFormDataModel().getDDRelationName(), tlg);
     recursivelyCreateEntities(group.getFormDataModel(), datastore, user);
     buildSubmissionFields(group, cc);
@@ -131,6 +137,7 @@ public class SubmissionSet implements Comparable<SubmissionSet>, SubmissionEleme
     tlg.setUiVersion(uiVersion);
     this.key = tlg.getEntityKey();
     this.topLevelTableKey = key;
+    this.prefetch = null;
     // persist and recursively construct it...
     dbEntities.put(group.getFormDataModel().getDDRelationName(), tlg);
     recursivelyCreateEntities(group.getFormDataModel(), datastore, user);
@@ -138,10 +145,15 @@ public class SubmissionSet implements Comparable<SubmissionSet>, SubmissionEleme
   }
 
   public SubmissionSet(SubmissionSet enclosingSet, DynamicCommonFieldsBase row, FormElementModel group, IForm form, CallingContext cc) throws ODKDatastoreException {
+    this(enclosingSet, row, group, form, null, cc);
+  }
+
+  public SubmissionSet(SubmissionSet enclosingSet, DynamicCommonFieldsBase row, FormElementModel group, IForm form, SubmissionPrefetch prefetch, CallingContext cc) throws ODKDatastoreException {
     this.form = form;
     this.group = group;
     this.enclosingSet = enclosingSet;
     this.key = row.getEntityKey();
+    this.prefetch = prefetch;
     Datastore datastore = cc.getDatastore();
     User user = cc.getCurrentUser();
 
@@ -230,10 +242,14 @@ public class SubmissionSet implements Comparable<SubmissionSet>, SubmissionEleme
         } else {
           if (mBackingObject == null) {
             DynamicBase mBaseRelation = (DynamicBase) mRelation;
-            Query query = datastore.createQuery(mBaseRelation,
-                "SubmissionSet.recursivelyGetEntities", user);
-            query.addFilter(mBaseRelation.parentAuri, FilterOperation.EQUAL, uriParent);
-            List<? extends CommonFieldsBase> rows = query.executeQuery();
+            List<? extends CommonFieldsBase> rows = (prefetch == null) ? null
+                : prefetch.getChildRows(m.getDDRelationName(), uriParent);
+            if (rows == null) {
+              Query query = datastore.createQuery(mBaseRelation,
+                  "SubmissionSet.recursivelyGetEntities", user);
+              query.addFilter(mBaseRelation.parentAuri, FilterOperation.EQUAL, uriParent);
+              rows = query.executeQuery();
+            }
             if (rows.size() > 1) {
               throw new IllegalStateException(
                   "Expected exactly one match in phantom reconstruction! " + " SELECT * FROM "
@@ -393,26 +409,26 @@ public class SubmissionSet implements Comparable<SubmissionSet>, SubmissionEleme
             break;
           case BINARY: // identifies BinaryContent table
             submissionField = new BlobSubmissionType(m, groupRowGroup.getUri(), topLevelTableKey,
-                constructSubmissionKey(m));
+                constructSubmissionKey(m), prefetch);
             // pass in row we occur under (to access parentAuri)
             submissionField.getValueFromEntity(cc);
             elementsToValues.put(m, submissionField);
             break;
           case SELECT1: // identifies SelectChoice table
-            submissionField = new ChoiceSubmissionType(m, groupRowGroup.getUri(), topLevelTableKey); // pass
+            submissionField = new ChoiceSubmissionType(m, groupRowGroup.getUri(), topLevelTableKey, prefetch); // pass
             // in row we occur under to access parentAuri
             submissionField.getValueFromEntity(cc);
             elementsToValues.put(m, submissionField);
             break;
           case SELECTN: // identifies SelectChoice table
-            submissionField = new ChoiceSubmissionType(m, groupRowGroup.getUri(), topLevelTableKey); // pass
+            submissionField = new ChoiceSubmissionType(m, groupRowGroup.getUri(), topLevelTableKey, prefetch); // pass
             // in row we occur under to access parentAuri
             submissionField.getValueFromEntity(cc);
             elementsToValues.put(m, submissionField);
             break;
           case REPEAT:
             RepeatSubmissionType repeatNode = new RepeatSubmissionType(this, m,
-                groupRowGroup.getUri(), form);
+                groupRowGroup.getUri(), form, prefetch);
             repeatNode.getValueFromEntity(cc);
             elementsToValues.put(m, repeatNode);
             break;
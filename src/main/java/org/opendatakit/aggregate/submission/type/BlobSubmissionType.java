@@ -17,6 +17,7 @@
 
 package org.opendatakit.aggregate.submission.type;
 
+import java.io.InputStream;
 import java.util.Date;
 import java.util.List;
 import org.opendatakit.aggregate.constants.ErrorConsts;
@@ -28,11 +29,14 @@ import org.opendatakit.aggregate.format.Row;
 import org.opendatakit.aggregate.format.element.ElementFormatter;
 import org.opendatakit.aggregate.submission.SubmissionKey;
 import org.opendatakit.aggregate.submission.SubmissionKeyPart;
+import org.opendatakit.aggregate.submission.SubmissionPrefetch;
 import org.opendatakit.aggregate.submission.SubmissionValue;
+import org.opendatakit.aggregate.util.ThumbnailTable;
 import org.opendatakit.common.datamodel.BinaryContent;
 import org.opendatakit.common.datamodel.BinaryContentManipulator;
 import org.opendatakit.common.datamodel.BinaryContentRefBlob;
 import org.opendatakit.common.datamodel.RefBlob;
+import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.EntityKey;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
@@ -54,6 +58,11 @@ public class BlobSubmissionType extends SubmissionFieldBase<SubmissionKey> {
 
   public BlobSubmissionType(FormElementModel element, String parentKey, EntityKey topLevelTableKey,
                             SubmissionKey submissionKey) {
+    this(element, parentKey, topLevelTableKey, submissionKey, null);
+  }
+
+  public BlobSubmissionType(FormElementModel element, String parentKey, EntityKey topLevelTableKey,
+                            SubmissionKey submissionKey, SubmissionPrefetch prefetch) {
     super(element);
     this.parentKey = parentKey;
     this.submissionKey = submissionKey;
@@ -66,6 +75,12 @@ public class BlobSubmissionType extends SubmissionFieldBase<SubmissionKey> {
     RefBlob blb = (RefBlob) blobModel.getBackingObjectPrototype();
 
     this.bcm = new BinaryContentManipulator(parentKey, topLevelTableKey.getKey(), ctnt, ref, blb);
+    if (prefetch != null) {
+      List<CommonFieldsBase> contentHits = prefetch.getChildRows(bnDataModel.getDDRelationName(), parentKey);
+      if (contentHits != null) {
+        bcm.setPrefetchedAttachments(contentHits);
+      }
+    }
   }
 
   public int getAttachmentCount(CallingContext cc) throws ODKDatastoreException {
@@ -96,6 +111,14 @@ public class BlobSubmissionType extends SubmissionFieldBase<SubmissionKey> {
     return bcm.getBlob(ordinal, cc);
   }
 
+  public InputStream getBlobStream(int ordinal, CallingContext cc) throws ODKDatastoreException {
+    return bcm.getBlobStream(ordinal, cc);
+  }
+
+  public InputStream getBlobStream(int ordinal, long offset, CallingContext cc) throws ODKDatastoreException {
+    return bcm.getBlobStream(ordinal, offset, cc);
+  }
+
   /**
    * Convert value from byte array to data store blob type. Store blob in blob
    * storage and save the key of the blob storage into submission set. There can
@@ -114,6 +137,21 @@ public class BlobSubmissionType extends SubmissionFieldBase<SubmissionKey> {
     return bcm.setValueFromByteArray(byteArray, contentType, unrootedFilePath, overwriteOK, cc);
   }
 
+  /**
+   * Store the attachment from a stream, writing it into blob parts as it is
+   * read. The caller supplies the length and md5 hash of the content.
+   *
+   * @return the outcome of the storage attempt. md5 hashes are used to
+   *     determine file equivalence.
+   */
+  public BinaryContentManipulator.BlobSubmissionOutcome setValueFromStream(InputStream content,
+                                                                           long contentLength, String md5Hash, String contentType, String unrootedFilePath,
+                                                                           boolean overwriteOK, CallingContext cc) throws ODKDatastoreException {
+
+    return bcm.setValueFromStream(content, contentLength, md5Hash, contentType, unrootedFilePath,
+        overwriteOK, cc);
+  }
+
   @Override
   public void setValueFromString(String value) throws ODKConversionException {
     throw new ODKConversionException(ErrorConsts.NO_STRING_TO_BLOB_CONVERT);
@@ -158,6 +196,7 @@ public class BlobSubmissionType extends SubmissionFieldBase<SubmissionKey> {
   public void recursivelyAddEntityKeysForDeletion(List<EntityKey> keyList, CallingContext cc)
       throws ODKDatastoreException {
     bcm.recursivelyAddEntityKeysForDeletion(keyList, cc);
+    ThumbnailTable.addEntityKeysForDeletion(bcm.getContentHashes(cc), keyList, cc);
   }
 
   @Override
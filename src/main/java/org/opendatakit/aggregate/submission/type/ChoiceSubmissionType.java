@@ -22,6 +22,7 @@ import org.opendatakit.aggregate.datamodel.SelectChoice;
 import org.opendatakit.aggregate.format.Row;
 import org.opendatakit.aggregate.format.element.ElementFormatter;
 import org.opendatakit.aggregate.submission.SubmissionKeyPart;
+import org.opendatakit.aggregate.submission.SubmissionPrefetch;
 import org.opendatakit.aggregate.submission.SubmissionValue;
 import org.opendatakit.common.datamodel.DeleteHelper;
 import org.opendatakit.common.datamodel.ODKEnumeratedElementException;
@@ -49,10 +50,18 @@ public class ChoiceSubmissionType extends SubmissionFieldBase<List<String>> {
   List<String> values = new ArrayList<String>();
   List<SelectChoice> choices = new ArrayList<SelectChoice>();
 
+  private final SubmissionPrefetch prefetch;
+
   public ChoiceSubmissionType(FormElementModel element, String parentKey, EntityKey topLevelTableKey) {
+    this(element, parentKey, topLevelTableKey, null);
+  }
+
+  public ChoiceSubmissionType(FormElementModel element, String parentKey, EntityKey topLevelTableKey,
+                              SubmissionPrefetch prefetch) {
     super(element);
     this.parentKey = parentKey;
     this.topLevelTableKey = topLevelTableKey;
+    this.prefetch = prefetch;
   }
 
   @Override
@@ -69,14 +78,17 @@ public class ChoiceSubmissionType extends SubmissionFieldBase<List<String>> {
   @Override
   public void getValueFromEntity(CallingContext cc) throws ODKDatastoreException {
 
-    SelectChoice sel = (SelectChoice) element.getFormDataModel().getBackingObjectPrototype();
-    Query q = cc.getDatastore().createQuery(element.getFormDataModel().getBackingObjectPrototype(),
-        "ChoiceSubmissionType.getValueFromEntity", cc.getCurrentUser());
-    q.addFilter(sel.parentAuri, FilterOperation.EQUAL, parentKey);
-    q.addSort(sel.parentAuri, Direction.ASCENDING); // for GAE work-around
-    q.addSort(sel.ordinalNumber, Direction.ASCENDING);
-
-    List<? extends CommonFieldsBase> choiceHits = q.executeQuery();
+    List<? extends CommonFieldsBase> choiceHits = (prefetch == null) ? null
+        : prefetch.getChildRows(element.getFormDataModel().getDDRelationName(), parentKey);
+    if (choiceHits == null) {
+      SelectChoice sel = (SelectChoice) element.getFormDataModel().getBackingObjectPrototype();
+      Query q = cc.getDatastore().createQuery(element.getFormDataModel().getBackingObjectPrototype(),
+          "ChoiceSubmissionType.getValueFromEntity", cc.getCurrentUser());
+      q.addFilter(sel.parentAuri, FilterOperation.EQUAL, parentKey);
+      q.addSort(sel.parentAuri, Direction.ASCENDING); // for GAE work-around
+      q.addSort(sel.ordinalNumber, Direction.ASCENDING);
+      choiceHits = q.executeQuery();
+    }
     choices.clear();
     values.clear();
     long expectedOrdinal = 1L;
@@ -32,6 +32,7 @@ import org.opendatakit.aggregate.format.element.ElementFormatter;
 import org.opendatakit.aggregate.submission.SubmissionElement;
 import org.opendatakit.aggregate.submission.SubmissionKey;
 import org.opendatakit.aggregate.submission.SubmissionKeyPart;
+import org.opendatakit.aggregate.submission.SubmissionPrefetch;
 import org.opendatakit.aggregate.submission.SubmissionRepeat;
 import org.opendatakit.aggregate.submission.SubmissionSet;
 import org.opendatakit.aggregate.submission.SubmissionValue;
@@ -80,13 +81,24 @@ public class RepeatSubmissionType implements SubmissionRepeat {
    */
   private List<SubmissionSet> submissionSets = new ArrayList<>();
   private Map<Long, SubmissionSet> submissionSetIndex = new HashMap<>();
+  /**
+   * Rows fetched in bulk for a page of submissions; null if the repeat rows
+   * should be queried directly.
+   */
+  private final SubmissionPrefetch prefetch;
 
   public RepeatSubmissionType(SubmissionSet enclosingSet, FormElementModel repeatGroup,
                               String uriAssociatedRow, IForm form) {
+    this(enclosingSet, repeatGroup, uriAssociatedRow, form, null);
+  }
+
+  public RepeatSubmissionType(SubmissionSet enclosingSet, FormElementModel repeatGroup,
+                              String uriAssociatedRow, IForm form, SubmissionPrefetch prefetch) {
     this.enclosingSet = enclosingSet;
     this.form = form;
     this.repeatGroup = repeatGroup;
     this.uriAssociatedRow = uriAssociatedRow;
+    this.prefetch = prefetch;
   }
 
   @Override
@@ -140,7 +152,7 @@ public class RepeatSubmissionType implements SubmissionRepeat {
 
     for (List<DynamicBase> groupOfRepeatRows : groupPerOrdinalNumber(submission, repeatRows)) {
       DynamicBase row = chooseOneFrom(groupOfRepeatRows);
-      SubmissionSet submissionSet = new SubmissionSet(enclosingSet, row, repeatGroup, form, cc);
+      SubmissionSet submissionSet = new SubmissionSet(enclosingSet, row, repeatGroup, form, prefetch, cc);
       submissionSets.add(submissionSet);
       submissionSetIndex.put(row.getOrdinalNumber(), submissionSet);
     }
@@ -166,6 +178,13 @@ public class RepeatSubmissionType implements SubmissionRepeat {
 
   @SuppressWarnings("unchecked")
   private List<CommonFieldsBase> getRepeatRows(CallingContext cc, DynamicBase submission) throws ODKDatastoreException {
+    if (prefetch != null) {
+      List<CommonFieldsBase> rows = prefetch.getChildRows(
+          repeatGroup.getFormDataModel().getDDRelationName(), uriAssociatedRow);
+      if (rows != null) {
+        return rows;
+      }
+    }
     Query q = cc.getDatastore().createQuery(submission, "RepeatSubmissionType.getRepeatRows", cc.getCurrentUser());
     q.addFilter(submission.parentAuri, FilterOperation.EQUAL, uriAssociatedRow);
     q.addSort(submission.parentAuri, Direction.ASCENDING); // for GAE work-around
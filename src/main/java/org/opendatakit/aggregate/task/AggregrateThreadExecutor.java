@@ -16,27 +16,86 @@
 package org.opendatakit.aggregate.task;
 
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
 import org.springframework.scheduling.TaskScheduler;
 
 /**
+ * Runs the background tasks. Each class of task has its own bounded
+ * {@link TaskPool}, so that a slow publisher or a large export does not hold
+ * up the other classes. The task scheduler only runs the watchdog and the
+ * delayed actions.
+ *
  * @author wbrunette@gmail.com
  * @author mitchellsundt@gmail.com
  */
 public class AggregrateThreadExecutor {
 
+  public enum TaskClass {
+    /**
+     * uploads to the publishers, and creation of their worksheets
+     */
+    PUBLISHING,
+    /**
+     * CSV, KML and JSON file exports
+     */
+    EXPORT,
+    /**
+     * form deletion and submission purges
+     */
+    MAINTENANCE,
+    /**
+     * background refreshes of the form cache; a single thread, so that they
+     * never wait behind long-running maintenance work
+     */
+    FORM_CACHE
+  }
+
+  /**
+   * How long shutdown() lets the running and queued tasks finish.
+   */
+  private static final long SHUTDOWN_WAIT_MILLISECONDS = 5000L;
+
   private static AggregrateThreadExecutor classInstance = null;
   private TaskScheduler exec;
+  private final Map<TaskClass, TaskPool> pools = new EnumMap<TaskClass, TaskPool>(TaskClass.class);
 
-  private AggregrateThreadExecutor(TaskScheduler taskScheduler) {
+  private AggregrateThreadExecutor(TaskScheduler taskScheduler, Map<TaskClass, Integer> poolSizes,
+                                   int queueCapacity) {
     exec = taskScheduler;
+    for (TaskClass taskClass : TaskClass.values()) {
+      pools.put(taskClass, new TaskPool(taskClass.name().toLowerCase(Locale.ROOT),
+          Math.max(1, poolSizes.get(taskClass)), Math.max(1, queueCapacity)));
+    }
   }
 
-  public synchronized static void initialize(TaskScheduler taskScheduler) {
+  public synchronized static void initialize(TaskScheduler taskScheduler,
+                                             Map<TaskClass, Integer> poolSizes, int queueCapacity) {
     if (classInstance != null)
       throw new IllegalStateException("called after having set the task scheduler");
 
-    classInstance = new AggregrateThreadExecutor(taskScheduler);
+    classInstance = new AggregrateThreadExecutor(taskScheduler, poolSizes, queueCapacity);
+  }
+
+  /**
+   * Shuts down the task pools, giving their tasks SHUTDOWN_WAIT_MILLISECONDS
+   * to finish. Work that is cut short is found again by the watchdog after
+   * the next startup.
+   */
+  public synchronized static void shutdown() {
+    if (classInstance == null)
+      return;
+
+    for (TaskPool pool : classInstance.pools.values()) {
+      pool.shutdown();
+    }
+    long deadline = System.currentTimeMillis() + SHUTDOWN_WAIT_MILLISECONDS;
+    for (TaskPool pool : classInstance.pools.values()) {
+      pool.awaitTermination(Math.max(0L, deadline - System.currentTimeMillis()));
+    }
+    classInstance = null;
   }
 
   public synchronized static AggregrateThreadExecutor getAggregateThreadExecutor() {
@@ -46,8 +105,28 @@ public class AggregrateThreadExecutor {
     return classInstance;
   }
 
-  public void execute(Runnable task) {
-    exec.schedule(task, new Date(System.currentTimeMillis() + 100));
+  /**
+   * Queues the task on the pool of its class.
+   *
+   * @return true if the task was queued; false if the pool is saturated, in
+   *     which case the watchdog will find the work again later.
+   */
+  public boolean execute(TaskClass taskClass, Runnable task) {
+    return pools.get(taskClass).execute(task);
+  }
+
+  public Map<TaskClass, TaskPool> getTaskPools() {
+    return pools;
+  }
+
+  /**
+   * Executes the task once, after the given delay.
+   *
+   * @param task                - the task to execute.
+   * @param delayInMilliseconds - the delay before the execution.
+   */
+  public void schedule(Runnable task, long delayInMilliseconds) {
+    exec.schedule(task, new Date(System.currentTimeMillis() + delayInMilliseconds));
   }
 
   /**
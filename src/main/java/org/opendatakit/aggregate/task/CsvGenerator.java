@@ -18,13 +18,33 @@ package org.opendatakit.aggregate.task;
 
 import org.opendatakit.aggregate.constants.BeanDefs;
 import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.aggregate.form.PersistentResults;
 import org.opendatakit.aggregate.submission.SubmissionKey;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor.TaskClass;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.web.CallingContext;
 
 public class CsvGenerator {
-  public void createCsvTask(IForm form, SubmissionKey persistentResultsKey, long attemptCount, CallingContext cc) {
+
+  /**
+   * If true, the generated file is gzip compressed.
+   */
+  private boolean gzipOutput = false;
+
+  public boolean isGzipOutput() {
+    return gzipOutput;
+  }
+
+  public void setGzipOutput(boolean gzipOutput) {
+    this.gzipOutput = gzipOutput;
+  }
+
+  public void createCsvTask(IForm form, SubmissionKey persistentResultsKey, long attemptCount, CallingContext cc) throws ODKDatastoreException {
     Watchdog wd = (Watchdog) cc.getBean(BeanDefs.WATCHDOG);
-    CsvWorkerImpl worker = new CsvWorkerImpl(form, persistentResultsKey, attemptCount, wd.getCallingContext());
-    AggregrateThreadExecutor.getAggregateThreadExecutor().execute(worker::generateCsv);
+    CsvWorkerImpl worker = new CsvWorkerImpl(form, persistentResultsKey, attemptCount, gzipOutput, wd.getCallingContext());
+    if (!AggregrateThreadExecutor.getAggregateThreadExecutor().execute(TaskClass.EXPORT, worker::generateCsv)) {
+      // the export pool is saturated; the watchdog retries the request later.
+      PersistentResults.refundAttempt(persistentResultsKey, attemptCount, cc);
+    }
   }
 }
@@ -15,11 +15,13 @@
  */
 package org.opendatakit.aggregate.task;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.Date;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 import org.opendatakit.aggregate.client.filter.FilterGroup;
 import org.opendatakit.aggregate.constants.ServletConsts;
 import org.opendatakit.aggregate.constants.common.ExportStatus;
@@ -34,6 +36,7 @@ import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup;
 import org.opendatakit.aggregate.query.submission.QueryByUIFilterGroup.CompletionFlag;
 import org.opendatakit.aggregate.submission.Submission;
 import org.opendatakit.aggregate.submission.SubmissionKey;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobOutputStream;
 import org.opendatakit.common.web.CallingContext;
 import org.opendatakit.common.web.constants.HtmlConsts;
 import org.slf4j.Logger;
@@ -51,13 +54,15 @@ public class CsvWorkerImpl {
   private final IForm form;
   private final SubmissionKey persistentResultsKey;
   private final Long attemptCount;
+  private final boolean gzipOutput;
   private final CallingContext cc;
 
   public CsvWorkerImpl(IForm form, SubmissionKey persistentResultsKey, Long attemptCount,
-                       CallingContext cc) {
+                       boolean gzipOutput, CallingContext cc) {
     this.form = form;
     this.persistentResultsKey = persistentResultsKey;
     this.attemptCount = attemptCount;
+    this.gzipOutput = gzipOutput;
     this.cc = cc;
     if (attemptCount == null) {
       throw new IllegalArgumentException("attempt count cannot be null");
@@ -68,11 +73,13 @@ public class CsvWorkerImpl {
     logger.info("Beginning CSV generation: " + persistentResultsKey.toString() +
         " form " + form.getFormId());
 
+    BlobOutputStream stream = null;
     try {
-      ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      PrintWriter pw = new PrintWriter(new OutputStreamWriter(stream, HtmlConsts.UTF8_ENCODE));
-
       PersistentResults r = new PersistentResults(persistentResultsKey, cc);
+      // the file is written into blob parts as it is generated
+      stream = r.newResultFileStream(cc);
+      OutputStream out = gzipOutput ? new GZIPOutputStream(stream) : stream;
+      PrintWriter pw = new PrintWriter(new OutputStreamWriter(out, HtmlConsts.UTF8_ENCODE));
       String filterGroupUri = r.getFilterGroupUri();
 
       // placeholder for clean-up...
@@ -106,20 +113,31 @@ public class CsvWorkerImpl {
         if (submissions.isEmpty()) break;
         logger.info("iteration " + Integer.toString(count) + " before emitting csv for " + form.getFormId());
         formatter.processSubmissionSegment(submissions, cc);
+        if (pw.checkError()) {
+          throw new IOException("unable to write segment " + Integer.toString(count) + " for " + form.getFormId());
+        }
       }
       logger.info("wrapping up csv generation for " + form.getFormId());
       formatter.afterProcessSubmissions(cc);
 
       // output file
       pw.close();
-      byte[] outputFile = stream.toByteArray();
+      if (pw.checkError()) {
+        throw new IOException("unable to write the end of the file for " + form.getFormId());
+      }
 
       // refetch because this might have taken a while...
       r = new PersistentResults(persistentResultsKey, cc);
       if (attemptCount.equals(r.getAttemptCount())) {
         logger.info("saving csv into PersistentResults table for " + form.getFormId());
-        r.setResultFile(outputFile, HtmlConsts.RESP_TYPE_CSV,
-            form.getViewableFormNameSuitableAsFileName() + ServletConsts.CSV_FILENAME_APPEND, false, cc);
+        String fileName = form.getViewableFormNameSuitableAsFileName() + ServletConsts.CSV_FILENAME_APPEND;
+        if (gzipOutput) {
+          r.setResultFile(stream, HtmlConsts.RESP_TYPE_GZIP, fileName + ServletConsts.GZIP_FILENAME_APPEND, cc);
+        } else {
+          r.setResultFile(stream, HtmlConsts.RESP_TYPE_CSV, fileName, cc);
+        }
+        // the results now own the file
+        stream = null;
         r.setStatus(ExportStatus.AVAILABLE);
         r.setCompletionDate(new Date());
         if (subFilterGroup != null) {
@@ -131,6 +149,19 @@ public class CsvWorkerImpl {
       }
     } catch (Exception e) {
       failureRecovery(e);
+    } finally {
+      discardUnattachedFile(stream);
+    }
+  }
+
+  private void discardUnattachedFile(BlobOutputStream stream) {
+    if (stream != null) {
+      try {
+        stream.discard(cc);
+      } catch (Exception e) {
+        // the orphaned blob parts are harmless -- just log it.
+        logger.error("Unable to discard csv file: " + e.toString() + " for " + form.getFormId());
+      }
     }
   }
 
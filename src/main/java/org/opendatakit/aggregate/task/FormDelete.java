@@ -18,7 +18,9 @@ package org.opendatakit.aggregate.task;
 
 import org.opendatakit.aggregate.constants.BeanDefs;
 import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.aggregate.form.MiscTasks;
 import org.opendatakit.aggregate.submission.SubmissionKey;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor.TaskClass;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.web.CallingContext;
 import org.slf4j.Logger;
@@ -27,15 +29,19 @@ import org.slf4j.LoggerFactory;
 public class FormDelete {
   private static final Logger logger = LoggerFactory.getLogger(FormDelete.class);
 
-  public void createFormDeleteTask(IForm form, SubmissionKey miscTasksKey, long attemptCount, CallingContext cc) {
+  public void createFormDeleteTask(IForm form, SubmissionKey miscTasksKey, long attemptCount, CallingContext cc) throws ODKDatastoreException {
     Watchdog wd = (Watchdog) cc.getBean(BeanDefs.WATCHDOG);
     FormDeleteWorkerImpl worker = new FormDeleteWorkerImpl(form, miscTasksKey, attemptCount, wd.getCallingContext());
-    AggregrateThreadExecutor.getAggregateThreadExecutor().execute(() -> {
+    boolean queued = AggregrateThreadExecutor.getAggregateThreadExecutor().execute(TaskClass.MAINTENANCE, () -> {
       try {
         worker.deleteForm();
       } catch (ODKDatastoreException e) {
         logger.error("Error deleting form", e);
       }
     });
+    if (!queued) {
+      // the maintenance pool is saturated; the watchdog retries the request later.
+      MiscTasks.refundAttempt(miscTasksKey, attemptCount, cc);
+    }
   }
 }
@@ -27,15 +27,33 @@ import org.opendatakit.aggregate.client.form.KmlSelection;
 import org.opendatakit.aggregate.constants.BeanDefs;
 import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.form.PersistentResults;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor.TaskClass;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.web.CallingContext;
 
 public class KmlGenerator {
 
+  /**
+   * If true, the generated file is gzip compressed.
+   */
+  private boolean gzipOutput = false;
+
+  public boolean isGzipOutput() {
+    return gzipOutput;
+  }
+
+  public void setGzipOutput(boolean gzipOutput) {
+    this.gzipOutput = gzipOutput;
+  }
+
+
   public void createKmlTask(IForm form, PersistentResults persistentResults, long attemptCount, CallingContext cc) throws ODKDatastoreException {
     Watchdog wd = (Watchdog) cc.getBean(BeanDefs.WATCHDOG);
-    KmlWorkerImpl worker = new KmlWorkerImpl(form, persistentResults.getSubmissionKey(), attemptCount, getKmlElementsToInclude(persistentResults), wd.getCallingContext());
-    AggregrateThreadExecutor.getAggregateThreadExecutor().execute(worker::generateKml);
+    KmlWorkerImpl worker = new KmlWorkerImpl(form, persistentResults.getSubmissionKey(), attemptCount, getKmlElementsToInclude(persistentResults), gzipOutput, wd.getCallingContext());
+    if (!AggregrateThreadExecutor.getAggregateThreadExecutor().execute(TaskClass.EXPORT, worker::generateKml)) {
+      // the export pool is saturated; the watchdog retries the request later.
+      PersistentResults.refundAttempt(persistentResults.getSubmissionKey(), attemptCount, cc);
+    }
   }
 
   private static List<KmlSelection> getKmlElementsToInclude(PersistentResults persistentResults) throws ODKDatastoreException {
@@ -31,7 +31,10 @@ import java.util.Date;
 import java.util.Optional;
 import org.opendatakit.aggregate.constants.BeanDefs;
 import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.aggregate.form.MiscTasks;
 import org.opendatakit.aggregate.submission.SubmissionKey;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor.TaskClass;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.web.CallingContext;
 
 public class PurgeOlderSubmissions {
@@ -62,9 +65,12 @@ public class PurgeOlderSubmissions {
         .orElse(null);
   }
 
-  public final void createPurgeOlderSubmissionsTask(IForm form, SubmissionKey miscTasksKey, long attemptCount, CallingContext cc) {
+  public final void createPurgeOlderSubmissionsTask(IForm form, SubmissionKey miscTasksKey, long attemptCount, CallingContext cc) throws ODKDatastoreException {
     Watchdog wd = (Watchdog) cc.getBean(BeanDefs.WATCHDOG);
     PurgeOlderSubmissionsWorkerImpl worker = new PurgeOlderSubmissionsWorkerImpl(form, miscTasksKey, attemptCount, wd.getCallingContext());
-    AggregrateThreadExecutor.getAggregateThreadExecutor().execute(worker::purgeOlderSubmissions);
+    if (!AggregrateThreadExecutor.getAggregateThreadExecutor().execute(TaskClass.MAINTENANCE, worker::purgeOlderSubmissions)) {
+      // the maintenance pool is saturated; the watchdog retries the request later.
+      MiscTasks.refundAttempt(miscTasksKey, attemptCount, cc);
+    }
   }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.opendatakit.common.utils.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of threads that runs one class of background tasks. Tasks run
+ * in the order they were submitted. When all the threads are busy and the
+ * queue is full, new tasks are rejected rather than queued without limit; the
+ * watchdog finds the work they would have done and submits it again later.
+ * <p>
+ * The time tasks wait in the queue and the time they run are recorded.
+ */
+public final class TaskPool {
+  private static final Logger logger = LoggerFactory.getLogger(TaskPool.class);
+
+  private final String name;
+  private final ThreadPoolExecutor executor;
+  private final LongAdder rejected = new LongAdder();
+  private final LatencyHistogram waitTimes = new LatencyHistogram();
+  private final LatencyHistogram runTimes = new LatencyHistogram();
+
+  TaskPool(String name, int threads, int queueCapacity) {
+    this.name = name;
+    AtomicInteger threadNumber = new AtomicInteger();
+    executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(queueCapacity), r -> {
+      Thread t = new Thread(r, "aggregate-" + name + "-" + threadNumber.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * @return true if the task was queued; false if the pool is saturated.
+   */
+  public boolean execute(Runnable task) {
+    long queuedAt = System.currentTimeMillis();
+    try {
+      executor.execute(() -> {
+        long startedAt = System.currentTimeMillis();
+        waitTimes.record(startedAt - queuedAt);
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          logger.error("Unexpected exception in " + name + " task", e);
+        } finally {
+          runTimes.record(System.currentTimeMillis() - startedAt);
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      if (executor.isShutdown()) {
+        logger.warn("The " + name + " pool is shut down -- task rejected");
+      } else {
+        logger.warn("The " + name + " task queue is full -- task rejected");
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Stops accepting tasks. The queued and running tasks still complete.
+   */
+  void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Waits for the queued and running tasks to complete after a shutdown,
+   * interrupting the running tasks and dropping the queued ones if they
+   * don't complete in time.
+   *
+   * @return true if every task completed.
+   */
+  boolean awaitTermination(long timeoutMilliseconds) {
+    try {
+      if (executor.awaitTermination(timeoutMilliseconds, TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    List<Runnable> dropped = executor.shutdownNow();
+    logger.warn("The " + name + " pool did not finish its tasks -- " + dropped.size() + " queued tasks dropped");
+    return false;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  /**
+   * @return the time tasks spent in the queue before they started.
+   */
+  public LatencyHistogram getWaitTimes() {
+    return waitTimes;
+  }
+
+  /**
+   * @return the time tasks took to run.
+   */
+  public LatencyHistogram getRunTimes() {
+    return runTimes;
+  }
+}
@@ -16,26 +16,136 @@
  */
 package org.opendatakit.aggregate.task;
 
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.opendatakit.aggregate.constants.BeanDefs;
+import org.opendatakit.aggregate.constants.common.OperationalStatus;
 import org.opendatakit.aggregate.exception.ODKExternalServiceException;
+import org.opendatakit.aggregate.exception.ODKFormNotFoundException;
+import org.opendatakit.aggregate.externalservice.ExternalService;
 import org.opendatakit.aggregate.externalservice.FormServiceCursor;
+import org.opendatakit.aggregate.form.FormFactory;
+import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor.TaskClass;
+import org.opendatakit.aggregate.util.BackendActionsTable;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.web.CallingContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Creates the tasks that publish submissions to the external services.
+ * <p>
+ * New submissions are announced with {@link #submissionCompleted}. The
+ * announcements for a form are coalesced, and its active publishers are
+ * kicked once the newest announced submission has settled, so that streaming
+ * publishers do not wait for the watchdog. The watchdog still checks every
+ * publisher, in case an announcement was lost (e.g., a submission received by
+ * another server or a restart).
+ * <p>
+ * At most one upload task per publisher is queued at any time. An upload task
+ * sends one batch of submissions and, if there may be more, queues itself
+ * again behind the other publishers' tasks, so that the publishers take turns
+ * on the publishing pool.
+ */
 public class UploadSubmissions {
   private static final Logger logger = LoggerFactory.getLogger(UploadSubmissions.class);
 
+  /**
+   * uploads only pick up submissions that were marked as complete more than
+   * the settle time ago, so a kick is delayed by at least that much.
+   */
+  private static final long KICK_DELAY_MILLISECONDS = BackendActionsTable.PUBLISHING_DELAY_MILLISECONDS;
+
+  /**
+   * formId to the time of the newest submission announced since the form's
+   * pending kick was scheduled
+   */
+  private final Map<String, Long> pendingKicks = new ConcurrentHashMap<String, Long>();
+  /**
+   * uris of the FormServiceCursors whose upload task is queued but not started
+   */
+  private final Set<String> queuedUploads = ConcurrentHashMap.newKeySet();
+
+  private int jsonServerBatchSize = 1;
+
+  /**
+   * @return the maximum number of submissions a JSON server publisher sends
+   *     in one request.
+   */
+  public int getJsonServerBatchSize() {
+    return jsonServerBatchSize;
+  }
+
+  public void setJsonServerBatchSize(int jsonServerBatchSize) {
+    this.jsonServerBatchSize = jsonServerBatchSize;
+  }
+
+  /**
+   * Announces that a submission of the form has been marked as complete. Its
+   * active publishers are kicked once the submission has settled. This does
+   * not access the datastore, so it is cheap enough to call on each
+   * submission.
+   */
+  public void submissionCompleted(IForm form, CallingContext cc) {
+    String formId = form.getFormId();
+    if (pendingKicks.put(formId, System.currentTimeMillis()) == null) {
+      scheduleKick(formId, KICK_DELAY_MILLISECONDS, cc);
+    }
+  }
+
+  private void scheduleKick(String formId, long delayMilliseconds, CallingContext cc) {
+    Watchdog wd = (Watchdog) cc.getBean(BeanDefs.WATCHDOG);
+    CallingContext ccDaemon = wd.getCallingContext();
+    AggregrateThreadExecutor.getAggregateThreadExecutor().schedule(() -> kick(formId, ccDaemon),
+        delayMilliseconds);
+  }
+
+  private void kick(String formId, CallingContext cc) {
+    Long lastAnnounced = pendingKicks.remove(formId);
+    try {
+      IForm form = FormFactory.retrieveFormByFormId(formId, cc);
+      for (ExternalService rs : FormServiceCursor.getExternalServicesForForm(form, cc)) {
+        // only create upload tasks for active publishers
+        if (rs.getFormServiceCursor().getOperationalStatus() == OperationalStatus.ACTIVE) {
+          createFormUploadTask(rs.getFormServiceCursor(), cc);
+        }
+      }
+    } catch (ODKFormNotFoundException | ODKDatastoreException e) {
+      logger.error("Unable to kick the publishers of form " + formId, e);
+    }
+
+    // submissions announced while the kick was pending may not have
+    // settled yet; kick again once they have.
+    if (lastAnnounced != null) {
+      long remaining = lastAnnounced + KICK_DELAY_MILLISECONDS - System.currentTimeMillis();
+      if (remaining > 0 && pendingKicks.putIfAbsent(formId, lastAnnounced) == null) {
+        scheduleKick(formId, remaining, cc);
+      }
+    }
+  }
+
   public void createFormUploadTask(FormServiceCursor fsc, CallingContext cc) {
+    String uriFsc = fsc.getUri();
+    if (!queuedUploads.add(uriFsc)) {
+      // the queued task will pick up the new submissions
+      return;
+    }
     Watchdog wd = (Watchdog) cc.getBean(BeanDefs.WATCHDOG);
     UploadSubmissionsWorkerImpl worker = new UploadSubmissionsWorkerImpl(fsc, wd.getFasterWatchdogCycleEnabled(), wd.getCallingContext());
-    AggregrateThreadExecutor.getAggregateThreadExecutor().execute(() -> {
+    boolean queued = AggregrateThreadExecutor.getAggregateThreadExecutor().execute(TaskClass.PUBLISHING, () -> {
+      queuedUploads.remove(uriFsc);
       try {
         worker.uploadAllSubmissions();
       } catch (ODKEntityNotFoundException | ODKExternalServiceException e) {
         logger.error("Error uploading all submissions", e);
       }
     });
+    if (!queued) {
+      // the publishing pool is saturated; the watchdog resumes this upload.
+      queuedUploads.remove(uriFsc);
+    }
   }
 }
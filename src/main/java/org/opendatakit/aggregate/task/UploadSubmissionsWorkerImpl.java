@@ -269,7 +269,9 @@ public class UploadSubmissionsWorkerImpl {
     try {
       // check if publisher is capable of batching transmission
       if (externalService.canBatchSubmissions()) {
+        // the publisher persists the updated last send date
         externalService.sendSubmissions(submissionsToSend, streaming, cc);
+        renewTaskLock(submissionsToSend.size());
 
       } else { // publisher not capable of batching
         int counter = 0;
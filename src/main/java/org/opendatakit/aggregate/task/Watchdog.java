@@ -17,10 +17,13 @@ package org.opendatakit.aggregate.task;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
 import javax.servlet.ServletContext;
 import org.opendatakit.aggregate.constants.BeanDefs;
 import org.opendatakit.aggregate.server.ServerPreferencesProperties;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor.TaskClass;
 import org.opendatakit.aggregate.util.BackendActionsTable;
 import org.opendatakit.aggregate.util.ImageUtil;
 import org.opendatakit.common.persistence.Datastore;
@@ -35,6 +38,7 @@ import org.opendatakit.common.web.constants.BasicConsts;
 import org.opendatakit.common.web.constants.HtmlConsts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.SmartLifecycle;
 import org.springframework.scheduling.TaskScheduler;
@@ -55,12 +59,16 @@ import org.springframework.web.context.ServletContextAware;
  * If there is work, then Watchdog is re-fired every
  * BackendActionsTable.FAST_PUBLISHING_RETRY_MILLISECONDS
  * until there is no pending work.
+ * <p>
+ * The tasks themselves run on the bounded pools of the
+ * AggregrateThreadExecutor, one pool per class of task. The pools are created
+ * and shut down along with this bean.
  *
  * @author wbrunette@gmail.com
  * @author mitchellsundt@gmail.com
  */
 public class Watchdog implements SmartLifecycle, InitializingBean,
-    ServletContextAware {
+    DisposableBean, ServletContextAware {
 
   boolean isStarted = false;
   TaskScheduler taskScheduler = null;
@@ -76,6 +84,10 @@ public class Watchdog implements SmartLifecycle, InitializingBean,
   ServletContext ctxt = null;
   HttpClientFactory httpClientFactory = null;
   ImageUtil imageUtil = null;
+  int publishingThreads = 3;
+  int exportThreads = 2;
+  int maintenanceThreads = 1;
+  int taskQueueCapacity = 100;
   private Logger logger = LoggerFactory.getLogger(Watchdog.class);
   /**
    * cached value of the faster-watchdog-cycle flag
@@ -270,6 +282,38 @@ public class Watchdog implements SmartLifecycle, InitializingBean,
     this.imageUtil = imageUtil;
   }
 
+  public int getPublishingThreads() {
+    return publishingThreads;
+  }
+
+  public void setPublishingThreads(int publishingThreads) {
+    this.publishingThreads = publishingThreads;
+  }
+
+  public int getExportThreads() {
+    return exportThreads;
+  }
+
+  public void setExportThreads(int exportThreads) {
+    this.exportThreads = exportThreads;
+  }
+
+  public int getMaintenanceThreads() {
+    return maintenanceThreads;
+  }
+
+  public void setMaintenanceThreads(int maintenanceThreads) {
+    this.maintenanceThreads = maintenanceThreads;
+  }
+
+  public int getTaskQueueCapacity() {
+    return taskQueueCapacity;
+  }
+
+  public void setTaskQueueCapacity(int taskQueueCapacity) {
+    this.taskQueueCapacity = taskQueueCapacity;
+  }
+
   @Override
   public void afterPropertiesSet() {
     logger.trace("afterPropertiesSet()");
@@ -297,7 +341,22 @@ public class Watchdog implements SmartLifecycle, InitializingBean,
       throw new IllegalStateException("no httpClientFactory specified");
     if (imageUtil == null)
       throw new IllegalStateException("no imageUtil specified");
-    AggregrateThreadExecutor.initialize(taskScheduler);
+    Map<TaskClass, Integer> poolSizes = new EnumMap<TaskClass, Integer>(TaskClass.class);
+    poolSizes.put(TaskClass.PUBLISHING, publishingThreads);
+    poolSizes.put(TaskClass.EXPORT, exportThreads);
+    poolSizes.put(TaskClass.MAINTENANCE, maintenanceThreads);
+    poolSizes.put(TaskClass.FORM_CACHE, 1);
+    AggregrateThreadExecutor.initialize(taskScheduler, poolSizes, taskQueueCapacity);
+  }
+
+  @Override
+  public synchronized void destroy() {
+    logger.trace("destroy()");
+    if (watchdogFuture != null) {
+      watchdogFuture.cancel(false);
+      watchdogFuture = null;
+    }
+    AggregrateThreadExecutor.shutdown();
   }
 
   @Override
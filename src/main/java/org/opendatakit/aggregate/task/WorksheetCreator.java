@@ -25,6 +25,7 @@ import org.opendatakit.aggregate.constants.BeanDefs;
 import org.opendatakit.aggregate.constants.common.ExternalServicePublicationOption;
 import org.opendatakit.aggregate.form.IForm;
 import org.opendatakit.aggregate.form.MiscTasks;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor.TaskClass;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.web.CallingContext;
 
@@ -49,7 +50,10 @@ public class WorksheetCreator {
         publicationOption,
         wd.getCallingContext()
     );
-    AggregrateThreadExecutor.getAggregateThreadExecutor().execute(worker::worksheetCreator);
+    if (!AggregrateThreadExecutor.getAggregateThreadExecutor().execute(TaskClass.PUBLISHING, worker::worksheetCreator)) {
+      // the publishing pool is saturated; the watchdog retries the request later.
+      MiscTasks.refundAttempt(miscTasks.getSubmissionKey(), attemptCount, cc);
+    }
   }
 
 }
@@ -16,31 +16,52 @@
 
 package org.opendatakit.aggregate.util;
 
-import java.awt.Graphics;
-import java.awt.Image;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Iterator;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 public class ImageUtil {
 
+  /**
+   * Resize the image to fit within width x height, preserving its aspect
+   * ratio. Large images are subsampled while they are decoded, so the full
+   * resolution image is never held in memory, and the remaining reduction is
+   * done with bilinear interpolation.
+   *
+   * @return the resized image as a jpeg, or the original image if it is
+   *     already small enough or cannot be decoded.
+   */
   public byte[] resizeImage(byte[] imageBlob, int width, int height) {
-    BufferedImage image;
-    try {
-      image = ImageIO.read(new ByteArrayInputStream(imageBlob));
-    } catch (IOException var18) {
-      var18.printStackTrace();
+    if (width <= 0 || height <= 0) {
       return imageBlob;
     }
 
-    int imgWidth = image.getWidth();
-    int imgHeight = image.getHeight();
-    if (width > 0 && height > 0) {
-      int reductionWidth = imgWidth / width;
-      int reductionHeight = imgHeight / height;
-      if (reductionWidth > 0 && reductionHeight > 0) {
+    BufferedImage image;
+    int resizeWidth;
+    int resizeHeight;
+    try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(imageBlob))) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+      if (!readers.hasNext()) {
+        return imageBlob;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(iis, true, true);
+        int imgWidth = reader.getWidth(0);
+        int imgHeight = reader.getHeight(0);
+        int reductionWidth = imgWidth / width;
+        int reductionHeight = imgHeight / height;
+        if (reductionWidth <= 0 || reductionHeight <= 0) {
+          return imageBlob;
+        }
         int reducer;
         if (reductionWidth > reductionHeight) {
           reducer = reductionWidth;
@@ -53,30 +74,36 @@ public class ImageUtil {
             reducer = reductionHeight + 1;
           }
         }
+        resizeWidth = Math.max(1, imgWidth / reducer);
+        resizeHeight = Math.max(1, imgHeight / reducer);
 
-        int resizeWidth = imgWidth / reducer;
-        int resizeHeight = imgHeight / reducer;
-        Image resized = image.getScaledInstance(resizeWidth, resizeHeight, 2);
-        ByteArrayOutputStream fileStream = new ByteArrayOutputStream();
-        BufferedImage bi = new BufferedImage(resized.getWidth(null), resized.getHeight(null), 1);
-        Graphics bg = bi.getGraphics();
-        bg.drawImage(resized, 0, 0, null);
-        bg.dispose();
+        // subsample to no less than twice the final size to limit aliasing
+        ImageReadParam param = reader.getDefaultReadParam();
+        int subsampling = Math.max(1, reducer / 2);
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        image = reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+      return imageBlob;
+    }
 
-        try {
-          ImageIO.write(bi, "jpg", fileStream);
-        } catch (IOException var17) {
-          var17.printStackTrace();
-          return imageBlob;
-        }
+    BufferedImage bi = new BufferedImage(resizeWidth, resizeHeight, BufferedImage.TYPE_INT_RGB);
+    Graphics2D bg = bi.createGraphics();
+    bg.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    bg.drawImage(image, 0, 0, resizeWidth, resizeHeight, null);
+    bg.dispose();
 
-        return fileStream.toByteArray();
-      } else {
-        return imageBlob;
-      }
-    } else {
+    ByteArrayOutputStream fileStream = new ByteArrayOutputStream();
+    try {
+      ImageIO.write(bi, "jpg", fileStream);
+    } catch (IOException e) {
+      e.printStackTrace();
       return imageBlob;
     }
+    return fileStream.toByteArray();
   }
 
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.util;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.persistence.PersistConsts;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+
+/**
+ * Preview thumbnails of image attachments, keyed by the content hash of the
+ * attachment and the size of the thumbnail. Since an attachment's content
+ * never changes under a given hash, a thumbnail only needs to be generated
+ * once. The most recently used thumbnails are also held in memory. The
+ * thumbnails of an attachment are deleted with its submission.
+ */
+public final class ThumbnailTable extends CommonFieldsBase {
+  private static final String TABLE_NAME = "_thumbnail";
+  private static final DataField CONTENT_HASH = new DataField("CONTENT_HASH", DataField.DataType.STRING, false, PersistConsts.URI_STRING_LEN);
+  private static final DataField WIDTH = new DataField("WIDTH", DataField.DataType.INTEGER, false);
+  private static final DataField HEIGHT = new DataField("HEIGHT", DataField.DataType.INTEGER, false);
+  private static final DataField VALUE = new DataField("VALUE", DataField.DataType.BINARY, false);
+
+  /**
+   * Size of the previews shown in the submissions grid. This is the only size
+   * stored, so it is the only size deleted with a submission.
+   */
+  public static final int PREVIEW_WIDTH = 64;
+  public static final int PREVIEW_HEIGHT = 48;
+
+  /**
+   * Preview thumbnails are a few kilobytes, so this holds a few megabytes.
+   */
+  private static final int MAX_CACHED_THUMBNAILS = 1000;
+
+  private static final Map<String, byte[]> recentThumbnails = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+      return size() > MAX_CACHED_THUMBNAILS;
+    }
+  };
+
+  private static ThumbnailTable relation = null;
+
+  public final DataField contentHash;
+  public final DataField width;
+  public final DataField height;
+  public final DataField value;
+
+  private ThumbnailTable(String databaseSchema) {
+    super(databaseSchema, TABLE_NAME);
+    fieldList.add(contentHash = new DataField(CONTENT_HASH));
+    fieldList.add(width = new DataField(WIDTH));
+    fieldList.add(height = new DataField(HEIGHT));
+    fieldList.add(value = new DataField(VALUE));
+  }
+
+  private ThumbnailTable(ThumbnailTable ref, User user) {
+    super(ref, user);
+    contentHash = ref.contentHash;
+    width = ref.width;
+    height = ref.height;
+    value = ref.value;
+  }
+
+  private static synchronized final ThumbnailTable assertRelation(CallingContext cc) throws ODKDatastoreException {
+    if (relation == null) {
+      Datastore ds = cc.getDatastore();
+      User user = cc.getCurrentUser();
+      ThumbnailTable relationPrototype;
+      relationPrototype = new ThumbnailTable(ds.getDefaultSchemaName());
+      ds.assertRelation(relationPrototype, user); // may throw exception...
+      // at this point, the prototype has become fully populated
+      relation = relationPrototype; // set static variable only upon success...
+    }
+    return relation;
+  }
+
+  private static String thumbnailUri(String contentHash, int width, int height) {
+    return CommonFieldsBase.newMD5HashUri(contentHash + "|" + width + "x" + height);
+  }
+
+  /**
+   * @return the stored thumbnail of the attachment with the given content
+   *     hash, or null if none has been generated yet.
+   */
+  public static final byte[] getThumbnail(String contentHash, int width, int height, CallingContext cc) throws ODKDatastoreException {
+    String uri = thumbnailUri(contentHash, width, height);
+    synchronized (recentThumbnails) {
+      byte[] thumbnail = recentThumbnails.get(uri);
+      if (thumbnail != null) {
+        return thumbnail;
+      }
+    }
+    ThumbnailTable row;
+    try {
+      row = cc.getDatastore().getEntity(assertRelation(cc), uri, cc.getCurrentUser());
+    } catch (ODKEntityNotFoundException e) {
+      return null;
+    }
+    byte[] thumbnail = row.getBlobField(row.value);
+    synchronized (recentThumbnails) {
+      recentThumbnails.put(uri, thumbnail);
+    }
+    return thumbnail;
+  }
+
+  public static final void putThumbnail(String contentHash, int width, int height, byte[] thumbnail, CallingContext cc) throws ODKDatastoreException {
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    String uri = thumbnailUri(contentHash, width, height);
+    ThumbnailTable row = ds.createEntityUsingRelation(assertRelation(cc), user);
+    row.setStringField(row.primaryKey, uri);
+    row.setStringField(row.contentHash, contentHash);
+    row.setLongField(row.width, (long) width);
+    row.setLongField(row.height, (long) height);
+    row.setBlobField(row.value, thumbnail);
+    ds.putEntity(row, user);
+    synchronized (recentThumbnails) {
+      recentThumbnails.put(uri, thumbnail);
+    }
+  }
+
+  /**
+   * Add the keys of the preview thumbnails of the given content to keyList.
+   * The keys are derived from the content hashes, so the thumbnails need not
+   * exist. Other attachments with the same content just have their thumbnail
+   * generated again.
+   */
+  public static final void addEntityKeysForDeletion(Collection<String> contentHashes, List<EntityKey> keyList, CallingContext cc) throws ODKDatastoreException {
+    if (contentHashes.isEmpty()) {
+      return;
+    }
+    ThumbnailTable relation = assertRelation(cc);
+    for (String contentHash : contentHashes) {
+      String uri = thumbnailUri(contentHash, PREVIEW_WIDTH, PREVIEW_HEIGHT);
+      synchronized (recentThumbnails) {
+        recentThumbnails.remove(uri);
+      }
+      keyList.add(new EntityKey(relation, uri));
+    }
+  }
+
+  @Override
+  public ThumbnailTable getEmptyRow(User user) {
+    return new ThumbnailTable(this, user);
+  }
+}
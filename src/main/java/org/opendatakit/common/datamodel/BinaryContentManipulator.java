@@ -13,7 +13,13 @@
  */
 package org.opendatakit.common.datamodel;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -60,6 +66,8 @@ public class BinaryContentManipulator {
   private final Map<Long, BinaryContent> attachments = new HashMap<Long, BinaryContent>();
   // implement lazy access to the attachment fields
   private boolean refreshBeforeUse = true;
+  // content rows fetched in bulk, used in place of the query on the next refresh
+  private List<? extends CommonFieldsBase> prefetchedContent = null;
 
   public BinaryContentManipulator(String parentKey, String topLevelKey, BinaryContent ctntRelation,
                                   BinaryContentRefBlob vrefRelation, RefBlob blbRelation) {
@@ -123,6 +131,21 @@ public class BinaryContentManipulator {
     return b.getContentHash();
   }
 
+  /**
+   * @return the content hashes of the attachments that have content. Only
+   *     queries the database if the attachments have not been loaded yet.
+   */
+  public List<String> getContentHashes(CallingContext cc) throws ODKDatastoreException {
+    updateAttachments(cc);
+    List<String> hashes = new ArrayList<String>();
+    for (BinaryContent b : attachments.values()) {
+      if (b.getContentHash() != null) {
+        hashes.add(b.getContentHash());
+      }
+    }
+    return hashes;
+  }
+
   public Long getContentLength(int ordinal, CallingContext cc) throws ODKDatastoreException {
     updateAttachments(cc);
     BinaryContent b = attachments.get(Long.valueOf(ordinal));
@@ -144,6 +167,80 @@ public class BinaryContentManipulator {
     return blbManipulator.getBlob();
   }
 
+  /**
+   * @return a stream over the attachment's content that reads its parts from
+   *     the datastore as it is consumed, or null if the attachment has no
+   *     content. The caller must close it.
+   */
+  public InputStream getBlobStream(int ordinal, CallingContext cc) throws ODKDatastoreException {
+    return getBlobStream(ordinal, 0L, cc);
+  }
+
+  /**
+   * @return a stream over the attachment's content starting at the given
+   *     offset, reading only the parts from that offset onwards where
+   *     possible, or null if the attachment has no content. The caller must
+   *     close it.
+   */
+  public InputStream getBlobStream(int ordinal, long offset, CallingContext cc) throws ODKDatastoreException {
+    updateAttachments(cc);
+    BinaryContent b = attachments.get(Long.valueOf(ordinal));
+    if (b == null) {
+      // we are somehow out of sync!
+      throw new IllegalStateException("missing attachment declaration");
+    }
+    if (b.getContentHash() == null) {
+      return null;
+    }
+    BlobManipulator blbManipulator = new BlobManipulator(b.getUri(), vrefRelation, blbRelation, cc);
+    return blbManipulator.openStream(offset, b.getContentLength());
+  }
+
+  /**
+   * @return a stream that writes the content of a new attachment into blob
+   *     parts as it is produced. Once it is closed, attach the content with
+   *     {@link #setValueFromBlobOutputStream} or remove it with
+   *     {@link BlobOutputStream#discard(CallingContext)}.
+   */
+  public BlobOutputStream newBlobOutputStream(CallingContext cc) {
+    return new BlobOutputStream(CommonFieldsBase.newUri(), vrefRelation, blbRelation, topLevelKey, cc);
+  }
+
+  /**
+   * Attach the content written to a closed {@link BlobOutputStream} under the
+   * given file path, which must not already be in use.
+   */
+  public BinaryContentManipulator.BlobSubmissionOutcome setValueFromBlobOutputStream(BlobOutputStream content,
+                                                                                     String contentType, String unrootedFilePath, CallingContext cc) throws ODKDatastoreException {
+    if (!content.isClosed()) {
+      throw new IllegalStateException("blob output stream must be closed before it is attached");
+    }
+    updateAttachments(cc);
+    for (BinaryContent bc : attachments.values()) {
+      String bcFilePath = bc.getUnrootedFilePath();
+      if ((bcFilePath == null) ? (unrootedFilePath == null)
+          : (unrootedFilePath != null && bcFilePath.equals(unrootedFilePath))) {
+        throw new IllegalStateException("attachment already exists: " + unrootedFilePath);
+      }
+    }
+
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    // the blob parts are already stored under the uri of this record
+    BinaryContent bc = ds.createEntityUsingRelation(ctntRelation, user);
+    bc.setStringField(bc.primaryKey, content.getUriVersionedContent());
+    bc.setTopLevelAuri(topLevelKey);
+    bc.setParentAuri(parentKey);
+    bc.setOrdinalNumber(internalGetAttachmentCount() + 1L);
+    bc.setUnrootedFilePath(unrootedFilePath);
+    bc.setContentType(contentType);
+    bc.setContentLength(content.getContentLength());
+    bc.setContentHash(content.getContentHash());
+    ds.putEntity(bc, user);
+    attachments.put(bc.getOrdinalNumber(), bc);
+    return BinaryContentManipulator.BlobSubmissionOutcome.COMPLETELY_NEW_FILE;
+  }
+
   /**
    * Atomically rename the given source file path to the destination path.
    * Will fail if the destination path already exists.
@@ -205,7 +302,36 @@ public class BinaryContentManipulator {
                                                                               String contentType, String unrootedFilePath, boolean overwriteOK, CallingContext cc)
       throws ODKDatastoreException {
 
-    Long contentLength = (byteArray == null) ? null : Long.valueOf(byteArray.length);
+    if (byteArray == null) {
+      return setValue(null, null, null, contentType, unrootedFilePath, overwriteOK, cc);
+    }
+    return setValue(new ByteArrayInputStream(byteArray), Long.valueOf(byteArray.length),
+        CommonFieldsBase.newMD5HashUri(byteArray), contentType, unrootedFilePath, overwriteOK, cc);
+  }
+
+  /**
+   * Save the attachment to the database, reading its content from the stream
+   * as it is written into blob parts rather than holding it all in memory. The
+   * caller supplies the length and md5 hash (as produced by
+   * CommonFieldsBase.newMD5HashUri()) of the content and closes the stream.
+   *
+   * @return COMPLETELY_NEW_FILE on successful save; FILE_UNCHANGED on hash
+   *     equivalence; NEW_FILE_VERSION on updating existing file (save not allowed unless overwriteOK).
+   */
+  public BinaryContentManipulator.BlobSubmissionOutcome setValueFromStream(InputStream content,
+                                                                           long contentLength, String md5Hash, String contentType, String unrootedFilePath,
+                                                                           boolean overwriteOK, CallingContext cc) throws ODKDatastoreException {
+    if (content == null || md5Hash == null || contentType == null) {
+      throw new IllegalArgumentException("unexpected null values passed into method");
+    }
+    return setValue(content, Long.valueOf(contentLength), md5Hash, contentType, unrootedFilePath,
+        overwriteOK, cc);
+  }
+
+  private BinaryContentManipulator.BlobSubmissionOutcome setValue(InputStream content,
+                                                                  Long contentLength, String md5Hash, String contentType, String unrootedFilePath,
+                                                                  boolean overwriteOK, CallingContext cc) throws ODKDatastoreException {
+
     // search for a matching entry for unrootedFilePath
     BinaryContent matchedBc = null;
     String currentContentHash = null;
@@ -224,7 +350,7 @@ public class BinaryContentManipulator {
     Datastore ds = cc.getDatastore();
     User user = cc.getCurrentUser();
 
-    if (byteArray == null && contentType == null) {
+    if (content == null && contentType == null) {
       // adding a file entry without any actual file...
 
       if (matchedBc == null) {
@@ -244,11 +370,9 @@ public class BinaryContentManipulator {
         // record already exists (and it might have file data, too)...
         return BinaryContentManipulator.BlobSubmissionOutcome.FILE_UNCHANGED;
       }
-    } else if (byteArray != null && contentType != null) {
+    } else if (content != null && contentType != null) {
       // adding a file entry with an actual file...
 
-      String md5Hash = CommonFieldsBase.newMD5HashUri(byteArray);
-
       if (matchedBc == null || currentContentHash == null) {
         // either
         // - create a new entry with file data
@@ -275,7 +399,7 @@ public class BinaryContentManipulator {
 
         // Step (1)
         matchedBc.setContentType(contentType);
-        matchedBc.setContentLength(Long.valueOf(byteArray.length));
+        matchedBc.setContentLength(contentLength);
         ds.putEntity(matchedBc, user);
 
         if (newBc) {
@@ -292,7 +416,7 @@ public class BinaryContentManipulator {
 
         // Step (3)
         // persist the binary data
-        BlobManipulator subBlob = new BlobManipulator(byteArray, matchedBc.getUri(), vrefRelation,
+        BlobManipulator subBlob = new BlobManipulator(content, matchedBc.getUri(), vrefRelation,
             blbRelation, topLevelKey, cc);
 
         // Step (4)
@@ -316,7 +440,7 @@ public class BinaryContentManipulator {
         // Step (1)
         matchedBc.setContentHash(null);
         matchedBc.setContentType(contentType);
-        matchedBc.setContentLength(Long.valueOf(byteArray.length));
+        matchedBc.setContentLength(contentLength);
         ds.putEntity(matchedBc, user);
 
         // Step (2)
@@ -327,7 +451,7 @@ public class BinaryContentManipulator {
 
         // Step (3)
         // persist the binary data
-        BlobManipulator subBlob = new BlobManipulator(byteArray, matchedBc.getUri(), vrefRelation,
+        BlobManipulator subBlob = new BlobManipulator(content, matchedBc.getUri(), vrefRelation,
             blbRelation, topLevelKey, cc);
 
         // Step (4)
@@ -341,20 +465,34 @@ public class BinaryContentManipulator {
     }
   }
 
+  /**
+   * Supply the BinaryContent rows for this parentKey (ordered by ordinal number)
+   * that were fetched in bulk with those of other submissions. They are used
+   * instead of querying the database the next time the attachments are
+   * refreshed.
+   */
+  public synchronized void setPrefetchedAttachments(List<? extends CommonFieldsBase> contentHits) {
+    prefetchedContent = contentHits;
+    refreshBeforeUse = true;
+  }
+
   public synchronized void updateAttachments(CallingContext cc) throws ODKDatastoreException {
     if (refreshBeforeUse) {
       // clear our mutable state.
       attachments.clear();
 
-      Datastore ds = cc.getDatastore();
-      User user = cc.getCurrentUser();
-      Query q = ds.createQuery(ctntRelation, "BinaryContentManipulator.refreshFromDatabase", user);
-      q.addFilter(ctntRelation.parentAuri, FilterOperation.EQUAL, parentKey);
-      q.addSort(ctntRelation.parentAuri, Direction.ASCENDING); // GAE work-around
-      q.addSort(ctntRelation.ordinalNumber, Direction.ASCENDING);
-
       List<String> errors = new ArrayList<String>();
-      List<? extends CommonFieldsBase> contentHits = q.executeQuery();
+      List<? extends CommonFieldsBase> contentHits = prefetchedContent;
+      prefetchedContent = null;
+      if (contentHits == null) {
+        Datastore ds = cc.getDatastore();
+        User user = cc.getCurrentUser();
+        Query q = ds.createQuery(ctntRelation, "BinaryContentManipulator.refreshFromDatabase", user);
+        q.addFilter(ctntRelation.parentAuri, FilterOperation.EQUAL, parentKey);
+        q.addSort(ctntRelation.parentAuri, Direction.ASCENDING); // GAE work-around
+        q.addSort(ctntRelation.ordinalNumber, Direction.ASCENDING);
+        contentHits = q.executeQuery();
+      }
       attachments.clear();
       long expectedOrdinal = 1L;
       for (CommonFieldsBase cb : contentHits) {
@@ -459,26 +597,52 @@ public class BinaryContentManipulator {
 
   public static class BlobManipulator {
 
+    /**
+     * Number of parts fetched per query when reading a blob. This bounds the
+     * memory used to stream a blob regardless of its size.
+     */
+    private static final int PARTS_PER_FETCH = 4;
+
+    /**
+     * Size of the parts new blobs are split into, if the database allows blobs
+     * that large. Small parts let blobs be written and read a part at a time.
+     */
+    private static final long MAX_PART_SIZE = 256 * 1024L;
+
     private List<BinaryContentRefBlob> dbBcbEntityList = new ArrayList<BinaryContentRefBlob>();
     private List<RefBlob> dbRefBlobList = new ArrayList<RefBlob>();
+    private final RefBlob ref;
+    private final CallingContext cc;
 
     /**
      * Construct an blob entity and persist it into the data store
      */
     public BlobManipulator(byte[] blob, String uriVersionedContent, BinaryContentRefBlob bcbRef,
                            RefBlob ref, String topLevelKey, CallingContext cc) throws ODKDatastoreException {
+      this(new ByteArrayInputStream(blob), uriVersionedContent, bcbRef, ref, topLevelKey, cc);
+    }
 
+    /**
+     * Construct an blob entity from the content of the stream, persisting each
+     * part as soon as it has been read.
+     */
+    public BlobManipulator(InputStream blob, String uriVersionedContent, BinaryContentRefBlob bcbRef,
+                           RefBlob ref, String topLevelKey, CallingContext cc) throws ODKDatastoreException {
+
+      this.ref = ref;
+      this.cc = cc;
       // loop to create the VBCRB and RB entries for each part of the
       // larger blob
-      long blobLimit = ref.value.getMaxCharLen();
+      int blobLimit = (int) Math.min(ref.value.getMaxCharLen(), MAX_PART_SIZE);
       long part = 1L;
       Datastore ds = cc.getDatastore();
       User user = cc.getCurrentUser();
-      for (long index = 0; index < blob.length; index = index + blobLimit) {
-        long endCopy = index + blobLimit;
-        if (endCopy > blob.length)
-          endCopy = blob.length;
-        byte[] partialBlob = Arrays.copyOfRange(blob, (int) index, (int) endCopy);
+      byte[] buffer = new byte[blobLimit];
+      for (; ; ) {
+        int len = readPart(blob, buffer);
+        if (len == 0)
+          break;
+        byte[] partialBlob = Arrays.copyOf(buffer, len);
         RefBlob eBlob = ds.createEntityUsingRelation(ref, user);
         eBlob.setTopLevelAuri(topLevelKey);
         eBlob.setValue(partialBlob);
@@ -494,9 +658,37 @@ public class BinaryContentManipulator {
       }
     }
 
+    /**
+     * Fill the buffer from the stream, stopping early only at the end of the
+     * stream.
+     *
+     * @return the number of bytes read; 0 at the end of the stream.
+     */
+    private static int readPart(InputStream blob, byte[] buffer) throws ODKDatastoreException {
+      int len = 0;
+      try {
+        while (len < buffer.length) {
+          int count = blob.read(buffer, len, buffer.length - len);
+          if (count == -1)
+            break;
+          len += count;
+        }
+      } catch (IOException e) {
+        throw new ODKDatastoreException("unable to read blob content", e);
+      }
+      return len;
+    }
+
+    /**
+     * Construct a reader over the parts of an existing blob. Only the ordered
+     * list of part references is fetched here; the parts themselves are fetched
+     * a few at a time as the stream returned by {@link #openStream()} is read.
+     */
     public BlobManipulator(String uriVersionedContent, BinaryContentRefBlob bcbRef, RefBlob ref,
                            CallingContext cc) throws ODKDatastoreException {
 
+      this.ref = ref;
+      this.cc = cc;
       Datastore ds = cc.getDatastore();
       User user = cc.getCurrentUser();
       // gather the ordered list of parts...
@@ -518,26 +710,88 @@ public class BinaryContentManipulator {
         ++expectedPart;
         dbBcbEntityList.add(bcref);
       }
+    }
 
-      // and gather the blob parts themselves...
-      for (BinaryContentRefBlob b : dbBcbEntityList) {
-        RefBlob eBlob = ds.getEntity(ref, b.getSubAuri(), user);
-        if (eBlob == null) {
-          throw new IllegalStateException("Missing blob part!");
-        }
-        dbRefBlobList.add(eBlob);
+    /**
+     * @return the number of parts the blob is split into.
+     */
+    public int getPartCount() {
+      return dbBcbEntityList.size();
+    }
+
+    /**
+     * @return a stream over the content of the blob. At most
+     *     PARTS_PER_FETCH parts are held in memory at any time.
+     */
+    public InputStream openStream() {
+      return new BlobInputStream(0, 0L);
+    }
+
+    /**
+     * Open a stream positioned at the given offset into the blob. The writers
+     * fill every part but the last to the same size, so when the first and
+     * last parts account for exactly contentLength the parts before the
+     * offset are not read at all. Blobs with any other layout are read from
+     * the start and the leading bytes discarded.
+     *
+     * @param offset        the first byte to return.
+     * @param contentLength the length of the whole blob, if known.
+     */
+    public InputStream openStream(long offset, Long contentLength) throws ODKDatastoreException {
+      int partCount = dbBcbEntityList.size();
+      if (contentLength == null || partCount < 2 || offset <= 0) {
+        return new BlobInputStream(0, offset);
       }
+      long partSize = fetchParts(0, 1).get(0).getValue().length;
+      long lastSize = fetchParts(partCount - 1, partCount).get(0).getValue().length;
+      if (partSize == 0 || lastSize == 0 || lastSize > partSize
+          || (partCount - 1) * partSize + lastSize != contentLength) {
+        return new BlobInputStream(0, offset);
+      }
+      int firstPart = (int) Math.min(offset / partSize, partCount - 1);
+      return new BlobInputStream(firstPart, offset - firstPart * partSize);
     }
 
-    public byte[] getBlob() {
+    public byte[] getBlob() throws ODKDatastoreException {
       ByteArrayOutputStream reconstructedBlob = new ByteArrayOutputStream();
-      for (RefBlob partialBlob : dbRefBlobList) {
-        byte[] part = partialBlob.getValue();
-        reconstructedBlob.write(part, 0, part.length);
+      for (int i = 0; i < dbBcbEntityList.size(); i += PARTS_PER_FETCH) {
+        for (RefBlob partialBlob : fetchParts(i, Math.min(i + PARTS_PER_FETCH, dbBcbEntityList.size()))) {
+          byte[] part = partialBlob.getValue();
+          reconstructedBlob.write(part, 0, part.length);
+        }
       }
       return reconstructedBlob.toByteArray();
     }
 
+    /**
+     * Fetch the parts [from, to) with a single query, in part order.
+     */
+    private List<RefBlob> fetchParts(int from, int to) throws ODKDatastoreException {
+      if (dbRefBlobList.size() == dbBcbEntityList.size()) {
+        // we wrote this blob and still hold its parts
+        return dbRefBlobList.subList(from, to);
+      }
+      List<String> uris = new ArrayList<String>();
+      for (BinaryContentRefBlob b : dbBcbEntityList.subList(from, to)) {
+        uris.add(b.getSubAuri());
+      }
+      Query q = cc.getDatastore().createQuery(ref, "BinaryContentManipulator.BlobManipulator.fetchParts", cc.getCurrentUser());
+      q.addValueSetFilter(ref.primaryKey, uris);
+      Map<String, RefBlob> blobs = new HashMap<String, RefBlob>();
+      for (CommonFieldsBase cb : q.executeQuery()) {
+        blobs.put(cb.getUri(), (RefBlob) cb);
+      }
+      List<RefBlob> parts = new ArrayList<RefBlob>();
+      for (String uri : uris) {
+        RefBlob eBlob = blobs.get(uri);
+        if (eBlob == null) {
+          throw new IllegalStateException("Missing blob part!");
+        }
+        parts.add(eBlob);
+      }
+      return parts;
+    }
+
     /**
      * Recursively add the keys for this entry to keyList.
      * Pay attention to the order of insertion so that if
@@ -554,11 +808,8 @@ public class BinaryContentManipulator {
       for (int i = 0; i < dbBcbEntityList.size(); ++i) {
         BinaryContentRefBlob e = dbBcbEntityList.get(i);
         String sub = e.getSubAuri();
-        RefBlob r = blobs.get(sub);
-        if (r != null) {
-          keyList.add(r.getEntityKey());
-          blobs.remove(sub);
-        }
+        RefBlob r = blobs.remove(sub);
+        keyList.add((r != null) ? r.getEntityKey() : new EntityKey(ref, sub));
         keyList.add(e.getEntityKey());
       }
       for (RefBlob r : blobs.values()) {
@@ -566,5 +817,196 @@ public class BinaryContentManipulator {
       }
     }
 
+    /**
+     * Reads the parts of the blob in order, fetching PARTS_PER_FETCH of them
+     * per query as the previous ones are consumed.
+     */
+    private final class BlobInputStream extends InputStream {
+      private int nextPart;
+      private List<RefBlob> fetched = new ArrayList<RefBlob>();
+      private int fetchedIndex = 0;
+      private byte[] current = null;
+      private int offset = 0;
+      private long pendingSkip;
+
+      BlobInputStream(int firstPart, long skip) {
+        this.nextPart = firstPart;
+        this.pendingSkip = skip;
+      }
+
+      /**
+       * @return false at the end of the blob.
+       */
+      private boolean advance() throws IOException {
+        while (current == null || offset == current.length) {
+          if (fetchedIndex == fetched.size()) {
+            if (nextPart >= dbBcbEntityList.size()) {
+              return false;
+            }
+            int to = Math.min(nextPart + PARTS_PER_FETCH, dbBcbEntityList.size());
+            try {
+              fetched = fetchParts(nextPart, to);
+            } catch (ODKDatastoreException e) {
+              throw new IOException("unable to read blob part", e);
+            }
+            fetchedIndex = 0;
+            nextPart = to;
+          }
+          current = fetched.get(fetchedIndex++).getValue();
+          offset = (int) Math.min(pendingSkip, current.length);
+          pendingSkip -= offset;
+        }
+        return true;
+      }
+
+      @Override
+      public int read() throws IOException {
+        if (!advance()) {
+          return -1;
+        }
+        return current[offset++] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        if (!advance()) {
+          return -1;
+        }
+        int count = Math.min(len, current.length - offset);
+        System.arraycopy(current, offset, b, off, count);
+        offset += count;
+        return count;
+      }
+
+      @Override
+      public void close() {
+        fetched = new ArrayList<RefBlob>();
+        fetchedIndex = 0;
+        current = null;
+        nextPart = dbBcbEntityList.size();
+      }
+    }
+  }
+
+  /**
+   * Writes blob content into parts as it is produced, holding at most one
+   * part in memory. The parts are stored under a content uri that no
+   * BinaryContent record refers to until the stream is attached with
+   * {@link BinaryContentManipulator#setValueFromBlobOutputStream}.
+   */
+  public static class BlobOutputStream extends OutputStream {
+    private final String uriVersionedContent;
+    private final BinaryContentRefBlob bcbRef;
+    private final RefBlob ref;
+    private final String topLevelKey;
+    private final CallingContext cc;
+    private final MessageDigest md;
+    private final byte[] buffer;
+    private int len = 0;
+    private long part = 1L;
+    private long contentLength = 0L;
+    private String contentHash = null;
+
+    BlobOutputStream(String uriVersionedContent, BinaryContentRefBlob bcbRef, RefBlob ref,
+                     String topLevelKey, CallingContext cc) {
+      this.uriVersionedContent = uriVersionedContent;
+      this.bcbRef = bcbRef;
+      this.ref = ref;
+      this.topLevelKey = topLevelKey;
+      this.cc = cc;
+      try {
+        md = MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("Unexpected problem computing md5 hash", e);
+      }
+      buffer = new byte[(int) Math.min(ref.value.getMaxCharLen(), BlobManipulator.MAX_PART_SIZE)];
+    }
+
+    public String getUriVersionedContent() {
+      return uriVersionedContent;
+    }
+
+    public boolean isClosed() {
+      return contentHash != null;
+    }
+
+    public long getContentLength() {
+      return contentLength;
+    }
+
+    /**
+     * @return the md5 hash of the content, once the stream is closed.
+     */
+    public String getContentHash() {
+      return contentHash;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int length) throws IOException {
+      if (isClosed()) {
+        throw new IOException("blob output stream is closed");
+      }
+      md.update(b, off, length);
+      contentLength += length;
+      while (length > 0) {
+        int count = Math.min(length, buffer.length - len);
+        System.arraycopy(b, off, buffer, len, count);
+        len += count;
+        off += count;
+        length -= count;
+        if (len == buffer.length) {
+          writePart();
+        }
+      }
+    }
+
+    private void writePart() throws IOException {
+      if (len == 0) {
+        return;
+      }
+      Datastore ds = cc.getDatastore();
+      User user = cc.getCurrentUser();
+      try {
+        RefBlob eBlob = ds.createEntityUsingRelation(ref, user);
+        eBlob.setTopLevelAuri(topLevelKey);
+        eBlob.setValue(Arrays.copyOf(buffer, len));
+        BinaryContentRefBlob bcb = ds.createEntityUsingRelation(bcbRef, user);
+        bcb.setTopLevelAuri(topLevelKey);
+        bcb.setDomAuri(uriVersionedContent);
+        bcb.setSubAuri(eBlob.getUri());
+        bcb.setPart(part++);
+        ds.putEntity(eBlob, user);
+        ds.putEntity(bcb, user);
+      } catch (ODKDatastoreException e) {
+        throw new IOException("unable to write blob part", e);
+      }
+      len = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!isClosed()) {
+        writePart();
+        contentHash = CommonFieldsBase.newMD5HashUri(md);
+      }
+    }
+
+    /**
+     * Delete the parts written so far, e.g., if the content is abandoned.
+     */
+    public void discard(CallingContext cc) throws ODKDatastoreException {
+      BlobManipulator b = new BlobManipulator(uriVersionedContent, bcbRef, ref, cc);
+      List<EntityKey> keyList = new ArrayList<EntityKey>();
+      b.recursivelyAddEntityKeysForDeletion(keyList);
+      DeleteHelper.deleteEntities(keyList, cc);
+    }
   }
 }
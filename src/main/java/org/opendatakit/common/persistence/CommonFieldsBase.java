@@ -19,9 +19,10 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -84,7 +85,11 @@ public abstract class CommonFieldsBase {
   protected final String schemaName;
   protected final String tableName;
   protected final List<DataField> fieldList = new ArrayList<DataField>();
-  protected final Map<DataField, Object> fieldValueMap = new HashMap<DataField, Object>();
+  /**
+   * field values, in the order of the fieldList
+   */
+  private Object[] fieldValues;
+  private FieldLayout fieldLayout = null;
   private boolean fromDatabase = false;
   private Object opaquePersistenceData = null;
 
@@ -99,6 +104,7 @@ public abstract class CommonFieldsBase {
     fieldList.add(creationDate = new DataField(CREATION_DATE));
     fieldList.add(lastUpdateUriUser = new DataField(LAST_UPDATE_URI_USER));
     fieldList.add(lastUpdateDate = new DataField(LAST_UPDATE_DATE));
+    fieldValues = new Object[fieldList.size()];
   }
 
   protected CommonFieldsBase(CommonFieldsBase ref, User user) {
@@ -112,13 +118,16 @@ public abstract class CommonFieldsBase {
     lastUpdateDate = ref.lastUpdateDate;
 
     fieldList.addAll(ref.fieldList);
+    // rows share the field ordinals of the relation they are created from
+    fieldLayout = ref.getFieldLayout();
+    fieldValues = new Object[fieldList.size()];
 
     // populate the audit fields...
     Date now = new Date();
-    fieldValueMap.put(creationDate, now);
-    fieldValueMap.put(lastUpdateDate, now);
-    fieldValueMap.put(creatorUriUser, user.getUriUser());
-    fieldValueMap.put(primaryKey, CommonFieldsBase.newUri());
+    setFieldValue(getFieldOrdinal(creationDate, "set"), now);
+    setFieldValue(getFieldOrdinal(lastUpdateDate, "set"), now);
+    setFieldValue(getFieldOrdinal(creatorUriUser, "set"), user.getUriUser());
+    setFieldValue(getFieldOrdinal(primaryKey, "set"), CommonFieldsBase.newUri());
   }
 
   public final static String newUri() {
@@ -154,19 +163,26 @@ public abstract class CommonFieldsBase {
     try {
       MessageDigest md = MessageDigest.getInstance("MD5");
       md.update(asBytes);
-
-      byte[] messageDigest = md.digest();
-
-      BigInteger number = new BigInteger(1, messageDigest);
-      String md5 = number.toString(16);
-      while (md5.length() < 32)
-        md5 = "0" + md5;
-      return "md5:" + md5;
+      return newMD5HashUri(md);
     } catch (NoSuchAlgorithmException e) {
       throw new IllegalStateException("Unexpected problem computing md5 hash", e);
     }
   }
 
+  /**
+   * Completes the MD5 digest (e.g., of content that was hashed while it was
+   * being streamed) and formats it like the other newMD5HashUri methods.
+   */
+  public final static String newMD5HashUri(MessageDigest md) {
+    byte[] messageDigest = md.digest();
+
+    BigInteger number = new BigInteger(1, messageDigest);
+    String md5 = number.toString(16);
+    while (md5.length() < 32)
+      md5 = "0" + md5;
+    return "md5:" + md5;
+  }
+
   public final EntityKey getEntityKey() {
     return new EntityKey(this, getUri());
   }
@@ -199,26 +215,46 @@ public abstract class CommonFieldsBase {
     return Collections.unmodifiableList(fieldList);
   }
 
-  public final boolean hasField(DataField f) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
+  /**
+   * Fields are only ever appended to the fieldList, so the layout is rebuilt
+   * whenever the list has grown.
+   */
+  private FieldLayout getFieldLayout() {
+    FieldLayout layout = fieldLayout;
+    if (layout == null || layout.fieldCount != fieldList.size()) {
+      layout = new FieldLayout(fieldList);
+      fieldLayout = layout;
     }
-    return fieldValueMap.containsKey(f);
+    return layout;
   }
 
-  public final String getStringField(DataField f) {
+  /**
+   * @return the position of the field in the fieldList, which is also the
+   *     position of its value in fieldValues.
+   */
+  private int getFieldOrdinal(DataField f, String access) {
     if (f == null) {
       throw new IllegalArgumentException("Field value is null!");
     }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
+    Integer ordinal = getFieldLayout().ordinals.get(f);
+    if (ordinal == null) {
+      throw new IllegalArgumentException("Attempting to " + access + " a field " + f.getName()
           + " not belonging to " + schemaName + "." + tableName);
     }
-    Object o = fieldValueMap.get(f);
+    if (ordinal >= fieldValues.length) {
+      fieldValues = Arrays.copyOf(fieldValues, fieldList.size());
+    }
+    return ordinal;
+  }
+
+  public final boolean hasField(DataField f) {
+    int ordinal = getFieldOrdinal(f, "get");
+    return fieldValues[ordinal] != null;
+  }
+
+  public final String getStringField(DataField f) {
+    int ordinal = getFieldOrdinal(f, "get");
+    Object o = fieldValues[ordinal];
     if (o == null)
       return null;
     return (String) o;
@@ -229,13 +265,7 @@ public abstract class CommonFieldsBase {
    * prefix is stored and false is returned.
    */
   public final boolean setStringField(DataField f, String value) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to set a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
+    int ordinal = getFieldOrdinal(f, "set");
     if (!((f.getDataType() == DataType.STRING) || (f.getDataType() == DataType.LONG_STRING) || (f
         .getDataType() == DataType.URI))) {
       throw new IllegalArgumentException("Attempting to set non-string field " + f.getName()
@@ -247,7 +277,7 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      fieldValues[ordinal] = null;
       return true;
     } else if (f.getMaxCharLen().compareTo(Long.valueOf(value.length())) < 0) {
       if (f.getDataType() == DataType.LONG_STRING) {
@@ -260,32 +290,20 @@ public abstract class CommonFieldsBase {
       noOverflow = false;
       value = value.substring(0, f.getMaxCharLen().intValue());
     }
-    fieldValueMap.put(f, value);
+    fieldValues[ordinal] = value;
     return noOverflow;
   }
 
   public final Long getLongField(DataField f) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
-    Object o = fieldValueMap.get(f);
+    int ordinal = getFieldOrdinal(f, "get");
+    Object o = fieldValues[ordinal];
     if (o == null)
       return null;
     return (Long) o;
   }
 
   public final void setLongField(DataField f, Long value) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to set a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
+    int ordinal = getFieldOrdinal(f, "set");
     if (f.getDataType() != DataType.INTEGER) {
       throw new IllegalArgumentException("Attempting to set non-integer field " + f.getName()
           + " with a Long in " + schemaName + "." + tableName);
@@ -295,34 +313,22 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      fieldValues[ordinal] = null;
       return;
     }
-    fieldValueMap.put(f, value);
+    fieldValues[ordinal] = value;
   }
 
   public final WrappedBigDecimal getNumericField(DataField f) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
-    Object o = fieldValueMap.get(f);
+    int ordinal = getFieldOrdinal(f, "get");
+    Object o = fieldValues[ordinal];
     if (o == null)
       return null;
     return (WrappedBigDecimal) o;
   }
 
   public final void setNumericField(DataField f, WrappedBigDecimal value) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to set a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
+    int ordinal = getFieldOrdinal(f, "set");
     if (f.getDataType() != DataType.DECIMAL) {
       throw new IllegalArgumentException("Attempting to set non-decimal field " + f.getName()
           + " with a BigDecimal in " + schemaName + "." + tableName);
@@ -332,39 +338,27 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      fieldValues[ordinal] = null;
       return;
     }
     if (!f.isDoublePrecision() && !value.isSpecialValue()) {
       // enforce scaling here...
-      fieldValueMap.put(f, value.setScale(f.getNumericScale(), BigDecimal.ROUND_HALF_UP));
+      fieldValues[ordinal] = value.setScale(f.getNumericScale(), BigDecimal.ROUND_HALF_UP);
     } else {
-      fieldValueMap.put(f, value);
+      fieldValues[ordinal] = value;
     }
   }
 
   public final Date getDateField(DataField f) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
-    Object o = fieldValueMap.get(f);
+    int ordinal = getFieldOrdinal(f, "get");
+    Object o = fieldValues[ordinal];
     if (o == null)
       return null;
     return (Date) o;
   }
 
   public final void setDateField(DataField f, Date value) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to set a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
+    int ordinal = getFieldOrdinal(f, "set");
     if (f.getDataType() != DataType.DATETIME) {
       throw new IllegalArgumentException("Attempting to set non-datetime field " + f.getName()
           + " with a Date in " + schemaName + "." + tableName);
@@ -374,34 +368,22 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      fieldValues[ordinal] = null;
       return;
     }
-    fieldValueMap.put(f, value);
+    fieldValues[ordinal] = value;
   }
 
   public final Boolean getBooleanField(DataField f) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
-    Object o = fieldValueMap.get(f);
+    int ordinal = getFieldOrdinal(f, "get");
+    Object o = fieldValues[ordinal];
     if (o == null)
       return null;
     return (Boolean) o;
   }
 
   public final void setBooleanField(DataField f, Boolean value) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to set a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
+    int ordinal = getFieldOrdinal(f, "set");
     if (f.getDataType() != DataType.BOOLEAN) {
       throw new IllegalArgumentException("Attempting to set non-boolean field " + f.getName()
           + " with a Boolean in " + schemaName + "." + tableName);
@@ -411,34 +393,22 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      fieldValues[ordinal] = null;
       return;
     }
-    fieldValueMap.put(f, value);
+    fieldValues[ordinal] = value;
   }
 
   public final byte[] getBlobField(DataField f) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to get a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
-    Object o = fieldValueMap.get(f);
+    int ordinal = getFieldOrdinal(f, "get");
+    Object o = fieldValues[ordinal];
     if (o == null)
       return null;
     return (byte[]) o;
   }
 
   public final void setBlobField(DataField f, byte[] value) {
-    if (f == null) {
-      throw new IllegalArgumentException("Field value is null!");
-    }
-    if (!fieldList.contains(f)) {
-      throw new IllegalArgumentException("Attempting to set a field " + f.getName()
-          + " not belonging to " + schemaName + "." + tableName);
-    }
+    int ordinal = getFieldOrdinal(f, "set");
     if (f.getDataType() != DataType.BINARY) {
       throw new IllegalArgumentException("Attempting to set non-blob field " + f.getName()
           + " with byte-array in " + schemaName + "." + tableName);
@@ -448,10 +418,10 @@ public abstract class CommonFieldsBase {
         throw new IllegalStateException("Attempting to set null value in non-null field "
             + f.getName() + " in " + schemaName + "." + tableName);
       }
-      fieldValueMap.remove(f);
+      fieldValues[ordinal] = null;
       return;
     }
-    fieldValueMap.put(f, value);
+    fieldValues[ordinal] = value;
   }
 
   /*
@@ -492,11 +462,42 @@ public abstract class CommonFieldsBase {
     this.opaquePersistenceData = opaquePersistenceData;
   }
 
+  /**
+   * Set the value of the field at the given position in the field list,
+   * without the conversions and checks of the typed setters. This should only
+   * be called from within the persistence layer implementation, with values
+   * of the field's type read from the persistent store.
+   */
+  public final void setFieldValue(int ordinal, Object value) {
+    if (ordinal >= fieldValues.length) {
+      fieldValues = Arrays.copyOf(fieldValues, fieldList.size());
+    }
+    fieldValues[ordinal] = value;
+  }
+
   public final boolean isNull(DataField f) {
-    return (fieldValueMap.get(f) == null);
+    Integer ordinal = (f == null) ? null : getFieldLayout().ordinals.get(f);
+    return ordinal == null || ordinal >= fieldValues.length || fieldValues[ordinal] == null;
   }
 
   public boolean sameTable(CommonFieldsBase ref) {
     return getSchemaName().equals(ref.getSchemaName()) && getTableName().equals(ref.getTableName());
   }
+
+  /**
+   * The ordinals of the fields of a relation. Never modified once built, so
+   * that it can be shared by a relation prototype and all of its rows.
+   */
+  private static final class FieldLayout {
+    final int fieldCount;
+    final Map<DataField, Integer> ordinals;
+
+    FieldLayout(List<DataField> fields) {
+      fieldCount = fields.size();
+      ordinals = new IdentityHashMap<DataField, Integer>(fieldCount * 2);
+      for (int i = 0; i < fieldCount; ++i) {
+        ordinals.put(fields.get(i), i);
+      }
+    }
+  }
 }
@@ -14,6 +14,8 @@
 package org.opendatakit.common.persistence;
 
 import java.util.Collection;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics;
+import org.opendatakit.common.persistence.engine.SqlStatementCache;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
 import org.opendatakit.common.persistence.exception.ODKOverQuotaException;
@@ -35,10 +37,24 @@ public interface Datastore {
 
   int getMaxLenColumnName();
 
+  /**
+   * @return true if every write is visible to all later reads, from any
+   *     server, as soon as the call that made it returns. Callers then need
+   *     not wait PersistConsts.MIN_SETTLE_MILLISECONDS or
+   *     MAX_SETTLE_MILLISECONDS for their writes to propagate.
+   */
+  boolean isStronglyConsistent();
+
   void assertRelation(CommonFieldsBase relation, User user) throws ODKDatastoreException;
 
   void dropRelation(CommonFieldsBase relation, User user) throws ODKDatastoreException;
 
+  /**
+   * Discards what is known about the table of the relation, so that the next
+   * assertRelation reads its definition from the database again.
+   */
+  void forgetRelation(CommonFieldsBase relation);
+
   boolean hasRelation(String schema, String tableName, User user) throws ODKDatastoreException;
 
   <T extends CommonFieldsBase> T createEntityUsingRelation(T relation, User user);
@@ -56,4 +72,15 @@ public interface Datastore {
   void deleteEntities(Collection<EntityKey> keys, User user) throws ODKDatastoreException;
 
   TaskLock createTaskLock(User user);
+
+  /**
+   * Starts a unit of work on the calling thread. Until it is committed or
+   * rolled back, the entities written and deleted by the thread are only
+   * visible to the thread, and they are committed together.
+   */
+  Transaction beginTransaction(User user) throws ODKDatastoreException;
+
+  DatastoreAccessMetrics getAccessMetrics();
+
+  SqlStatementCache getSqlStatementCache();
 }
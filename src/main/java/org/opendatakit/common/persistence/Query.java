@@ -13,6 +13,7 @@
  */
 package org.opendatakit.common.persistence;
 
+import java.util.Collection;
 import java.util.List;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 
@@ -28,6 +29,13 @@ public interface Query {
 
   void addFilter(DataField attributeName, FilterOperation op, Object value);
 
+  /**
+   * Restrict the query to rows whose attribute matches one of the values in
+   * the (non-empty) valueSet. Callers are responsible for keeping the size of
+   * the valueSet within the bind-parameter limits of the database.
+   */
+  void addValueSetFilter(DataField attributeName, Collection<?> valueSet);
+
   List<? extends CommonFieldsBase> executeQuery() throws ODKDatastoreException;
 
   QueryResult executeQuery(QueryResumePoint startCursor, int fetchLimit) throws ODKDatastoreException;
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+
+/**
+ * A unit of work started by {@link Datastore#beginTransaction(User)}.
+ * <p>
+ * Typical use:
+ * <pre>
+ * Transaction transaction = ds.beginTransaction(user);
+ * try {
+ *   ...
+ *   transaction.commit();
+ * } finally {
+ *   transaction.rollback();
+ * }
+ * </pre>
+ */
+public interface Transaction {
+
+  /**
+   * Makes the changes of the unit of work durable. If the commit fails, the
+   * changes are rolled back.
+   */
+  void commit() throws ODKDatastoreException;
+
+  /**
+   * Discards the changes of the unit of work. Does nothing if the
+   * transaction has already been committed or rolled back.
+   */
+  void rollback();
+}
@@ -14,165 +14,157 @@
 package org.opendatakit.common.persistence.engine;
 
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.EntityKey;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.opendatakit.common.utils.LatencyHistogram;
 
 /**
  * Tracks the access patterns for the datastore layer. Useful for identifying
  * inefficient datastore access patterns and minimizing excessive read/write
  * actions.
  * <p>
- * Note that if you create and delete many tables and don't reuse table names,
- * the tableMap and count arrays will grow without bounds.
+ * For each table, counts the rows queried, fetched, written and deleted and
+ * keeps a histogram of the time taken by each statement. Recording is
+ * lock-free, so that it does not serialize the threads accessing the
+ * datastore.
+ * <p>
+ * Tables are forgotten when they are dropped, but tables that are never
+ * dropped accumulate here for the life of the server.
  *
  * @author mitchellsundt@gmail.com
  */
 public final class DatastoreAccessMetrics {
 
-  private static final Logger logger = LoggerFactory.getLogger(DatastoreAccessMetrics.class);
-  // 20-second dump
-  private static final long ACCESS_METRIC_DUMP_INTERVAL = 20 * 1000L;
-  // map of fully qualified table name to index in counter array.
-  private final Map<String, Short> tableMap = new TreeMap<String, Short>();
-  private final RingBufferCountArray countQueryArray = new RingBufferCountArray();
-  private final RingBufferCountArray countQueryResultArray = new RingBufferCountArray();
-  private final RingBufferCountArray countGetArray = new RingBufferCountArray();
-  private final RingBufferCountArray countPutArray = new RingBufferCountArray();
-  private final RingBufferCountArray countDeleteArray = new RingBufferCountArray();
-  private short nextCountIdx = 0;
-  private int readCount = 0;
-  private long lastLogging = 0L;
-
-  public DatastoreAccessMetrics() {
-  }
-
-  /**
-   * NOTE: This method is NOT thread-safe. Call only from within a synchronized
-   * method!
-   */
-  private void logUsage(int incCount) {
-    long now = System.currentTimeMillis();
-    int oldReadCount = readCount;
-    readCount = readCount + incCount;
-    if ((readCount / 500) != (oldReadCount / 500)
-        || (lastLogging + ACCESS_METRIC_DUMP_INTERVAL < now)) {
-    }
+  public enum Operation {
+    QUERY, GET, PUT, DELETE, TASK_LOCK
   }
 
-  /**
-   * this is the ONLY method that should manipulate the
-   * RingBufferCountArray or log usage statistics.
-   */
-  private synchronized void synchronizedRecordUsage(String fullyQualifiedName,
-                                                    RingBufferCountArray rbc, int incCount) {
-    Short countArrayIdx = tableMap.get(fullyQualifiedName);
-    if (countArrayIdx == null) {
-      countArrayIdx = nextCountIdx++;
-      tableMap.put(fullyQualifiedName, countArrayIdx);
-    }
-
-    rbc.recordUsage(countArrayIdx, incCount);
-    logUsage(incCount);
-  }
+  // fully qualified table name to its metrics.
+  private final Map<String, TableMetrics> tableMap = new ConcurrentHashMap<String, TableMetrics>();
 
-  private void recordUsage(String fullyQualifiedName, RingBufferCountArray rbc, int incCount) {
-    try {
-      synchronizedRecordUsage(fullyQualifiedName, rbc, incCount);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+  public DatastoreAccessMetrics() {
   }
 
-  private void recordUsage(String fullyQualifiedName, RingBufferCountArray rbc) {
-    recordUsage(fullyQualifiedName, rbc, 1);
+  private static String fullyQualifiedName(CommonFieldsBase relation) {
+    return relation.getSchemaName() + "." + relation.getTableName();
   }
 
-  private void recordUsage(CommonFieldsBase relation, RingBufferCountArray rbc, int incCount) {
-    String fullyQualifiedName = relation.getSchemaName() + "." + relation.getTableName();
-    recordUsage(fullyQualifiedName, rbc, incCount);
+  private TableMetrics getTableMetrics(String fullyQualifiedName) {
+    TableMetrics metrics = tableMap.get(fullyQualifiedName);
+    if (metrics == null) {
+      metrics = tableMap.computeIfAbsent(fullyQualifiedName, name -> new TableMetrics());
+    }
+    return metrics;
   }
 
-  private void recordUsage(CommonFieldsBase relation, RingBufferCountArray rbc) {
-    recordUsage(relation, rbc, 1);
+  private void recordUsage(String fullyQualifiedName, Operation op, int incCount) {
+    getTableMetrics(fullyQualifiedName).counts[op.ordinal()].add(incCount);
   }
 
   public void recordQueryUsage(String specialTableName, int resultCount) {
-    recordUsage(specialTableName, countQueryArray);
-    recordUsage(specialTableName, countQueryResultArray, resultCount);
+    TableMetrics metrics = getTableMetrics(specialTableName);
+    metrics.counts[Operation.QUERY.ordinal()].increment();
+    metrics.queryResults.add(resultCount);
   }
 
   public void recordQueryUsage(CommonFieldsBase relation, int resultCount) {
-    recordUsage(relation, countQueryArray);
-    recordUsage(relation, countQueryResultArray, resultCount);
+    recordQueryUsage(fullyQualifiedName(relation), resultCount);
   }
 
   public void recordGetUsage(String specialTableName) {
-    recordUsage(specialTableName, countGetArray);
+    recordUsage(specialTableName, Operation.GET, 1);
   }
 
   public void recordGetUsage(CommonFieldsBase relation) {
-    recordUsage(relation, countGetArray);
+    recordUsage(fullyQualifiedName(relation), Operation.GET, 1);
   }
 
   public void recordPutUsage(String specialTableName) {
-    recordUsage(specialTableName, countPutArray);
+    recordUsage(specialTableName, Operation.PUT, 1);
   }
 
   public void recordPutUsage(CommonFieldsBase relation) {
-    recordUsage(relation, countPutArray);
+    recordUsage(fullyQualifiedName(relation), Operation.PUT, 1);
   }
 
   public void recordDeleteUsage(String specialTableName) {
-    recordUsage(specialTableName, countDeleteArray);
+    recordUsage(specialTableName, Operation.DELETE, 1);
   }
 
   public void recordDeleteUsage(EntityKey key) {
-    recordUsage(key.getRelation(), countDeleteArray);
+    recordUsage(fullyQualifiedName(key.getRelation()), Operation.DELETE, 1);
   }
 
   /**
-   * Maintain a tally of which tables those actions were against.
-   * <p>
-   * NOTE: this is NOT thread-safe. All accesses should occur only from within
-   * synchronized methods.
+   * Records the time taken by one statement, or one batch of statements,
+   * against the table.
+   *
+   * @param startNanos the value of System.nanoTime() when the statement was
+   *                   started.
    */
-  private final static class RingBufferCountArray {
-    private static final int ARRAY_INCREMENT = 20;
-    private int[] countArray = new int[36];
+  public void recordLatency(Operation op, String specialTableName, long startNanos) {
+    long elapsedMillis = (System.nanoTime() - startNanos) / 1000000L;
+    getTableMetrics(specialTableName).latencies[op.ordinal()].record(elapsedMillis);
+  }
 
-    RingBufferCountArray() {
-      clear();
-    }
+  public void recordLatency(Operation op, CommonFieldsBase relation, long startNanos) {
+    recordLatency(op, fullyQualifiedName(relation), startNanos);
+  }
+
+  /**
+   * Forgets the metrics of a dropped table.
+   */
+  public void removeTable(CommonFieldsBase relation) {
+    tableMap.remove(fullyQualifiedName(relation));
+  }
 
-    private void resizeArray(short arrayIdx) {
-      if (arrayIdx >= countArray.length) {
-        int newLen = ((arrayIdx / ARRAY_INCREMENT) + 1) * ARRAY_INCREMENT;
-        int[] newArray = new int[newLen];
-        for (int i = 0; i < newLen; ++i) {
-          newArray[i] = 0;
-        }
-        for (int i = 0; i < countArray.length; ++i) {
-          newArray[i] = countArray[i];
-        }
-        countArray = newArray;
-        logger.info("Resizing metrics array to " + newLen);
+  /**
+   * @return the metrics of every table accessed so far, by fully qualified
+   *     table name.
+   */
+  public SortedMap<String, TableMetrics> getTableMetrics() {
+    return new TreeMap<String, TableMetrics>(tableMap);
+  }
+
+  /**
+   * The counts and statement times of one table.
+   */
+  public static final class TableMetrics {
+    private final LongAdder[] counts = new LongAdder[Operation.values().length];
+    private final LongAdder queryResults = new LongAdder();
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+
+    TableMetrics() {
+      for (int i = 0; i < counts.length; ++i) {
+        counts[i] = new LongAdder();
+        latencies[i] = new LatencyHistogram();
       }
     }
 
-    private void recordUsage(short countArrayIdx, int incCount) {
-      // make sure our count array is sized big enough...
-      resizeArray(countArrayIdx);
+    /**
+     * @return the number of queries run against the table, or the number of
+     *     rows fetched, written or deleted. Not counted for task locks.
+     */
+    public long getCount(Operation op) {
+      return counts[op.ordinal()].sum();
+    }
 
-      countArray[countArrayIdx] = countArray[countArrayIdx] + incCount;
+    /**
+     * @return the total number of rows returned by the queries.
+     */
+    public long getQueryResultCount() {
+      return queryResults.sum();
     }
 
-    private void clear() {
-      for (int i = 0; i < countArray.length; ++i) {
-        countArray[i] = 0;
-      }
+    /**
+     * @return the times taken by the statements, in milliseconds.
+     */
+    public LatencyHistogram getLatencies(Operation op) {
+      return latencies[op.ordinal()];
     }
   }
 }
@@ -23,9 +23,13 @@ import static org.opendatakit.aggregate.submission.type.jr.JRTemporalUtils.parse
 
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
+import org.opendatakit.common.persistence.EntityKey;
 import org.opendatakit.common.persistence.WrappedBigDecimal;
 import org.opendatakit.common.utils.WebUtils;
 
@@ -203,4 +207,27 @@ public class EngineUtils {
     return value;
   }
 
+  /**
+   * Split the keys into runs of consecutive keys on the same relation. The
+   * runs are in the order of the supplied collection, so when the keys are in
+   * deletion order (children before their parents), deleting the runs in
+   * iteration order preserves that dependency ordering.
+   */
+  public static List<List<EntityKey>> groupKeysByRelation(Collection<EntityKey> keys) {
+    List<List<EntityKey>> groups = new ArrayList<List<EntityKey>>();
+    List<EntityKey> group = null;
+    String groupName = null;
+    for (EntityKey key : keys) {
+      CommonFieldsBase relation = key.getRelation();
+      String fullyQualifiedName = relation.getSchemaName() + "." + relation.getTableName();
+      if (group == null || !fullyQualifiedName.equals(groupName)) {
+        group = new ArrayList<EntityKey>();
+        groupName = fullyQualifiedName;
+        groups.add(group);
+      }
+      group.add(key);
+    }
+    return groups;
+  }
+
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the column definitions the engines read from the database
+ * catalog for each table, so that assertRelation only needs to query the
+ * catalog the first time a table is asserted.
+ * <p>
+ * Column definitions are stored as read from the catalog and must not be
+ * modified afterwards. Aggregate never alters a table once created, so an
+ * entry only becomes stale if the table is dropped; the engines remove it
+ * when they drop the table, and the form parser removes the entries of a
+ * form's tables before (re)defining the form, in case another server dropped
+ * them.
+ *
+ * @param <D> the engine's column definition.
+ */
+public final class RelationDefinitionCache<D> {
+
+  private final Map<String, Map<String, D>> relations = new ConcurrentHashMap<String, Map<String, D>>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  private static String key(String schemaName, String tableName) {
+    return schemaName + "." + tableName;
+  }
+
+  /**
+   * @return the column definitions of the table by column name, or null if
+   *     the table has not been verified yet.
+   */
+  public Map<String, D> get(String schemaName, String tableName) {
+    Map<String, D> columns = relations.get(key(schemaName, tableName));
+    if (columns == null) {
+      missCount.incrementAndGet();
+    } else {
+      hitCount.incrementAndGet();
+    }
+    return columns;
+  }
+
+  public void put(String schemaName, String tableName, Map<String, D> columns) {
+    relations.put(key(schemaName, tableName),
+        Collections.unmodifiableMap(new HashMap<String, D>(columns)));
+  }
+
+  public void remove(String schemaName, String tableName) {
+    relations.remove(key(schemaName, tableName));
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  public int size() {
+    return relations.size();
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.DataField;
+
+/**
+ * Caches the SQL text of the insert, update, select and delete statements
+ * the engines generate from a relation's field list, so that it is built only
+ * once per relation rather than on every access.
+ * <p>
+ * Rows share the DataField objects of the relation prototype they were
+ * created from, and fields are only ever appended to a relation, so the
+ * identity of the primary key field together with the number of fields
+ * identifies the shape of a relation. A relation that is dropped and
+ * re-created with the same name therefore gets new entries.
+ */
+public final class SqlStatementCache {
+
+  public enum StatementType {
+    INSERT, UPDATE, SELECT, DELETE
+  }
+
+  /**
+   * Relations of deleted forms are never reused, so the cache is simply
+   * cleared if it grows beyond this.
+   */
+  private static final int MAX_ENTRIES = 4000;
+
+  private final Map<Key, String> statements = new ConcurrentHashMap<Key, String>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * @return the cached statement of the given type for the relation, calling
+   *     the builder to generate it on first use.
+   */
+  public String getStatement(StatementType type, CommonFieldsBase relation,
+                             Function<CommonFieldsBase, String> builder) {
+    Key key = new Key(type, relation.primaryKey, relation.getFieldList().size());
+    String sql = statements.get(key);
+    if (sql != null) {
+      hitCount.incrementAndGet();
+      return sql;
+    }
+    missCount.incrementAndGet();
+    sql = builder.apply(relation);
+    if (statements.size() >= MAX_ENTRIES) {
+      statements.clear();
+    }
+    statements.put(key, sql);
+    return sql;
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  public int size() {
+    return statements.size();
+  }
+
+  private static final class Key {
+    private final StatementType type;
+    private final DataField primaryKey;
+    private final int fieldCount;
+
+    Key(StatementType type, DataField primaryKey, int fieldCount) {
+      this.type = type;
+      this.primaryKey = primaryKey;
+      this.fieldCount = fieldCount;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return type == other.type && primaryKey == other.primaryKey && fieldCount == other.fieldCount;
+    }
+
+    @Override
+    public int hashCode() {
+      return (System.identityHashCode(primaryKey) * 31 + fieldCount) * 31 + type.ordinal();
+    }
+  }
+}
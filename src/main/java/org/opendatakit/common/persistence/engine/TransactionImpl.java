@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine;
+
+import org.opendatakit.common.persistence.Transaction;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * Transaction of the JDBC engines. The transaction manager binds the
+ * transaction's connection to the calling thread, and the engines' own
+ * transactions join it, so every datastore operation of the thread belongs to
+ * the unit of work until it is committed or rolled back.
+ * <p>
+ * Task locks use their own transactions and must not be obtained, renewed or
+ * released while a unit of work is in progress on the thread.
+ */
+public final class TransactionImpl implements Transaction {
+
+  private final PlatformTransactionManager tm;
+  private TransactionStatus status;
+
+  public TransactionImpl(PlatformTransactionManager tm) throws ODKDatastoreException {
+    this.tm = tm;
+    try {
+      status = tm.getTransaction(new DefaultTransactionDefinition());
+    } catch (TransactionException e) {
+      throw new ODKDatastoreException("Unable to begin transaction", e);
+    }
+  }
+
+  @Override
+  public void commit() throws ODKDatastoreException {
+    if (status == null) {
+      throw new IllegalStateException("Transaction has already completed");
+    }
+    try {
+      tm.commit(status);
+    } catch (TransactionException e) {
+      throw new ODKDatastoreException("Unable to commit transaction", e);
+    } finally {
+      status = null;
+    }
+  }
+
+  @Override
+  public void rollback() {
+    if (status != null) {
+      try {
+        tm.rollback(status);
+      } finally {
+        status = null;
+      }
+    }
+  }
+}
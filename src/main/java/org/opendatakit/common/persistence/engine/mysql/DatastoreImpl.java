@@ -18,10 +18,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.sql.DataSource;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
@@ -32,8 +36,15 @@ import org.opendatakit.common.persistence.PersistConsts;
 import org.opendatakit.common.persistence.Query;
 import org.opendatakit.common.persistence.Query.FilterOperation;
 import org.opendatakit.common.persistence.TaskLock;
+import org.opendatakit.common.persistence.Transaction;
 import org.opendatakit.common.persistence.WrappedBigDecimal;
 import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.Operation;
+import org.opendatakit.common.persistence.engine.EngineUtils;
+import org.opendatakit.common.persistence.engine.RelationDefinitionCache;
+import org.opendatakit.common.persistence.engine.SqlStatementCache;
+import org.opendatakit.common.persistence.engine.SqlStatementCache.StatementType;
+import org.opendatakit.common.persistence.engine.TransactionImpl;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKEntityPersistException;
@@ -41,8 +52,10 @@ import org.opendatakit.common.security.User;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SqlParameterValue;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
@@ -77,6 +90,7 @@ public class DatastoreImpl implements Datastore, InitializingBean {
   public static final String K_UPDATE = "UPDATE ";
   public static final String K_SET = " SET ";
   public static final String K_DELETE_FROM = "DELETE FROM ";
+  public static final String K_IN = " IN ";
   public static final Integer DEFAULT_DBL_NUMERIC_SCALE = 10;
   public static final Integer DEFAULT_DBL_NUMERIC_PRECISION = 38;
   public static final Integer DEFAULT_INT_NUMERIC_PRECISION = 9;
@@ -92,6 +106,8 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     }
   };
   private final DatastoreAccessMetrics dam = new DatastoreAccessMetrics();
+  private final SqlStatementCache sqlStatementCache = new SqlStatementCache();
+  private final RelationDefinitionCache<TableDefinition> relationCache = new RelationDefinitionCache<TableDefinition>();
   private DataSource dataSource = null;
   private DataSourceTransactionManager tm = null;
   private String schemaName = null;
@@ -235,10 +251,40 @@ public class DatastoreImpl implements Datastore, InitializingBean {
       List<?> databaseNames = jdbcTemplate.queryForList("SELECT DATABASE()", String.class);
       schemaName = (String) databaseNames.get(0);
     }
+    try {
+      warmUpRelationCache(new JdbcTemplate(dataSource));
+    } catch (Exception e) {
+      LoggerFactory.getLogger(DatastoreImpl.class)
+          .warn("Unable to read the table definitions at startup: " + e.toString());
+    }
+  }
+
+  /**
+   * Reads the column definitions of every table in the schema with one
+   * catalog query, so that the tables asserted at startup need no further
+   * catalog queries.
+   */
+  private void warmUpRelationCache(JdbcTemplate jc) {
+    final Map<String, Map<String, TableDefinition>> tables = new HashMap<String, Map<String, TableDefinition>>();
+    jc.query(TableDefinition.SCHEMA_DEF_QUERY, new Object[]{schemaName}, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        TableDefinition d = new TableDefinition(rs);
+        tables.computeIfAbsent(rs.getString(TableDefinition.IDX_TABLE_NAME),
+            name -> new HashMap<String, TableDefinition>()).put(d.getColumnName(), d);
+      }
+    });
+    int columnCount = 0;
+    for (Map.Entry<String, Map<String, TableDefinition>> e : tables.entrySet()) {
+      relationCache.put(schemaName, e.getKey(), e.getValue());
+      columnCount += e.getValue().size();
+    }
+    dam.recordQueryUsage(TableDefinition.INFORMATION_SCHEMA_COLUMNS, columnCount);
   }
 
-  void recordQueryUsage(CommonFieldsBase relation, int recCount) {
+  void recordQueryUsage(CommonFieldsBase relation, int recCount, long startNanos) {
     dam.recordQueryUsage(relation, recCount);
+    dam.recordLatency(Operation.QUERY, relation, startNanos);
   }
 
   @Override
@@ -246,6 +292,25 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     return schemaName;
   }
 
+  @Override
+  public boolean isStronglyConsistent() {
+    // writes are committed to the one database before the calls return
+    return true;
+  }
+
+  @Override
+  public DatastoreAccessMetrics getAccessMetrics() {
+    return dam;
+  }
+
+  /**
+   * @return the cache of generated SQL statements, with its hit and miss counts.
+   */
+  @Override
+  public SqlStatementCache getSqlStatementCache() {
+    return sqlStatementCache;
+  }
+
   JdbcTemplate getJdbcConnection() {
     return new JdbcTemplate(dataSource);
   }
@@ -266,6 +331,21 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     Map<String, TableDefinition> map = TableDefinition.query(relation.getSchemaName(),
         relation.getTableName(), jc, dam);
 
+    if (verifyRelation(relation, map, originalStatement)) {
+      relationCache.put(relation.getSchemaName(), relation.getTableName(), map);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Checks the relation against the column definitions of its table and
+   * updates its fields with the actual dimensions of the columns.
+   *
+   * @return false if the table does not exist.
+   */
+  private boolean verifyRelation(CommonFieldsBase relation, Map<String, TableDefinition> map,
+                                 String originalStatement) {
     if (map.size() > 0) {
 
       // we may have gotten some results into columns -- go through the fields
@@ -295,13 +375,15 @@ public class DatastoreImpl implements Datastore, InitializingBean {
               "did not find expected column " + f.getName() + " in table "
                   + relation.getSchemaName() + "." + relation.getTableName() + b.toString());
         }
+        // the definitions are cached and shared, so adjust a copy of the type
+        DataField.DataType columnType = d.getDataType();
         if (f.getDataType() == DataField.DataType.BOOLEAN
-            && d.getDataType() == DataField.DataType.STRING) {
-          d.setDataType(DataField.DataType.BOOLEAN);
+            && columnType == DataField.DataType.STRING) {
+          columnType = DataField.DataType.BOOLEAN;
           // don't care about size...
         }
 
-        if (d.getDataType() == DataField.DataType.STRING && f.getMaxCharLen() != null
+        if (columnType == DataField.DataType.STRING && f.getMaxCharLen() != null
             && f.getMaxCharLen().compareTo(d.getMaxCharLen()) > 0) {
           throw new IllegalStateException("column " + f.getName() + " in table "
               + relation.getSchemaName() + "." + relation.getTableName()
@@ -310,15 +392,15 @@ public class DatastoreImpl implements Datastore, InitializingBean {
         }
 
         if (f.getDataType() == DataField.DataType.URI) {
-          if (d.getDataType() != DataField.DataType.STRING) {
+          if (columnType != DataField.DataType.STRING) {
             throw new IllegalStateException(
                 "column " + f.getName() + " in table " + relation.getSchemaName() + "."
                     + relation.getTableName() + " stores URIs but is not a string field");
           }
-          d.setDataType(DataField.DataType.URI);
+          columnType = DataField.DataType.URI;
         }
 
-        if (d.getDataType() != f.getDataType()) {
+        if (columnType != f.getDataType()) {
           throw new IllegalStateException("column " + f.getName() + " in table "
               + relation.getSchemaName() + "." + relation.getTableName()
               + " is not of the expected type " + f.getDataType().toString());
@@ -346,6 +428,17 @@ public class DatastoreImpl implements Datastore, InitializingBean {
    */
   @Override
   public void assertRelation(CommonFieldsBase relation, User user) throws ODKDatastoreException {
+    Map<String, TableDefinition> columns = relationCache.get(relation.getSchemaName(),
+        relation.getTableName());
+    if (columns != null) {
+      try {
+        verifyRelation(relation, columns, null);
+        return;
+      } catch (IllegalStateException e) {
+        // the table may have been re-created elsewhere; read its definition again
+        relationCache.remove(relation.getSchemaName(), relation.getTableName());
+      }
+    }
     JdbcTemplate jc = getJdbcConnection();
     // TODO: transactions are questionable here, as MySQL (and Oracle) do
     // TODO: not evaluate DDL statements under transactional semantics.
@@ -531,6 +624,11 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     }
   }
 
+  @Override
+  public void forgetRelation(CommonFieldsBase relation) {
+    relationCache.remove(relation.getSchemaName(), relation.getTableName());
+  }
+
   @Override
   public boolean hasRelation(String schema, String tableName, User user) {
     // Query for the create table string.
@@ -561,6 +659,7 @@ public class DatastoreImpl implements Datastore, InitializingBean {
 
   @Override
   public void dropRelation(CommonFieldsBase relation, User user) throws ODKDatastoreException {
+    relationCache.remove(relation.getSchemaName(), relation.getTableName());
     try {
       StringBuilder b = new StringBuilder();
       b.append(K_DROP_TABLE);
@@ -575,6 +674,7 @@ public class DatastoreImpl implements Datastore, InitializingBean {
       LoggerFactory.getLogger(DatastoreImpl.class)
           .info("Executing " + b.toString() + " by user " + user.getUriUser());
       getJdbcConnection().execute(b.toString());
+      dam.removeTable(relation);
     } catch (Exception e) {
       LoggerFactory.getLogger(DatastoreImpl.class)
           .warn(relation.getTableName() + " exception: " + e.toString());
@@ -609,6 +709,7 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     Query query = new QueryImpl(relation, "getEntity", this, user);
     query.addFilter(relation.primaryKey, FilterOperation.EQUAL, uri);
     dam.recordGetUsage(relation);
+    long startNanos = System.nanoTime();
     try {
       List<? extends CommonFieldsBase> results = query.executeQuery();
       if (results == null || results.size() != 1) {
@@ -619,6 +720,8 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     } catch (ODKDatastoreException e) {
       throw new ODKEntityNotFoundException("Unable to retrieve " + relation.getSchemaName() + "."
           + relation.getTableName() + " key: " + uri, e);
+    } finally {
+      dam.recordLatency(Operation.GET, relation, startNanos);
     }
   }
 
@@ -631,161 +734,332 @@ public class DatastoreImpl implements Datastore, InitializingBean {
   @Override
   public void putEntity(CommonFieldsBase entity, User user) throws ODKEntityPersistException {
     dam.recordPutUsage(entity);
+    long startNanos = System.nanoTime();
     try {
-      boolean first;
-      StringBuilder b = new StringBuilder();
       if (entity.isFromDatabase()) {
         // we need to do an update
         entity.setDateField(entity.lastUpdateDate, new Date());
         entity.setStringField(entity.lastUpdateUriUser, user.getUriUser());
 
-        b.append(K_UPDATE);
-        b.append(K_BQ);
-        b.append(entity.getSchemaName());
-        b.append(K_BQ);
-        b.append(".");
-        b.append(K_BQ);
-        b.append(entity.getTableName());
-        b.append(K_BQ);
-        b.append(K_SET);
-
-        ArrayList<SqlParameterValue> pv = new ArrayList<SqlParameterValue>();
-
-        first = true;
-        // fields...
-        for (DataField f : entity.getFieldList()) {
-          // primary key goes in the where clause...
-          if (f == entity.primaryKey)
-            continue;
-          if (!first) {
-            b.append(K_CS);
-          }
-          first = false;
-          b.append(K_BQ);
-          b.append(f.getName());
-          b.append(K_BQ);
-
-          b.append(K_EQ);
-          b.append(K_BIND_VALUE);
-          buildArgumentList(pv, entity, f);
-        }
-        b.append(K_WHERE);
-        b.append(K_BQ);
-        b.append(entity.primaryKey.getName());
-        b.append(K_BQ);
-        b.append(K_EQ);
-        b.append(K_BIND_VALUE);
-        buildArgumentList(pv, entity, entity.primaryKey);
-
         // update...
-        String sql = b.toString();
-        ReusableStatementSetter setter = new ReusableStatementSetter(sql, pv);
+        String sql = getUpdateStatement(entity);
+        ReusableStatementSetter setter = new ReusableStatementSetter(sql,
+            buildUpdateArgumentList(entity));
         getJdbcConnection().update(sql, setter);
       } else {
         // not yet in database -- insert
-        b.append(K_INSERT_INTO);
-        b.append(K_BQ);
-        b.append(entity.getSchemaName());
-        b.append(K_BQ);
-        b.append(".");
-        b.append(K_BQ);
-        b.append(entity.getTableName());
-        b.append(K_BQ);
-        first = true;
-        b.append(K_OPEN_PAREN);
-        // fields...
-        for (DataField f : entity.getFieldList()) {
-          if (!first) {
-            b.append(K_CS);
-          }
-          first = false;
-          b.append(K_BQ);
-          b.append(f.getName());
-          b.append(K_BQ);
-        }
-        b.append(K_CLOSE_PAREN);
-        b.append(K_VALUES);
-
-        ArrayList<SqlParameterValue> pv = new ArrayList<SqlParameterValue>();
-
-        first = true;
-        b.append(K_OPEN_PAREN);
-        // fields...
-        for (DataField f : entity.getFieldList()) {
-          if (!first) {
-            b.append(K_CS);
-          }
-          first = false;
-          b.append(K_BIND_VALUE);
-          buildArgumentList(pv, entity, f);
-        }
-        b.append(K_CLOSE_PAREN);
-
-        // insert...
-        String sql = b.toString();
-        ReusableStatementSetter setter = new ReusableStatementSetter(sql, pv);
+        String sql = getInsertStatement(entity);
+        ReusableStatementSetter setter = new ReusableStatementSetter(sql,
+            buildInsertArgumentList(entity));
         getJdbcConnection().update(sql, setter);
         entity.setFromDatabase(true); // now it is in the database...
       }
     } catch (Exception e) {
       throw new ODKEntityPersistException(e);
+    } finally {
+      dam.recordLatency(Operation.PUT, entity, startNanos);
     }
   }
 
+  /**
+   * Writes all the entities within a single transaction. The entities are
+   * grouped by relation and by insert-vs-update so that each statement shape
+   * is prepared once and its rows are sent to the server as one JDBC batch.
+   */
   @Override
   public void putEntities(Collection<? extends CommonFieldsBase> entityList, User user)
       throws ODKEntityPersistException {
-    for (CommonFieldsBase d : entityList) {
-      putEntity(d, user);
+    if (entityList.isEmpty()) {
+      return;
+    }
+    if (entityList.size() == 1) {
+      putEntity(entityList.iterator().next(), user);
+      return;
     }
-  }
 
-  @Override
-  public void deleteEntity(EntityKey key, User user) throws ODKDatastoreException {
+    Map<String, List<CommonFieldsBase>> inserts = new LinkedHashMap<String, List<CommonFieldsBase>>();
+    Map<String, List<CommonFieldsBase>> updates = new LinkedHashMap<String, List<CommonFieldsBase>>();
+    Set<CommonFieldsBase> seen = Collections
+        .newSetFromMap(new IdentityHashMap<CommonFieldsBase, Boolean>());
+    for (CommonFieldsBase entity : entityList) {
+      if (!seen.add(entity)) {
+        // the same row listed twice only needs to be written once
+        continue;
+      }
+      Map<String, List<CommonFieldsBase>> groups = entity.isFromDatabase() ? updates : inserts;
+      String fullyQualifiedName = entity.getSchemaName() + "." + entity.getTableName();
+      List<CommonFieldsBase> group = groups.get(fullyQualifiedName);
+      if (group == null) {
+        group = new ArrayList<CommonFieldsBase>();
+        groups.put(fullyQualifiedName, group);
+      }
+      group.add(entity);
+    }
 
-    dam.recordDeleteUsage(key);
+    TransactionStatus status = null;
     try {
-      CommonFieldsBase d = key.getRelation();
+      status = tm.getTransaction(new DefaultTransactionDefinition());
+      JdbcTemplate jc = getJdbcConnection();
+
+      for (List<CommonFieldsBase> group : inserts.values()) {
+        String sql = getInsertStatement(group.get(0));
+        List<ReusableStatementSetter> rows = new ArrayList<ReusableStatementSetter>();
+        for (CommonFieldsBase entity : group) {
+          dam.recordPutUsage(entity);
+          rows.add(new ReusableStatementSetter(sql, buildInsertArgumentList(entity)));
+        }
+        long startNanos = System.nanoTime();
+        jc.batchUpdate(sql, new ReusableBatchStatementSetter(rows));
+        dam.recordLatency(Operation.PUT, group.get(0), startNanos);
+      }
 
-      StringBuilder b = new StringBuilder();
-      b.append(K_DELETE_FROM);
-      b.append(K_BQ);
-      b.append(d.getSchemaName());
-      b.append(K_BQ);
-      b.append(".");
+      Date now = new Date();
+      for (List<CommonFieldsBase> group : updates.values()) {
+        String sql = getUpdateStatement(group.get(0));
+        List<ReusableStatementSetter> rows = new ArrayList<ReusableStatementSetter>();
+        for (CommonFieldsBase entity : group) {
+          dam.recordPutUsage(entity);
+          entity.setDateField(entity.lastUpdateDate, now);
+          entity.setStringField(entity.lastUpdateUriUser, user.getUriUser());
+          rows.add(new ReusableStatementSetter(sql, buildUpdateArgumentList(entity)));
+        }
+        long startNanos = System.nanoTime();
+        jc.batchUpdate(sql, new ReusableBatchStatementSetter(rows));
+        dam.recordLatency(Operation.PUT, group.get(0), startNanos);
+      }
+
+      tm.commit(status);
+      status = null;
+    } catch (Exception e) {
+      if (status != null) {
+        tm.rollback(status);
+      }
+      throw new ODKEntityPersistException(e);
+    }
+
+    // only now that the transaction has committed are the rows in the database...
+    for (List<CommonFieldsBase> group : inserts.values()) {
+      for (CommonFieldsBase entity : group) {
+        entity.setFromDatabase(true);
+      }
+    }
+  }
+
+  private String getInsertStatement(CommonFieldsBase relation) {
+    return sqlStatementCache.getStatement(StatementType.INSERT, relation,
+        DatastoreImpl::buildInsertStatement);
+  }
+
+  private String getUpdateStatement(CommonFieldsBase relation) {
+    return sqlStatementCache.getStatement(StatementType.UPDATE, relation,
+        DatastoreImpl::buildUpdateStatement);
+  }
+
+  private String getDeleteStatement(CommonFieldsBase relation) {
+    return sqlStatementCache.getStatement(StatementType.DELETE, relation,
+        DatastoreImpl::buildDeleteStatement);
+  }
+
+  private static String buildDeleteStatement(CommonFieldsBase relation) {
+    StringBuilder b = new StringBuilder();
+    b.append(K_DELETE_FROM);
+    b.append(K_BQ);
+    b.append(relation.getSchemaName());
+    b.append(K_BQ);
+    b.append(".");
+    b.append(K_BQ);
+    b.append(relation.getTableName());
+    b.append(K_BQ);
+    b.append(K_WHERE);
+    b.append(K_BQ);
+    b.append(relation.primaryKey.getName());
+    b.append(K_BQ);
+    b.append(K_EQ);
+    b.append(K_BIND_VALUE);
+    return b.toString();
+  }
+
+  private static String buildInsertStatement(CommonFieldsBase relation) {
+    StringBuilder b = new StringBuilder();
+    b.append(K_INSERT_INTO);
+    b.append(K_BQ);
+    b.append(relation.getSchemaName());
+    b.append(K_BQ);
+    b.append(".");
+    b.append(K_BQ);
+    b.append(relation.getTableName());
+    b.append(K_BQ);
+    boolean first = true;
+    b.append(K_OPEN_PAREN);
+    // fields...
+    for (DataField f : relation.getFieldList()) {
+      if (!first) {
+        b.append(K_CS);
+      }
+      first = false;
       b.append(K_BQ);
-      b.append(d.getTableName());
+      b.append(f.getName());
       b.append(K_BQ);
-      b.append(K_WHERE);
+    }
+    b.append(K_CLOSE_PAREN);
+    b.append(K_VALUES);
+
+    first = true;
+    b.append(K_OPEN_PAREN);
+    for (int i = 0; i < relation.getFieldList().size(); ++i) {
+      if (!first) {
+        b.append(K_CS);
+      }
+      first = false;
+      b.append(K_BIND_VALUE);
+    }
+    b.append(K_CLOSE_PAREN);
+    return b.toString();
+  }
+
+  private static List<SqlParameterValue> buildInsertArgumentList(CommonFieldsBase entity) {
+    ArrayList<SqlParameterValue> pv = new ArrayList<SqlParameterValue>();
+    for (DataField f : entity.getFieldList()) {
+      buildArgumentList(pv, entity, f);
+    }
+    return pv;
+  }
+
+  private static String buildUpdateStatement(CommonFieldsBase relation) {
+    StringBuilder b = new StringBuilder();
+    b.append(K_UPDATE);
+    b.append(K_BQ);
+    b.append(relation.getSchemaName());
+    b.append(K_BQ);
+    b.append(".");
+    b.append(K_BQ);
+    b.append(relation.getTableName());
+    b.append(K_BQ);
+    b.append(K_SET);
+
+    boolean first = true;
+    // fields...
+    for (DataField f : relation.getFieldList()) {
+      // primary key goes in the where clause...
+      if (f == relation.primaryKey)
+        continue;
+      if (!first) {
+        b.append(K_CS);
+      }
+      first = false;
       b.append(K_BQ);
-      b.append(d.primaryKey.getName());
+      b.append(f.getName());
       b.append(K_BQ);
+
       b.append(K_EQ);
       b.append(K_BIND_VALUE);
+    }
+    b.append(K_WHERE);
+    b.append(K_BQ);
+    b.append(relation.primaryKey.getName());
+    b.append(K_BQ);
+    b.append(K_EQ);
+    b.append(K_BIND_VALUE);
+    return b.toString();
+  }
+
+  private static List<SqlParameterValue> buildUpdateArgumentList(CommonFieldsBase entity) {
+    ArrayList<SqlParameterValue> pv = new ArrayList<SqlParameterValue>();
+    for (DataField f : entity.getFieldList()) {
+      // primary key goes in the where clause...
+      if (f == entity.primaryKey)
+        continue;
+      buildArgumentList(pv, entity, f);
+    }
+    buildArgumentList(pv, entity, entity.primaryKey);
+    return pv;
+  }
+
+  @Override
+  public void deleteEntity(EntityKey key, User user) throws ODKDatastoreException {
+
+    dam.recordDeleteUsage(key);
+    long startNanos = System.nanoTime();
+    try {
+      String sql = getDeleteStatement(key.getRelation());
 
-      LoggerFactory.getLogger(DatastoreImpl.class).info("Executing " + b.toString() + " with key "
+      LoggerFactory.getLogger(DatastoreImpl.class).info("Executing " + sql + " with key "
           + key.getKey() + " by user " + user.getUriUser());
-      getJdbcConnection().update(b.toString(), new Object[]{key.getKey()});
+      getJdbcConnection().update(sql, new Object[]{key.getKey()});
     } catch (Exception e) {
       throw new ODKDatastoreException("delete failed", e);
+    } finally {
+      dam.recordLatency(Operation.DELETE, key.getRelation(), startNanos);
     }
   }
 
+  /**
+   * Deletes the keys with one statement per run of consecutive keys on the
+   * same relation and chunk of at most MAX_BIND_PARAMS keys. The runs are
+   * processed in the order of the supplied collection, so the dependency
+   * ordering built up by recursivelyAddEntityKeysForDeletion is preserved.
+   * Stops at the first failure so that rows are never deleted ahead of their
+   * dependents.
+   */
   @Override
   public void deleteEntities(Collection<EntityKey> keys, User user) throws ODKDatastoreException {
-    ODKDatastoreException e = null;
-    for (EntityKey k : keys) {
-      try {
-        deleteEntity(k, user);
-      } catch (ODKDatastoreException ex) {
-        ex.printStackTrace();
-        if (e == null) {
-          e = ex; // save the first exception...
+    if (keys.isEmpty()) {
+      return;
+    }
+    if (keys.size() == 1) {
+      deleteEntity(keys.iterator().next(), user);
+      return;
+    }
+
+    JdbcTemplate jc = getJdbcConnection();
+    for (List<EntityKey> group : EngineUtils.groupKeysByRelation(keys)) {
+      CommonFieldsBase d = group.get(0).getRelation();
+      for (int offset = 0; offset < group.size(); offset += MAX_BIND_PARAMS) {
+        List<EntityKey> chunk = group.subList(offset,
+            Math.min(group.size(), offset + MAX_BIND_PARAMS));
+        Object[] args = new Object[chunk.size()];
+        for (int i = 0; i < chunk.size(); ++i) {
+          EntityKey key = chunk.get(i);
+          dam.recordDeleteUsage(key);
+          args[i] = key.getKey();
+        }
+
+        StringBuilder b = new StringBuilder();
+        b.append(K_DELETE_FROM);
+        b.append(K_BQ);
+        b.append(d.getSchemaName());
+        b.append(K_BQ);
+        b.append(".");
+        b.append(K_BQ);
+        b.append(d.getTableName());
+        b.append(K_BQ);
+        b.append(K_WHERE);
+        b.append(K_BQ);
+        b.append(d.primaryKey.getName());
+        b.append(K_BQ);
+        b.append(K_IN);
+        b.append(K_OPEN_PAREN);
+        for (int i = 0; i < args.length; ++i) {
+          if (i != 0) {
+            b.append(K_CS);
+          }
+          b.append(K_BIND_VALUE);
+        }
+        b.append(K_CLOSE_PAREN);
+
+        LoggerFactory.getLogger(DatastoreImpl.class).info("Executing DELETE FROM "
+            + d.getSchemaName() + "." + d.getTableName() + " with " + args.length
+            + " keys by user " + user.getUriUser());
+        long startNanos = System.nanoTime();
+        try {
+          jc.update(b.toString(), args);
+        } catch (Exception e) {
+          throw new ODKDatastoreException("delete failed", e);
+        } finally {
+          dam.recordLatency(Operation.DELETE, d, startNanos);
         }
       }
     }
-    if (e != null)
-      throw e; // throw the first exception...
   }
 
   @Override
@@ -793,12 +1067,22 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     return new TaskLockImpl(this, dam, user);
   }
 
+  @Override
+  public Transaction beginTransaction(User user) throws ODKDatastoreException {
+    return new TransactionImpl(tm);
+  }
+
   private static final class TableDefinition {
 
     private static final String K_SHOW = "SHOW COLUMNS FROM ";
     private static final int IDX_COLUMN_NAME = 1;
     private static final int IDX_COLUMN_TYPE = 2;
     private static final int IDX_IS_NULLABLE = 3;
+    private static final int IDX_TABLE_NAME = 4;
+    private static final String INFORMATION_SCHEMA_COLUMNS = "information_schema.COLUMNS";
+    // same leading columns as SHOW COLUMNS, followed by the table name
+    private static final String SCHEMA_DEF_QUERY = "SELECT COLUMN_NAME, COLUMN_TYPE, IS_NULLABLE, "
+        + "TABLE_NAME FROM " + INFORMATION_SCHEMA_COLUMNS + " WHERE TABLE_SCHEMA = ?";
     private static final String K_VARCHAR = "varchar";
     private static final String K_BINARY = "binary";
     private static final String K_DECIMAL = "decimal";
@@ -970,10 +1254,6 @@ public class DatastoreImpl implements Datastore, InitializingBean {
       return dataType;
     }
 
-    public void setDataType(DataField.DataType dataType) {
-      this.dataType = dataType;
-    }
-
     public String getColumnName() {
       return columnName;
     }
@@ -1072,4 +1352,23 @@ public class DatastoreImpl implements Datastore, InitializingBean {
     }
   }
 
+  private static class ReusableBatchStatementSetter implements BatchPreparedStatementSetter {
+
+    final List<ReusableStatementSetter> rows;
+
+    ReusableBatchStatementSetter(List<ReusableStatementSetter> rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public void setValues(PreparedStatement ps, int i) throws SQLException {
+      rows.get(i).setValues(ps);
+    }
+
+    @Override
+    public int getBatchSize() {
+      return rows.size();
+    }
+  }
+
 }
@@ -16,6 +16,7 @@ package org.opendatakit.common.persistence.engine.mysql;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +26,7 @@ import org.opendatakit.common.persistence.Query;
 import org.opendatakit.common.persistence.QueryResult;
 import org.opendatakit.common.persistence.QueryResumePoint;
 import org.opendatakit.common.persistence.engine.EngineUtils;
+import org.opendatakit.common.persistence.engine.SqlStatementCache.StatementType;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
 import org.opendatakit.common.security.User;
 import org.slf4j.Logger;
@@ -48,7 +50,12 @@ public class QueryImpl implements Query {
   private static final String K_WHERE = " WHERE ";
   private static final String K_AND = " AND ";
   private static final String K_BIND_VALUE = " ? ";
+  private static final String K_IN = " IN ";
   private static final String K_ORDER_BY = " ORDER BY ";
+  private static final String K_OPEN_PAREN = " ( ";
+  private static final String K_CLOSE_PAREN = " ) ";
+  private static final String K_OR = " OR ";
+  private static final String K_LIMIT = " LIMIT ";
 
   private static Map<FilterOperation, String> operationMap = new HashMap<FilterOperation, String>();
   private static Map<Direction, String> directionMap = new HashMap<Direction, String>();
@@ -75,6 +82,8 @@ public class QueryImpl implements Query {
   private DataField dominantSortAttr = null;
   private Direction dominantSortDirection = null;
   private boolean isSortedByUri = false;
+  private Direction uriSortDirection = null;
+  private int sortCount = 0;
 
   public QueryImpl(CommonFieldsBase relation, String loggingContextTag, DatastoreImpl dataStoreImpl, User user) {
     this.queryStringLogger = LoggerFactory.getLogger("org.opendatakit.common.persistence.LogQueryString." + relation.getSchemaName() + "." + relation.getTableName());
@@ -84,6 +93,11 @@ public class QueryImpl implements Query {
   }
 
   private String generateQuery() {
+    return dataStoreImpl.getSqlStatementCache().getStatement(StatementType.SELECT, relation,
+        QueryImpl::buildSelectStatement);
+  }
+
+  private static String buildSelectStatement(CommonFieldsBase relation) {
     // generate the query
     StringBuilder baseQueryBuilder = new StringBuilder();
 
@@ -157,6 +171,33 @@ public class QueryImpl implements Query {
     }
   }
 
+  @Override
+  public void addValueSetFilter(DataField attributeName, Collection<?> valueSet) {
+    if (valueSet == null || valueSet.isEmpty()) {
+      throw new IllegalArgumentException("valueSet must not be empty");
+    }
+    if (queryBindBuilder.length() == 0) {
+      queryBindBuilder.append(K_WHERE);
+    } else {
+      queryBindBuilder.append(K_AND);
+    }
+    queryBindBuilder.append(K_BQ);
+    queryBindBuilder.append(attributeName.getName());
+    queryBindBuilder.append(K_BQ);
+    queryBindBuilder.append(K_IN);
+    queryBindBuilder.append(K_OPEN_PAREN);
+    boolean first = true;
+    for (Object value : valueSet) {
+      if (!first) {
+        queryBindBuilder.append(K_CS);
+      }
+      first = false;
+      queryBindBuilder.append(K_BIND_VALUE);
+      bindValues.add(DatastoreImpl.getBindValue(attributeName, value));
+    }
+    queryBindBuilder.append(K_CLOSE_PAREN);
+  }
+
   private ArrayList<Object> addContinuationFilter(StringBuilder queryContinuationBindBuilder, Object continuationValue) {
     if (dominantSortAttr == null) {
       throw new IllegalStateException("unexpected state");
@@ -185,6 +226,78 @@ public class QueryImpl implements Query {
     return values;
   }
 
+  /**
+   * The query can seek directly past the last returned row if it is ordered by
+   * the dominant sort attribute and then by the PK in the same direction (or
+   * only by the PK). Other sort orders fall back to skipping over the rows
+   * preceding the last returned row.
+   */
+  private boolean canSeek(QueryResumePoint startCursor, Object continuationValue) {
+    if (startCursor.getUriLastReturnedValue() == null || continuationValue == null) {
+      return false;
+    }
+    if (dominantSortAttr.equals(relation.primaryKey)) {
+      return sortCount == 1;
+    }
+    return sortCount == 2 && dominantSortDirection.equals(uriSortDirection);
+  }
+
+  /**
+   * Continue after the last returned row using an expanded form of the
+   * row-value comparison (dominantSortAttr, _URI) > (?, ?), so that each page
+   * only reads the rows it returns.
+   */
+  private ArrayList<Object> addSeekContinuationFilter(StringBuilder queryContinuationBindBuilder,
+                                                      Object continuationValue,
+                                                      String uriLastReturnedValue) {
+    if (queryBindBuilder.length() == 0) {
+      queryContinuationBindBuilder.append(K_WHERE);
+    } else {
+      queryContinuationBindBuilder.append(K_AND);
+    }
+    FilterOperation op = dominantSortDirection.equals(Direction.ASCENDING)
+        ? FilterOperation.GREATER_THAN : FilterOperation.LESS_THAN;
+    FilterOperation opOrEqual = dominantSortDirection.equals(Direction.ASCENDING)
+        ? FilterOperation.GREATER_THAN_OR_EQUAL : FilterOperation.LESS_THAN_OR_EQUAL;
+
+    ArrayList<Object> values = new ArrayList<Object>();
+    values.addAll(bindValues);
+    if (dominantSortAttr.equals(relation.primaryKey)) {
+      queryContinuationBindBuilder.append(K_BQ);
+      queryContinuationBindBuilder.append(relation.primaryKey.getName());
+      queryContinuationBindBuilder.append(K_BQ);
+      queryContinuationBindBuilder.append(operationMap.get(op));
+      queryContinuationBindBuilder.append(K_BIND_VALUE);
+    } else {
+      // expanded row-value comparison so that the dominant sort column index
+      // remains usable: dominantSortAttr >= ? AND (dominantSortAttr > ? OR _URI > ?)
+      queryContinuationBindBuilder.append(K_BQ);
+      queryContinuationBindBuilder.append(dominantSortAttr.getName());
+      queryContinuationBindBuilder.append(K_BQ);
+      queryContinuationBindBuilder.append(operationMap.get(opOrEqual));
+      queryContinuationBindBuilder.append(K_BIND_VALUE);
+      queryContinuationBindBuilder.append(K_AND);
+      queryContinuationBindBuilder.append(K_OPEN_PAREN);
+      queryContinuationBindBuilder.append(K_BQ);
+      queryContinuationBindBuilder.append(dominantSortAttr.getName());
+      queryContinuationBindBuilder.append(K_BQ);
+      queryContinuationBindBuilder.append(operationMap.get(op));
+      queryContinuationBindBuilder.append(K_BIND_VALUE);
+      queryContinuationBindBuilder.append(K_OR);
+      queryContinuationBindBuilder.append(K_BQ);
+      queryContinuationBindBuilder.append(relation.primaryKey.getName());
+      queryContinuationBindBuilder.append(K_BQ);
+      queryContinuationBindBuilder.append(operationMap.get(op));
+      queryContinuationBindBuilder.append(K_BIND_VALUE);
+      queryContinuationBindBuilder.append(K_CLOSE_PAREN);
+      values.add(DatastoreImpl.getBindValue(dominantSortAttr, continuationValue));
+      values.add(DatastoreImpl.getBindValue(dominantSortAttr, continuationValue));
+    }
+    values.add(DatastoreImpl.getBindValue(relation.primaryKey, uriLastReturnedValue));
+
+    return values;
+  }
+
   @Override
   public void addSort(DataField attributeName, Direction direction) {
     if (querySortBuilder.length() == 0) {
@@ -206,7 +319,9 @@ public class QueryImpl implements Query {
     // track whether or not the PK is a sort criteria
     if (attributeName.equals(relation.primaryKey)) {
       isSortedByUri = true;
+      uriSortDirection = direction;
     }
+    ++sortCount;
   }
 
   @Override
@@ -217,14 +332,15 @@ public class QueryImpl implements Query {
     RowMapper<? extends CommonFieldsBase> rowMapper = null;
     rowMapper = new RelationRowMapper(relation, user);
 
+    long startNanos = System.nanoTime();
     try {
       queryStringLogger.debug(query);
       List<? extends CommonFieldsBase> l = dataStoreImpl.getJdbcConnection().query(query,
           bindValues.toArray(), rowMapper);
-      dataStoreImpl.recordQueryUsage(relation, l.size());
+      dataStoreImpl.recordQueryUsage(relation, l.size(), startNanos);
       return l;
     } catch (Exception e) {
-      dataStoreImpl.recordQueryUsage(relation, 0);
+      dataStoreImpl.recordQueryUsage(relation, 0, startNanos);
       e.printStackTrace();
       throw new ODKDatastoreException(e);
     }
@@ -237,12 +353,13 @@ public class QueryImpl implements Query {
         + querySortBuilder.toString() + ";";
 
     List<?> keys = null;
+    long startNanos = System.nanoTime();
     try {
       keys = dataStoreImpl.getJdbcConnection().queryForList(query, bindValues.toArray(),
           String.class);
-      dataStoreImpl.recordQueryUsage(relation, keys.size());
+      dataStoreImpl.recordQueryUsage(relation, keys.size(), startNanos);
     } catch (Exception e) {
-      dataStoreImpl.recordQueryUsage(relation, 0);
+      dataStoreImpl.recordQueryUsage(relation, 0, startNanos);
       e.printStackTrace();
       throw new ODKDatastoreException(e);
     }
@@ -266,6 +383,7 @@ public class QueryImpl implements Query {
     // for continuation executions of queries
     StringBuilder queryContinuationBindBuilder = new StringBuilder();
     List<Object> values;
+    boolean seek = false;
 
     if (startCursor != null) {
       DataField matchingStartCursorAttr = null;
@@ -288,25 +406,41 @@ public class QueryImpl implements Query {
 
       Object continuationValue = EngineUtils.getDominantSortAttributeValueFromString(
           startCursor.getValue(), dominantSortAttr);
-      values = addContinuationFilter(queryContinuationBindBuilder, continuationValue);
+      seek = canSeek(startCursor, continuationValue);
+      if (seek) {
+        values = addSeekContinuationFilter(queryContinuationBindBuilder, continuationValue,
+            startCursor.getUriLastReturnedValue());
+      } else {
+        values = addContinuationFilter(queryContinuationBindBuilder, continuationValue);
+      }
     } else {
       values = bindValues;
     }
 
+    // when no rows need to be skipped, fetch only one row beyond the
+    // fetchLimit to determine whether there are more results.
+    StringBuilder queryLimitBuilder = new StringBuilder();
+    if (fetchLimit != 0 && (startCursor == null || seek)) {
+      queryLimitBuilder.append(K_LIMIT);
+      queryLimitBuilder.append(Integer.toString(fetchLimit + 1));
+    }
+
     String query = generateQuery() + queryBindBuilder.toString()
-        + queryContinuationBindBuilder.toString() + querySortBuilder.toString() + ";";
+        + queryContinuationBindBuilder.toString() + querySortBuilder.toString()
+        + queryLimitBuilder.toString() + ";";
     RowMapper<? extends CommonFieldsBase> rowMapper = null;
     rowMapper = new RelationRowMapper(relation, user);
-    RowMapperFilteredResultSetExtractor rse = new RowMapperFilteredResultSetExtractor(startCursor,
-        fetchLimit, rowMapper);
+    RowMapperFilteredResultSetExtractor rse = new RowMapperFilteredResultSetExtractor(
+        seek ? null : startCursor, fetchLimit, rowMapper);
 
+    long startNanos = System.nanoTime();
     try {
       CoreResult r;
       try {
         queryStringLogger.debug(query);
         r = dataStoreImpl.getJdbcConnection().query(query, values.toArray(), rse);
       } finally {
-        dataStoreImpl.recordQueryUsage(relation, rse.getReadCount());
+        dataStoreImpl.recordQueryUsage(relation, rse.getReadCount(), startNanos);
       }
 
       if (r.results.size() == 0) {
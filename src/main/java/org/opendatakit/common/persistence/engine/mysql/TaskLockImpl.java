@@ -16,11 +16,9 @@
 package org.opendatakit.common.persistence.engine.mysql;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.List;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
 import org.opendatakit.common.persistence.Datastore;
@@ -28,8 +26,8 @@ import org.opendatakit.common.persistence.EntityKey;
 import org.opendatakit.common.persistence.ITaskLockType;
 import org.opendatakit.common.persistence.TaskLock;
 import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.Operation;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
-import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 import org.opendatakit.common.security.User;
 import org.slf4j.LoggerFactory;
@@ -44,6 +42,11 @@ import org.springframework.jdbc.core.JdbcTemplate;
 public class TaskLockImpl implements TaskLock {
 
   private static final String PERSISTENCE_LAYER_PROBLEM = "Persistence layer failure";
+  private static final String K_NOW = "NOW()";
+  private static final String K_NOW_PLUS_LIFETIME = "DATE_ADD(NOW(), INTERVAL ? MICROSECOND)";
+  private static final String K_LOCK_RESOURCE = "SELECT GET_LOCK(?, ?)";
+  private static final String K_UNLOCK_RESOURCE = "SELECT RELEASE_LOCK(?)";
+  private static final int LOCK_WAIT_SECONDS = 10;
   private static final String K_BQ = "`";
   final DatastoreAccessMetrics dam;
   final DatastoreImpl datastore;
@@ -55,261 +58,18 @@ public class TaskLockImpl implements TaskLock {
     this.user = user;
   }
 
-  private TaskLockTable doTransaction(TaskLockTable entity, long l)
-      throws ODKEntityNotFoundException, ODKTaskLockException {
-    boolean first;
-
-    final List<String> stmts = new ArrayList<String>();
-
-    final String uri = entity.getUri();
-    StringBuilder b = new StringBuilder();
-    String tableName = K_BQ + datastore.getDefaultSchemaName() + K_BQ + "." + K_BQ
-        + TaskLockTable.TABLE_NAME + K_BQ;
-    // String tableName= TaskLockTable.TABLE_NAME;
-
-    b.append("SET SESSION TRANSACTION ISOLATION LEVEL SERIALIZABLE");
-    stmts.add(b.toString());
-    b.setLength(0);
-    b.append("START TRANSACTION WITH CONSISTENT SNAPSHOT");
-    stmts.add(b.toString());
-    b.setLength(0);
-    b.append("SET @present := NOW(),");
-    b.append(" @uriUser := '");
-    b.append(user.getUriUser().replaceAll("'", "''"));
-    b.append("',");
-    b.append(" @uriLock := '");
-    b.append(uri.replaceAll("'", "''"));
-    b.append("',");
-    b.append(" @formId := '");
-    b.append(entity.getFormId().replaceAll("'", "''"));
-    b.append("',");
-    b.append(" @taskType := '");
-    b.append(entity.getTaskType().replaceAll("'", "''"));
-    b.append("',");
-    b.append(" @lifetimeMicroseconds := ");
-    b.append(1000L * l);
-    stmts.add(b.toString());
-    b.setLength(0);
-    b.append("LOCK TABLES ");
-    b.append(tableName);
-    b.append(" WRITE ");
-    stmts.add(b.toString());
-    b.setLength(0);
-
-    dam.recordPutUsage(TaskLockTable.TABLE_NAME);
-    if (!entity.isFromDatabase()) {
-      // insert a new record
-      b.append("REPLACE INTO ");
-      b.append(tableName);
-      b.append(" (");
-      first = true;
-      for (DataField f : entity.getFieldList()) {
-        if (!first) {
-          b.append(",");
-        }
-        first = false;
-        b.append(K_BQ);
-        b.append(f.getName());
-        b.append(K_BQ);
-      }
-      first = true;
-      b.append(") VALUES ( ");
-      for (DataField f : entity.getFieldList()) {
-        if (!first) {
-          b.append(",");
-        }
-        first = false;
-        if (f.equals(entity.creationDate) || f.equals(entity.lastUpdateDate)) {
-          b.append("@present");
-        } else if (f.equals(entity.creatorUriUser) || f.equals(entity.lastUpdateUriUser)) {
-          b.append("@uriUser");
-        } else if (f.equals(entity.formId)) {
-          b.append("@formId");
-        } else if (f.equals(entity.taskType)) {
-          b.append("@taskType");
-        } else if (f.equals(entity.primaryKey)) {
-          b.append("@uriLock");
-        } else if (f.equals(entity.expirationDateTime)) {
-          b.append(" DATE_ADD(CAST(@present AS DATETIME), INTERVAL @lifetimeMicroseconds MICROSECOND)");
-        } else {
-          throw new IllegalStateException("unexpected case " + f.getName());
-        }
-      }
-      b.append(")");
-      stmts.add(b.toString());
-      b.setLength(0);
-    } else {
-      // update existing record
-      b.append("UPDATE ");
-      b.append(tableName);
-      b.append(" SET ");
-      first = true;
-      for (DataField f : entity.getFieldList()) {
-        if (f == entity.primaryKey)
-          continue;
-        if (!first) {
-          b.append(",");
-        }
-        first = false;
-        b.append(K_BQ);
-        b.append(f.getName());
-        b.append(K_BQ);
-        b.append(" = ");
-        if (f.equals(entity.creationDate) || f.equals(entity.lastUpdateDate)) {
-          b.append("@present");
-        } else if (f.equals(entity.creatorUriUser) || f.equals(entity.lastUpdateUriUser)) {
-          b.append("@uriUser");
-        } else if (f.equals(entity.formId)) {
-          b.append("@formId");
-        } else if (f.equals(entity.taskType)) {
-          b.append("@taskType");
-        } else if (f.equals(entity.primaryKey)) {
-          b.append("@uriLock");
-        } else if (f.equals(entity.expirationDateTime)) {
-          b.append(" DATE_ADD(CAST(@present AS DATETIME), INTERVAL @lifetimeMicroseconds MICROSECOND)");
-        } else {
-          throw new IllegalStateException("unexpected case " + f.getName());
-        }
-      }
-      b.append(" WHERE ");
-      b.append(K_BQ);
-      b.append(entity.primaryKey.getName());
-      b.append(K_BQ);
-      b.append(" = ");
-      b.append("@uriLock");
-      stmts.add(b.toString());
-      b.setLength(0);
-    }
-    // delete stale locks (don't care who's)
-    dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
-    b.append("DELETE FROM ");
-    b.append(tableName);
-    b.append(" WHERE ");
-    b.append(K_BQ);
-    b.append(entity.expirationDateTime.getName());
-    b.append(K_BQ);
-    b.append(" <= CAST(@present AS DATETIME)");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // determine the time of the oldest lock for this resource and task type...
-    // do this by querying for the minimum expiration time
-    // BUT, first, set the minimum time to the present time in case there are no locks.
-    b.append("SET @minExpiration = @present");
-    stmts.add(b.toString());
-    b.setLength(0);
-    dam.recordQueryUsage(TaskLockTable.TABLE_NAME, 1);
-    b.append("SELECT @minExpiration := MIN(");
-    b.append(K_BQ);
-    b.append(entity.expirationDateTime.getName());
-    b.append(K_BQ);
-    b.append(") FROM ");
-    b.append(tableName);
-    b.append(" WHERE ");
-    b.append(K_BQ);
-    b.append(entity.formId.getName());
-    b.append(K_BQ);
-    b.append(" = @formId AND ");
-    b.append(K_BQ);
-    b.append(entity.taskType.getName());
-    b.append(K_BQ);
-    b.append(" = @taskType");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // determine if there are two or more records matching
-    // the minimum expiration time.  If there are, we must
-    // release the locks and retry, as we cannot determine
-    // which one is first.
-    b.append("SET @uriCount = 0");
-    stmts.add(b.toString());
-    b.setLength(0);
-    b.append("SELECT @uriCount := COUNT(");
-    b.append(K_BQ);
-    b.append(entity.primaryKey.getName());
-    b.append(K_BQ);
-    b.append(") FROM ");
-    b.append(tableName);
-    b.append(" WHERE ");
-
-    b.append(K_BQ);
-    b.append(entity.formId.getName());
-    b.append(K_BQ);
-    b.append(" = @formId AND ");
-
-    b.append(K_BQ);
-    b.append(entity.taskType.getName());
-    b.append(K_BQ);
-    b.append(" = @taskType AND ");
-
-    b.append(K_BQ);
-    b.append(entity.expirationDateTime.getName());
-    b.append(K_BQ);
-    b.append(" = CAST(@minExpiration AS DATETIME)");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // delete all locks except the oldest one for this resource and task type...
-    // or, if we have two or more old locks, release ours
-    // whatever lock exists identifies the owner of the resource.
-    dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
-    b.append("DELETE FROM ");
-    b.append(tableName);
-    b.append(" WHERE ");
-
-    b.append(K_BQ);
-    b.append(entity.formId.getName());
-    b.append(K_BQ);
-    b.append(" = @formId AND ");
-
-    b.append(K_BQ);
-    b.append(entity.taskType.getName());
-    b.append(K_BQ);
-    b.append(" = @taskType AND ( ");
-
-    b.append(K_BQ);
-    b.append(entity.expirationDateTime.getName());
-    b.append(K_BQ);
-    b.append(" > CAST(@minExpiration AS DATETIME)");
-    b.append(" OR ( @uriCount > 1 AND ");
-    b.append(K_BQ);
-    b.append(entity.expirationDateTime.getName());
-    b.append(K_BQ);
-    b.append(" = CAST(@minExpiration AS DATETIME)");
-    b.append(" AND ");
-    b.append(K_BQ);
-    b.append(entity.primaryKey.getName());
-    b.append(K_BQ);
-    b.append(" = @uriLock ) )");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // and within the transaction, see if the primary key of the winning lock is ours...
-    b.append("SELECT ");
-    b.append(K_BQ);
-    b.append(entity.primaryKey.getName());
-    b.append(K_BQ);
-    b.append(" FROM ");
-    b.append(tableName);
-    b.append(" WHERE ");
-    b.append(K_BQ);
-    b.append(entity.formId.getName());
-    b.append(K_BQ);
-    b.append(" = @formId AND ");
-
-    b.append(K_BQ);
-    b.append(entity.taskType.getName());
-    b.append(K_BQ);
-    b.append(" = @taskType AND ");
-    b.append(K_BQ);
-    b.append(entity.expirationDateTime.getName());
-    b.append(K_BQ);
-    b.append(" = CAST(@minExpiration AS DATETIME)");
-    stmts.add(b.toString());
-    b.setLength(0);
-    b.append("UNLOCK TABLES");
-    stmts.add(b.toString());
-    b.setLength(0);
-    b.append("COMMIT");
-    stmts.add(b.toString());
-    b.setLength(0);
-
+  /**
+   * Obtains or renews the lock within a transaction, while holding a GET_LOCK
+   * named lock on the form id and task type, so that only requests for the
+   * same form id and task type wait on each other. The lock rows still
+   * carry the expiration time, so that locks outlive the connection and stale
+   * locks are taken over as before.
+   *
+   * @return true if lockId holds the lock when the transaction commits.
+   */
+  private boolean doTransaction(final String lockId, final String formId, final String taskType,
+                                final long lifetimeMillis, final boolean renewal)
+      throws ODKTaskLockException {
     TaskLockTable relation;
     try {
       relation = TaskLockTable.assertRelation(datastore, user);
@@ -317,83 +77,129 @@ public class TaskLockImpl implements TaskLock {
       throw new ODKTaskLockException(PERSISTENCE_LAYER_PROBLEM, e);
     }
 
-    boolean success = false;
+    String tableName = K_BQ + datastore.getDefaultSchemaName() + K_BQ + "." + K_BQ
+        + TaskLockTable.TABLE_NAME + K_BQ;
+    String uriColumn = K_BQ + relation.primaryKey.getName() + K_BQ;
+    String expirationColumn = K_BQ + relation.expirationDateTime.getName() + K_BQ;
+    String resourceFilter = K_BQ + relation.formId.getName() + K_BQ + " = ? AND "
+        + K_BQ + relation.taskType.getName() + K_BQ + " = ?";
+
+    final String deleteStaleSql = "DELETE FROM " + tableName + " WHERE " + resourceFilter
+        + " AND " + expirationColumn + " <= " + K_NOW;
+    final String countOtherLocksSql = "SELECT COUNT(*) FROM " + tableName + " WHERE "
+        + resourceFilter + " AND " + uriColumn + " <> ?";
+    final String updateSql = "UPDATE " + tableName + " SET "
+        + K_BQ + relation.lastUpdateUriUser.getName() + K_BQ + " = ?, "
+        + K_BQ + relation.lastUpdateDate.getName() + K_BQ + " = " + K_NOW + ", "
+        + expirationColumn + " = " + K_NOW_PLUS_LIFETIME
+        + " WHERE " + uriColumn + " = ? AND " + resourceFilter;
+    final String insertSql = "INSERT INTO " + tableName + " (" + uriColumn + ","
+        + K_BQ + relation.creatorUriUser.getName() + K_BQ + ","
+        + K_BQ + relation.creationDate.getName() + K_BQ + ","
+        + K_BQ + relation.lastUpdateUriUser.getName() + K_BQ + ","
+        + K_BQ + relation.lastUpdateDate.getName() + K_BQ + ","
+        + K_BQ + relation.formId.getName() + K_BQ + ","
+        + K_BQ + relation.taskType.getName() + K_BQ + ","
+        + expirationColumn + ") VALUES (?,?," + K_NOW + ",?," + K_NOW + ",?,?,"
+        + K_NOW_PLUS_LIFETIME + ")";
+    final Object lifetime = 1000L * lifetimeMillis;
+    final String uriUser = user.getUriUser();
+    // GET_LOCK names are server-wide and limited to 64 characters
+    final String resourceName = "odk_task_lock:" + CommonFieldsBase.newMD5HashUri(
+        datastore.getDefaultSchemaName() + "|" + formId + "|" + taskType);
+
+    long startNanos = System.nanoTime();
     try {
-
       JdbcTemplate jdbc = datastore.getJdbcConnection();
-      Object o = jdbc.execute(new ConnectionCallback<Object>() {
+      Boolean success = jdbc.execute(new ConnectionCallback<Boolean>() {
 
         @Override
-        public Object doInConnection(Connection conn) throws SQLException, DataAccessException {
-          boolean success = false;
-          boolean oldValue = conn.getAutoCommit();
+        public Boolean doInConnection(Connection conn) throws SQLException, DataAccessException {
+          boolean oldAutoCommitValue = conn.getAutoCommit();
+          int oldTransactionValue = conn.getTransactionIsolation();
+          boolean locked = false;
           try {
             conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            String lastResult = null;
-            for (String s : stmts) {
-              Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, ResultSet.CLOSE_CURSORS_AT_COMMIT);
-              if (s.startsWith("SELECT")) {
-                ResultSet rs = stmt.executeQuery(s);
-                if (rs.first()) {
-                  lastResult = rs.getString(1);
-                }
-                rs.close();
-              } else {
-                stmt.executeUpdate(s);
+            // every statement must see the lock rows committed by whoever
+            // held the resource lock before us.
+            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            if (queryForLong(conn, K_LOCK_RESOURCE, resourceName, LOCK_WAIT_SECONDS) != 1) {
+              // timed out waiting for the other requests for this resource
+              return false;
+            }
+            locked = true;
+            boolean success;
+            dam.recordPutUsage(TaskLockTable.TABLE_NAME);
+            if (renewal) {
+              success = executeUpdate(conn, updateSql, uriUser, lifetime, lockId, formId,
+                  taskType) == 1;
+            } else {
+              // delete stale locks for this resource (don't care who's)
+              dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
+              executeUpdate(conn, deleteStaleSql, formId, taskType);
+              dam.recordQueryUsage(TaskLockTable.TABLE_NAME, 1);
+              success = queryForLong(conn, countOtherLocksSql, formId, taskType, lockId) == 0;
+              if (success && executeUpdate(conn, updateSql, uriUser, lifetime, lockId, formId,
+                  taskType) == 0) {
+                executeUpdate(conn, insertSql, lockId, uriUser, uriUser, formId, taskType,
+                    lifetime);
               }
-              stmt.close();
             }
             conn.commit();
-            success = uri.equals(lastResult);
-          } catch (Exception e) {
-            e.printStackTrace();
+            return success;
+          } catch (SQLException e) {
             conn.rollback();
+            throw e;
           } finally {
-            if (!success) {
-              Statement stmt = conn.createStatement();
-              LoggerFactory.getLogger(TaskLockImpl.class).info("UNLOCK TABLES");
-              stmt.execute("UNLOCK TABLES");
-              conn.commit();
+            if (locked) {
+              queryForLong(conn, K_UNLOCK_RESOURCE, resourceName);
             }
+            conn.setTransactionIsolation(oldTransactionValue);
+            conn.setAutoCommit(oldAutoCommitValue);
           }
-          conn.setAutoCommit(oldValue);
-          return success ? uri : null;
         }
 
       });
-
-      success = o != null && uri.equals((String) o);
-
+      return Boolean.TRUE.equals(success);
     } catch (Exception e) {
       throw new ODKTaskLockException(PERSISTENCE_LAYER_PROBLEM, e);
+    } finally {
+      dam.recordLatency(Operation.TASK_LOCK, TaskLockTable.TABLE_NAME, startNanos);
+    }
+  }
+
+  private static void setArguments(PreparedStatement ps, Object... args) throws SQLException {
+    for (int i = 0; i < args.length; ++i) {
+      ps.setObject(i + 1, args[i]);
     }
-    if (success) {
-      return (TaskLockTable) datastore.getEntity(relation, uri, user);
-    } else {
-      throw new ODKEntityNotFoundException();
+  }
+
+  private static int executeUpdate(Connection conn, String sql, Object... args)
+      throws SQLException {
+    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+      setArguments(ps, args);
+      return ps.executeUpdate();
     }
   }
 
+  private static long queryForLong(Connection conn, String sql, Object... args)
+      throws SQLException {
+    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+      setArguments(ps, args);
+      try (ResultSet rs = ps.executeQuery()) {
+        return rs.next() ? rs.getLong(1) : 0L;
+      }
+    }
+  }
   @Override
   public boolean obtainLock(String lockId, String formId, ITaskLockType taskType) {
     boolean result = false;
     try {
-      TaskLockTable relation = TaskLockTable.assertRelation(datastore, user);
-      TaskLockTable entity = datastore.createEntityUsingRelation(relation, user);
-      entity.setStringField(entity.primaryKey, lockId);
-      entity.setFormId(formId);
-      entity.setTaskType(taskType.getName());
-      entity = doTransaction(entity, taskType.getLockExpirationTimeout());
-      result = true;
-    } catch (ODKEntityNotFoundException e) {
-      // didn't gain the lock...
+      result = doTransaction(lockId, formId, taskType.getName(),
+          taskType.getLockExpirationTimeout(), false);
     } catch (ODKTaskLockException e) {
       // unexpected failure...
       e.printStackTrace();
-    } catch (ODKDatastoreException e) {
-      // unexpected failure...
-      e.printStackTrace();
     }
     return result;
   }
@@ -402,22 +208,8 @@ public class TaskLockImpl implements TaskLock {
   public boolean renewLock(String lockId, String formId, ITaskLockType taskType) {
     boolean result = false;
     try {
-      TaskLockTable relation = TaskLockTable.assertRelation(datastore, user);
-      TaskLockTable entity = datastore.getEntity(relation, lockId, user);
-      if (!(entity.getFormId().equals(formId) && entity.getTaskType().equals(taskType.getName()))) {
-        throw new IllegalArgumentException("formId or taskType don't match datastore values");
-      }
-      entity = doTransaction(entity, taskType.getLockExpirationTimeout());
-      result = true;
-    } catch (IllegalArgumentException e) {
-      // unexpected failure...
-      e.printStackTrace();
-    } catch (ODKEntityNotFoundException e) {
-      // unexpected failure...
-      e.printStackTrace();
-    } catch (ODKDatastoreException e) {
-      // unexpected failure...
-      e.printStackTrace();
+      result = doTransaction(lockId, formId, taskType.getName(),
+          taskType.getLockExpirationTimeout(), true);
     } catch (ODKTaskLockException e) {
       // unexpected failure...
       e.printStackTrace();
@@ -481,26 +273,6 @@ public class TaskLockImpl implements TaskLock {
       return relation;
     }
 
-    String getFormId() {
-      return getStringField(formId);
-    }
-
-    void setFormId(String value) {
-      if (!setStringField(formId, value)) {
-        throw new IllegalStateException("overflow formId");
-      }
-    }
-
-    String getTaskType() {
-      return getStringField(taskType);
-    }
-
-    void setTaskType(String value) {
-      if (!setStringField(taskType, value)) {
-        throw new IllegalStateException("overflow taskType");
-      }
-    }
-
     @Override
     public CommonFieldsBase getEmptyRow(User user) {
       return new TaskLockTable(this, user);
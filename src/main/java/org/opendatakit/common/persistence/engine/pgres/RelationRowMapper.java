@@ -30,10 +30,27 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
 
   private final CommonFieldsBase relation;
   private final User user;
+  private final DataField[] fields;
+  // column index of each field, resolved once per result set
+  private ResultSet resolvedResultSet = null;
+  private int[] columnIndexes = null;
 
   RelationRowMapper(CommonFieldsBase relation, User user) {
     this.relation = relation;
     this.user = user;
+    this.fields = relation.getFieldList().toArray(new DataField[0]);
+  }
+
+  private int[] getColumnIndexes(ResultSet rs) throws SQLException {
+    if (rs != resolvedResultSet) {
+      int[] indexes = new int[fields.length];
+      for (int i = 0; i < fields.length; ++i) {
+        indexes[i] = rs.findColumn(fields[i].getName());
+      }
+      columnIndexes = indexes;
+      resolvedResultSet = rs;
+    }
+    return columnIndexes;
   }
 
   @Override
@@ -47,30 +64,30 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
       throw new IllegalStateException("failed to create empty row", e);
     }
 
+    int[] columns = getColumnIndexes(rs);
     /*
       Correct for the funky handling of nulls by the various accessors...
+      The fields of the row are in the same order as those of the relation.
      */
-    for (DataField f : relation.getFieldList()) {
+    for (int i = 0; i < fields.length; ++i) {
+      DataField f = fields[i];
+      int column = columns[i];
       switch (f.getDataType()) {
         case BINARY:
-          byte[] blobBytes = rs.getBytes(f.getName());
-          row.setBlobField(f, blobBytes);
+          row.setFieldValue(i, rs.getBytes(column));
           break;
         case LONG_STRING:
         case URI:
         case STRING:
-          row.setStringField(f, rs.getString(f.getName()));
+          row.setFieldValue(i, rs.getString(column));
           break;
         case INTEGER:
-          long l = rs.getLong(f.getName());
-          if (rs.wasNull()) {
-            row.setLongField(f, null);
-          } else {
-            row.setLongField(f, Long.valueOf(l));
-          }
+          long l = rs.getLong(column);
+          row.setFieldValue(i, rs.wasNull() ? null : Long.valueOf(l));
           break;
         case DECIMAL: {
-          String value = rs.getString(f.getName());
+          // through the setter, which applies the scale of the field
+          String value = rs.getString(column);
           if (value == null) {
             row.setNumericField(f, null);
           } else {
@@ -79,20 +96,12 @@ public class RelationRowMapper implements RowMapper<CommonFieldsBase> {
         }
         break;
         case BOOLEAN:
-          Boolean b = rs.getBoolean(f.getName());
-          if (rs.wasNull()) {
-            row.setBooleanField(f, null);
-          } else {
-            row.setBooleanField(f, b);
-          }
+          boolean b = rs.getBoolean(column);
+          row.setFieldValue(i, rs.wasNull() ? null : Boolean.valueOf(b));
           break;
         case DATETIME:
-          Date d = rs.getTimestamp(f.getName());
-          if (d == null) {
-            row.setDateField(f, null);
-          } else {
-            row.setDateField(f, (Date) d.clone());
-          }
+          Date d = rs.getTimestamp(column);
+          row.setFieldValue(i, (d == null) ? null : (Date) d.clone());
           break;
         default:
           throw new IllegalStateException("Did not expect non-primitive type in column fetch");
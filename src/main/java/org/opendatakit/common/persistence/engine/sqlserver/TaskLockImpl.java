@@ -15,11 +15,12 @@
  */
 package org.opendatakit.common.persistence.engine.sqlserver;
 
+import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.List;
+import java.sql.Types;
 import org.opendatakit.common.persistence.CommonFieldsBase;
 import org.opendatakit.common.persistence.DataField;
 import org.opendatakit.common.persistence.Datastore;
@@ -27,8 +28,8 @@ import org.opendatakit.common.persistence.EntityKey;
 import org.opendatakit.common.persistence.ITaskLockType;
 import org.opendatakit.common.persistence.TaskLock;
 import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.Operation;
 import org.opendatakit.common.persistence.exception.ODKDatastoreException;
-import org.opendatakit.common.persistence.exception.ODKEntityNotFoundException;
 import org.opendatakit.common.persistence.exception.ODKTaskLockException;
 import org.opendatakit.common.security.User;
 import org.slf4j.LoggerFactory;
@@ -43,6 +44,12 @@ import org.springframework.jdbc.core.JdbcTemplate;
 public class TaskLockImpl implements TaskLock {
 
   private static final String PERSISTENCE_LAYER_PROBLEM = "Persistence layer failure";
+  private static final String K_NOW = "SYSUTCDATETIME()";
+  private static final String K_NOW_PLUS_LIFETIME = "DATEADD(ms, ?, SYSUTCDATETIME())";
+  private static final String K_LOCK_RESOURCE =
+      "{? = call sp_getapplock(?, 'Exclusive', 'Session', ?)}";
+  private static final String K_UNLOCK_RESOURCE = "{? = call sp_releaseapplock(?, 'Session')}";
+  private static final int LOCK_WAIT_MILLISECONDS = 10000;
   private static final String K_BQ = "\"";
   final DatastoreAccessMetrics dam;
   final DatastoreImpl datastore;
@@ -54,222 +61,159 @@ public class TaskLockImpl implements TaskLock {
     this.user = user;
   }
 
-  private TaskLockTable doTransaction(TaskLockTable entity, long l)
-      throws ODKEntityNotFoundException, ODKTaskLockException {
-    boolean first;
-
-    final List<String> stmts = new ArrayList<String>();
-
-    String uri = entity.getUri();
+  /**
+   * Obtains or renews the lock within a transaction, while holding an
+   * application lock (sp_getapplock) on the form id and task type, so that
+   * only requests for the same form id and task type wait on each other. The lock rows still
+   * carry the expiration time, so that locks outlive the connection and stale
+   * locks are taken over as before.
+   *
+   * @return true if lockId holds the lock when the transaction commits.
+   */
+  private boolean doTransaction(final String lockId, final String formId, final String taskType,
+                                final long lifetimeMillis, final boolean renewal)
+      throws ODKTaskLockException {
+    TaskLockTable relation;
+    try {
+      relation = TaskLockTable.assertRelation(datastore, user);
+    } catch (ODKDatastoreException e) {
+      throw new ODKTaskLockException(PERSISTENCE_LAYER_PROBLEM, e);
+    }
 
-    StringBuilder b = new StringBuilder();
     String tableName = K_BQ + datastore.getDefaultSchemaName() + K_BQ + "." + K_BQ
         + TaskLockTable.TABLE_NAME + K_BQ;
+    String uriColumn = K_BQ + relation.primaryKey.getName() + K_BQ;
+    String expirationColumn = K_BQ + relation.expirationDateTime.getName() + K_BQ;
+    String resourceFilter = K_BQ + relation.formId.getName() + K_BQ + " = ? AND "
+        + K_BQ + relation.taskType.getName() + K_BQ + " = ?";
 
-    b.append("'").append(user.getUriUser().replaceAll("'", "''")).append("'");
-    String uriUserInline = b.toString();
-    b.setLength(0);
-    b.append("'").append(uri.replaceAll("'", "''")).append("'");
-    String uriLockInline = b.toString();
-    b.setLength(0);
-    b.append("'").append(entity.getFormId().replaceAll("'", "''")).append("'");
-    String formIdInline = b.toString();
-    b.setLength(0);
-    b.append("'").append(entity.getTaskType().replaceAll("'", "''")).append("'");
-    String taskTypeInline = b.toString();
-    b.setLength(0);
-    b.append("DATEADD(ms,").append(l).append(",SYSUTCDATETIME())");
-    String nowPlusLifetimeIntervalMilliseconds = b.toString();
-    b.setLength(0);
+    final String deleteStaleSql = "DELETE FROM " + tableName + " WHERE " + resourceFilter
+        + " AND " + expirationColumn + " <= " + K_NOW;
+    final String countOtherLocksSql = "SELECT COUNT(*) FROM " + tableName + " WHERE "
+        + resourceFilter + " AND " + uriColumn + " <> ?";
+    final String updateSql = "UPDATE " + tableName + " SET "
+        + K_BQ + relation.lastUpdateUriUser.getName() + K_BQ + " = ?, "
+        + K_BQ + relation.lastUpdateDate.getName() + K_BQ + " = " + K_NOW + ", "
+        + expirationColumn + " = " + K_NOW_PLUS_LIFETIME
+        + " WHERE " + uriColumn + " = ? AND " + resourceFilter;
+    final String insertSql = "INSERT INTO " + tableName + " (" + uriColumn + ","
+        + K_BQ + relation.creatorUriUser.getName() + K_BQ + ","
+        + K_BQ + relation.creationDate.getName() + K_BQ + ","
+        + K_BQ + relation.lastUpdateUriUser.getName() + K_BQ + ","
+        + K_BQ + relation.lastUpdateDate.getName() + K_BQ + ","
+        + K_BQ + relation.formId.getName() + K_BQ + ","
+        + K_BQ + relation.taskType.getName() + K_BQ + ","
+        + expirationColumn + ") VALUES (?,?," + K_NOW + ",?," + K_NOW + ",?,?,"
+        + K_NOW_PLUS_LIFETIME + ")";
+    final Object lifetime = (int) lifetimeMillis;
+    final String uriUser = user.getUriUser();
+    final String resourceName = "odk_task_lock:" + CommonFieldsBase.newMD5HashUri(
+        datastore.getDefaultSchemaName() + "|" + formId + "|" + taskType);
 
-    b.append("SELECT  COUNT(1) FROM ").append(tableName).append(" WITH (TABLOCKX, HOLDLOCK)");
-    stmts.add(b.toString());
-    b.setLength(0);
-
-    dam.recordPutUsage(TaskLockTable.TABLE_NAME);
-    if (!entity.isFromDatabase()) {
-      // insert a new record (prospective lock)
-      b.append("INSERT INTO ");
-      b.append(tableName);
-      b.append(" (");
-      first = true;
-      for (DataField f : entity.getFieldList()) {
-        if (!first) {
-          b.append(",");
-        }
-        first = false;
-        b.append(K_BQ);
-        b.append(f.getName());
-        b.append(K_BQ);
-      }
-      first = true;
-      b.append(") VALUES ( ");
-      for (DataField f : entity.getFieldList()) {
-        if (!first) {
-          b.append(",");
-        }
-        first = false;
-        if (f.equals(entity.creationDate) || f.equals(entity.lastUpdateDate)) {
-          b.append("SYSUTCDATETIME()");
-        } else if (f.equals(entity.creatorUriUser) || f.equals(entity.lastUpdateUriUser)) {
-          b.append(uriUserInline);
-        } else if (f.equals(entity.formId)) {
-          b.append(formIdInline);
-        } else if (f.equals(entity.taskType)) {
-          b.append(taskTypeInline);
-        } else if (f.equals(entity.primaryKey)) {
-          b.append(uriLockInline);
-        } else if (f.equals(entity.expirationDateTime)) {
-          b.append(nowPlusLifetimeIntervalMilliseconds);
-        } else {
-          throw new IllegalStateException("unexpected case " + f.getName());
-        }
-      }
-      b.append(")");
-      stmts.add(b.toString());
-      b.setLength(0);
-    } else {
-      // update existing record (prospective lock)
-      b.append("UPDATE ");
-      b.append(tableName);
-      b.append(" SET ");
-      first = true;
-      for (DataField f : entity.getFieldList()) {
-        if (f == entity.primaryKey)
-          continue;
-        if (!first) {
-          b.append(",");
-        }
-        first = false;
-        b.append(K_BQ);
-        b.append(f.getName());
-        b.append(K_BQ);
-        b.append(" = ");
-        if (f.equals(entity.creationDate) || f.equals(entity.lastUpdateDate)) {
-          b.append("SYSUTCDATETIME()");
-        } else if (f.equals(entity.creatorUriUser) || f.equals(entity.lastUpdateUriUser)) {
-          b.append(uriUserInline);
-        } else if (f.equals(entity.formId)) {
-          b.append(formIdInline);
-        } else if (f.equals(entity.taskType)) {
-          b.append(taskTypeInline);
-        } else if (f.equals(entity.primaryKey)) {
-          b.append(uriLockInline);
-        } else if (f.equals(entity.expirationDateTime)) {
-          b.append(nowPlusLifetimeIntervalMilliseconds);
-        } else {
-          throw new IllegalStateException("unexpected case " + f.getName());
-        }
-      }
-      b.append(" WHERE ");
-      b.append(K_BQ);
-      b.append(entity.primaryKey.getName());
-      b.append(K_BQ);
-      b.append(" = ");
-      b.append(uriLockInline);
-      stmts.add(b.toString());
-      b.setLength(0);
-    }
-    // delete stale locks (don't care who's)
-    dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
-    b.append("DELETE FROM ").append(tableName).append(" WHERE ");
-    b.append(K_BQ).append(entity.expirationDateTime.getName()).append(K_BQ).append(" <= SYSUTCDATETIME()");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // delete prospective locks which are not the oldest for that resource and
-    // task type
-    dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
-    b.append("DELETE FROM ").append(tableName).append(" WHERE ");
-    b.append(K_BQ).append(entity.formId.getName()).append(K_BQ).append(" = ")
-        .append(formIdInline).append(" AND ");
-    b.append(K_BQ).append(entity.taskType.getName()).append(K_BQ).append(" = ")
-        .append(taskTypeInline).append(" AND ");
-    b.append(K_BQ).append(entity.expirationDateTime.getName()).append(K_BQ);
-    b.append(" > (SELECT MIN(t3.").append(K_BQ).append(entity.expirationDateTime.getName())
-        .append(K_BQ);
-    b.append(") FROM ").append(tableName).append(" AS t3 WHERE t3.");
-    b.append(K_BQ).append(entity.formId.getName()).append(K_BQ).append(" = ").append(formIdInline)
-        .append(" AND t3.");
-    b.append(K_BQ).append(entity.taskType.getName()).append(K_BQ).append(" = ")
-        .append(taskTypeInline).append(")");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // delete our entry if it collides with another entry with exactly 
-    // this time.
-    b.append("DELETE FROM ").append(tableName).append(" WHERE ");
-    b.append(K_BQ).append(entity.formId.getName()).append(K_BQ).append(" = ")
-        .append(formIdInline).append(" AND ");
-    b.append(K_BQ).append(entity.taskType.getName()).append(K_BQ).append(" = ")
-        .append(taskTypeInline).append(" AND ");
-    b.append(K_BQ).append(entity.primaryKey.getName()).append(K_BQ).append(" = ")
-        .append(uriLockInline).append(" AND ");
-    b.append("1 < (SELECT COUNT(t3.").append(K_BQ).append(entity.expirationDateTime.getName())
-        .append(K_BQ);
-    b.append(") FROM ").append(tableName).append(" AS t3 WHERE t3.");
-    b.append(K_BQ).append(entity.formId.getName()).append(K_BQ).append(" = ").append(formIdInline)
-        .append(" AND t3.");
-    b.append(K_BQ).append(entity.taskType.getName()).append(K_BQ).append(" = ")
-        .append(taskTypeInline).append(")");
-    stmts.add(b.toString());
-    b.setLength(0);
-    // assert: only the lock that holds the resource for that task type appears
-    // in the task lock table
-    TaskLockTable relation;
+    long startNanos = System.nanoTime();
     try {
-
       JdbcTemplate jdbc = datastore.getJdbcConnection();
-      jdbc.execute(new ConnectionCallback<Object>() {
+      Boolean success = jdbc.execute(new ConnectionCallback<Boolean>() {
 
         @Override
-        public Object doInConnection(Connection conn) throws SQLException, DataAccessException {
+        public Boolean doInConnection(Connection conn) throws SQLException, DataAccessException {
           boolean oldAutoCommitValue = conn.getAutoCommit();
           int oldTransactionValue = conn.getTransactionIsolation();
+          boolean locked = false;
           try {
             conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            Statement stmt = conn.createStatement();
-            for (String s : stmts) {
-              // for debugging: LoggerFactory.getLogger(TaskLockImpl.class).info(s);
-              stmt.execute(s);
+            // every statement must see the lock rows committed by whoever
+            // held the resource lock before us.
+            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            if (callForInt(conn, K_LOCK_RESOURCE, resourceName, LOCK_WAIT_MILLISECONDS) < 0) {
+              // timed out waiting for the other requests for this resource
+              return false;
+            }
+            locked = true;
+            boolean success;
+            dam.recordPutUsage(TaskLockTable.TABLE_NAME);
+            if (renewal) {
+              success = executeUpdate(conn, updateSql, uriUser, lifetime, lockId, formId,
+                  taskType) == 1;
+            } else {
+              // delete stale locks for this resource (don't care who's)
+              dam.recordDeleteUsage(TaskLockTable.TABLE_NAME);
+              executeUpdate(conn, deleteStaleSql, formId, taskType);
+              dam.recordQueryUsage(TaskLockTable.TABLE_NAME, 1);
+              success = queryForLong(conn, countOtherLocksSql, formId, taskType, lockId) == 0;
+              if (success && executeUpdate(conn, updateSql, uriUser, lifetime, lockId, formId,
+                  taskType) == 0) {
+                executeUpdate(conn, insertSql, lockId, uriUser, uriUser, formId, taskType,
+                    lifetime);
+              }
             }
             conn.commit();
-          } catch (Exception e) {
-            e.printStackTrace();
+            return success;
+          } catch (SQLException e) {
             conn.rollback();
+            throw e;
+          } finally {
+            if (locked) {
+              callForInt(conn, K_UNLOCK_RESOURCE, resourceName);
+            }
+            conn.setTransactionIsolation(oldTransactionValue);
+            conn.setAutoCommit(oldAutoCommitValue);
           }
-          conn.setTransactionIsolation(oldTransactionValue);
-          conn.setAutoCommit(oldAutoCommitValue);
-          return null;
         }
 
       });
-
-      relation = TaskLockTable.assertRelation(datastore, user);
+      return Boolean.TRUE.equals(success);
     } catch (Exception e) {
       throw new ODKTaskLockException(PERSISTENCE_LAYER_PROBLEM, e);
+    } finally {
+      dam.recordLatency(Operation.TASK_LOCK, TaskLockTable.TABLE_NAME, startNanos);
+    }
+  }
+
+  private static void setArguments(PreparedStatement ps, Object... args) throws SQLException {
+    for (int i = 0; i < args.length; ++i) {
+      ps.setObject(i + 1, args[i]);
+    }
+  }
+
+  private static int executeUpdate(Connection conn, String sql, Object... args)
+      throws SQLException {
+    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+      setArguments(ps, args);
+      return ps.executeUpdate();
+    }
+  }
+
+  private static long queryForLong(Connection conn, String sql, Object... args)
+      throws SQLException {
+    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+      setArguments(ps, args);
+      try (ResultSet rs = ps.executeQuery()) {
+        return rs.next() ? rs.getLong(1) : 0L;
+      }
     }
-    return (TaskLockTable) datastore.getEntity(relation, entity.getUri(), user);
   }
 
+  private static int callForInt(Connection conn, String sql, Object... args)
+      throws SQLException {
+    try (CallableStatement cs = conn.prepareCall(sql)) {
+      cs.registerOutParameter(1, Types.INTEGER);
+      for (int i = 0; i < args.length; ++i) {
+        cs.setObject(i + 2, args[i]);
+      }
+      cs.execute();
+      return cs.getInt(1);
+    }
+  }
   @Override
   public boolean obtainLock(String lockId, String formId, ITaskLockType taskType) {
     boolean result = false;
     try {
-      TaskLockTable relation = TaskLockTable.assertRelation(datastore, user);
-      TaskLockTable entity = datastore.createEntityUsingRelation(relation, user);
-      entity.setStringField(entity.primaryKey, lockId);
-      entity.setFormId(formId);
-      entity.setTaskType(taskType.getName());
-      entity = doTransaction(entity, taskType.getLockExpirationTimeout());
-      result = true;
-    } catch (ODKEntityNotFoundException e) {
-      // didn't gain the lock...
+      result = doTransaction(lockId, formId, taskType.getName(),
+          taskType.getLockExpirationTimeout(), false);
     } catch (ODKTaskLockException e) {
       // unexpected failure...
       e.printStackTrace();
-    } catch (ODKDatastoreException e) {
-      // unexpected failure...
-      e.printStackTrace();
     }
     return result;
   }
@@ -278,22 +222,8 @@ public class TaskLockImpl implements TaskLock {
   public boolean renewLock(String lockId, String formId, ITaskLockType taskType) {
     boolean result = false;
     try {
-      TaskLockTable relation = TaskLockTable.assertRelation(datastore, user);
-      TaskLockTable entity = datastore.getEntity(relation, lockId, user);
-      if (!(entity.getFormId().equals(formId) && entity.getTaskType().equals(taskType.getName()))) {
-        throw new IllegalArgumentException("formId or taskType don't match datastore values");
-      }
-      entity = doTransaction(entity, taskType.getLockExpirationTimeout());
-      result = true;
-    } catch (IllegalArgumentException e) {
-      // unexpected failure...
-      e.printStackTrace();
-    } catch (ODKEntityNotFoundException e) {
-      // unexpected failure...
-      e.printStackTrace();
-    } catch (ODKDatastoreException e) {
-      // unexpected failure...
-      e.printStackTrace();
+      result = doTransaction(lockId, formId, taskType.getName(),
+          taskType.getLockExpirationTimeout(), true);
     } catch (ODKTaskLockException e) {
       // unexpected failure...
       e.printStackTrace();
@@ -357,26 +287,6 @@ public class TaskLockImpl implements TaskLock {
       return relation;
     }
 
-    String getFormId() {
-      return getStringField(formId);
-    }
-
-    void setFormId(String value) {
-      if (!setStringField(formId, value)) {
-        throw new IllegalStateException("overflow formId");
-      }
-    }
-
-    String getTaskType() {
-      return getStringField(taskType);
-    }
-
-    void setTaskType(String value) {
-      if (!setStringField(taskType, value)) {
-        throw new IllegalStateException("overflow taskType");
-      }
-    }
-
     @Override
     public CommonFieldsBase getEmptyRow(User user) {
       return new TaskLockTable(this, user);
@@ -517,6 +517,8 @@ public class SecurityServiceUtil {
       userDefinition.setBasicAuthPassword(credential.getBasicAuthHash());
       userDefinition.setBasicAuthSalt(credential.getBasicAuthSalt());
       ds.putEntity(userDefinition, user);
+      // so that cached credentials are discarded
+      SecurityRevisionsTable.setLastRegisteredUsersRevisionDate(ds, user);
     } catch (ODKDatastoreException e) {
       e.printStackTrace();
       throw new DatastoreFailureException(e.getMessage());
@@ -46,6 +46,15 @@ public class AggregateUser extends User {
     this.mailtoDomain = mailToDomain;
   }
 
+  /**
+   * Copy constructor, for handing out the users held in a cache.
+   */
+  AggregateUser(AggregateUser user) {
+    this(user.getUsername(), user.getPassword(), user.salt, user.mailtoDomain,
+        user.isEnabled(), user.isAccountNonExpired(), user.isCredentialsNonExpired(),
+        user.isAccountNonLocked(), user.getAuthorities());
+  }
+
   public String getSalt() {
     return salt;
   }
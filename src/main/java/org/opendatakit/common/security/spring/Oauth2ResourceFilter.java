@@ -45,6 +45,7 @@ import org.apache.http.config.SocketConfig;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
 import org.opendatakit.common.utils.HttpClientFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -277,6 +278,11 @@ public class Oauth2ResourceFilter extends GenericFilterBean {
     } catch (Exception e) {
       logger.error(e.toString());
       return nullData;
+    } finally {
+      // return the connection to the pool
+      if (response != null) {
+        EntityUtils.consumeQuietly(response.getEntity());
+      }
     }
   }
 
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.security.spring;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.security.UserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * Bounded cache of the user details (password hash and granted authorities)
+ * loaded by a {@link UserDetailsServiceImpl}, so that devices that
+ * authenticate every request do not query the registered users and granted
+ * authorities tables each time.
+ * <p>
+ * Entries expire after timeToLiveSeconds. The whole cache is also cleared
+ * when the registered users or role hierarchy revision dates in the
+ * {@link SecurityRevisionsTable} advance, which is checked at most once every
+ * CHECK_INTERVAL. Spring reloads a cached user whose password does not match
+ * the request's credentials, so a changed password takes effect at once.
+ * <p>
+ * Each user details service needs its own cache, because the password held in
+ * the user details depends on the service's password type.
+ */
+public class UserCacheImpl implements UserCache, InitializingBean {
+
+  private static final Logger logger = LoggerFactory.getLogger(UserCacheImpl.class);
+  // look for flagged changes every CHECK_INTERVAL.
+  private static final long CHECK_INTERVAL = 1000L; // 1 seconds
+
+  private final Map<String, CachedUser> users = new ConcurrentHashMap<String, CachedUser>();
+  private final AtomicLong lastCheckTimestamp = new AtomicLong(System.currentTimeMillis());
+
+  private Datastore datastore = null;
+  private UserService userService = null;
+  private int timeToLiveSeconds = 300;
+  private int maxEntries = 1000;
+
+  public Datastore getDatastore() {
+    return datastore;
+  }
+
+  public void setDatastore(Datastore datastore) {
+    this.datastore = datastore;
+  }
+
+  public UserService getUserService() {
+    return userService;
+  }
+
+  public void setUserService(UserService userService) {
+    this.userService = userService;
+  }
+
+  public int getTimeToLiveSeconds() {
+    return timeToLiveSeconds;
+  }
+
+  public void setTimeToLiveSeconds(int timeToLiveSeconds) {
+    this.timeToLiveSeconds = timeToLiveSeconds;
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  public void setMaxEntries(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    if (datastore == null) {
+      throw new IllegalStateException("datastore must be specified");
+    }
+    if (userService == null) {
+      throw new IllegalStateException("userService must be specified");
+    }
+  }
+
+  @Override
+  public UserDetails getUserFromCache(String username) {
+    checkForRevisions();
+    CachedUser cached = users.get(username);
+    if (cached == null) {
+      return null;
+    }
+    if (cached.expiresAt < System.currentTimeMillis()) {
+      users.remove(username, cached);
+      return null;
+    }
+    // hand out a copy; the authentication manager erases the credentials
+    // of the user details it authenticates.
+    return new AggregateUser(cached.user);
+  }
+
+  @Override
+  public void putUserInCache(UserDetails user) {
+    if (!(user instanceof AggregateUser)) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (users.size() >= maxEntries) {
+      removeExpired(now);
+      if (users.size() >= maxEntries) {
+        logger.info("User cache is full -- clearing it");
+        users.clear();
+      }
+    }
+    users.put(user.getUsername(),
+        new CachedUser(new AggregateUser((AggregateUser) user), now + timeToLiveSeconds * 1000L));
+  }
+
+  @Override
+  public void removeUserFromCache(String username) {
+    users.remove(username);
+  }
+
+  public void clear() {
+    users.clear();
+  }
+
+  private void removeExpired(long now) {
+    for (Iterator<CachedUser> it = users.values().iterator(); it.hasNext(); ) {
+      if (it.next().expiresAt < now) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Clears the cache if the registered users or the role hierarchy changed
+   * since the last check. Only one thread checks in each CHECK_INTERVAL.
+   */
+  private void checkForRevisions() {
+    long lastCheck = lastCheckTimestamp.get();
+    long now = System.currentTimeMillis();
+    if (now <= lastCheck + CHECK_INTERVAL || !lastCheckTimestamp.compareAndSet(lastCheck, now)) {
+      return;
+    }
+    try {
+      User daemon = userService.getDaemonAccountUser();
+      long lastUsersChange = SecurityRevisionsTable.getLastRegisteredUsersRevisionDate(datastore, daemon);
+      long lastGrantsChange = SecurityRevisionsTable.getLastRoleHierarchyRevisionDate(datastore, daemon);
+      if (lastUsersChange >= lastCheck || lastGrantsChange >= lastCheck) {
+        logger.info("Security configuration changed -- clearing the user cache");
+        users.clear();
+      }
+    } catch (ODKDatastoreException e) {
+      // log it, but keep the cache; entries still expire...
+      logger.warn("Unable to check for security configuration changes: " + e.getMessage());
+    }
+  }
+
+  private static final class CachedUser {
+    final AggregateUser user;
+    final long expiresAt;
+
+    CachedUser(AggregateUser user, long expiresAt) {
+      this.user = user;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
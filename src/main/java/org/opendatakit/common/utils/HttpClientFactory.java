@@ -15,29 +15,102 @@
  */
 package org.opendatakit.common.utils;
 
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.config.ConnectionConfig;
 import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * Interface for the bean that will construct an HttpClient that is appropriate
  * for the GAE or Tomcat container in which the application runs. The GAE
  * variant maps the Apache request into underlying GAE URLFetchService. The
  * Tomcat variant just uses the default Apache client.
+ * <p>
+ * The clients share one pool of keep-alive connections, so that repeated
+ * requests to the same server (e.g., a JSON publisher) reuse the connection
+ * instead of paying for a new TCP and TLS handshake. Idle and expired
+ * connections are closed in the background. Callers must consume or close
+ * the response entities so that the connections return to the pool.
  *
  * @author mitchellsundt@gmail.com
  * @author wbrunette@gmail.com
  */
-public class HttpClientFactory {
+public class HttpClientFactory implements DisposableBean {
+  // how often idle and expired connections are looked for
+  private static final long EVICTION_INTERVAL_SECONDS = 5L;
+
+  private final CountingConnectionManager connectionManager = new CountingConnectionManager();
+  private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "http-connection-evictor");
+    t.setDaemon(true);
+    return t;
+  });
+  private volatile int idleTimeoutSeconds = 30;
+
+  public HttpClientFactory() {
+    connectionManager.setMaxTotal(50);
+    connectionManager.setDefaultMaxPerRoute(10);
+    // check that a connection the server may have closed is still open
+    // before reusing it
+    connectionManager.setValidateAfterInactivity(2000);
+    evictor.scheduleWithFixedDelay(() -> {
+      connectionManager.closeExpiredConnections();
+      connectionManager.closeIdleConnections(idleTimeoutSeconds, TimeUnit.SECONDS);
+    }, EVICTION_INTERVAL_SECONDS, EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    connectionManager.setMaxTotal(maxConnections);
+  }
+
+  public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+  }
+
+  public void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+    this.idleTimeoutSeconds = idleTimeoutSeconds;
+  }
+
+  /**
+   * Returns a client that uses the shared connection pool. Closing the
+   * client does not close the pool.
+   * <p>
+   * The socket timeout of the socketConfig is applied to each request; the
+   * other socket options are those of the pool. A client with its own
+   * connectionConfig gets its own, unpooled, connections.
+   */
   public CloseableHttpClient createHttpClient(SocketConfig socketConfig, ConnectionConfig connectionConfig, RequestConfig requestConfig) {
     HttpClientBuilder builder = HttpClientBuilder.create();
-    if (socketConfig != null) {
-      builder.setDefaultSocketConfig(socketConfig);
-    }
     if (connectionConfig != null) {
+      if (socketConfig != null) {
+        builder.setDefaultSocketConfig(socketConfig);
+      }
       builder.setDefaultConnectionConfig(connectionConfig);
+      if (requestConfig != null) {
+        builder.setDefaultRequestConfig(requestConfig);
+      }
+      return builder.build();
+    }
+
+    builder.setConnectionManager(connectionManager);
+    builder.setConnectionManagerShared(true);
+    if (socketConfig != null && (requestConfig == null || requestConfig.getSocketTimeout() < 0)) {
+      requestConfig = RequestConfig.copy(requestConfig == null ? RequestConfig.DEFAULT : requestConfig)
+          .setSocketTimeout(socketConfig.getSoTimeout())
+          .build();
     }
     if (requestConfig != null) {
       builder.setDefaultRequestConfig(requestConfig);
@@ -45,4 +118,55 @@ public class HttpClientFactory {
     return builder.build();
   }
 
+  /**
+   * @return the number of times a pooled connection was handed to a request.
+   */
+  public long getConnectionsLeased() {
+    return connectionManager.leased.sum();
+  }
+
+  /**
+   * @return the number of connections that were opened for a request.
+   */
+  public long getConnectionsOpened() {
+    return connectionManager.opened.sum();
+  }
+
+  /**
+   * @return the number of times a request reused an open connection.
+   */
+  public long getConnectionsReused() {
+    return Math.max(0L, getConnectionsLeased() - getConnectionsOpened());
+  }
+
+  /**
+   * @return the leased, available and pending connections of the pool.
+   */
+  public PoolStats getPoolStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  @Override
+  public void destroy() {
+    evictor.shutdownNow();
+    connectionManager.shutdown();
+  }
+
+  private static final class CountingConnectionManager extends PoolingHttpClientConnectionManager {
+    final LongAdder leased = new LongAdder();
+    final LongAdder opened = new LongAdder();
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+      leased.increment();
+      return super.requestConnection(route, state);
+    }
+
+    @Override
+    public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout,
+                        HttpContext context) throws IOException {
+      opened.increment();
+      super.connect(managedConn, route, connectTimeout, context);
+    }
+  }
 }
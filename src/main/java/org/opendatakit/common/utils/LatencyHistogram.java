@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.utils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in milliseconds over fixed, roughly exponential
+ * buckets. Recording is lock-free, so it can be used on hot paths.
+ */
+public final class LatencyHistogram {
+
+  /**
+   * Inclusive upper bounds of the buckets, in milliseconds. A last, unbounded
+   * bucket holds everything above the largest bound.
+   */
+  private static final long[] BUCKET_BOUNDS = {
+      1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000
+  };
+
+  private final LongAdder[] counts = new LongAdder[BUCKET_BOUNDS.length + 1];
+  private final LongAdder sum = new LongAdder();
+
+  public LatencyHistogram() {
+    for (int i = 0; i < counts.length; ++i) {
+      counts[i] = new LongAdder();
+    }
+  }
+
+  public void record(long millis) {
+    int i = 0;
+    while (i < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[i]) {
+      ++i;
+    }
+    counts[i].increment();
+    sum.add(millis);
+  }
+
+  /**
+   * @return the upper bounds of all but the last, unbounded bucket.
+   */
+  public long[] getBucketBounds() {
+    return BUCKET_BOUNDS.clone();
+  }
+
+  /**
+   * @return the number of durations in each bucket (not cumulative); the last
+   *     entry counts those above the largest bound.
+   */
+  public long[] getBucketCounts() {
+    long[] result = new long[counts.length];
+    for (int i = 0; i < counts.length; ++i) {
+      result[i] = counts[i].sum();
+    }
+    return result;
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (LongAdder c : counts) {
+      count += c.sum();
+    }
+    return count;
+  }
+
+  public long getSum() {
+    return sum.sum();
+  }
+}
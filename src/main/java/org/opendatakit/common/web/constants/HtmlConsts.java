@@ -140,6 +140,8 @@ public final class HtmlConsts {
 
   public static final String RESP_TYPE_JSON = "application/json; charset=utf-8";
 
+  public static final String RESP_TYPE_GZIP = "application/gzip";
+
   /**
    * Encoding scheme for servlets
    */
@@ -155,6 +157,18 @@ public final class HtmlConsts {
   public static final String ATTACHMENT_FILENAME_TXT = "attachment; filename=\"";
   public static final String CONTENT_DISPOSITION = "Content-Disposition";
 
+  /**
+   * for conditional and partial GET of attachments
+   */
+  public static final String ETAG = "ETag";
+  public static final String IF_NONE_MATCH = "If-None-Match";
+  public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+  public static final String IF_RANGE = "If-Range";
+  public static final String RANGE = "Range";
+  public static final String CONTENT_RANGE = "Content-Range";
+  public static final String ACCEPT_RANGES = "Accept-Ranges";
+  public static final String CACHE_CONTROL = "Cache-Control";
+
   /**
    * for click-jacking prevention
    */
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.externalservice;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AdaptiveBatchSizeTest {
+
+  @Test
+  public void throttling_halves_the_size_of_the_rejected_batch() {
+    AdaptiveBatchSize size = new AdaptiveBatchSize(100);
+    assertEquals(100, size.get());
+
+    // a batch smaller than the size was rejected
+    size.onThrottled(40);
+    assertEquals(20, size.get());
+    size.onThrottled(20);
+    assertEquals(10, size.get());
+
+    for (int i = 0; i < 10; ++i) {
+      size.onThrottled(size.get());
+    }
+    assertEquals(1, size.get());
+  }
+
+  @Test
+  public void accepted_batches_grow_the_size_up_to_the_maximum() {
+    AdaptiveBatchSize size = new AdaptiveBatchSize(100);
+    size.onThrottled(4);
+    assertEquals(2, size.get());
+
+    size.onAccepted();
+    assertEquals(3, size.get());
+    size.onAccepted();
+    assertEquals(4, size.get());
+    size.onAccepted();
+    assertEquals(5, size.get());
+
+    for (int i = 0; i < 50; ++i) {
+      size.onAccepted();
+    }
+    assertEquals(100, size.get());
+  }
+}
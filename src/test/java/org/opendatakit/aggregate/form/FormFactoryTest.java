@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.form;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.exception.ODKFormNotFoundException;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor.TaskClass;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.PersistConsts;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+public class FormFactoryTest {
+  private CallingContext cc;
+  private Datastore ds;
+  private User user;
+  private List<IForm> created = new ArrayList<IForm>();
+
+  @Before
+  public void setUp() {
+    cc = TestContextFactory.getCallingContext();
+    ds = cc.getDatastore();
+    user = cc.getCurrentUser();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (IForm form : created) {
+      form.deleteForm(cc);
+    }
+  }
+
+  @Test
+  public void forms_missing_from_the_cache_are_read_on_demand() throws Exception {
+    IForm form = createForm("form_factory_cold");
+    FormFactory.clearForm(form);
+
+    IForm loaded = FormFactory.retrieveFormByFormId(form.getFormId(), cc);
+    assertEquals(form.getFormId(), loaded.getFormId());
+    assertSame(loaded, FormFactory.retrieveFormByFormId(form.getFormId(), cc));
+    assertTrue(formIds(FormFactory.getForms(false, cc)).contains(form.getFormId()));
+  }
+
+  @Test
+  public void invalid_forms_are_not_served() throws Exception {
+    String formId = "form_factory_invalid_" + System.currentTimeMillis();
+    // a FormInfo row without its fileset, as left by an interrupted upload
+    FormInfoTable infoRow = ds.createEntityUsingRelation(FormInfoTable.assertRelation(cc), user);
+    infoRow.setStringField(infoRow.primaryKey, CommonFieldsBase.newMD5HashUri(formId));
+    infoRow.setSubmissionDate(new Date());
+    infoRow.setMarkedAsCompleteDate(new Date());
+    infoRow.setIsComplete(true);
+    infoRow.setModelVersion(1L);
+    infoRow.setUiVersion(0L);
+    infoRow.setStringField(FormInfoTable.FORM_ID, formId);
+    ds.putEntity(infoRow, user);
+    try {
+      for (int i = 0; i < 2; ++i) {
+        try {
+          FormFactory.retrieveFormByFormId(formId, cc);
+          fail("invalid form was returned");
+        } catch (ODKFormNotFoundException e) {
+          // expected
+        }
+      }
+      assertFalse(formIds(FormFactory.getForms(false, cc)).contains(formId));
+    } finally {
+      ds.deleteEntity(infoRow.getEntityKey(), user);
+    }
+  }
+
+  @Test
+  public void a_form_changed_through_another_server_is_seen_at_once() throws Exception {
+    IForm form = createForm("form_factory_revalidate");
+    IForm cached = FormFactory.retrieveFormByFormId(form.getFormId(), cc);
+
+    // touch the FormInfo row behind the cache's back, well inside the settle window
+    Thread.sleep(10L);
+    ds.putEntity(ds.getEntity(FormInfoTable.assertRelation(cc), form.getUri(), user), user);
+
+    IForm refreshed = FormFactory.retrieveFormByFormId(form.getFormId(), cc);
+    assertNotSame(cached, refreshed);
+    assertTrue(refreshed.getLastUpdateDate().getTime() > cached.getLastUpdateDate().getTime());
+    assertSame(refreshed, FormFactory.retrieveFormByFormId(form.getFormId(), cc));
+  }
+
+  @Test
+  public void readers_keep_being_served_while_the_cache_refreshes() throws Exception {
+    IForm form = createForm("form_factory_refresh");
+    final String formId = form.getFormId();
+    final IForm cached = FormFactory.retrieveFormByFormId(formId, cc);
+
+    // touch the FormInfo row behind the cache's back
+    Thread.sleep(10L);
+    ds.putEntity(ds.getEntity(FormInfoTable.assertRelation(cc), form.getUri(), user), user);
+    Thread.sleep(PersistConsts.MAX_SETTLE_MILLISECONDS + 100L);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<IForm>> results = new ArrayList<Future<IForm>>();
+      for (int i = 0; i < 4; ++i) {
+        results.add(executor.submit(new Callable<IForm>() {
+          @Override
+          public IForm call() throws Exception {
+            long deadline = System.currentTimeMillis() + 10000L;
+            IForm latest;
+            do {
+              assertTrue(formIds(FormFactory.getForms(false, cc)).contains(formId));
+              latest = FormFactory.retrieveFormByFormId(formId, cc);
+            } while (latest.getLastUpdateDate().getTime() == cached.getLastUpdateDate().getTime()
+                && System.currentTimeMillis() < deadline);
+            return latest;
+          }
+        }));
+      }
+      Date touched = ds.getEntity(FormInfoTable.assertRelation(cc), form.getUri(), user).getLastUpdateDate();
+      for (Future<IForm> result : results) {
+        assertNotSame(cached, result.get());
+        assertEquals(touched, result.get().getLastUpdateDate());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void a_stale_cache_is_refreshed_inline_while_the_task_pools_are_down() throws Exception {
+    IForm form = createForm("form_factory_inline");
+    IForm cached = FormFactory.retrieveFormByFormId(form.getFormId(), cc);
+
+    Thread.sleep(10L);
+    ds.putEntity(ds.getEntity(FormInfoTable.assertRelation(cc), form.getUri(), user), user);
+    Thread.sleep(PersistConsts.MAX_SETTLE_MILLISECONDS + 100L);
+
+    AggregrateThreadExecutor.shutdown();
+    try {
+      IForm refreshed = null;
+      for (IForm f : FormFactory.getForms(false, cc)) {
+        if (f.getFormId().equals(form.getFormId())) {
+          refreshed = f;
+        }
+      }
+      assertNotSame(cached, refreshed);
+      assertTrue(refreshed.getLastUpdateDate().getTime() > cached.getLastUpdateDate().getTime());
+    } finally {
+      ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+      scheduler.initialize();
+      Map<TaskClass, Integer> poolSizes = new EnumMap<TaskClass, Integer>(TaskClass.class);
+      for (TaskClass taskClass : TaskClass.values()) {
+        poolSizes.put(taskClass, 1);
+      }
+      AggregrateThreadExecutor.initialize(scheduler, poolSizes, 100);
+    }
+  }
+
+  private IForm createForm(String prefix) throws Exception {
+    String formId = prefix + "_" + System.currentTimeMillis();
+    String xml = "<?xml version=\"1.0\"?>"
+        + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">"
+        + "<h:head><h:title>" + formId + "</h:title>"
+        + "<model><instance><data id=\"" + formId + "\"><name/></data></instance>"
+        + "<bind nodeset=\"/data/name\" type=\"string\"/></model></h:head>"
+        + "<h:body><input ref=\"/data/name\"><label>Name</label></input></h:body></h:html>";
+    IForm form = FormFactory.createFormId(xml, new XFormParameters(formId, (Long) null), false, true, formId, cc);
+    form.persist(cc);
+    created.add(form);
+    return form;
+  }
+
+  private static List<String> formIds(List<IForm> forms) {
+    List<String> formIds = new ArrayList<String>();
+    for (IForm form : forms) {
+      formIds.add(form.getFormId());
+    }
+    return formIds;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.javarosa.core.model.FormDef;
+import org.junit.Test;
+
+public class BaseFormParserForJavaRosaTest {
+
+  private static String formXml(String formId) {
+    return "<?xml version=\"1.0\"?>"
+        + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">"
+        + "<h:head><h:title>" + formId + "</h:title>"
+        + "<model><instance><data id=\"" + formId + "\"><name/></data></instance>"
+        + "<bind nodeset=\"/data/name\" type=\"string\"/></model></h:head>"
+        + "<h:body><input ref=\"/data/name\"><label>Name</label></input></h:body></h:html>";
+  }
+
+  private static FormDef parse(String xml) throws Exception {
+    return new BaseFormParserForJavaRosa(xml, null, false).rootJavaRosaFormDef;
+  }
+
+  @Test
+  public void identical_xml_is_parsed_once() throws Exception {
+    String xml = formXml("identical_xml_is_parsed_once");
+    FormDef first = parse(xml);
+
+    assertSame(first, parse(xml));
+    assertSame(first, parse(BaseFormParserForJavaRosa.xmlWithTimestampComment(xml, "http://localhost")));
+    assertNotSame(first, parse(formXml("identical_xml_is_parsed_once_2")));
+  }
+
+  @Test
+  public void concurrent_parses_of_the_same_xml_share_the_definition() throws Exception {
+    String xml = formXml("concurrent_parses");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<FormDef>> results = new ArrayList<Future<FormDef>>();
+      for (int i = 0; i < 8; ++i) {
+        results.add(executor.submit((Callable<FormDef>) () -> parse(xml)));
+      }
+      FormDef first = results.get(0).get();
+      for (Future<FormDef> result : results) {
+        assertSame(first, result.get());
+      }
+      assertEquals("concurrent_parses", first.getTitle());
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class MultiPartFormDataTest {
+  private static final String BOUNDARY = "----odk-test-boundary";
+
+  private File repository;
+  private MultiPartUploadSettings settings;
+
+  @Before
+  public void setUp() throws Exception {
+    repository = Files.createTempDirectory("multipart-test").toFile();
+    settings = new MultiPartUploadSettings();
+    settings.setInMemoryThreshold(4096);
+    settings.setMaxInMemoryBytes(8192);
+    settings.setRepository(repository.getAbsolutePath());
+    settings.afterPropertiesSet();
+  }
+
+  @After
+  public void tearDown() {
+    repository.delete();
+  }
+
+  @Test
+  public void large_parts_are_spooled_to_disk_until_closed() throws Exception {
+    byte[] xml = "<data id=\"test\"/>".getBytes(StandardCharsets.UTF_8);
+    byte[] photo = new byte[100000];
+    Arrays.fill(photo, (byte) 7);
+
+    MultiPartFormData data = new MultiPartFormData(buildRequest(xml, photo), settings);
+    MultiPartFormItem xmlItem = data.getFormDataByFieldName("xml_submission_file");
+    MultiPartFormItem photoItem = data.getFormDataByFileName("photo.jpg");
+
+    assertTrue(xmlItem.isInMemory());
+    assertArrayEquals(xml, xmlItem.getBytes());
+    assertFalse(photoItem.isInMemory());
+    assertEquals(photo.length, photoItem.getSize());
+    assertEquals(CommonFieldsBase.newMD5HashUri(photo), photoItem.getContentHash());
+    assertArrayEquals(photo, photoItem.getBytes());
+    assertEquals(1, repository.list().length);
+
+    data.close();
+    assertEquals(0, repository.list().length);
+  }
+
+  @Test
+  public void uploads_beyond_the_memory_budget_are_spooled_entirely() throws Exception {
+    byte[] xml = "<data id=\"test\"/>".getBytes(StandardCharsets.UTF_8);
+    MultiPartFormData first = new MultiPartFormData(buildRequest(xml, new byte[3000]), settings);
+    MultiPartFormData second = new MultiPartFormData(buildRequest(xml, new byte[3000]), settings);
+    MultiPartFormData third = new MultiPartFormData(buildRequest(xml, new byte[3000]), settings);
+
+    assertTrue(first.getFormDataByFieldName("xml_submission_file").isInMemory());
+    assertTrue(second.getFormDataByFieldName("xml_submission_file").isInMemory());
+    assertFalse(third.getFormDataByFieldName("xml_submission_file").isInMemory());
+
+    first.close();
+    second.close();
+    third.close();
+    assertEquals(0, repository.list().length);
+  }
+
+  private static MockHttpServletRequest buildRequest(byte[] xml, byte[] photo) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    writePart(body, "xml_submission_file", "submission.xml", "text/xml", xml);
+    writePart(body, "photo.jpg", "photo.jpg", "image/jpeg", photo);
+    body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+    MockHttpServletRequest req = new MockHttpServletRequest("POST", "/submission");
+    req.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+    req.setContent(body.toByteArray());
+    return req;
+  }
+
+  private static void writePart(ByteArrayOutputStream body, String name, String fileName,
+                                String contentType, byte[] content) throws IOException {
+    body.write(("--" + BOUNDARY + "\r\n"
+        + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName + "\"\r\n"
+        + "Content-Type: " + contentType + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+    body.write(content);
+    body.write("\r\n".getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class SubmissionLockManagerTest {
+
+  @Test
+  public void local_locks_serialize_the_same_submission_only() throws Exception {
+    final SubmissionLockManager manager = new SubmissionLockManager();
+    manager.setMode("local");
+    assertTrue(manager.usesLocalLocks());
+    assertFalse(manager.usesDatabaseLocks());
+
+    assertTrue(manager.lockLocally("submission|form|uuid:a"));
+    assertTrue(manager.lockLocally("submission|form|uuid:b"));
+
+    final CountDownLatch locked = new CountDownLatch(1);
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          if (manager.lockLocally("submission|form|uuid:a")) {
+            locked.countDown();
+            manager.unlockLocally("submission|form|uuid:a");
+          }
+        } catch (InterruptedException e) {
+          failed.set(true);
+        }
+      }
+    };
+    waiter.start();
+    assertFalse(locked.await(200, TimeUnit.MILLISECONDS));
+
+    manager.unlockLocally("submission|form|uuid:a");
+    assertTrue(locked.await(5, TimeUnit.SECONDS));
+    waiter.join();
+    assertFalse(failed.get());
+
+    manager.unlockLocally("submission|form|uuid:b");
+    assertEquals(0, manager.getLocalLockCount());
+  }
+
+  @Test
+  public void modes_are_parsed_case_insensitively() {
+    SubmissionLockManager manager = new SubmissionLockManager();
+    assertEquals("hybrid", manager.getMode());
+    assertTrue(manager.usesLocalLocks());
+    assertTrue(manager.usesDatabaseLocks());
+
+    manager.setMode(" Database ");
+    assertEquals("database", manager.getMode());
+    assertFalse(manager.usesLocalLocks());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknown_modes_are_rejected() {
+    new SubmissionLockManager().setMode("cluster");
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.process;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.datamodel.FormElementModel;
+import org.opendatakit.aggregate.form.FormFactory;
+import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.aggregate.parser.FormParserForJavaRosa;
+import org.opendatakit.aggregate.parser.MultiPartFormData;
+import org.opendatakit.aggregate.parser.SubmissionParser;
+import org.opendatakit.aggregate.submission.Submission;
+import org.opendatakit.aggregate.submission.SubmissionKey;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.Operation;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.TableMetrics;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class DeleteSubmissionsTest {
+  private static final String BOUNDARY = "----odk-test-boundary";
+
+  private CallingContext cc;
+  private Datastore ds;
+  private IForm form;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    ds = cc.getDatastore();
+    form = createForm("delete_submissions");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    form.deleteForm(cc);
+  }
+
+  @Test
+  public void deleting_several_submissions_issues_one_statement_per_table() throws Exception {
+    List<SubmissionKey> keys = new ArrayList<SubmissionKey>();
+    for (int i = 0; i < 3; ++i) {
+      Submission submission = submit(i);
+      keys.add(submission.constructSubmissionKey(null));
+    }
+    Map<String, Long> before = deleteStatements();
+
+    new DeleteSubmissions(keys).deleteSubmissions(cc);
+
+    Map<String, Long> after = deleteStatements();
+    for (CommonFieldsBase relation : formTables()) {
+      String name = relation.getSchemaName() + "." + relation.getTableName();
+      assertEquals(name, 1L, after.get(name) - before.get(name));
+      assertEquals(name, 0, ds.createQuery(relation, "deleting_several_submissions", cc.getCurrentUser())
+          .executeQuery().size());
+    }
+  }
+
+  private Map<String, Long> deleteStatements() {
+    Map<String, Long> statements = new HashMap<String, Long>();
+    Map<String, TableMetrics> tables = ds.getAccessMetrics().getTableMetrics();
+    for (CommonFieldsBase relation : formTables()) {
+      String name = relation.getSchemaName() + "." + relation.getTableName();
+      TableMetrics metrics = tables.get(name);
+      statements.put(name, (metrics == null) ? 0L : metrics.getLatencies(Operation.DELETE).getCount());
+    }
+    return statements;
+  }
+
+  private List<CommonFieldsBase> formTables() {
+    List<CommonFieldsBase> tables = new ArrayList<CommonFieldsBase>();
+    tables.add(form.getTopLevelGroupElement().getFormDataModel().getBackingObjectPrototype());
+    for (FormElementModel repeat : form.getRepeatGroupsInModel()) {
+      tables.add(repeat.getFormDataModel().getBackingObjectPrototype());
+    }
+    assertEquals(3, tables.size());
+    return tables;
+  }
+
+  private Submission submit(int i) throws Exception {
+    StringBuilder b = new StringBuilder();
+    b.append("<?xml version=\"1.0\"?><data id=\"").append(form.getFormId()).append("\">");
+    b.append("<name>name").append(i).append("</name>");
+    for (int visit = 0; visit < 2; ++visit) {
+      b.append("<visit><place>place").append(visit).append("</place>");
+      for (int sample = 0; sample < 2; ++sample) {
+        b.append("<sample><value>").append(sample).append("</value></sample>");
+      }
+      b.append("</visit>");
+    }
+    b.append("<meta><instanceID>uuid:delete-").append(form.getFormId()).append("-").append(i)
+        .append("</instanceID></meta></data>");
+    return new SubmissionParser(new ByteArrayInputStream(b.toString().getBytes(StandardCharsets.UTF_8)), cc)
+        .getSubmission();
+  }
+
+  private IForm createForm(String prefix) throws Exception {
+    String formId = prefix + "_" + System.currentTimeMillis();
+    String xml = "<?xml version=\"1.0\"?>"
+        + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">"
+        + "<h:head><h:title>" + formId + "</h:title>"
+        + "<model><instance><data id=\"" + formId + "\"><name/>"
+        + "<visit><place/><sample><value/></sample></visit>"
+        + "<meta><instanceID/></meta></data></instance>"
+        + "<bind nodeset=\"/data/name\" type=\"string\"/>"
+        + "<bind nodeset=\"/data/visit/place\" type=\"string\"/>"
+        + "<bind nodeset=\"/data/visit/sample/value\" type=\"int\"/>"
+        + "<bind nodeset=\"/data/meta/instanceID\" type=\"string\" readonly=\"true()\"/></model></h:head>"
+        + "<h:body><input ref=\"/data/name\"><label>Name</label></input>"
+        + "<group ref=\"/data/visit\"><label>Visit</label><repeat nodeset=\"/data/visit\">"
+        + "<input ref=\"/data/visit/place\"><label>Place</label></input>"
+        + "<group ref=\"/data/visit/sample\"><label>Sample</label><repeat nodeset=\"/data/visit/sample\">"
+        + "<input ref=\"/data/visit/sample/value\"><label>Value</label></input>"
+        + "</repeat></group></repeat></group></h:body></h:html>";
+    byte[] content = xml.getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    body.write(("--" + BOUNDARY + "\r\n"
+        + "Content-Disposition: form-data; name=\"form_def_file\"; filename=\"" + formId + ".xml\"\r\n"
+        + "Content-Type: text/xml\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+    body.write(content);
+    body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+    MockHttpServletRequest req = new MockHttpServletRequest("POST", "/formUpload");
+    req.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+    req.setContent(body.toByteArray());
+
+    MultiPartFormData upload = new MultiPartFormData(req);
+    new FormParserForJavaRosa(null, upload.getFormDataByFieldName("form_def_file"), xml,
+        formId + ".xml", upload, new StringBuilder(), cc);
+    return FormFactory.retrieveFormByFormId(formId, cc);
+  }
+}
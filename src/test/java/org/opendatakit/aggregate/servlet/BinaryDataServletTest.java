@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class BinaryDataServletTest {
+  private static final String ETAG = "\"md5:0123456789abcdef\"";
+
+  @Test
+  public void byte_ranges_are_clamped_to_the_content() {
+    assertArrayEquals(new long[]{0, 99}, BinaryDataServlet.parseRange("bytes=0-99", 1000));
+    assertArrayEquals(new long[]{500, 999}, BinaryDataServlet.parseRange("bytes=500-", 1000));
+    assertArrayEquals(new long[]{900, 999}, BinaryDataServlet.parseRange("bytes=-100", 1000));
+    assertArrayEquals(new long[]{0, 999}, BinaryDataServlet.parseRange("bytes=-5000", 1000));
+    assertArrayEquals(new long[]{990, 999}, BinaryDataServlet.parseRange("bytes=990-5000", 1000));
+  }
+
+  @Test
+  public void unsupported_or_unsatisfiable_ranges() {
+    assertNull(BinaryDataServlet.parseRange(null, 1000));
+    assertNull(BinaryDataServlet.parseRange("bytes=0-9,20-29", 1000));
+    assertNull(BinaryDataServlet.parseRange("bytes=9-0", 1000));
+    assertNull(BinaryDataServlet.parseRange("items=0-9", 1000));
+    assertEquals(0, BinaryDataServlet.parseRange("bytes=1000-", 1000).length);
+    assertEquals(0, BinaryDataServlet.parseRange("bytes=-0", 1000).length);
+  }
+
+  @Test
+  public void conditional_requests_match_the_content_hash_or_date() {
+    Date lastUpdate = new Date(1500000000000L);
+
+    MockHttpServletRequest matching = new MockHttpServletRequest();
+    matching.addHeader("If-None-Match", "\"other\", " + ETAG);
+    assertTrue(BinaryDataServlet.isNotModified(matching, ETAG, lastUpdate));
+
+    MockHttpServletRequest stale = new MockHttpServletRequest();
+    stale.addHeader("If-None-Match", "\"other\"");
+    stale.addHeader("If-Modified-Since", lastUpdate.getTime());
+    assertFalse(BinaryDataServlet.isNotModified(stale, ETAG, lastUpdate));
+
+    MockHttpServletRequest dated = new MockHttpServletRequest();
+    dated.addHeader("If-Modified-Since", lastUpdate.getTime());
+    assertTrue(BinaryDataServlet.isNotModified(dated, ETAG, lastUpdate));
+
+    MockHttpServletRequest ifRange = new MockHttpServletRequest();
+    ifRange.addHeader("If-Range", "\"other\"");
+    assertFalse(BinaryDataServlet.isRangeCurrent(ifRange, ETAG, lastUpdate));
+  }
+}
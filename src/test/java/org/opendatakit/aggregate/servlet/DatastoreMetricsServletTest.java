@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.opendatakit.aggregate.parser.SubmissionLockManager;
+import org.opendatakit.common.datamodel.RefBlob;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.Operation;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.TableMetrics;
+import org.opendatakit.common.persistence.engine.SqlStatementCache;
+import org.opendatakit.common.persistence.engine.SqlStatementCache.StatementType;
+
+public class DatastoreMetricsServletTest {
+
+  @Test
+  public void counts_and_latencies_are_kept_per_table_and_operation() {
+    DatastoreAccessMetrics metrics = new DatastoreAccessMetrics();
+    metrics.recordQueryUsage("odk.form_a", 7);
+    metrics.recordQueryUsage("odk.form_a", 3);
+    metrics.recordPutUsage("odk.form_a");
+    metrics.recordDeleteUsage("odk.form_b");
+    metrics.recordLatency(Operation.QUERY, "odk.form_a", System.nanoTime());
+    metrics.recordLatency(Operation.TASK_LOCK, "_task_lock", System.nanoTime() - 3000000000L);
+
+    TableMetrics formA = metrics.getTableMetrics().get("odk.form_a");
+    assertEquals(2, formA.getCount(Operation.QUERY));
+    assertEquals(10, formA.getQueryResultCount());
+    assertEquals(1, formA.getCount(Operation.PUT));
+    assertEquals(0, formA.getCount(Operation.DELETE));
+    assertEquals(1, formA.getLatencies(Operation.QUERY).getCount());
+    assertEquals(1, metrics.getTableMetrics().get("odk.form_b").getCount(Operation.DELETE));
+    assertEquals(3000, metrics.getTableMetrics().get("_task_lock")
+        .getLatencies(Operation.TASK_LOCK).getSum(), 100);
+  }
+
+  @Test
+  public void metrics_are_written_in_the_prometheus_text_format() {
+    DatastoreAccessMetrics metrics = new DatastoreAccessMetrics();
+    metrics.recordQueryUsage("odk.form_\"a\"", 4);
+    metrics.recordLatency(Operation.TASK_LOCK, "_task_lock", System.nanoTime() - 3000000000L);
+
+    StringBuilder b = new StringBuilder();
+    DatastoreMetricsServlet.writeMetrics(metrics, b);
+    String text = b.toString();
+
+    assertTrue(text.contains("# TYPE odk_datastore_operations_total counter\n"));
+    assertTrue(text.contains(
+        "odk_datastore_operations_total{table=\"odk.form_\\\"a\\\"\",operation=\"query\"} 1\n"));
+    assertTrue(text.contains("odk_datastore_query_results_total{table=\"odk.form_\\\"a\\\"\"} 4\n"));
+    assertTrue(text.contains(
+        "odk_datastore_statement_duration_seconds_bucket{table=\"_task_lock\",operation=\"task_lock\",le=\"2.5\"} 0\n"));
+    assertTrue(text.contains(
+        "odk_datastore_statement_duration_seconds_bucket{table=\"_task_lock\",operation=\"task_lock\",le=\"5\"} 1\n"));
+    assertTrue(text.contains(
+        "odk_datastore_statement_duration_seconds_bucket{table=\"_task_lock\",operation=\"task_lock\",le=\"+Inf\"} 1\n"));
+    assertTrue(text.contains(
+        "odk_datastore_statement_duration_seconds_count{table=\"_task_lock\",operation=\"task_lock\"} 1\n"));
+    // task locks are timed, not counted
+    assertFalse(text.contains("odk_datastore_operations_total{table=\"_task_lock\""));
+  }
+
+  @Test
+  public void statement_cache_lookups_are_written() {
+    SqlStatementCache cache = new SqlStatementCache();
+    RefBlob relation = new RefBlob("odk", "_metrics_test_blb");
+    cache.getStatement(StatementType.SELECT, relation, r -> "SELECT");
+    cache.getStatement(StatementType.SELECT, relation, r -> "SELECT");
+    cache.getStatement(StatementType.DELETE, relation, r -> "DELETE");
+
+    StringBuilder b = new StringBuilder();
+    DatastoreMetricsServlet.writeSqlStatementCacheMetrics(cache, b);
+    String text = b.toString();
+
+    assertTrue(text.contains("odk_datastore_statement_cache_lookups_total{result=\"hit\"} 1\n"));
+    assertTrue(text.contains("odk_datastore_statement_cache_lookups_total{result=\"miss\"} 2\n"));
+    assertTrue(text.contains("odk_datastore_statement_cache_entries 2\n"));
+  }
+
+  @Test
+  public void submission_lock_timings_are_written() {
+    SubmissionLockManager lockManager = new SubmissionLockManager();
+    lockManager.setMode("local");
+    lockManager.getWaitTimes().record(20);
+    lockManager.getHoldTimes().record(300);
+    lockManager.getHoldTimes().record(700);
+
+    StringBuilder b = new StringBuilder();
+    DatastoreMetricsServlet.writeSubmissionLockMetrics(lockManager, b);
+    String text = b.toString();
+
+    assertTrue(text.contains("# TYPE odk_submission_lock_wait_seconds histogram\n"));
+    assertTrue(text.contains("odk_submission_lock_wait_seconds_count{mode=\"local\"} 1\n"));
+    assertTrue(text.contains("odk_submission_lock_hold_seconds_bucket{mode=\"local\",le=\"+Inf\"} 2\n"));
+    assertTrue(text.contains("odk_submission_lock_hold_seconds_sum{mode=\"local\"} 1\n"));
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.submission;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.datamodel.FormDataModel;
+import org.opendatakit.aggregate.datamodel.TopLevelDynamicBase;
+import org.opendatakit.aggregate.form.FormFactory;
+import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.aggregate.parser.FormParserForJavaRosa;
+import org.opendatakit.aggregate.parser.MultiPartFormData;
+import org.opendatakit.aggregate.parser.SubmissionParser;
+import org.opendatakit.aggregate.submission.type.RepeatSubmissionType;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.Query;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.Operation;
+import org.opendatakit.common.persistence.engine.DatastoreAccessMetrics.TableMetrics;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class SubmissionPrefetchTest {
+  private static final String BOUNDARY = "----odk-test-boundary";
+
+  private CallingContext cc;
+  private Datastore ds;
+  private IForm form;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    ds = cc.getDatastore();
+    form = createForm("submission_prefetch");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    form.deleteForm(cc);
+  }
+
+  @Test
+  public void a_page_of_submissions_is_hydrated_with_one_query_per_table() throws Exception {
+    for (int i = 0; i < 3; ++i) {
+      submit(i);
+    }
+    TopLevelDynamicBase tlb = (TopLevelDynamicBase) form.getTopLevelGroupElement().getFormDataModel()
+        .getBackingObjectPrototype();
+    Query query = ds.createQuery(tlb, "a_page_of_submissions_is_hydrated", cc.getCurrentUser());
+    query.addSort(tlb.primaryKey, Query.Direction.ASCENDING);
+    List<? extends CommonFieldsBase> topLevelRows = query.executeQuery();
+    assertEquals(3, topLevelRows.size());
+
+    Map<String, Long> before = childTableQueries();
+    SubmissionPrefetch prefetch = new SubmissionPrefetch(form, topLevelRows, cc);
+    List<String> prefetched = new ArrayList<String>();
+    for (CommonFieldsBase row : topLevelRows) {
+      prefetched.add(describe(new Submission((TopLevelDynamicBase) row, form, prefetch, cc)));
+    }
+    Map<String, Long> after = childTableQueries();
+
+    // the visit and sample repeats and the two select-multiple tables
+    assertEquals(4, after.size());
+    for (Map.Entry<String, Long> e : after.entrySet()) {
+      assertEquals(e.getKey(), 1L, e.getValue() - before.get(e.getKey()));
+    }
+    for (int i = 0; i < topLevelRows.size(); ++i) {
+      TopLevelDynamicBase row = (TopLevelDynamicBase) topLevelRows.get(i);
+      assertEquals(describe(new Submission(row, form, cc)), prefetched.get(i));
+    }
+  }
+
+  private static String describe(SubmissionSet set) {
+    StringBuilder b = new StringBuilder();
+    for (SubmissionValue value : set.getSubmissionValues()) {
+      b.append(value.getPropertyName()).append('=');
+      if (value instanceof RepeatSubmissionType) {
+        b.append('[');
+        for (SubmissionSet repeat : ((RepeatSubmissionType) value).getSubmissionSets()) {
+          b.append('{').append(describe(repeat)).append('}');
+        }
+        b.append(']');
+      } else if (value instanceof SubmissionField) {
+        b.append(((SubmissionField<?>) value).getValue());
+      }
+      b.append(';');
+    }
+    return b.toString();
+  }
+
+  private Map<String, Long> childTableQueries() {
+    Map<String, Long> queries = new HashMap<String, Long>();
+    Map<String, TableMetrics> tables = ds.getAccessMetrics().getTableMetrics();
+    addChildTableQueries(form.getTopLevelGroupElement().getFormDataModel(), tables, queries);
+    return queries;
+  }
+
+  private static void addChildTableQueries(FormDataModel m, Map<String, TableMetrics> tables,
+                                           Map<String, Long> queries) {
+    for (FormDataModel child : m.getChildren()) {
+      if (child.getPersistAsColumn() == null
+          && !child.getPersistAsQualifiedTableName().equals(m.getPersistAsQualifiedTableName())
+          && child.getElementType() != FormDataModel.ElementType.PHANTOM) {
+        TableMetrics metrics = tables.get(child.getPersistAsQualifiedTableName());
+        queries.put(child.getPersistAsQualifiedTableName(),
+            (metrics == null) ? 0L : metrics.getCount(Operation.QUERY));
+      }
+      addChildTableQueries(child, tables, queries);
+    }
+  }
+
+  private void submit(int i) throws Exception {
+    StringBuilder b = new StringBuilder();
+    b.append("<?xml version=\"1.0\"?><data id=\"").append(form.getFormId()).append("\">");
+    b.append("<name>name").append(i).append("</name>");
+    b.append("<colors>red").append((i % 2 == 0) ? " blue" : "").append("</colors>");
+    for (int visit = 0; visit <= i; ++visit) {
+      b.append("<visit><place>place").append(visit).append("</place>");
+      b.append("<tools>hammer saw</tools>");
+      for (int sample = 0; sample < 2; ++sample) {
+        b.append("<sample><value>").append(10 * visit + sample).append("</value></sample>");
+      }
+      b.append("</visit>");
+    }
+    b.append("<meta><instanceID>uuid:prefetch-").append(form.getFormId()).append("-").append(i)
+        .append("</instanceID></meta></data>");
+    new SubmissionParser(new ByteArrayInputStream(b.toString().getBytes(StandardCharsets.UTF_8)), cc);
+  }
+
+  private IForm createForm(String prefix) throws Exception {
+    String formId = prefix + "_" + System.currentTimeMillis();
+    String xml = "<?xml version=\"1.0\"?>"
+        + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">"
+        + "<h:head><h:title>" + formId + "</h:title>"
+        + "<model><instance><data id=\"" + formId + "\"><name/><colors/>"
+        + "<visit><place/><tools/><sample><value/></sample></visit>"
+        + "<meta><instanceID/></meta></data></instance>"
+        + "<bind nodeset=\"/data/name\" type=\"string\"/>"
+        + "<bind nodeset=\"/data/colors\" type=\"select\"/>"
+        + "<bind nodeset=\"/data/visit/place\" type=\"string\"/>"
+        + "<bind nodeset=\"/data/visit/tools\" type=\"select\"/>"
+        + "<bind nodeset=\"/data/visit/sample/value\" type=\"int\"/>"
+        + "<bind nodeset=\"/data/meta/instanceID\" type=\"string\" readonly=\"true()\"/></model></h:head>"
+        + "<h:body><input ref=\"/data/name\"><label>Name</label></input>"
+        + "<select ref=\"/data/colors\"><label>Colors</label>"
+        + "<item><label>Red</label><value>red</value></item>"
+        + "<item><label>Blue</label><value>blue</value></item></select>"
+        + "<group ref=\"/data/visit\"><label>Visit</label><repeat nodeset=\"/data/visit\">"
+        + "<input ref=\"/data/visit/place\"><label>Place</label></input>"
+        + "<select ref=\"/data/visit/tools\"><label>Tools</label>"
+        + "<item><label>Hammer</label><value>hammer</value></item>"
+        + "<item><label>Saw</label><value>saw</value></item></select>"
+        + "<group ref=\"/data/visit/sample\"><label>Sample</label><repeat nodeset=\"/data/visit/sample\">"
+        + "<input ref=\"/data/visit/sample/value\"><label>Value</label></input>"
+        + "</repeat></group></repeat></group></h:body></h:html>";
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    body.write(("--" + BOUNDARY + "\r\n"
+        + "Content-Disposition: form-data; name=\"form_def_file\"; filename=\"" + formId + ".xml\"\r\n"
+        + "Content-Type: text/xml\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+    body.write(xml.getBytes(StandardCharsets.UTF_8));
+    body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+    MockHttpServletRequest req = new MockHttpServletRequest("POST", "/formUpload");
+    req.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+    req.setContent(body.toByteArray());
+
+    MultiPartFormData upload = new MultiPartFormData(req);
+    new FormParserForJavaRosa(null, upload.getFormDataByFieldName("form_def_file"), xml,
+        formId + ".xml", upload, new StringBuilder(), cc);
+    return FormFactory.retrieveFormByFormId(formId, cc);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.aggregate.constants.common.ExportStatus;
+import org.opendatakit.aggregate.constants.common.ExportType;
+import org.opendatakit.aggregate.form.FormFactory;
+import org.opendatakit.aggregate.form.IForm;
+import org.opendatakit.aggregate.form.PersistentResults;
+import org.opendatakit.aggregate.form.XFormParameters;
+import org.opendatakit.aggregate.task.AggregrateThreadExecutor.TaskClass;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+public class CsvGeneratorTest {
+  private CallingContext cc;
+  private IForm form;
+  private PersistentResults request;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    String formId = "csv_generator_" + System.currentTimeMillis();
+    String xml = "<?xml version=\"1.0\"?>"
+        + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">"
+        + "<h:head><h:title>" + formId + "</h:title>"
+        + "<model><instance><data id=\"" + formId + "\"><name/></data></instance>"
+        + "<bind nodeset=\"/data/name\" type=\"string\"/></model></h:head>"
+        + "<h:body><input ref=\"/data/name\"><label>Name</label></input></h:body></h:html>";
+    form = FormFactory.createFormId(xml, new XFormParameters(formId, (Long) null), false, true, formId, cc);
+    form.persist(cc);
+    request = new PersistentResults(ExportType.CSV, form, null, null, cc);
+    request.persist(cc);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    request.delete(cc);
+    form.deleteForm(cc);
+  }
+
+  @Test
+  public void requests_rejected_by_a_saturated_pool_keep_their_attempts() throws Exception {
+    AggregrateThreadExecutor executor = AggregrateThreadExecutor.getAggregateThreadExecutor();
+    CountDownLatch release = new CountDownLatch(1);
+    Runnable blocker = () -> {
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    try {
+      int blocked = 0;
+      while (executor.execute(TaskClass.EXPORT, blocker)) {
+        assertTrue("the export pool never saturated", ++blocked < 10000);
+      }
+
+      new CsvGenerator().createCsvTask(form, request.getSubmissionKey(), 1L, cc);
+    } finally {
+      release.countDown();
+    }
+
+    PersistentResults stored = new PersistentResults(request.getSubmissionKey(), cc);
+    assertEquals(Long.valueOf(0L), stored.getAttemptCount());
+    assertEquals(ExportStatus.GENERATION_IN_PROGRESS, stored.getStatus());
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class TaskPoolTest {
+
+  @Test
+  public void saturated_pools_reject_tasks() throws InterruptedException {
+    TaskPool pool = new TaskPool("test", 1, 2);
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(3);
+    List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+
+    assertTrue(pool.execute(() -> {
+      running.countDown();
+      awaitQuietly(release);
+      order.add(1);
+      done.countDown();
+    }));
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    assertTrue(pool.execute(() -> {
+      order.add(2);
+      done.countDown();
+    }));
+    assertTrue(pool.execute(() -> {
+      order.add(3);
+      done.countDown();
+    }));
+    assertFalse(pool.execute(() -> order.add(4)));
+
+    assertEquals(1, pool.getActiveCount());
+    assertEquals(2, pool.getQueueDepth());
+    assertEquals(1, pool.getRejectedCount());
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(3, order.size());
+    assertEquals(Integer.valueOf(2), order.get(1));
+    assertEquals(Integer.valueOf(3), order.get(2));
+  }
+
+  @Test
+  public void failing_tasks_do_not_stop_the_pool() throws InterruptedException {
+    TaskPool pool = new TaskPool("test", 1, 10);
+    CountDownLatch done = new CountDownLatch(1);
+
+    pool.execute(() -> {
+      throw new IllegalStateException("expected");
+    });
+    pool.execute(done::countDown);
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    // the run time is recorded after the task returns
+    Thread.sleep(50);
+    assertEquals(2, pool.getWaitTimes().getCount());
+    assertEquals(2, pool.getRunTimes().getCount());
+  }
+
+  @Test
+  public void shut_down_pools_finish_their_tasks_and_reject_new_ones() {
+    TaskPool pool = new TaskPool("test", 1, 10);
+    List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    for (int i = 0; i < 3; ++i) {
+      int task = i;
+      pool.execute(() -> order.add(task));
+    }
+
+    pool.shutdown();
+    assertFalse(pool.execute(() -> order.add(3)));
+    assertTrue(pool.awaitTermination(5000L));
+    assertEquals(3, order.size());
+    assertEquals(1, pool.getRejectedCount());
+  }
+
+  @Test
+  public void pools_that_do_not_finish_in_time_are_interrupted() throws InterruptedException {
+    TaskPool pool = new TaskPool("test", 1, 10);
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    pool.execute(() -> {
+      running.countDown();
+      try {
+        Thread.sleep(60000L);
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+      }
+    });
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+
+    pool.shutdown();
+    assertFalse(pool.awaitTermination(50L));
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+
+public class ImageUtilTest {
+
+  @Test
+  public void large_images_are_reduced_to_fit_the_preview() throws IOException {
+    byte[] thumbnail = new ImageUtil().resizeImage(jpeg(1600, 1200), 64, 48);
+
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+    assertEquals(64, image.getWidth());
+    assertEquals(48, image.getHeight());
+  }
+
+  @Test
+  public void small_or_undecodable_images_are_returned_unchanged() throws IOException {
+    byte[] small = jpeg(40, 30);
+    assertSame(small, new ImageUtil().resizeImage(small, 64, 48));
+
+    byte[] garbage = new byte[]{1, 2, 3, 4};
+    assertSame(garbage, new ImageUtil().resizeImage(garbage, 64, 48));
+  }
+
+  private static byte[] jpeg(int width, int height) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.ORANGE);
+    g.fillRect(0, 0, width / 2, height);
+    g.dispose();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpg", bytes);
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.aggregate.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+public class ThumbnailTableTest {
+
+  @Test
+  public void preview_thumbnails_are_deleted_by_content_hash() throws Exception {
+    CallingContext cc = TestContextFactory.getCallingContext();
+    int w = ThumbnailTable.PREVIEW_WIDTH;
+    int h = ThumbnailTable.PREVIEW_HEIGHT;
+    String deleted = CommonFieldsBase.newUri();
+    String kept = CommonFieldsBase.newUri();
+    String neverPreviewed = CommonFieldsBase.newUri();
+    ThumbnailTable.putThumbnail(deleted, w, h, new byte[] {1}, cc);
+    ThumbnailTable.putThumbnail(kept, w, h, new byte[] {2}, cc);
+
+    List<EntityKey> keys = new ArrayList<EntityKey>();
+    ThumbnailTable.addEntityKeysForDeletion(Arrays.asList(deleted, neverPreviewed), keys, cc);
+    assertEquals(2, keys.size());
+    cc.getDatastore().deleteEntities(keys, cc.getCurrentUser());
+
+    assertNull(ThumbnailTable.getThumbnail(deleted, w, h, cc));
+    assertNull(ThumbnailTable.getThumbnail(neverPreviewed, w, h, cc));
+    assertArrayEquals(new byte[] {2}, ThumbnailTable.getThumbnail(kept, w, h, cc));
+
+    keys.clear();
+    ThumbnailTable.addEntityKeysForDeletion(Collections.singletonList(kept), keys, cc);
+    cc.getDatastore().deleteEntities(keys, cc.getCurrentUser());
+    assertNull(ThumbnailTable.getThumbnail(kept, w, h, cc));
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.datamodel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobManipulator;
+import org.opendatakit.common.datamodel.BinaryContentManipulator.BlobOutputStream;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.Datastore;
+import org.opendatakit.common.persistence.EntityKey;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+public class BlobManipulatorTest {
+  private static final String TOP_LEVEL_KEY = "uuid:blob-test";
+
+  private CallingContext cc;
+  private Datastore ds;
+  private User user;
+  private BinaryContentRefBlob bcbRef;
+  private RefBlob ref;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    ds = cc.getDatastore();
+    user = cc.getCurrentUser();
+    bcbRef = new BinaryContentRefBlob(ds.getDefaultSchemaName(), "_blob_test_vbn");
+    ref = new RefBlob(ds.getDefaultSchemaName(), "_blob_test_blb");
+    ds.assertRelation(bcbRef, user);
+    ds.assertRelation(ref, user);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    ds.dropRelation(bcbRef, user);
+    ds.dropRelation(ref, user);
+  }
+
+  @Test
+  public void blobs_are_written_and_read_back_a_few_parts_at_a_time() throws Exception {
+    byte[] content = new byte[7 * 256 * 1024 + 123];
+    for (int i = 0; i < content.length; ++i) {
+      content[i] = (byte) (i % 251);
+    }
+    String uriVersionedContent = CommonFieldsBase.newUri();
+    new BlobManipulator(new ByteArrayInputStream(content), uriVersionedContent, bcbRef, ref, TOP_LEVEL_KEY, cc);
+
+    BlobManipulator reader = new BlobManipulator(uriVersionedContent, bcbRef, ref, cc);
+    assertEquals(8, reader.getPartCount());
+
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    try (InputStream in = reader.openStream()) {
+      byte[] buffer = new byte[10000];
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        streamed.write(buffer, 0, len);
+      }
+    }
+    assertArrayEquals(content, streamed.toByteArray());
+    assertArrayEquals(content, reader.getBlob());
+
+    long offset = 3 * 256 * 1024 + 17;
+    ByteArrayOutputStream tail = new ByteArrayOutputStream();
+    try (InputStream in = reader.openStream(offset, (long) content.length)) {
+      int b;
+      while ((b = in.read()) != -1) {
+        tail.write(b);
+      }
+    }
+    assertArrayEquals(Arrays.copyOfRange(content, (int) offset, content.length), tail.toByteArray());
+
+    List<EntityKey> keys = new ArrayList<EntityKey>();
+    reader.recursivelyAddEntityKeysForDeletion(keys);
+    assertEquals(16, keys.size());
+  }
+
+  @Test
+  public void range_reads_follow_the_stored_part_sizes() throws Exception {
+    byte[] content = new byte[500000];
+    for (int i = 0; i < content.length; ++i) {
+      content[i] = (byte) (i % 251);
+    }
+    // parts shorter than MAX_PART_SIZE, as written by a smaller blob column
+    byte[] twoParts = Arrays.copyOf(content, 300000);
+    assertRangeRead(twoParts, writeParts(twoParts, 200000, 100000), 270000);
+    BlobManipulator evenParts = writeParts(content, 200000, 200000, 100000);
+    assertRangeRead(content, evenParts, 270000);
+    assertRangeRead(content, evenParts, 450000);
+
+    // a short non-final part
+    BlobManipulator unevenParts = writeParts(content, 200000, 100000, 200000);
+    assertRangeRead(content, unevenParts, 270000);
+    assertRangeRead(content, unevenParts, 350000);
+  }
+
+  private BlobManipulator writeParts(byte[] content, int... partSizes) throws Exception {
+    String uriVersionedContent = CommonFieldsBase.newUri();
+    int index = 0;
+    for (int part = 0; part < partSizes.length; ++part) {
+      RefBlob eBlob = ds.createEntityUsingRelation(ref, user);
+      eBlob.setTopLevelAuri(TOP_LEVEL_KEY);
+      eBlob.setValue(Arrays.copyOfRange(content, index, index + partSizes[part]));
+      BinaryContentRefBlob bcb = ds.createEntityUsingRelation(bcbRef, user);
+      bcb.setTopLevelAuri(TOP_LEVEL_KEY);
+      bcb.setDomAuri(uriVersionedContent);
+      bcb.setSubAuri(eBlob.getUri());
+      bcb.setPart(part + 1L);
+      ds.putEntity(eBlob, user);
+      ds.putEntity(bcb, user);
+      index += partSizes[part];
+    }
+    return new BlobManipulator(uriVersionedContent, bcbRef, ref, cc);
+  }
+
+  private static void assertRangeRead(byte[] content, BlobManipulator reader, long offset) throws Exception {
+    ByteArrayOutputStream tail = new ByteArrayOutputStream();
+    try (InputStream in = reader.openStream(offset, (long) content.length)) {
+      byte[] buffer = new byte[10000];
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        tail.write(buffer, 0, len);
+      }
+    }
+    assertArrayEquals(Arrays.copyOfRange(content, (int) offset, content.length), tail.toByteArray());
+  }
+
+  @Test
+  public void output_streams_write_parts_as_they_fill() throws Exception {
+    byte[] content = new byte[2 * 256 * 1024 + 1000];
+    for (int i = 0; i < content.length; ++i) {
+      content[i] = (byte) (i % 13);
+    }
+    BlobOutputStream out = new BlobOutputStream(CommonFieldsBase.newUri(), bcbRef, ref, TOP_LEVEL_KEY, cc);
+    out.write(content, 0, 1000);
+    out.write(content, 1000, content.length - 1000);
+    assertEquals(2, new BlobManipulator(out.getUriVersionedContent(), bcbRef, ref, cc).getPartCount());
+    out.close();
+
+    assertEquals(content.length, out.getContentLength());
+    assertEquals(CommonFieldsBase.newMD5HashUri(content), out.getContentHash());
+    BlobManipulator reader = new BlobManipulator(out.getUriVersionedContent(), bcbRef, ref, cc);
+    assertEquals(3, reader.getPartCount());
+    assertArrayEquals(content, reader.getBlob());
+
+    out.discard(cc);
+    assertEquals(0, new BlobManipulator(out.getUriVersionedContent(), bcbRef, ref, cc).getPartCount());
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+public class AssertRelationTest {
+  private CallingContext cc;
+  private Datastore ds;
+  private User user;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    ds = cc.getDatastore();
+    user = cc.getCurrentUser();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    ds.dropRelation(new TestTable(ds.getDefaultSchemaName()), user);
+  }
+
+  @Test
+  public void dropped_tables_are_created_again() throws ODKDatastoreException {
+    TestTable table = new TestTable(ds.getDefaultSchemaName());
+    ds.assertRelation(table, user);
+    ds.assertRelation(new TestTable(ds.getDefaultSchemaName()), user);
+
+    ds.dropRelation(table, user);
+    table = new TestTable(ds.getDefaultSchemaName());
+    ds.assertRelation(table, user);
+
+    TestTable row = ds.createEntityUsingRelation(table, user);
+    row.setStringField(TestTable.stringField, "value");
+    ds.putEntity(row, user);
+    assertEquals(1, ds.createQuery(table, "dropped_tables_are_created_again", user)
+        .executeQuery().size());
+  }
+
+  @Test
+  public void relations_with_unknown_columns_are_rejected() throws ODKDatastoreException {
+    ds.assertRelation(new TestTable(ds.getDefaultSchemaName()), user);
+
+    TestTable wider = new TestTable(ds.getDefaultSchemaName());
+    wider.fieldList.add(new DataField("MISSING_FIELD", DataField.DataType.STRING, true, 10L));
+    try {
+      ds.assertRelation(wider, user);
+      fail("the table has no MISSING_FIELD column");
+    } catch (ODKDatastoreException e) {
+      // expected; the definition was read again from the database
+    }
+    ds.forgetRelation(wider);
+    ds.assertRelation(new TestTable(ds.getDefaultSchemaName()), user);
+  }
+}
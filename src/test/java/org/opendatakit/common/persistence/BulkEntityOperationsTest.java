@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.common.datamodel.BinaryContentRefBlob;
+import org.opendatakit.common.datamodel.RefBlob;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+public class BulkEntityOperationsTest {
+  private static final int ROW_COUNT = 250;
+
+  private CallingContext cc;
+  private Datastore ds;
+  private User user;
+  private TestTable table;
+
+  @Before
+  public void setUp() throws Exception {
+    cc = TestContextFactory.getCallingContext();
+    ds = cc.getDatastore();
+    user = cc.getCurrentUser();
+    table = new TestTable(ds.getDefaultSchemaName());
+    ds.assertRelation(table, user);
+    ds.dropRelation(table, user);
+    table = new TestTable(ds.getDefaultSchemaName());
+    ds.assertRelation(table, user);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    ds.dropRelation(table, user);
+  }
+
+  @Test
+  public void putEntities_inserts_all_rows() throws ODKDatastoreException {
+    List<TestTable> rows = buildRows(ROW_COUNT);
+
+    ds.putEntities(rows, user);
+
+    for (TestTable row : rows) {
+      assertTrue(row.isFromDatabase());
+    }
+    assertEquals(ROW_COUNT, ds.createQuery(table, "putEntities_inserts_all_rows", user).executeQuery().size());
+  }
+
+  @Test
+  public void putEntities_mixes_inserts_and_updates() throws ODKDatastoreException {
+    List<TestTable> existing = buildRows(ROW_COUNT);
+    ds.putEntities(existing, user);
+
+    List<CommonFieldsBase> mixed = new ArrayList<>();
+    for (TestTable row : existing) {
+      row.setStringField(TestTable.stringField, "updated");
+      mixed.add(row);
+    }
+    mixed.addAll(buildRows(10));
+    ds.putEntities(mixed, user);
+
+    Query query = ds.createQuery(table, "putEntities_mixes_inserts_and_updates", user);
+    assertEquals(ROW_COUNT + 10, query.executeQuery().size());
+
+    Query updated = ds.createQuery(table, "putEntities_mixes_inserts_and_updates", user);
+    updated.addFilter(TestTable.stringField, Query.FilterOperation.EQUAL, "updated");
+    assertEquals(ROW_COUNT, updated.executeQuery().size());
+  }
+
+  @Test
+  public void deleteEntities_deletes_only_the_given_keys() throws ODKDatastoreException {
+    List<TestTable> rows = buildRows(ROW_COUNT);
+    ds.putEntities(rows, user);
+
+    List<EntityKey> keys = new ArrayList<>();
+    for (TestTable row : rows.subList(0, ROW_COUNT - 10)) {
+      keys.add(row.getEntityKey());
+    }
+    ds.deleteEntities(keys, user);
+
+    Set<String> expected = new HashSet<>();
+    for (TestTable row : rows.subList(ROW_COUNT - 10, ROW_COUNT)) {
+      expected.add(row.getUri());
+    }
+    Set<String> remaining = new HashSet<>();
+    for (CommonFieldsBase row : ds.createQuery(table, "deleteEntities_deletes_only_the_given_keys", user).executeQuery()) {
+      remaining.add(row.getUri());
+    }
+    assertEquals(expected, remaining);
+  }
+
+  @Test
+  public void deleteEntities_deletes_several_submissions_across_levels() throws ODKDatastoreException {
+    BinaryContentRefBlob bcbRef = new BinaryContentRefBlob(ds.getDefaultSchemaName(), "_bulk_test_vbn");
+    RefBlob ref = new RefBlob(ds.getDefaultSchemaName(), "_bulk_test_blb");
+    ds.assertRelation(bcbRef, user);
+    ds.assertRelation(ref, user);
+    try {
+      List<TestTable> rows = buildRows(4);
+      ds.putEntities(rows, user);
+
+      // keys in deletion order, one submission after another: the blob
+      // parts, then their references, then the top-level row.
+      List<EntityKey> keys = new ArrayList<>();
+      for (TestTable row : rows.subList(0, 3)) {
+        List<EntityKey> references = new ArrayList<>();
+        for (int part = 1; part <= 2; ++part) {
+          RefBlob blob = ds.createEntityUsingRelation(ref, user);
+          blob.setTopLevelAuri(row.getUri());
+          blob.setValue(new byte[] {(byte) part});
+          ds.putEntity(blob, user);
+          BinaryContentRefBlob bcb = ds.createEntityUsingRelation(bcbRef, user);
+          bcb.setTopLevelAuri(row.getUri());
+          bcb.setDomAuri(row.getUri());
+          bcb.setSubAuri(blob.getUri());
+          bcb.setPart((long) part);
+          ds.putEntity(bcb, user);
+          keys.add(blob.getEntityKey());
+          references.add(bcb.getEntityKey());
+        }
+        keys.addAll(references);
+        keys.add(row.getEntityKey());
+      }
+      ds.deleteEntities(keys, user);
+
+      assertEquals(0, ds.createQuery(ref, "deleteEntities_deletes_several_submissions_across_levels", user).executeQuery().size());
+      assertEquals(0, ds.createQuery(bcbRef, "deleteEntities_deletes_several_submissions_across_levels", user).executeQuery().size());
+      List<? extends CommonFieldsBase> remaining = ds.createQuery(table, "deleteEntities_deletes_several_submissions_across_levels", user).executeQuery();
+      assertEquals(1, remaining.size());
+      assertEquals(rows.get(3).getUri(), remaining.get(0).getUri());
+    } finally {
+      ds.dropRelation(bcbRef, user);
+      ds.dropRelation(ref, user);
+    }
+  }
+
+  private List<TestTable> buildRows(int count) {
+    List<TestTable> rows = new ArrayList<>();
+    for (int i = 0; i < count; ++i) {
+      TestTable row = ds.createEntityUsingRelation(table, user);
+      row.setStringField(TestTable.stringField, "row" + i);
+      row.setLongField(TestTable.integerField, (long) i);
+      row.setBooleanField(TestTable.booleanField, i % 2 == 0);
+      rows.add(row);
+    }
+    return rows;
+  }
+}
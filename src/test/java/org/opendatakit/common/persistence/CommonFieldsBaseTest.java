@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Test;
+import org.opendatakit.common.datamodel.RefBlob;
+import org.opendatakit.common.security.User;
+
+public class CommonFieldsBaseTest {
+
+  @Test
+  public void rows_store_values_by_field_position() {
+    User user = mock(User.class);
+    RefBlob prototype = new RefBlob("odk", "_fields_test_blb");
+    RefBlob row = prototype.getEmptyRow(user);
+
+    assertTrue(row.hasField(row.primaryKey));
+    assertFalse(row.hasField(row.lastUpdateUriUser));
+    row.setBlobField(row.value, new byte[]{3});
+    assertEquals(3, row.getBlobField(row.value)[0]);
+
+    // fields may be appended after rows have been created
+    DataField extra = new DataField("EXTRA", DataField.DataType.STRING, true, 10L);
+    row.addDataField(extra);
+    assertTrue(row.isNull(extra));
+    assertFalse(row.setStringField(extra, "longer than ten"));
+    assertEquals("longer tha", row.getStringField(extra));
+    row.setStringField(extra, null);
+    assertNull(row.getStringField(extra));
+
+    RefBlob otherRow = prototype.getEmptyRow(user);
+    assertTrue(otherRow.isNull(extra));
+    try {
+      otherRow.getStringField(extra);
+    } catch (IllegalArgumentException e) {
+      return;
+    }
+    throw new AssertionError("fields of other rows must be rejected");
+  }
+}
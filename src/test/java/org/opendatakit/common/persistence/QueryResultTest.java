@@ -17,6 +17,7 @@ package org.opendatakit.common.persistence;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.opendatakit.common.persistence.Query.Direction.ASCENDING;
 import static org.opendatakit.common.persistence.TestTable.booleanField;
 import static org.opendatakit.common.persistence.TestTable.dateField;
@@ -24,6 +25,7 @@ import static org.opendatakit.common.persistence.TestTable.doubleField;
 import static org.opendatakit.common.persistence.TestTable.integerField;
 import static org.opendatakit.common.persistence.TestTable.stringField;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -113,6 +115,18 @@ public class QueryResultTest {
     assertEquals(DATES.length, query.executeDistinctValueForDataField(dateField).size());
   }
 
+  @Test
+  public void query_executeQuery_value_set_filter() throws ODKDatastoreException {
+    Query query = ds.createQuery(table, "query_executeQuery_value_set_filter", user);
+    query.addValueSetFilter(stringField, Arrays.asList("A", "C"));
+
+    List<? extends CommonFieldsBase> rows = query.executeQuery();
+    assertEquals(TEST_ROWS.length / STRINGS.length * 2, rows.size());
+    for (CommonFieldsBase row : rows) {
+      assertFalse(row.getStringField(stringField).equals("B"));
+    }
+  }
+
   @Test
   public void query_executeQuery_unique_pks() throws ODKDatastoreException {
     // This test focuses on the insertions... it shouldn't be here
@@ -188,6 +202,29 @@ public class QueryResultTest {
     assertFalse(lastPage.hasMoreResults());
   }
 
+  @Test
+  public void query_executeQuery_forward_cursor_pages_through_ties() throws ODKDatastoreException {
+    // Every date is shared by a third of the rows, so each page resumes in the
+    // middle of a run of rows with the same dominant sort value
+    int pageSize = 7;
+    Set<String> pks = new HashSet<>();
+    int pages = 0;
+    QueryResumePoint cursor = null;
+    QueryResult page;
+    do {
+      Query query = ds.createQuery(table, "query_executeQuery_forward_cursor_pages_through_ties", user);
+      query.addSort(dateField, ASCENDING);
+      page = query.executeQuery(cursor, pageSize);
+      for (CommonFieldsBase cb : page.getResultList())
+        assertTrue(pks.add(cb.getUri()));
+      cursor = page.getResumeCursor();
+      pages++;
+    } while (page.hasMoreResults());
+
+    assertEquals(TEST_ROWS.length, pks.size());
+    assertEquals((TEST_ROWS.length + pageSize - 1) / pageSize, pages);
+  }
+
   private static synchronized TestTable createTestTable() throws ODKDatastoreException {
     System.out.println("Creating the test table");
     TestTable tablePrototype = new TestTable(ds.getDefaultSchemaName());
@@ -14,6 +14,8 @@
 package org.opendatakit.common.persistence;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -208,4 +210,47 @@ public class TaskLockTest {
 
     assertEquals(failure, false);
   }
+
+  private enum ShortLivedLockType implements ITaskLockType {
+    TESTING;
+
+    @Override
+    public long getLockExpirationTimeout() {
+      return 1000L;
+    }
+
+    @Override
+    public String getName() {
+      return name();
+    }
+
+    @Override
+    public long getMinSettleTime() {
+      return 0L;
+    }
+  }
+
+  @Test
+  public void verifyRenewalAndExpiry() throws Exception {
+    CallingContext cc = TestContextFactory.getCallingContext();
+    Datastore ds = cc.getDatastore();
+    User user = cc.getCurrentUser();
+    String resource = "TASK_LOCK_EXPIRY_TESTING";
+    String first = UUID.randomUUID().toString();
+    String second = UUID.randomUUID().toString();
+
+    assertTrue(ds.createTaskLock(user).obtainLock(first, resource, ShortLivedLockType.TESTING));
+    assertTrue(ds.createTaskLock(user).obtainLock(first, resource, ShortLivedLockType.TESTING));
+    assertFalse(ds.createTaskLock(user).obtainLock(second, resource, ShortLivedLockType.TESTING));
+    assertTrue(ds.createTaskLock(user).renewLock(first, resource, ShortLivedLockType.TESTING));
+    assertFalse(ds.createTaskLock(user).renewLock(second, resource, ShortLivedLockType.TESTING));
+
+    // a stale lock is taken over by the next request
+    Thread.sleep(1500L);
+    assertTrue(ds.createTaskLock(user).obtainLock(second, resource, ShortLivedLockType.TESTING));
+    assertFalse(ds.createTaskLock(user).renewLock(first, resource, ShortLivedLockType.TESTING));
+    assertTrue(ds.createTaskLock(user).releaseLock(second, resource, ShortLivedLockType.TESTING));
+    assertTrue(ds.createTaskLock(user).obtainLock(first, resource, ShortLivedLockType.TESTING));
+    assertTrue(ds.createTaskLock(user).releaseLock(first, resource, ShortLivedLockType.TESTING));
+  }
 }
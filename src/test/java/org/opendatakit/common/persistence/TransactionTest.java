@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.common.persistence.exception.ODKDatastoreException;
+import org.opendatakit.common.security.User;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+
+public class TransactionTest {
+  private Datastore ds;
+  private User user;
+  private TestTable table;
+
+  @Before
+  public void setUp() throws Exception {
+    CallingContext cc = TestContextFactory.getCallingContext();
+    ds = cc.getDatastore();
+    user = cc.getCurrentUser();
+    table = new TestTable(ds.getDefaultSchemaName());
+    ds.assertRelation(table, user);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    ds.dropRelation(table, user);
+  }
+
+  private TestTable row(String value) {
+    TestTable row = ds.createEntityUsingRelation(table, user);
+    row.setStringField(TestTable.stringField, value);
+    return row;
+  }
+
+  private int countRows() throws ODKDatastoreException {
+    return ds.createQuery(table, "TransactionTest.countRows", user).executeQuery().size();
+  }
+
+  @Test
+  public void rolled_back_writes_are_discarded() throws ODKDatastoreException {
+    Transaction transaction = ds.beginTransaction(user);
+    try {
+      ds.putEntity(row("a"), user);
+      ds.putEntities(Arrays.asList(row("b"), row("c")), user);
+      assertEquals(3, countRows());
+    } finally {
+      transaction.rollback();
+    }
+    assertEquals(0, countRows());
+  }
+
+  @Test
+  public void committed_writes_are_kept() throws ODKDatastoreException {
+    Transaction transaction = ds.beginTransaction(user);
+    try {
+      ds.putEntity(row("a"), user);
+      ds.putEntities(Arrays.asList(row("b"), row("c")), user);
+      transaction.commit();
+    } finally {
+      transaction.rollback();
+    }
+    assertEquals(3, countRows());
+  }
+}
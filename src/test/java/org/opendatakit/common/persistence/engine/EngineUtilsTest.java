@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.opendatakit.common.datamodel.BinaryContentRefBlob;
+import org.opendatakit.common.datamodel.RefBlob;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.EntityKey;
+
+public class EngineUtilsTest {
+
+  @Test
+  public void interleaved_relations_are_grouped_in_deletion_order() {
+    RefBlob parts = new RefBlob("odk", "_group_test_blb");
+    BinaryContentRefBlob references = new BinaryContentRefBlob("odk", "_group_test_vbn");
+    RefBlob submissions = new RefBlob("odk", "_group_test_top");
+
+    // two submissions, each deleted leaf first
+    List<EntityKey> keys = new ArrayList<EntityKey>();
+    for (String submission : Arrays.asList("a", "b")) {
+      keys.add(key(parts, submission + "1"));
+      keys.add(key(parts, submission + "2"));
+      keys.add(key(references, submission + "1"));
+      keys.add(key(submissions, submission));
+    }
+    // a later key on the leaf relation must stay behind the earlier groups
+    keys.add(key(new RefBlob("odk", "_group_test_blb"), "c1"));
+
+    List<List<EntityKey>> groups = EngineUtils.groupKeysByRelation(keys);
+
+    assertEquals(Arrays.asList(
+        Arrays.asList("a1", "a2"), Arrays.asList("a1"), Arrays.asList("a"),
+        Arrays.asList("b1", "b2"), Arrays.asList("b1"), Arrays.asList("b"),
+        Arrays.asList("c1")), uris(groups));
+  }
+
+  private static EntityKey key(CommonFieldsBase relation, String uri) {
+    return new EntityKey(relation, uri);
+  }
+
+  private static List<List<String>> uris(List<List<EntityKey>> groups) {
+    List<List<String>> uris = new ArrayList<List<String>>();
+    for (List<EntityKey> group : groups) {
+      List<String> groupUris = new ArrayList<String>();
+      for (EntityKey key : group) {
+        groupUris.add(key.getKey());
+      }
+      uris.add(groupUris);
+    }
+    return uris;
+  }
+}
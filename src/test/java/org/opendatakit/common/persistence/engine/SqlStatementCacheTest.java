@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.persistence.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Test;
+import org.opendatakit.common.datamodel.RefBlob;
+import org.opendatakit.common.persistence.CommonFieldsBase;
+import org.opendatakit.common.persistence.engine.SqlStatementCache.StatementType;
+import org.opendatakit.common.security.User;
+
+public class SqlStatementCacheTest {
+
+  private static String tableName(CommonFieldsBase relation) {
+    return relation.getTableName() + ":" + relation.getFieldList().size();
+  }
+
+  @Test
+  public void statements_are_cached_per_relation_prototype() {
+    SqlStatementCache cache = new SqlStatementCache();
+    RefBlob prototype = new RefBlob("odk", "_cache_test_blb");
+
+    assertEquals("_cache_test_blb:7", cache.getStatement(StatementType.SELECT, prototype, SqlStatementCacheTest::tableName));
+    assertEquals("_cache_test_blb:7", cache.getStatement(StatementType.SELECT, prototype, SqlStatementCacheTest::tableName));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+
+    // rows share the fields of their prototype
+    RefBlob row = prototype.getEmptyRow(mock(User.class));
+    cache.getStatement(StatementType.SELECT, row, SqlStatementCacheTest::tableName);
+    assertEquals(2, cache.getHitCount());
+
+    cache.getStatement(StatementType.INSERT, row, SqlStatementCacheTest::tableName);
+    cache.getStatement(StatementType.SELECT, new RefBlob("odk", "_cache_test_blb"), SqlStatementCacheTest::tableName);
+    assertEquals(3, cache.getMissCount());
+    assertEquals(3, cache.size());
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.security.spring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendatakit.common.web.CallingContext;
+import org.opendatakit.common.web.TestContextFactory;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+public class UserCacheImplTest {
+  private CallingContext cc;
+  private UserCacheImpl cache;
+
+  private static AggregateUser user(String name) {
+    return new AggregateUser(name, "hash", "salt", "-undefined-", true, true, true, true,
+        Collections.<GrantedAuthority>singleton(new SimpleGrantedAuthority("GROUP_DATA_COLLECTORS")));
+  }
+
+  @Before
+  public void setUp() {
+    cc = TestContextFactory.getCallingContext();
+    cache = new UserCacheImpl();
+    cache.setDatastore(cc.getDatastore());
+    cache.setUserService(cc.getUserService());
+    cache.afterPropertiesSet();
+  }
+
+  @Test
+  public void cached_users_keep_their_credentials() {
+    cache.putUserInCache(user("uid:collector"));
+
+    AggregateUser first = (AggregateUser) cache.getUserFromCache("uid:collector");
+    first.eraseCredentials();
+
+    UserDetails second = cache.getUserFromCache("uid:collector");
+    assertEquals("hash", second.getPassword());
+    assertEquals("salt", ((AggregateUser) second).getSalt());
+    assertEquals(1, second.getAuthorities().size());
+  }
+
+  @Test
+  public void users_expire_and_the_cache_is_bounded() throws InterruptedException {
+    cache.setMaxEntries(2);
+    cache.putUserInCache(user("uid:a"));
+    cache.putUserInCache(user("uid:b"));
+    cache.putUserInCache(user("uid:c"));
+    assertNull(cache.getUserFromCache("uid:a"));
+    assertNotNull(cache.getUserFromCache("uid:c"));
+
+    cache.setTimeToLiveSeconds(0);
+    cache.putUserInCache(user("uid:d"));
+    Thread.sleep(5);
+    assertNull(cache.getUserFromCache("uid:d"));
+  }
+
+  @Test
+  public void security_revisions_clear_the_cache() throws Exception {
+    cache.putUserInCache(user("uid:collector"));
+    assertNotNull(cache.getUserFromCache("uid:collector"));
+
+    SecurityRevisionsTable.setLastRegisteredUsersRevisionDate(cc.getDatastore(), cc.getCurrentUser());
+    // changes are looked for at most once a second
+    Thread.sleep(1100);
+    assertNull(cache.getUserFromCache("uid:collector"));
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.common.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpClientFactoryTest {
+  private HttpServer server;
+  private HttpClientFactory factory;
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      byte[] body = "ok".getBytes(UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    factory = new HttpClientFactory();
+  }
+
+  @After
+  public void tearDown() {
+    factory.destroy();
+    server.stop(0);
+  }
+
+  @Test
+  public void clients_reuse_the_pooled_connections() throws Exception {
+    String url = "http://localhost:" + server.getAddress().getPort() + "/";
+    SocketConfig socketConfig = SocketConfig.copy(SocketConfig.DEFAULT).setSoTimeout(5000).build();
+
+    for (int i = 0; i < 3; ++i) {
+      // a new client for each request, as the publishers do
+      CloseableHttpClient client = factory.createHttpClient(socketConfig, null, RequestConfig.DEFAULT);
+      HttpResponse response = client.execute(new HttpGet(url));
+      assertEquals("ok", EntityUtils.toString(response.getEntity()));
+      client.close();
+    }
+
+    assertEquals(3, factory.getConnectionsLeased());
+    assertEquals(1, factory.getConnectionsOpened());
+    assertEquals(2, factory.getConnectionsReused());
+    assertEquals(0, factory.getPoolStats().getLeased());
+    assertEquals(1, factory.getPoolStats().getAvailable());
+  }
+}